@@ -6,12 +6,16 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
 import edu.cmu.ri.createlab.device.CreateLabDevicePingFailureEventListener;
+import edu.cmu.ri.createlab.device.connectivity.BackpackedFinchDiscovery;
 import edu.cmu.ri.createlab.serial.commandline.SerialDeviceCommandLineApplication;
 import edu.cmu.ri.createlab.terk.robot.finch.BackpackedFinchController;
 import edu.cmu.ri.createlab.terk.robot.finch.FinchController;
 import edu.cmu.ri.createlab.terk.robot.finch.FinchHardwareType;
 import edu.cmu.ri.createlab.terk.robot.finch.HIDFinchController;
+import edu.cmu.ri.createlab.terk.robot.finch.net.FinchServer;
+import edu.cmu.ri.createlab.terk.robot.finch.net.RemoteFinchController;
 import edu.cmu.ri.createlab.terk.robot.finch.services.DefaultFinchServiceFactoryHelper;
 import edu.cmu.ri.createlab.terk.robot.finch.services.FinchServiceManager;
 import edu.cmu.ri.createlab.terk.services.ServiceManager;
@@ -147,6 +151,76 @@ public final class CommandLineFinch extends SerialDeviceCommandLineApplication
             }
          };
 
+   private final Runnable discoverBackpackedFinchAction =
+         new Runnable()
+         {
+         public void run()
+            {
+            if (isInitialized())
+               {
+               println("You are already connected to a finch.");
+               }
+            else
+               {
+               println("Probing all serial ports for a finch backpack...");
+               final BackpackedFinchDiscovery.ProbeResult result = new BackpackedFinchDiscovery().probeFirst();
+               if (result == null)
+                  {
+                  println("No finch backpack found.");
+                  }
+               else
+                  {
+                  println("Found a finch backpack on port [" + result.getSerialPortName() + "] in " + result.getLatency(TimeUnit.MILLISECONDS) + " ms.");
+                  finchController = result.getFinchController();
+                  initializeFinchControllerAfterCreation();
+                  }
+               }
+            }
+         };
+
+   private final Runnable connectToRemoteFinchAction =
+         new Runnable()
+         {
+         public void run()
+            {
+            if (isInitialized())
+               {
+               println("You are already connected to a finch.");
+               }
+            else
+               {
+               final String address = readString("Finch server host[:port]? [localhost:" + FinchServer.DEFAULT_PORT + "]: ");
+               if (address != null)
+                  {
+                  String hostName = address.trim();
+                  int port = FinchServer.DEFAULT_PORT;
+                  final int colonIndex = hostName.lastIndexOf(':');
+                  if (colonIndex >= 0)
+                     {
+                     try
+                        {
+                        port = Integer.parseInt(hostName.substring(colonIndex + 1).trim());
+                        }
+                     catch (NumberFormatException e)
+                        {
+                        println("Invalid port");
+                        return;
+                        }
+                     hostName = hostName.substring(0, colonIndex).trim();
+                     }
+                  if ("".equals(hostName))
+                     {
+                     hostName = "localhost";
+                     }
+
+                  println("Attempting to connect to the finch server at [" + hostName + ":" + port + "]...");
+                  finchController = RemoteFinchController.create(hostName, port);
+                  initializeFinchControllerAfterCreation();
+                  }
+               }
+            }
+         };
+
    private final Runnable disconnectFromFinchAction =
          new Runnable()
          {
@@ -634,6 +708,8 @@ public final class CommandLineFinch extends SerialDeviceCommandLineApplication
 
       registerAction("C", connectToHIDFinchAction);
       registerAction("c", connectToBackpackedFinchAction);
+      registerAction("B", discoverBackpackedFinchAction);
+      registerAction("R", connectToRemoteFinchAction);
       registerAction("d", disconnectFromFinchAction);
       registerAction("f", fullColorLEDAction);
       registerAction("a", getAccelerometerStateAction);
@@ -673,6 +749,8 @@ public final class CommandLineFinch extends SerialDeviceCommandLineApplication
       println("");
       println("C         Connect to the finch via USB");
       println("c         Connect to the finch with backpack via bluetooth");
+      println("B         Connect to the first finch backpack found on any serial port");
+      println("R         Connect to a finch shared by a finch server on another computer");
       println("d         Disconnect from the finch");
       println("");
       println("f         Control the full-color LED");
@@ -0,0 +1,40 @@
+package edu.cmu.ri.createlab.terk.robot.finch.benchmarks;
+
+/**
+ * <p>
+ * <code>Benchmark</code> is a single measurement run by the {@link BenchmarkRunner}.  Subclasses perform the
+ * operation being measured in a loop in {@link #run(int)}, and must fold the results of the operations into the
+ * returned value so that the JIT can't optimize them away.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+abstract class Benchmark
+   {
+   private final String name;
+
+   Benchmark(final String name)
+      {
+      this.name = name;
+      }
+
+   final String getName()
+      {
+      return name;
+      }
+
+   /** Called once before warmup begins. */
+   void setUp() throws Exception
+      {
+      }
+
+   /** Called once after measurement ends. */
+   void tearDown()
+      {
+      }
+
+   /**
+    * Performs the operation <code>numOperations</code> times and returns a value derived from every result.
+    */
+   abstract long run(final int numOperations) throws Exception;
+   }
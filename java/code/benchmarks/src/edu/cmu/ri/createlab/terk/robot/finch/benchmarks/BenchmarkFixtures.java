@@ -0,0 +1,60 @@
+package edu.cmu.ri.createlab.terk.robot.finch.benchmarks;
+
+import edu.cmu.ri.createlab.terk.robot.finch.BackpackedFinchController;
+import edu.cmu.ri.createlab.terk.robot.finch.FinchController;
+import edu.cmu.ri.createlab.terk.robot.finch.FinchProperties;
+import edu.cmu.ri.createlab.terk.robot.finch.HIDFinchController;
+import edu.cmu.ri.createlab.terk.robot.finch.simulator.EmulatedHIDDevice;
+import edu.cmu.ri.createlab.terk.robot.finch.simulator.EmulatedSerialDeviceCommandExecutionQueue;
+import edu.cmu.ri.createlab.terk.robot.finch.simulator.FinchFirmwareEmulator;
+import edu.cmu.ri.createlab.terk.robot.finch.simulator.FinchSimulator;
+
+/**
+ * Creates the finch controllers used by the benchmarks, which talk to a {@link FinchFirmwareEmulator} in place of a
+ * real finch.
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+final class BenchmarkFixtures
+   {
+   /** Returns a {@link HIDFinchController} talking to an {@link EmulatedHIDDevice}. */
+   static FinchController createHIDFinchController()
+      {
+      final EmulatedHIDDevice hidDevice = new EmulatedHIDDevice(createEmulator());
+      hidDevice.connectExclusively();
+      return HIDFinchController.create(hidDevice);
+      }
+
+   /** Returns a {@link BackpackedFinchController} talking to an emulated serial port. */
+   static FinchController createBackpackedFinchController()
+      {
+      return BackpackedFinchController.create(new EmulatedSerialDeviceCommandExecutionQueue(createEmulator()), "emulator");
+      }
+
+   static FinchProperties getHIDFinchProperties()
+      {
+      final FinchController finchController = createHIDFinchController();
+      final FinchProperties finchProperties = finchController.getFinchProperties();
+      finchController.disconnect();
+      return finchProperties;
+      }
+
+   static FinchProperties getBackpackedFinchProperties()
+      {
+      final FinchController finchController = createBackpackedFinchController();
+      final FinchProperties finchProperties = finchController.getFinchProperties();
+      finchController.disconnect();
+      return finchProperties;
+      }
+
+   private static FinchFirmwareEmulator createEmulator()
+      {
+      // the simulated clock only advances when told to, so the sensor values are steady
+      return new FinchFirmwareEmulator(new FinchSimulator(false, FinchSimulator.DEFAULT_ARENA_SIZE_IN_CM));
+      }
+
+   private BenchmarkFixtures()
+      {
+      // private to prevent instantiation
+      }
+   }
@@ -0,0 +1,162 @@
+package edu.cmu.ri.createlab.terk.robot.finch.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * <code>BenchmarkRunner</code> runs the finch-core benchmarks and prints the average time per operation for each.
+ * Each benchmark is calibrated so that an iteration takes roughly <code>finch.benchmarks.iteration-millis</code>
+ * milliseconds (default 500), run for <code>finch.benchmarks.warmup-iterations</code> iterations (default 5) to let
+ * the JIT settle, and then measured over <code>finch.benchmarks.measurement-iterations</code> iterations (default 10).
+ * </p>
+ * <p>
+ * The optional command line arguments are substrings of benchmark names; if given, only the benchmarks whose names
+ * contain one of them are run.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+@SuppressWarnings({"UseOfSystemOutOrSystemErr"})
+public final class BenchmarkRunner
+   {
+   private static final String PROPERTY_PREFIX = "finch.benchmarks.";
+
+   /** Accumulates the values returned by the benchmarks so that they can't be optimized away. */
+   private static volatile long sink = 0;
+
+   public static void main(final String[] args)
+      {
+      // keep debug logging out of the measurements
+      BasicConfigurator.configure();
+      Logger.getRootLogger().setLevel(Level.WARN);
+
+      final BenchmarkRunner runner = new BenchmarkRunner(Integer.getInteger(PROPERTY_PREFIX + "warmup-iterations", 5),
+                                                         Integer.getInteger(PROPERTY_PREFIX + "measurement-iterations", 10),
+                                                         Integer.getInteger(PROPERTY_PREFIX + "iteration-millis", 500));
+
+      final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+      benchmarks.addAll(CommandEncodingBenchmarks.createBenchmarks());
+      benchmarks.addAll(ResponseDecodingBenchmarks.createBenchmarks());
+      benchmarks.addAll(UnitConversionBenchmarks.createBenchmarks());
+      benchmarks.addAll(MetricsBenchmarks.createBenchmarks());
+      benchmarks.addAll(FinchBenchmarks.createBenchmarks());
+      benchmarks.addAll(FinchServerBenchmarks.createBenchmarks());
+
+      System.out.println(String.format(Locale.US, "%-50s %14s %12s %16s", "Benchmark", "ns/op", "stddev", "ops/s"));
+      for (final Benchmark benchmark : benchmarks)
+         {
+         if (isSelected(benchmark, args))
+            {
+            runner.run(benchmark);
+            }
+         }
+      System.exit(0);
+      }
+
+   private static boolean isSelected(final Benchmark benchmark, final String[] filters)
+      {
+      if (filters == null || filters.length == 0)
+         {
+         return true;
+         }
+      for (final String filter : filters)
+         {
+         if (benchmark.getName().contains(filter))
+            {
+            return true;
+            }
+         }
+      return false;
+      }
+
+   private final int warmupIterations;
+   private final int measurementIterations;
+   private final long iterationNanos;
+
+   private BenchmarkRunner(final int warmupIterations, final int measurementIterations, final int iterationMillis)
+      {
+      this.warmupIterations = Math.max(0, warmupIterations);
+      this.measurementIterations = Math.max(1, measurementIterations);
+      this.iterationNanos = Math.max(1, iterationMillis) * 1000000L;
+      }
+
+   private void run(final Benchmark benchmark)
+      {
+      try
+         {
+         benchmark.setUp();
+         try
+            {
+            final int numOperations = calibrate(benchmark);
+            for (int i = 0; i < warmupIterations; i++)
+               {
+               measure(benchmark, numOperations);
+               }
+
+            final double[] nanosPerOperation = new double[measurementIterations];
+            for (int i = 0; i < measurementIterations; i++)
+               {
+               nanosPerOperation[i] = measure(benchmark, numOperations);
+               }
+            print(benchmark, nanosPerOperation);
+            }
+         finally
+            {
+            benchmark.tearDown();
+            }
+         }
+      catch (Exception e)
+         {
+         System.out.println(String.format(Locale.US, "%-50s failed: %s", benchmark.getName(), e));
+         }
+      }
+
+   /** Returns the number of operations which take roughly one iteration's time. */
+   private int calibrate(final Benchmark benchmark) throws Exception
+      {
+      int numOperations = 1;
+      while (true)
+         {
+         final long start = System.nanoTime();
+         sink += benchmark.run(numOperations);
+         final long elapsed = System.nanoTime() - start;
+         if (elapsed >= iterationNanos / 10 || numOperations >= Integer.MAX_VALUE / 2)
+            {
+            final double scaled = (double)numOperations * iterationNanos / Math.max(1, elapsed);
+            return (int)Math.max(1, Math.min(Integer.MAX_VALUE, scaled));
+            }
+         numOperations *= 2;
+         }
+      }
+
+   private double measure(final Benchmark benchmark, final int numOperations) throws Exception
+      {
+      final long start = System.nanoTime();
+      sink += benchmark.run(numOperations);
+      return (double)(System.nanoTime() - start) / numOperations;
+      }
+
+   private void print(final Benchmark benchmark, final double[] nanosPerOperation)
+      {
+      double sum = 0;
+      for (final double value : nanosPerOperation)
+         {
+         sum += value;
+         }
+      final double mean = sum / nanosPerOperation.length;
+
+      double sumOfSquares = 0;
+      for (final double value : nanosPerOperation)
+         {
+         sumOfSquares += (value - mean) * (value - mean);
+         }
+      final double standardDeviation = nanosPerOperation.length > 1 ? Math.sqrt(sumOfSquares / (nanosPerOperation.length - 1)) : 0;
+
+      System.out.println(String.format(Locale.US, "%-50s %14.2f %12.2f %16.0f", benchmark.getName(), mean, standardDeviation, 1e9 / mean));
+      }
+   }
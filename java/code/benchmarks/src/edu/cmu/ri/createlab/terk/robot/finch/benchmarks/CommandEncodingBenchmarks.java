@@ -0,0 +1,143 @@
+package edu.cmu.ri.createlab.terk.robot.finch.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import edu.cmu.ri.createlab.terk.robot.finch.FinchProperties;
+import edu.cmu.ri.createlab.terk.robot.finch.commands.AnalogInputCommandStrategyHelper;
+import edu.cmu.ri.createlab.terk.robot.finch.commands.BuzzerCommandStrategyHelper;
+import edu.cmu.ri.createlab.terk.robot.finch.commands.FullColorLEDCommandStrategyHelper;
+import edu.cmu.ri.createlab.terk.robot.finch.commands.GetAccelerometerCommandStrategyHelper;
+import edu.cmu.ri.createlab.terk.robot.finch.commands.MotorVelocityCommandStrategyHelper;
+
+/**
+ * Benchmarks the encoding of commands by the <code>*CommandStrategyHelper</code> classes.
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+final class CommandEncodingBenchmarks
+   {
+   static List<Benchmark> createBenchmarks()
+      {
+      final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+      benchmarks.add(
+            new Benchmark("encode.motorVelocities")
+            {
+            private MotorVelocityCommandStrategyHelper helper;
+
+            @Override
+            void setUp()
+               {
+               helper = new MotorVelocityCommandStrategyHelper(BenchmarkFixtures.getHIDFinchProperties());
+               }
+
+            @Override
+            long run(final int numOperations)
+               {
+               long result = 0;
+               for (int i = 0; i < numOperations; i++)
+                  {
+                  final byte[] command = helper.getCommand((i % 511) - 255, 255 - (i % 511));
+                  result += command[2] + command[4];
+                  }
+               return result;
+               }
+            });
+
+      benchmarks.add(
+            new Benchmark("encode.fullColorLED")
+            {
+            private FullColorLEDCommandStrategyHelper helper;
+
+            @Override
+            void setUp()
+               {
+               helper = new FullColorLEDCommandStrategyHelper(BenchmarkFixtures.getHIDFinchProperties());
+               }
+
+            @Override
+            long run(final int numOperations)
+               {
+               long result = 0;
+               for (int i = 0; i < numOperations; i++)
+                  {
+                  final byte[] command = helper.getCommand(i & 255, (i >> 8) & 255, (i >> 16) & 255);
+                  result += command[1] + command[2] + command[3];
+                  }
+               return result;
+               }
+            });
+
+      benchmarks.add(
+            new Benchmark("encode.buzzer")
+            {
+            private BuzzerCommandStrategyHelper helper;
+
+            @Override
+            void setUp()
+               {
+               helper = new BuzzerCommandStrategyHelper(BenchmarkFixtures.getHIDFinchProperties());
+               }
+
+            @Override
+            long run(final int numOperations)
+               {
+               long result = 0;
+               for (int i = 0; i < numOperations; i++)
+                  {
+                  final byte[] command = helper.getCommand(i & 8191, i & 1023);
+                  result += command[2] + command[4];
+                  }
+               return result;
+               }
+            });
+
+      benchmarks.add(
+            new Benchmark("encode.accelerometer")
+            {
+            private final GetAccelerometerCommandStrategyHelper helper = new GetAccelerometerCommandStrategyHelper();
+
+            @Override
+            long run(final int numOperations)
+               {
+               long result = 0;
+               for (int i = 0; i < numOperations; i++)
+                  {
+                  result += helper.getCommand()[0];
+                  }
+               return result;
+               }
+            });
+
+      benchmarks.add(
+            new Benchmark("encode.analogInput")
+            {
+            private AnalogInputCommandStrategyHelper helper;
+
+            @Override
+            void setUp()
+               {
+               final FinchProperties finchProperties = BenchmarkFixtures.getBackpackedFinchProperties();
+               helper = new AnalogInputCommandStrategyHelper(finchProperties.getAnalogInputDeviceCount() - 1, finchProperties);
+               }
+
+            @Override
+            long run(final int numOperations)
+               {
+               long result = 0;
+               for (int i = 0; i < numOperations; i++)
+                  {
+                  result += helper.getCommand()[1];
+                  }
+               return result;
+               }
+            });
+
+      return benchmarks;
+      }
+
+   private CommandEncodingBenchmarks()
+      {
+      // private to prevent instantiation
+      }
+   }
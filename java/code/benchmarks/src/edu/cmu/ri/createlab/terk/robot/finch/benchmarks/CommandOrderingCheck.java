@@ -0,0 +1,138 @@
+package edu.cmu.ri.createlab.terk.robot.finch.benchmarks;
+
+import java.awt.Color;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import edu.cmu.ri.createlab.terk.robot.finch.AsyncFinchController;
+import edu.cmu.ri.createlab.terk.robot.finch.BackpackedFinchController;
+import edu.cmu.ri.createlab.terk.robot.finch.FinchController;
+import edu.cmu.ri.createlab.terk.robot.finch.HIDFinchController;
+import edu.cmu.ri.createlab.terk.robot.finch.SimulatedFinchController;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.CommandBarrier;
+import edu.cmu.ri.createlab.terk.robot.finch.simulator.EmulatedHIDDevice;
+import edu.cmu.ri.createlab.terk.robot.finch.simulator.EmulatedSerialDeviceCommandExecutionQueue;
+import edu.cmu.ri.createlab.terk.robot.finch.simulator.FinchFirmwareEmulator;
+import edu.cmu.ri.createlab.terk.robot.finch.simulator.FinchSimulator;
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * <code>CommandOrderingCheck</code> checks that each controller sends an actuator setpoint submitted before a
+ * {@link CommandBarrier barrier} command ahead of it, rather than a setpoint submitted afterwards.  For each of the
+ * HID, backpacked, and simulated controllers, it holds the command queue at a barrier, submits LED color A, a motor
+ * command with a barrier, and LED color B, and then checks that the finch shows A while the motor command is waiting,
+ * and B once it has run.
+ * </p>
+ * <p>
+ * Prints the result for each controller, and exits with a non-zero status if any check fails.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+@SuppressWarnings({"UseOfSystemOutOrSystemErr"})
+public final class CommandOrderingCheck
+   {
+   private static final long TIMEOUT_IN_SECONDS = 10;
+
+   private static final Color COLOR_A = new Color(10, 20, 30);
+   private static final Color COLOR_B = new Color(40, 50, 60);
+   private static final int VELOCITY = 100;
+
+   public static void main(final String[] args)
+      {
+      BasicConfigurator.configure();
+      Logger.getRootLogger().setLevel(Level.WARN);
+
+      boolean passed = true;
+
+      final FinchSimulator hidSimulator = createSimulator();
+      final EmulatedHIDDevice hidDevice = new EmulatedHIDDevice(new FinchFirmwareEmulator(hidSimulator));
+      hidDevice.connectExclusively();
+      passed &= check("HIDFinchController", HIDFinchController.create(hidDevice), hidSimulator);
+
+      final FinchSimulator backpackedSimulator = createSimulator();
+      passed &= check("BackpackedFinchController",
+                      BackpackedFinchController.create(new EmulatedSerialDeviceCommandExecutionQueue(new FinchFirmwareEmulator(backpackedSimulator)), "emulator"),
+                      backpackedSimulator);
+
+      final FinchSimulator simulator = createSimulator();
+      passed &= check("SimulatedFinchController", SimulatedFinchController.create(simulator), simulator);
+
+      System.exit(passed ? 0 : 1);
+      }
+
+   private static FinchSimulator createSimulator()
+      {
+      return new FinchSimulator(false, FinchSimulator.DEFAULT_ARENA_SIZE_IN_CM);
+      }
+
+   private static boolean check(final String name, final FinchController finchController, final FinchSimulator simulator)
+      {
+      try
+         {
+         final String failure = checkOrdering(finchController, simulator);
+         System.out.println(name + ": " + (failure == null ? "passed" : "FAILED: " + failure));
+         return failure == null;
+         }
+      catch (Exception e)
+         {
+         System.out.println(name + ": FAILED: " + e);
+         return false;
+         }
+      finally
+         {
+         finchController.disconnect();
+         }
+      }
+
+   /** Returns <code>null</code> if the setpoints were sent in order, or a description of what went wrong. */
+   private static String checkOrdering(final FinchController finchController, final FinchSimulator simulator) throws Exception
+      {
+      final AsyncFinchController asyncFinchController = finchController.getAsyncFinchController();
+
+      // each barrier's other party is this thread, which releases the barrier by withdrawing from it
+      final CommandBarrier queueBarrier = new CommandBarrier(2, TIMEOUT_IN_SECONDS, TimeUnit.SECONDS);
+      final CommandBarrier motorBarrier = new CommandBarrier(2, TIMEOUT_IN_SECONDS, TimeUnit.SECONDS);
+
+      // hold the queue, so that everything below is submitted before any of it runs
+      final Future<Boolean> holdFuture = asyncFinchController.setMotorVelocities(0, 0, queueBarrier);
+      final Future<Boolean> colorAFuture = asyncFinchController.setFullColorLED(COLOR_A);
+      final Future<Boolean> motorFuture = asyncFinchController.setMotorVelocities(VELOCITY, VELOCITY, motorBarrier);
+      final Future<Boolean> colorBFuture = asyncFinchController.setFullColorLED(COLOR_B);
+
+      queueBarrier.withdraw();
+      holdFuture.get(TIMEOUT_IN_SECONDS, TimeUnit.SECONDS);
+      colorAFuture.get(TIMEOUT_IN_SECONDS, TimeUnit.SECONDS);
+
+      // the motor command is now waiting at its barrier, and color B is queued behind it
+      if (!COLOR_A.equals(simulator.getFullColorLED()))
+         {
+         return "expected color " + COLOR_A + " before the barrier command, but the finch showed " + simulator.getFullColorLED();
+         }
+      if (simulator.getLeftVelocity() != 0)
+         {
+         return "the barrier command ran before its barrier was released";
+         }
+
+      motorBarrier.withdraw();
+      motorFuture.get(TIMEOUT_IN_SECONDS, TimeUnit.SECONDS);
+      colorBFuture.get(TIMEOUT_IN_SECONDS, TimeUnit.SECONDS);
+
+      if (simulator.getLeftVelocity() != VELOCITY)
+         {
+         return "expected velocity " + VELOCITY + " after the barrier command, but the finch showed " + simulator.getLeftVelocity();
+         }
+      if (!COLOR_B.equals(simulator.getFullColorLED()))
+         {
+         return "expected color " + COLOR_B + " after the barrier command, but the finch showed " + simulator.getFullColorLED();
+         }
+      return null;
+      }
+
+   private CommandOrderingCheck()
+      {
+      // private to prevent instantiation
+      }
+   }
@@ -0,0 +1,426 @@
+package edu.cmu.ri.createlab.terk.robot.finch.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import edu.cmu.ri.createlab.device.connectivity.SimulatedFinchConnectivityManager;
+import edu.cmu.ri.createlab.terk.robot.finch.AsyncFinchController;
+import edu.cmu.ri.createlab.terk.robot.finch.Finch;
+import edu.cmu.ri.createlab.terk.robot.finch.FinchController;
+import edu.cmu.ri.createlab.terk.robot.finch.FinchSensorSnapshot;
+
+/**
+ * <p>
+ * Benchmarks calls through the {@link Finch} facade against a simulated finch, which measures the cost of the facade,
+ * controller, and command queue without any I/O.  Also benchmarks the HID and backpacked controllers talking to a
+ * firmware emulator, which adds the cost of encoding and decoding every command at the byte level.  The threaded
+ * benchmarks read the sensors from several threads at once, as a plotter, a game loop, and the pinger would.
+ * </p>
+ * <p>
+ * The emergency stop benchmarks measure the worst-case stop latency: each stop is timed to completion while another
+ * thread floods the command queue with motor and LED commands.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+final class FinchBenchmarks
+   {
+   static List<Benchmark> createBenchmarks()
+      {
+      final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+      benchmarks.add(
+            new FacadeBenchmark("finch.getAccelerations")
+            {
+            @Override
+            long run(final int numOperations)
+               {
+               double result = 0;
+               for (int i = 0; i < numOperations; i++)
+                  {
+                  result += finch.getAccelerations()[2];
+                  }
+               return (long)result;
+               }
+            });
+
+      benchmarks.add(
+            new FacadeBenchmark("finch.getAccelerations.sampled")
+            {
+            @Override
+            void setUp()
+               {
+               super.setUp();
+               finch.startSensorSampling(10, 1000);
+               }
+
+            @Override
+            long run(final int numOperations)
+               {
+               double result = 0;
+               for (int i = 0; i < numOperations; i++)
+                  {
+                  result += finch.getAccelerations()[2];
+                  }
+               return (long)result;
+               }
+            });
+
+      benchmarks.add(
+            new FacadeBenchmark("finch.getLightSensors")
+            {
+            @Override
+            long run(final int numOperations)
+               {
+               long result = 0;
+               for (int i = 0; i < numOperations; i++)
+                  {
+                  result += finch.getLightSensors()[0];
+                  }
+               return result;
+               }
+            });
+
+      benchmarks.add(
+            new FacadeBenchmark("finch.getObstacleSensors")
+            {
+            @Override
+            long run(final int numOperations)
+               {
+               long result = 0;
+               for (int i = 0; i < numOperations; i++)
+                  {
+                  result += finch.getObstacleSensors()[0] ? 1 : 0;
+                  }
+               return result;
+               }
+            });
+
+      benchmarks.add(
+            new FacadeBenchmark("finch.getTemperature")
+            {
+            @Override
+            long run(final int numOperations)
+               {
+               double result = 0;
+               for (int i = 0; i < numOperations; i++)
+                  {
+                  result += finch.getTemperature();
+                  }
+               return (long)result;
+               }
+            });
+
+      benchmarks.add(
+            new FacadeBenchmark("finch.setLED")
+            {
+            @Override
+            long run(final int numOperations)
+               {
+               for (int i = 0; i < numOperations; i++)
+                  {
+                  finch.setLED(i & 255, (i >> 8) & 255, (i >> 16) & 255);
+                  }
+               return numOperations;
+               }
+            });
+
+      benchmarks.add(
+            new FacadeBenchmark("finch.setWheelVelocities")
+            {
+            @Override
+            long run(final int numOperations)
+               {
+               for (int i = 0; i < numOperations; i++)
+                  {
+                  finch.setWheelVelocities((i % 511) - 255, 255 - (i % 511));
+                  }
+               return numOperations;
+               }
+            });
+
+      benchmarks.add(
+            new ControllerBenchmark("hid.getSensorSnapshot", false)
+            {
+            @Override
+            long run(final int numOperations)
+               {
+               long result = 0;
+               for (int i = 0; i < numOperations; i++)
+                  {
+                  final FinchSensorSnapshot snapshot = finchController.getSensorSnapshot();
+                  result += snapshot.getThermistor();
+                  }
+               return result;
+               }
+            });
+
+      benchmarks.add(
+            new ControllerBenchmark("hid.setMotorVelocities", false)
+            {
+            @Override
+            long run(final int numOperations)
+               {
+               long result = 0;
+               for (int i = 0; i < numOperations; i++)
+                  {
+                  result += finchController.setMotorVelocities((i % 511) - 255, 255 - (i % 511)) ? 1 : 0;
+                  }
+               return result;
+               }
+            });
+
+      benchmarks.add(
+            new ControllerBenchmark("serial.getSensorSnapshot", true)
+            {
+            @Override
+            long run(final int numOperations)
+               {
+               long result = 0;
+               for (int i = 0; i < numOperations; i++)
+                  {
+                  final FinchSensorSnapshot snapshot = finchController.getSensorSnapshot();
+                  result += snapshot.getThermistor();
+                  }
+               return result;
+               }
+            });
+
+      benchmarks.add(
+            new ControllerBenchmark("serial.setMotorVelocities", true)
+            {
+            @Override
+            long run(final int numOperations)
+               {
+               long result = 0;
+               for (int i = 0; i < numOperations; i++)
+                  {
+                  result += finchController.setMotorVelocities((i % 511) - 255, 255 - (i % 511)) ? 1 : 0;
+                  }
+               return result;
+               }
+            });
+
+      benchmarks.add(
+            new FloodedControllerBenchmark("hid.emergencyStop.flooded", false)
+            {
+            @Override
+            long run(final int numOperations)
+               {
+               long result = 0;
+               for (int i = 0; i < numOperations; i++)
+                  {
+                  result += finchController.emergencyStop() ? 1 : 0;
+                  }
+               return result;
+               }
+            });
+
+      benchmarks.add(
+            new FloodedControllerBenchmark("serial.emergencyStop.flooded", true)
+            {
+            @Override
+            long run(final int numOperations)
+               {
+               long result = 0;
+               for (int i = 0; i < numOperations; i++)
+                  {
+                  result += finchController.emergencyStop() ? 1 : 0;
+                  }
+               return result;
+               }
+            });
+
+      for (final int numThreads : new int[]{1, 4, 16})
+         {
+         benchmarks.add(
+               new ThreadedControllerBenchmark("hid.getAccelerometerState." + numThreads + "threads", numThreads)
+               {
+               @Override
+               long read()
+                  {
+                  return finchController.getAccelerometerState().getZ();
+                  }
+               });
+         benchmarks.add(
+               new ThreadedControllerBenchmark("hid.getPhotoresistors." + numThreads + "threads", numThreads)
+               {
+               @Override
+               long read()
+                  {
+                  return finchController.getPhotoresistors()[0];
+                  }
+               });
+         }
+
+      return benchmarks;
+      }
+
+   private abstract static class FacadeBenchmark extends Benchmark
+      {
+      protected Finch finch;
+
+      private FacadeBenchmark(final String name)
+         {
+         super(name);
+         }
+
+      @Override
+      void setUp()
+         {
+         finch = new Finch(new SimulatedFinchConnectivityManager());
+         }
+
+      @Override
+      final void tearDown()
+         {
+         finch.quit();
+         }
+      }
+
+   private abstract static class ControllerBenchmark extends Benchmark
+      {
+      private final boolean isBackpacked;
+      protected FinchController finchController;
+
+      private ControllerBenchmark(final String name, final boolean isBackpacked)
+         {
+         super(name);
+         this.isBackpacked = isBackpacked;
+         }
+
+      @Override
+      final void setUp()
+         {
+         finchController = isBackpacked ? BenchmarkFixtures.createBackpackedFinchController() : BenchmarkFixtures.createHIDFinchController();
+         }
+
+      @Override
+      final void tearDown()
+         {
+         finchController.disconnect();
+         }
+      }
+
+   /** Keeps the controller's command queue full of motor and LED commands, submitted from another thread. */
+   private abstract static class FloodedControllerBenchmark extends Benchmark
+      {
+      private final boolean isBackpacked;
+      private ExecutorService executor;
+      private volatile boolean isFlooding = false;
+      protected FinchController finchController;
+
+      private FloodedControllerBenchmark(final String name, final boolean isBackpacked)
+         {
+         super(name);
+         this.isBackpacked = isBackpacked;
+         }
+
+      @Override
+      final void setUp()
+         {
+         finchController = isBackpacked ? BenchmarkFixtures.createBackpackedFinchController() : BenchmarkFixtures.createHIDFinchController();
+         executor = Executors.newSingleThreadExecutor();
+         isFlooding = true;
+         executor.execute(
+               new Runnable()
+               {
+               public void run()
+                  {
+                  final AsyncFinchController asyncFinchController = finchController.getAsyncFinchController();
+                  for (int i = 0; isFlooding; i++)
+                     {
+                     asyncFinchController.setMotorVelocities((i % 511) - 255, 255 - (i % 511));
+                     asyncFinchController.setFullColorLED(i & 255, (i >> 8) & 255, (i >> 16) & 255);
+                     }
+                  }
+               });
+         }
+
+      @Override
+      final void tearDown()
+         {
+         // let the flooding thread finish its last submission before disconnecting from under it
+         isFlooding = false;
+         executor.shutdown();
+         try
+            {
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+            }
+         catch (InterruptedException ignored)
+            {
+            Thread.currentThread().interrupt();
+            }
+         finchController.disconnect();
+         }
+      }
+
+   /** Splits the operations evenly among the given number of threads, each reading from the same controller. */
+   private abstract static class ThreadedControllerBenchmark extends Benchmark
+      {
+      private final int numThreads;
+      private ExecutorService executor;
+      protected FinchController finchController;
+
+      private ThreadedControllerBenchmark(final String name, final int numThreads)
+         {
+         super(name);
+         this.numThreads = numThreads;
+         }
+
+      @Override
+      final void setUp()
+         {
+         finchController = BenchmarkFixtures.createHIDFinchController();
+         executor = Executors.newFixedThreadPool(numThreads);
+         }
+
+      /** Performs one read, and returns a value derived from its result. */
+      abstract long read();
+
+      @Override
+      final long run(final int numOperations) throws Exception
+         {
+         final List<Future<Long>> futures = new ArrayList<Future<Long>>();
+         for (int i = 0; i < numThreads; i++)
+            {
+            final int numOperationsForThread = numOperations / numThreads + (i < numOperations % numThreads ? 1 : 0);
+            futures.add(executor.submit(
+                  new Callable<Long>()
+                  {
+                  public Long call()
+                     {
+                     long result = 0;
+                     for (int j = 0; j < numOperationsForThread; j++)
+                        {
+                        result += read();
+                        }
+                     return result;
+                     }
+                  }));
+            }
+         long result = 0;
+         for (final Future<Long> future : futures)
+            {
+            result += future.get();
+            }
+         return result;
+         }
+
+      @Override
+      final void tearDown()
+         {
+         executor.shutdownNow();
+         finchController.disconnect();
+         }
+      }
+
+   private FinchBenchmarks()
+      {
+      // private to prevent instantiation
+      }
+   }
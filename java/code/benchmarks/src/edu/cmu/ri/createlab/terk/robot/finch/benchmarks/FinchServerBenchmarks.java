@@ -0,0 +1,238 @@
+package edu.cmu.ri.createlab.terk.robot.finch.benchmarks;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import edu.cmu.ri.createlab.terk.robot.finch.FinchController;
+import edu.cmu.ri.createlab.terk.robot.finch.SimulatedFinchController;
+import edu.cmu.ri.createlab.terk.robot.finch.net.FinchProtocol;
+import edu.cmu.ri.createlab.terk.robot.finch.net.FinchServer;
+import edu.cmu.ri.createlab.terk.robot.finch.net.RemoteFinchController;
+
+/**
+ * <p>
+ * Benchmarks the throughput of a {@link FinchServer} on localhost, serving a simulated finch to 1, 10, and 100
+ * clients.  In each round, every client pipelines a window of requests and then reads all of their responses, so the
+ * reported operations per second are the commands per second served across all clients.  The ping benchmarks measure
+ * the server alone; the LED benchmarks add the cost of the simulated controller.  The remote benchmarks drive the
+ * server through a {@link RemoteFinchController}, either one call at a time or with a window of async calls in flight.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+final class FinchServerBenchmarks
+   {
+   /** The number of requests each client sends before reading any responses. */
+   private static final int WINDOW_SIZE = 32;
+
+   static List<Benchmark> createBenchmarks()
+      {
+      final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+      for (final int numClients : new int[]{1, 10, 100})
+         {
+         benchmarks.add(new ServerBenchmark("server.ping." + numClients + "clients", numClients, FinchProtocol.OPCODE_PING));
+         benchmarks.add(new ServerBenchmark("server.setFullColorLED." + numClients + "clients", numClients, FinchProtocol.OPCODE_SET_FULL_COLOR_LED));
+         }
+      benchmarks.add(new RemoteBenchmark("remote.setFullColorLED.sync", 1));
+      benchmarks.add(new RemoteBenchmark("remote.setFullColorLED.pipelined", WINDOW_SIZE));
+      return benchmarks;
+      }
+
+   private static final class ServerBenchmark extends Benchmark
+      {
+      private final int numClients;
+      private final byte opcode;
+      private FinchController finchController;
+      private FinchServer server;
+      private final List<Client> clients = new ArrayList<Client>();
+
+      private ServerBenchmark(final String name, final int numClients, final byte opcode)
+         {
+         super(name);
+         this.numClients = numClients;
+         this.opcode = opcode;
+         }
+
+      @Override
+      void setUp() throws Exception
+         {
+         finchController = SimulatedFinchController.create();
+         server = new FinchServer(finchController, 0);
+         server.start();
+         for (int i = 0; i < numClients; i++)
+            {
+            clients.add(new Client(server.getLocalPort()));
+            }
+         }
+
+      @Override
+      long run(final int numOperations) throws Exception
+         {
+         final int[] numSent = new int[numClients];
+         long result = 0;
+         int remaining = numOperations;
+         while (remaining > 0)
+            {
+            final int perClient = Math.min(WINDOW_SIZE, (remaining + numClients - 1) / numClients);
+            for (int i = 0; i < numClients; i++)
+               {
+               numSent[i] = Math.min(perClient, remaining);
+               clients.get(i).send(opcode, numSent[i]);
+               remaining -= numSent[i];
+               }
+            for (int i = 0; i < numClients; i++)
+               {
+               result += clients.get(i).receive(numSent[i]);
+               }
+            }
+         return result;
+         }
+
+      @Override
+      void tearDown()
+         {
+         for (final Client client : clients)
+            {
+            client.close();
+            }
+         clients.clear();
+         server.stop();
+         finchController.disconnect();
+         }
+      }
+
+   private static final class RemoteBenchmark extends Benchmark
+      {
+      private final int windowSize;
+      private final List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+      private FinchController finchController;
+      private FinchServer server;
+      private RemoteFinchController remoteFinchController;
+
+      private RemoteBenchmark(final String name, final int windowSize)
+         {
+         super(name);
+         this.windowSize = windowSize;
+         }
+
+      @Override
+      void setUp() throws Exception
+         {
+         finchController = SimulatedFinchController.create();
+         server = new FinchServer(finchController, 0);
+         server.start();
+         remoteFinchController = RemoteFinchController.create("localhost", server.getLocalPort());
+         }
+
+      @Override
+      long run(final int numOperations) throws Exception
+         {
+         long result = 0;
+         for (int i = 0; i < numOperations; i += windowSize)
+            {
+            for (int j = i; j < Math.min(numOperations, i + windowSize); j++)
+               {
+               futures.add(remoteFinchController.getAsyncFinchController().setFullColorLED(j & 0xff, 0, 255 - (j & 0xff)));
+               }
+            for (final Future<Boolean> future : futures)
+               {
+               if (future.get())
+                  {
+                  result++;
+                  }
+               }
+            futures.clear();
+            }
+         return result;
+         }
+
+      @Override
+      void tearDown()
+         {
+         remoteFinchController.disconnect();
+         server.stop();
+         finchController.disconnect();
+         }
+      }
+
+   /** A minimal blocking client which sends pipelined requests and counts the successful responses. */
+   private static final class Client
+      {
+      private final Socket socket;
+      private final DataOutputStream out;
+      private final DataInputStream in;
+      private final byte[] responseBuffer = new byte[FinchProtocol.MAX_FRAME_LENGTH];
+      private int nextRequestId = 0;
+
+      private Client(final int port) throws IOException
+         {
+         socket = new Socket(InetAddress.getByName("localhost"), port);
+         socket.setTcpNoDelay(true);
+         out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+         in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+         }
+
+      private void send(final byte opcode, final int numRequests) throws IOException
+         {
+         for (int i = 0; i < numRequests; i++)
+            {
+            final int requestId = nextRequestId++;
+            if (opcode == FinchProtocol.OPCODE_SET_FULL_COLOR_LED)
+               {
+               out.writeInt(FinchProtocol.HEADER_SIZE - 4 + 6);
+               out.writeInt(requestId);
+               out.writeByte(opcode);
+               out.writeShort(requestId & 0xff);
+               out.writeShort(0);
+               out.writeShort(255 - (requestId & 0xff));
+               }
+            else
+               {
+               out.writeInt(FinchProtocol.HEADER_SIZE - 4);
+               out.writeInt(requestId);
+               out.writeByte(opcode);
+               }
+            }
+         out.flush();
+         }
+
+      private long receive(final int numResponses) throws IOException
+         {
+         long numSuccessful = 0;
+         for (int i = 0; i < numResponses; i++)
+            {
+            final int length = in.readInt();
+            in.readFully(responseBuffer, 0, length);
+            if (responseBuffer[4] == FinchProtocol.STATUS_OK)
+               {
+               numSuccessful++;
+               }
+            }
+         return numSuccessful;
+         }
+
+      private void close()
+         {
+         try
+            {
+            socket.close();
+            }
+         catch (IOException ignored)
+            {
+            // nothing we can do
+            }
+         }
+      }
+
+   private FinchServerBenchmarks()
+      {
+      // private to prevent instantiation
+      }
+   }
@@ -0,0 +1,69 @@
+package edu.cmu.ri.createlab.terk.robot.finch.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.LatencyHistogram;
+
+/**
+ * Benchmarks the {@link LatencyHistogram} behind the per-command metrics, whose recording cost is paid by every
+ * command sent to a finch.
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+final class MetricsBenchmarks
+   {
+   static List<Benchmark> createBenchmarks()
+      {
+      final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+      benchmarks.add(
+            new Benchmark("metrics.histogram.record")
+            {
+            private final LatencyHistogram histogram = new LatencyHistogram();
+
+            @Override
+            long run(final int numOperations)
+               {
+               for (int i = 0; i < numOperations; i++)
+                  {
+                  // spread the durations across microseconds to tens of seconds
+                  histogram.record((long)(i & 1023) << ((i & 15) + 10));
+                  }
+               return histogram.getCount();
+               }
+            });
+
+      benchmarks.add(
+            new Benchmark("metrics.histogram.percentile")
+            {
+            private final LatencyHistogram histogram = new LatencyHistogram();
+
+            @Override
+            void setUp()
+               {
+               for (int i = 0; i < 100000; i++)
+                  {
+                  histogram.record((long)(i & 1023) << ((i & 15) + 10));
+                  }
+               }
+
+            @Override
+            long run(final int numOperations)
+               {
+               long result = 0;
+               for (int i = 0; i < numOperations; i++)
+                  {
+                  result += histogram.getPercentileNanos(36 + (i & 63));
+                  }
+               return result;
+               }
+            });
+
+      return benchmarks;
+      }
+
+   private MetricsBenchmarks()
+      {
+      // private to prevent instantiation
+      }
+   }
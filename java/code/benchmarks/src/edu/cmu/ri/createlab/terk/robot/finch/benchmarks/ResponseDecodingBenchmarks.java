@@ -0,0 +1,220 @@
+package edu.cmu.ri.createlab.terk.robot.finch.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import edu.cmu.ri.createlab.serial.SerialDeviceCommandResponse;
+import edu.cmu.ri.createlab.terk.robot.finch.FinchProperties;
+import edu.cmu.ri.createlab.terk.robot.finch.FinchSensorSnapshot;
+import edu.cmu.ri.createlab.terk.robot.finch.commands.GetAccelerometerCommandStrategyHelper;
+import edu.cmu.ri.createlab.terk.robot.finch.commands.GetObstacleSensorCommandStrategyHelper;
+import edu.cmu.ri.createlab.terk.robot.finch.commands.GetPhotoresistorCommandStrategyHelper;
+import edu.cmu.ri.createlab.terk.robot.finch.commands.GetSensorSnapshotCommandStrategyHelper;
+import edu.cmu.ri.createlab.terk.robot.finch.commands.GetThermistorCommandStrategyHelper;
+import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerState;
+import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerUnitConversionStrategyFinder;
+import edu.cmu.ri.createlab.terk.services.thermistor.ThermistorUnitConversionStrategyFinder;
+import edu.cmu.ri.createlab.usb.hid.HIDCommandResponse;
+
+/**
+ * Benchmarks the decoding of responses by the <code>convertResponse</code> methods of the command strategies and
+ * their helpers.
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+final class ResponseDecodingBenchmarks
+   {
+   /** Each benchmark cycles through several different responses so that the JIT can't hoist the decoding. */
+   private static final int NUM_RESPONSES = 16;
+   private static final int RESPONSE_INDEX_MASK = NUM_RESPONSES - 1;
+
+   static List<Benchmark> createBenchmarks()
+      {
+      final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+      benchmarks.add(
+            new Benchmark("decode.accelerometer")
+            {
+            private final GetAccelerometerCommandStrategyHelper helper = new GetAccelerometerCommandStrategyHelper();
+
+            @Override
+            long run(final int numOperations)
+               {
+               long result = 0;
+               for (int i = 0; i < numOperations; i++)
+                  {
+                  final AccelerometerState state = helper.convertResponse((byte)i, (byte)(i >> 6), (byte)(i >> 12), (byte)(i & 160));
+                  result += state.getX() + state.getY() + state.getZ() + (state.wasTapped() ? 1 : 0);
+                  }
+               return result;
+               }
+            });
+
+      benchmarks.add(
+            new Benchmark("decode.hid.accelerometer")
+            {
+            private final edu.cmu.ri.createlab.terk.robot.finch.commands.hid.GetAccelerometerCommandStrategy strategy = new edu.cmu.ri.createlab.terk.robot.finch.commands.hid.GetAccelerometerCommandStrategy();
+            private final HIDCommandResponse[] responses = createHIDResponses(5);
+
+            @Override
+            long run(final int numOperations)
+               {
+               long result = 0;
+               for (int i = 0; i < numOperations; i++)
+                  {
+                  result += strategy.convertResponse(responses[i & RESPONSE_INDEX_MASK]).getZ();
+                  }
+               return result;
+               }
+            });
+
+      benchmarks.add(
+            new Benchmark("decode.serial.accelerometer")
+            {
+            private final edu.cmu.ri.createlab.terk.robot.finch.commands.serial.GetAccelerometerCommandStrategy strategy = new edu.cmu.ri.createlab.terk.robot.finch.commands.serial.GetAccelerometerCommandStrategy();
+            private final SerialDeviceCommandResponse[] responses = createSerialResponses(4);
+
+            @Override
+            long run(final int numOperations)
+               {
+               long result = 0;
+               for (int i = 0; i < numOperations; i++)
+                  {
+                  result += strategy.convertResponse(responses[i & RESPONSE_INDEX_MASK]).getZ();
+                  }
+               return result;
+               }
+            });
+
+      benchmarks.add(
+            new Benchmark("decode.obstacleSensors")
+            {
+            private final GetObstacleSensorCommandStrategyHelper helper = new GetObstacleSensorCommandStrategyHelper();
+            private final HIDCommandResponse[] responses = createHIDResponses(2);
+
+            @Override
+            long run(final int numOperations)
+               {
+               long result = 0;
+               for (int i = 0; i < numOperations; i++)
+                  {
+                  result += helper.convertResponse(responses[i & RESPONSE_INDEX_MASK])[0] ? 1 : 0;
+                  }
+               return result;
+               }
+            });
+
+      benchmarks.add(
+            new Benchmark("decode.photoresistors")
+            {
+            private final GetPhotoresistorCommandStrategyHelper helper = new GetPhotoresistorCommandStrategyHelper();
+            private final HIDCommandResponse[] responses = createHIDResponses(2);
+
+            @Override
+            long run(final int numOperations)
+               {
+               long result = 0;
+               for (int i = 0; i < numOperations; i++)
+                  {
+                  result += helper.convertResponse(responses[i & RESPONSE_INDEX_MASK])[1];
+                  }
+               return result;
+               }
+            });
+
+      benchmarks.add(
+            new Benchmark("decode.thermistor")
+            {
+            private final GetThermistorCommandStrategyHelper helper = new GetThermistorCommandStrategyHelper();
+            private final HIDCommandResponse[] responses = createHIDResponses(1);
+
+            @Override
+            long run(final int numOperations)
+               {
+               long result = 0;
+               for (int i = 0; i < numOperations; i++)
+                  {
+                  result += helper.convertResponse(responses[i & RESPONSE_INDEX_MASK]);
+                  }
+               return result;
+               }
+            });
+
+      benchmarks.add(
+            new Benchmark("decode.sensorSnapshot")
+            {
+            private GetSensorSnapshotCommandStrategyHelper helper;
+            private final HIDCommandResponse[] responses = new HIDCommandResponse[NUM_RESPONSES];
+
+            @Override
+            void setUp()
+               {
+               final FinchProperties finchProperties = BenchmarkFixtures.getHIDFinchProperties();
+               helper = new GetSensorSnapshotCommandStrategyHelper(AccelerometerUnitConversionStrategyFinder.getInstance().lookup(finchProperties.getAccelerometerDeviceId()),
+                                                                   ThermistorUnitConversionStrategyFinder.getInstance().lookup(finchProperties.getThermistorDeviceId()));
+               final HIDCommandResponse[] accelerometerResponses = createHIDResponses(5);
+               final HIDCommandResponse[] obstacleSensorResponses = createHIDResponses(2);
+               final HIDCommandResponse[] photoresistorResponses = createHIDResponses(2);
+               final HIDCommandResponse[] thermistorResponses = createHIDResponses(1);
+               for (int i = 0; i < NUM_RESPONSES; i++)
+                  {
+                  final byte[] data = helper.packResponses(accelerometerResponses[i],
+                                                           1,
+                                                           obstacleSensorResponses[i],
+                                                           photoresistorResponses[i],
+                                                           thermistorResponses[i],
+                                                           System.currentTimeMillis());
+                  responses[i] = new HIDCommandResponse(true, true, data);
+                  }
+               }
+
+            @Override
+            long run(final int numOperations)
+               {
+               long result = 0;
+               for (int i = 0; i < numOperations; i++)
+                  {
+                  final FinchSensorSnapshot snapshot = helper.convertResponse(responses[i & RESPONSE_INDEX_MASK]);
+                  result += snapshot.getThermistor() + snapshot.getPhotoresistors()[0];
+                  }
+               return result;
+               }
+            });
+
+      return benchmarks;
+      }
+
+   private static HIDCommandResponse[] createHIDResponses(final int length)
+      {
+      final HIDCommandResponse[] responses = new HIDCommandResponse[NUM_RESPONSES];
+      for (int i = 0; i < NUM_RESPONSES; i++)
+         {
+         responses[i] = new HIDCommandResponse(true, true, createData(i, length));
+         }
+      return responses;
+      }
+
+   private static SerialDeviceCommandResponse[] createSerialResponses(final int length)
+      {
+      final SerialDeviceCommandResponse[] responses = new SerialDeviceCommandResponse[NUM_RESPONSES];
+      for (int i = 0; i < NUM_RESPONSES; i++)
+         {
+         responses[i] = new SerialDeviceCommandResponse(createData(i, length));
+         }
+      return responses;
+      }
+
+   private static byte[] createData(final int seed, final int length)
+      {
+      final byte[] data = new byte[length];
+      for (int i = 0; i < length; i++)
+         {
+         data[i] = (byte)(seed * 37 + i * 11);
+         }
+      return data;
+      }
+
+   private ResponseDecodingBenchmarks()
+      {
+      // private to prevent instantiation
+      }
+   }
@@ -0,0 +1,105 @@
+package edu.cmu.ri.createlab.terk.robot.finch.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import edu.cmu.ri.createlab.terk.robot.finch.FinchProperties;
+import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerGs;
+import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerState;
+import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerUnitConversionStrategy;
+import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerUnitConversionStrategyFinder;
+import edu.cmu.ri.createlab.terk.services.thermistor.ThermistorUnitConversionStrategy;
+import edu.cmu.ri.createlab.terk.services.thermistor.ThermistorUnitConversionStrategyFinder;
+
+/**
+ * Benchmarks the finch's accelerometer and thermistor unit conversions.
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+final class UnitConversionBenchmarks
+   {
+   static List<Benchmark> createBenchmarks()
+      {
+      final List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+      benchmarks.add(
+            new AccelerometerBenchmark("convert.accelerometer.toGs")
+            {
+            @Override
+            long run(final int numOperations)
+               {
+               double result = 0;
+               for (int i = 0; i < numOperations; i++)
+                  {
+                  final AccelerometerGs gs = strategy.convert(new AccelerometerState(i & 63, (i >> 6) & 63, (i >> 12) & 63));
+                  result += gs.getX() + gs.getY() + gs.getZ();
+                  }
+               return (long)result;
+               }
+            });
+
+      benchmarks.add(
+            new AccelerometerBenchmark("convert.accelerometer.toNative")
+            {
+            @Override
+            long run(final int numOperations)
+               {
+               long result = 0;
+               for (int i = 0; i < numOperations; i++)
+                  {
+                  final double g = ((i & 255) - 128) / 85.0;
+                  final AccelerometerState state = strategy.convert(new AccelerometerGs(g, -g, 1.0));
+                  result += state.getX() + state.getY() + state.getZ();
+                  }
+               return result;
+               }
+            });
+
+      benchmarks.add(
+            new Benchmark("convert.thermistor.toCelsius")
+            {
+            private ThermistorUnitConversionStrategy strategy;
+
+            @Override
+            void setUp()
+               {
+               final FinchProperties finchProperties = BenchmarkFixtures.getHIDFinchProperties();
+               strategy = ThermistorUnitConversionStrategyFinder.getInstance().lookup(finchProperties.getThermistorDeviceId());
+               }
+
+            @Override
+            long run(final int numOperations)
+               {
+               double result = 0;
+               for (int i = 0; i < numOperations; i++)
+                  {
+                  result += strategy.convertToCelsius(i & 255);
+                  }
+               return (long)result;
+               }
+            });
+
+      return benchmarks;
+      }
+
+   private abstract static class AccelerometerBenchmark extends Benchmark
+      {
+      protected AccelerometerUnitConversionStrategy strategy;
+
+      private AccelerometerBenchmark(final String name)
+         {
+         super(name);
+         }
+
+      @Override
+      final void setUp()
+         {
+         final FinchProperties finchProperties = BenchmarkFixtures.getHIDFinchProperties();
+         strategy = AccelerometerUnitConversionStrategyFinder.getInstance().lookup(finchProperties.getAccelerometerDeviceId());
+         }
+      }
+
+   private UnitConversionBenchmarks()
+      {
+      // private to prevent instantiation
+      }
+   }
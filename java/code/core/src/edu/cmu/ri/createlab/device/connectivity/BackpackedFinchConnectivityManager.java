@@ -15,6 +15,11 @@ public final class BackpackedFinchConnectivityManager extends FinchConnectivityM
       this.serialPortName = serialPortName;
       }
 
+   public String getSerialPortName()
+      {
+      return serialPortName;
+      }
+
    @Override
    protected FinchController scanForDeviceAndCreateProxy()
       {
@@ -0,0 +1,293 @@
+package edu.cmu.ri.createlab.device.connectivity;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import edu.cmu.ri.createlab.serial.SerialPortEnumerator;
+import edu.cmu.ri.createlab.terk.robot.finch.BackpackedFinchController;
+import edu.cmu.ri.createlab.terk.robot.finch.FinchController;
+import edu.cmu.ri.createlab.util.thread.DaemonThreadFactory;
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * <code>BackpackedFinchDiscovery</code> finds Finch Backpacks by probing serial ports concurrently, rather than making
+ * the user choose a port or trying them one at a time.  Each port is probed on its own thread by opening it and
+ * performing the usual voltage handshake with a short timeout (the value of the {@link #PROBE_TIMEOUT_SYSTEM_PROPERTY}
+ * system property, or {@link #DEFAULT_PROBE_TIMEOUT_MILLIS} if it isn't set), so discovery takes roughly as long as
+ * the slowest port rather than the sum of them all.
+ * </p>
+ * <p>
+ * Every probe produces a {@link ProbeResult} holding the port name, how long the probe took, and the connected
+ * {@link FinchController} if a backpack answered.  Controllers returned in results belong to the caller, who is
+ * responsible for disconnecting them.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class BackpackedFinchDiscovery
+   {
+   private static final Logger LOG = Logger.getLogger(BackpackedFinchDiscovery.class);
+
+   /** The system property which sets the handshake timeout used when probing each port, in milliseconds. */
+   public static final String PROBE_TIMEOUT_SYSTEM_PROPERTY = "finch.discovery.probe-timeout-millis";
+
+   public static final int DEFAULT_PROBE_TIMEOUT_MILLIS = 500;
+
+   /** The result of probing a single serial port. */
+   public static final class ProbeResult
+      {
+      private final String serialPortName;
+      private final FinchController finchController;
+      private final long latencyInNanos;
+
+      private ProbeResult(final String serialPortName, final FinchController finchController, final long latencyInNanos)
+         {
+         this.serialPortName = serialPortName;
+         this.finchController = finchController;
+         this.latencyInNanos = latencyInNanos;
+         }
+
+      public String getSerialPortName()
+         {
+         return serialPortName;
+         }
+
+      /** Returns the controller for the backpack found on the port, or <code>null</code> if none was found. */
+      public FinchController getFinchController()
+         {
+         return finchController;
+         }
+
+      /** Returns <code>true</code> if a backpack answered the handshake on the port. */
+      public boolean wasSuccessful()
+         {
+         return finchController != null;
+         }
+
+      /** Returns how long the probe took, from opening the port through to the end of the handshake. */
+      public long getLatency(final TimeUnit timeUnit)
+         {
+         return timeUnit.convert(latencyInNanos, TimeUnit.NANOSECONDS);
+         }
+
+      @Override
+      public String toString()
+         {
+         final StringBuilder sb = new StringBuilder();
+         sb.append("ProbeResult");
+         sb.append("{serialPortName='").append(serialPortName).append('\'');
+         sb.append(", wasSuccessful=").append(wasSuccessful());
+         sb.append(", latencyMillis=").append(getLatency(TimeUnit.MILLISECONDS));
+         sb.append('}');
+         return sb.toString();
+         }
+      }
+
+   private final long probeTimeoutInMillis;
+
+   /** Creates a <code>BackpackedFinchDiscovery</code> which uses the default probe timeout. */
+   public BackpackedFinchDiscovery()
+      {
+      this(Math.max(1, Integer.getInteger(PROBE_TIMEOUT_SYSTEM_PROPERTY, DEFAULT_PROBE_TIMEOUT_MILLIS)), TimeUnit.MILLISECONDS);
+      }
+
+   /**
+    * Creates a <code>BackpackedFinchDiscovery</code> which gives up on a port if the backpack doesn't answer the
+    * handshake within the given timeout.
+    *
+    * @throws IllegalArgumentException if the timeout isn't positive or the <code>timeUnit</code> is <code>null</code>
+    */
+   public BackpackedFinchDiscovery(final long probeTimeout, final TimeUnit timeUnit)
+      {
+      if (probeTimeout <= 0 || timeUnit == null)
+         {
+         throw new IllegalArgumentException("The probe timeout must be positive");
+         }
+      this.probeTimeoutInMillis = timeUnit.toMillis(probeTimeout);
+      }
+
+   /** Probes every available serial port, and returns the results in port order. */
+   public List<ProbeResult> probeAll()
+      {
+      return probeAll(SerialPortEnumerator.getAvailableSerialPorts());
+      }
+
+   /** Probes each of the given serial ports concurrently, and returns the results in the order of the given ports. */
+   public List<ProbeResult> probeAll(final Collection<String> serialPortNames)
+      {
+      final List<String> portNames = toList(serialPortNames);
+      if (portNames.isEmpty())
+         {
+         return Collections.emptyList();
+         }
+
+      final ExecutorService executor = createExecutor(portNames.size());
+      try
+         {
+         final List<Future<ProbeResult>> futures = new ArrayList<Future<ProbeResult>>(portNames.size());
+         for (final String portName : portNames)
+            {
+            futures.add(executor.submit(new Probe(portName, null)));
+            }
+
+         final List<ProbeResult> results = new ArrayList<ProbeResult>(futures.size());
+         for (int i = 0; i < futures.size(); i++)
+            {
+            final ProbeResult result = getQuietly(futures.get(i));
+            results.add(result == null ? new ProbeResult(portNames.get(i), null, 0) : result);
+            }
+         return results;
+         }
+      finally
+         {
+         executor.shutdown();
+         }
+      }
+
+   /** Probes every available serial port, and returns the first successful result, or <code>null</code> if none. */
+   public ProbeResult probeFirst()
+      {
+      return probeFirst(SerialPortEnumerator.getAvailableSerialPorts());
+      }
+
+   /**
+    * Probes each of the given serial ports concurrently, and returns the first successful result as soon as it's
+    * known, or <code>null</code> if no backpack was found.  Probes still in progress are left to finish in the
+    * background, and any other backpacks they find are disconnected.
+    */
+   public ProbeResult probeFirst(final Collection<String> serialPortNames)
+      {
+      final List<String> portNames = toList(serialPortNames);
+      if (portNames.isEmpty())
+         {
+         return null;
+         }
+
+      final ExecutorService executor = createExecutor(portNames.size());
+      try
+         {
+         final AtomicBoolean isFound = new AtomicBoolean(false);
+         final CompletionService<ProbeResult> completionService = new ExecutorCompletionService<ProbeResult>(executor);
+         for (final String portName : portNames)
+            {
+            completionService.submit(new Probe(portName, isFound));
+            }
+
+         for (int i = 0; i < portNames.size(); i++)
+            {
+            try
+               {
+               final ProbeResult result = getQuietly(completionService.take());
+               if (result != null && result.wasSuccessful())
+                  {
+                  return result;
+                  }
+               }
+            catch (InterruptedException e)
+               {
+               LOG.error("BackpackedFinchDiscovery.probeFirst(): InterruptedException while waiting for a probe to complete", e);
+               Thread.currentThread().interrupt();
+               break;
+               }
+            }
+         return null;
+         }
+      finally
+         {
+         // don't wait for the remaining probes, they'll finish on their own
+         executor.shutdown();
+         }
+      }
+
+   private static List<String> toList(final Collection<String> serialPortNames)
+      {
+      final List<String> portNames = new ArrayList<String>();
+      if (serialPortNames != null)
+         {
+         for (final String portName : serialPortNames)
+            {
+            if (portName != null)
+               {
+               portNames.add(portName);
+               }
+            }
+         }
+      return portNames;
+      }
+
+   private static ExecutorService createExecutor(final int numPorts)
+      {
+      return Executors.newFixedThreadPool(numPorts, new DaemonThreadFactory("BackpackedFinchDiscovery.executor"));
+      }
+
+   private static <T> T getQuietly(final Future<T> future)
+      {
+      try
+         {
+         return future.get();
+         }
+      catch (InterruptedException e)
+         {
+         LOG.error("BackpackedFinchDiscovery.getQuietly(): InterruptedException while waiting for a probe to complete", e);
+         Thread.currentThread().interrupt();
+         }
+      catch (ExecutionException e)
+         {
+         LOG.error("BackpackedFinchDiscovery.getQuietly(): ExecutionException while waiting for a probe to complete", e);
+         }
+      return null;
+      }
+
+   private final class Probe implements Callable<ProbeResult>
+      {
+      private final String serialPortName;
+      private final AtomicBoolean isFound;
+
+      /** The <code>isFound</code> flag is shared by probes which only want the first backpack, and is otherwise null. */
+      private Probe(final String serialPortName, final AtomicBoolean isFound)
+         {
+         this.serialPortName = serialPortName;
+         this.isFound = isFound;
+         }
+
+      public ProbeResult call()
+         {
+         final long startTime = System.nanoTime();
+         FinchController finchController = null;
+         try
+            {
+            finchController = BackpackedFinchController.create(serialPortName, probeTimeoutInMillis, TimeUnit.MILLISECONDS);
+            }
+         catch (Throwable t)
+            {
+            // e.g. the native serial library failing to load, which shouldn't stop the other probes
+            LOG.error("BackpackedFinchDiscovery$Probe.call(): Throwable while probing serial port [" + serialPortName + "]", t);
+            }
+         final ProbeResult result = new ProbeResult(serialPortName, finchController, System.nanoTime() - startTime);
+
+         if (LOG.isInfoEnabled())
+            {
+            LOG.info("BackpackedFinchDiscovery$Probe.call(): " + result);
+            }
+
+         // if only the first backpack is wanted and another probe already found one, release this one
+         if (finchController != null && isFound != null && !isFound.compareAndSet(false, true))
+            {
+            finchController.disconnect();
+            return new ProbeResult(serialPortName, null, result.latencyInNanos);
+            }
+         return result;
+         }
+      }
+   }
@@ -0,0 +1,115 @@
+package edu.cmu.ri.createlab.device.connectivity;
+
+import java.util.concurrent.TimeUnit;
+import edu.cmu.ri.createlab.terk.robot.finch.BackpackedFinchController;
+import edu.cmu.ri.createlab.terk.robot.finch.FinchController;
+import edu.cmu.ri.createlab.terk.robot.finch.FinchHardwareType;
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * <code>CachingFinchConnectivityManager</code> warm-starts the connection to a Finch Backpack.  If the
+ * {@link FinchConnectionCache} records that the last successful connection was to a backpack on the same serial port
+ * as the wrapped {@link BackpackedFinchConnectivityManager}, the handshake is first tried with a short timeout (the
+ * value of the {@link BackpackedFinchDiscovery#PROBE_TIMEOUT_SYSTEM_PROPERTY} system property), since that backpack
+ * is known to answer.  Otherwise, or if that fails, it falls back to the wrapped manager's full-length handshake, so a
+ * stale entry costs no more than the short timeout.  Every successful connection is written back to the cache.
+ * </p>
+ * <p>
+ * Only backpacks are cached: opening an HID finch always enumerates the USB devices, so there's nothing to skip.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class CachingFinchConnectivityManager extends FinchConnectivityManager
+   {
+   private static final Logger LOG = Logger.getLogger(CachingFinchConnectivityManager.class);
+
+   private final BackpackedFinchConnectivityManager backpackedConnectivityManager;
+   private final FinchConnectionCache connectionCache;
+
+   /**
+    * Creates a <code>CachingFinchConnectivityManager</code> which uses the default {@link FinchConnectionCache} and
+    * falls back to the given <code>backpackedConnectivityManager</code> on a cache miss.
+    */
+   public CachingFinchConnectivityManager(final BackpackedFinchConnectivityManager backpackedConnectivityManager)
+      {
+      this(backpackedConnectivityManager, new FinchConnectionCache());
+      }
+
+   /**
+    * Creates a <code>CachingFinchConnectivityManager</code> which uses the given {@link FinchConnectionCache} and
+    * falls back to the given <code>backpackedConnectivityManager</code> on a cache miss.
+    *
+    * @throws IllegalArgumentException if either argument is <code>null</code>
+    */
+   public CachingFinchConnectivityManager(final BackpackedFinchConnectivityManager backpackedConnectivityManager, final FinchConnectionCache connectionCache)
+      {
+      if (backpackedConnectivityManager == null)
+         {
+         throw new IllegalArgumentException("The backpacked connectivity manager cannot be null");
+         }
+      if (connectionCache == null)
+         {
+         throw new IllegalArgumentException("The connection cache cannot be null");
+         }
+      this.backpackedConnectivityManager = backpackedConnectivityManager;
+      this.connectionCache = connectionCache;
+      }
+
+   public FinchConnectionCache getConnectionCache()
+      {
+      return connectionCache;
+      }
+
+   @Override
+   protected FinchController scanForDeviceAndCreateProxy()
+      {
+      final long startTime = System.nanoTime();
+
+      FinchController finchController = null;
+      final FinchConnectionCache.Entry entry = connectionCache.load();
+      if (isCachedBackpack(entry))
+         {
+         try
+            {
+            finchController = connectToCachedDevice(entry);
+            }
+         catch (Throwable t)
+            {
+            // e.g. the native serial library failing to load, which mustn't prevent the full scan
+            LOG.error("CachingFinchConnectivityManager.scanForDeviceAndCreateProxy(): Throwable while connecting to the cached device " + entry, t);
+            }
+         if (LOG.isInfoEnabled())
+            {
+            LOG.info("CachingFinchConnectivityManager.scanForDeviceAndCreateProxy(): cache " + (finchController == null ? "miss" : "hit") + " for " + entry);
+            }
+         }
+
+      if (finchController == null)
+         {
+         finchController = backpackedConnectivityManager.scanForDeviceAndCreateProxy();
+         }
+
+      if (finchController != null)
+         {
+         connectionCache.save(finchController, System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+         }
+      return finchController;
+      }
+
+   /** Returns <code>true</code> if the given entry is for a backpack on the wrapped manager's serial port. */
+   private boolean isCachedBackpack(final FinchConnectionCache.Entry entry)
+      {
+      return entry != null &&
+             entry.getHardwareType() == FinchHardwareType.BACKPACK &&
+             entry.getPortName().equals(backpackedConnectivityManager.getSerialPortName());
+      }
+
+   private FinchController connectToCachedDevice(final FinchConnectionCache.Entry entry)
+      {
+      final int handshakeTimeoutInMillis = Math.max(1, Integer.getInteger(BackpackedFinchDiscovery.PROBE_TIMEOUT_SYSTEM_PROPERTY,
+                                                                          BackpackedFinchDiscovery.DEFAULT_PROBE_TIMEOUT_MILLIS));
+      return BackpackedFinchController.create(entry.getPortName(), handshakeTimeoutInMillis, TimeUnit.MILLISECONDS);
+      }
+   }
@@ -0,0 +1,305 @@
+package edu.cmu.ri.createlab.device.connectivity;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import edu.cmu.ri.createlab.terk.robot.finch.FinchController;
+import edu.cmu.ri.createlab.terk.robot.finch.FinchHardwareType;
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * <code>FinchConnectionCache</code> remembers, in a small properties file, how the last successful connection to a
+ * finch was made: the hardware type, the port name, the voltage reported during the handshake, and how long the
+ * connection took.  The {@link CachingFinchConnectivityManager} uses it on the next startup to shorten the handshake
+ * with a backpack which answered last time.
+ * </p>
+ * <p>
+ * The cache file is the value of the {@link #CACHE_FILE_SYSTEM_PROPERTY} system property, or
+ * <code>.finch/connection-cache.properties</code> in the user's home directory if it isn't set.  The cache is purely an
+ * optimization, so failures to read or write it are logged and otherwise ignored.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class FinchConnectionCache
+   {
+   private static final Logger LOG = Logger.getLogger(FinchConnectionCache.class);
+
+   /** The system property which sets the path of the cache file. */
+   public static final String CACHE_FILE_SYSTEM_PROPERTY = "finch.connection-cache.file";
+
+   private static final String DEFAULT_CACHE_DIRECTORY_NAME = ".finch";
+   private static final String DEFAULT_CACHE_FILE_NAME = "connection-cache.properties";
+
+   private static final String HARDWARE_TYPE_KEY = "hardware-type";
+   private static final String PORT_NAME_KEY = "port-name";
+   private static final String VOLTAGE_KEY = "voltage";
+   private static final String CONNECTION_TIME_KEY = "connection-time-millis";
+   private static final String TIMESTAMP_KEY = "timestamp";
+
+   /** A connection recorded in the cache. */
+   public static final class Entry
+      {
+      private final FinchHardwareType hardwareType;
+      private final String portName;
+      private final Integer voltage;
+      private final long connectionTimeInMillis;
+      private final long timestamp;
+
+      private Entry(final FinchHardwareType hardwareType, final String portName, final Integer voltage, final long connectionTimeInMillis, final long timestamp)
+         {
+         this.hardwareType = hardwareType;
+         this.portName = portName;
+         this.voltage = voltage;
+         this.connectionTimeInMillis = connectionTimeInMillis;
+         this.timestamp = timestamp;
+         }
+
+      public FinchHardwareType getHardwareType()
+         {
+         return hardwareType;
+         }
+
+      /** Returns the port name (e.g. the serial port of a backpack), or <code>null</code> if none was recorded. */
+      public String getPortName()
+         {
+         return portName;
+         }
+
+      /** Returns the voltage read during the handshake, or <code>null</code> if it wasn't available. */
+      public Integer getVoltage()
+         {
+         return voltage;
+         }
+
+      /** Returns how long the recorded connection took to establish. */
+      public long getConnectionTime(final TimeUnit timeUnit)
+         {
+         return timeUnit.convert(connectionTimeInMillis, TimeUnit.MILLISECONDS);
+         }
+
+      /** Returns the time at which the connection was recorded, in milliseconds since the epoch. */
+      public long getTimestamp()
+         {
+         return timestamp;
+         }
+
+      @Override
+      public String toString()
+         {
+         final StringBuilder sb = new StringBuilder();
+         sb.append("Entry");
+         sb.append("{hardwareType=").append(hardwareType);
+         sb.append(", portName='").append(portName).append('\'');
+         sb.append(", voltage=").append(voltage);
+         sb.append(", connectionTimeMillis=").append(connectionTimeInMillis);
+         sb.append(", timestamp=").append(timestamp);
+         sb.append('}');
+         return sb.toString();
+         }
+      }
+
+   private final File cacheFile;
+
+   /** Creates a <code>FinchConnectionCache</code> which uses the default cache file. */
+   public FinchConnectionCache()
+      {
+      this(getDefaultCacheFile());
+      }
+
+   /** Creates a <code>FinchConnectionCache</code> which uses the given cache file. */
+   public FinchConnectionCache(final File cacheFile)
+      {
+      if (cacheFile == null)
+         {
+         throw new IllegalArgumentException("The cache file cannot be null");
+         }
+      this.cacheFile = cacheFile;
+      }
+
+   public File getCacheFile()
+      {
+      return cacheFile;
+      }
+
+   /** Returns the cached connection, or <code>null</code> if there isn't one or it couldn't be read. */
+   public Entry load()
+      {
+      if (!cacheFile.isFile())
+         {
+         return null;
+         }
+
+      final Properties properties = new Properties();
+      InputStream inputStream = null;
+      try
+         {
+         inputStream = new FileInputStream(cacheFile);
+         properties.load(inputStream);
+         }
+      catch (IOException e)
+         {
+         LOG.error("FinchConnectionCache.load(): IOException while reading the cache file [" + cacheFile + "]", e);
+         return null;
+         }
+      finally
+         {
+         closeQuietly(inputStream);
+         }
+
+      final FinchHardwareType hardwareType = FinchHardwareType.findByName(properties.getProperty(HARDWARE_TYPE_KEY));
+      if (hardwareType == null || hardwareType == FinchHardwareType.SIMULATED)
+         {
+         if (LOG.isDebugEnabled())
+            {
+            LOG.debug("FinchConnectionCache.load(): ignoring cache file [" + cacheFile + "] with unusable hardware type [" + properties.getProperty(HARDWARE_TYPE_KEY) + "]");
+            }
+         return null;
+         }
+
+      final String portName = properties.getProperty(PORT_NAME_KEY);
+      if (hardwareType == FinchHardwareType.BACKPACK && (portName == null || portName.length() == 0))
+         {
+         return null;
+         }
+
+      final Long voltage = parseLong(properties.getProperty(VOLTAGE_KEY));
+      final Long connectionTime = parseLong(properties.getProperty(CONNECTION_TIME_KEY));
+      final Long timestamp = parseLong(properties.getProperty(TIMESTAMP_KEY));
+      return new Entry(hardwareType,
+                       portName,
+                       voltage == null ? null : voltage.intValue(),
+                       connectionTime == null ? 0 : Math.max(0, connectionTime),
+                       timestamp == null ? 0 : timestamp);
+      }
+
+   /**
+    * Records the connection to the given finch, which took the given time to establish.  Simulated finches aren't
+    * recorded.  Returns <code>true</code> if the cache file was written.
+    */
+   public boolean save(final FinchController finchController, final long connectionTime, final TimeUnit timeUnit)
+      {
+      if (finchController == null)
+         {
+         return false;
+         }
+      final FinchHardwareType hardwareType = finchController.getFinchProperties().getHardwareType();
+      if (hardwareType == FinchHardwareType.SIMULATED)
+         {
+         return false;
+         }
+
+      final Properties properties = new Properties();
+      properties.setProperty(HARDWARE_TYPE_KEY, hardwareType.name());
+      final String portName = finchController.getPortName();
+      if (portName != null)
+         {
+         properties.setProperty(PORT_NAME_KEY, portName);
+         }
+      final Integer voltage = finchController.getVoltage();
+      if (voltage != null)
+         {
+         properties.setProperty(VOLTAGE_KEY, String.valueOf(voltage));
+         }
+      properties.setProperty(CONNECTION_TIME_KEY, String.valueOf(timeUnit.toMillis(connectionTime)));
+      properties.setProperty(TIMESTAMP_KEY, String.valueOf(System.currentTimeMillis()));
+
+      final File directory = cacheFile.getAbsoluteFile().getParentFile();
+      if (directory != null && !directory.isDirectory() && !directory.mkdirs())
+         {
+         LOG.error("FinchConnectionCache.save(): failed to create the cache directory [" + directory + "]");
+         return false;
+         }
+
+      // write to a temp file and then rename it, so that a concurrent load never sees a partially-written cache
+      final File tempFile = new File(directory, cacheFile.getName() + ".tmp");
+      OutputStream outputStream = null;
+      try
+         {
+         outputStream = new FileOutputStream(tempFile);
+         properties.store(outputStream, "Finch connection cache");
+         }
+      catch (IOException e)
+         {
+         LOG.error("FinchConnectionCache.save(): IOException while writing the cache file [" + tempFile + "]", e);
+         return false;
+         }
+      finally
+         {
+         closeQuietly(outputStream);
+         }
+
+      if (!tempFile.renameTo(cacheFile))
+         {
+         // renameTo won't replace an existing file on some platforms
+         if (!cacheFile.delete() || !tempFile.renameTo(cacheFile))
+            {
+            LOG.error("FinchConnectionCache.save(): failed to rename [" + tempFile + "] to [" + cacheFile + "]");
+            return false;
+            }
+         }
+
+      if (LOG.isDebugEnabled())
+         {
+         LOG.debug("FinchConnectionCache.save(): recorded connection to [" + portName + "] of type [" + hardwareType + "] in [" + cacheFile + "]");
+         }
+      return true;
+      }
+
+   /** Deletes the cache file, if it exists. */
+   public void clear()
+      {
+      if (cacheFile.exists() && !cacheFile.delete())
+         {
+         LOG.error("FinchConnectionCache.clear(): failed to delete the cache file [" + cacheFile + "]");
+         }
+      }
+
+   private static File getDefaultCacheFile()
+      {
+      final String path = System.getProperty(CACHE_FILE_SYSTEM_PROPERTY);
+      if (path != null && path.length() > 0)
+         {
+         return new File(path);
+         }
+      return new File(new File(System.getProperty("user.home"), DEFAULT_CACHE_DIRECTORY_NAME), DEFAULT_CACHE_FILE_NAME);
+      }
+
+   private static Long parseLong(final String value)
+      {
+      if (value != null)
+         {
+         try
+            {
+            return Long.parseLong(value.trim());
+            }
+         catch (NumberFormatException e)
+            {
+            LOG.debug("FinchConnectionCache.parseLong(): NumberFormatException while parsing [" + value + "]", e);
+            }
+         }
+      return null;
+      }
+
+   private static void closeQuietly(final Closeable closeable)
+      {
+      if (closeable != null)
+         {
+         try
+            {
+            closeable.close();
+            }
+         catch (IOException e)
+            {
+            LOG.debug("FinchConnectionCache.closeQuietly(): IOException while closing", e);
+            }
+         }
+      }
+   }
@@ -0,0 +1,444 @@
+package edu.cmu.ri.createlab.device.connectivity;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import edu.cmu.ri.createlab.terk.robot.finch.AsyncFinchController;
+import edu.cmu.ri.createlab.terk.robot.finch.BackpackedFinchController;
+import edu.cmu.ri.createlab.terk.robot.finch.FinchController;
+import edu.cmu.ri.createlab.terk.robot.finch.FinchSensorSnapshot;
+import edu.cmu.ri.createlab.terk.robot.finch.HIDFinchController;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.CommandBarrier;
+import edu.cmu.ri.createlab.usb.hid.HIDDevice;
+import edu.cmu.ri.createlab.util.thread.DaemonThreadFactory;
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * <code>FinchFleet</code> connects to every attached finch at once (every USB HID finch, plus a backpacked finch on
+ * each of the given serial ports) and provides indexed and named access to them, along with fleet-wide operations
+ * which are sent to every finch in parallel.  Each finch has its own {@link FinchController}, and thus its own command
+ * queue, so a slow or failed finch doesn't hold up the others.
+ * </p>
+ * <p>
+ * Finches are ordered by the order in which they were found (HID finches first, then backpacked finches in the order
+ * of the given serial ports), and are named by {@link FinchController#getPortName() port name}.  Finches which fail to
+ * connect are simply left out of the fleet.  Fleet-wide operations return one result per finch, in index order, with
+ * <code>null</code> in place of any which failed.
+ * </p>
+ * <p>
+ * Fleet-wide commands are sent to every finch's queue at once, but each finch still executes its command as soon as it
+ * reaches the head of its own queue.  For choreography, where the finches must act at the same moment, use the group
+ * commands (e.g. {@link #setMotorVelocitiesTogether(int, int)}) instead, which hold each finch's command at the head
+ * of its queue until every finch's command is there, and then release them all at once through a
+ * {@link CommandBarrier}.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class FinchFleet
+   {
+   private static final Logger LOG = Logger.getLogger(FinchFleet.class);
+
+   /** The system property which sets how long a group command waits for every finch to be ready, in milliseconds. */
+   public static final String GROUP_COMMAND_TIMEOUT_SYSTEM_PROPERTY = "finch.group.barrier-timeout-millis";
+
+   public static final int DEFAULT_GROUP_COMMAND_TIMEOUT_MILLIS = 500;
+
+   /** An operation to be performed on every finch in the fleet (see {@link #execute(Operation)}). */
+   public interface Operation<T>
+      {
+      T execute(final FinchController finchController) throws Exception;
+      }
+
+   /**
+    * A command to be executed by every finch in the fleet at the same moment (see {@link #executeTogether(GroupCommand)}).
+    * Implementations must pass the given {@link CommandBarrier} to the command they submit, or
+    * {@link CommandBarrier#withdraw() withdraw} from it if they don't submit one.
+    */
+   public interface GroupCommand
+      {
+      Future<Boolean> submit(final AsyncFinchController asyncFinchController, final CommandBarrier commandBarrier);
+      }
+
+   /** The outcome of a group command. */
+   public static final class GroupCommandResult
+      {
+      private final List<Boolean> results;
+      private final CommandBarrier commandBarrier;
+
+      private GroupCommandResult(final List<Boolean> results, final CommandBarrier commandBarrier)
+         {
+         this.results = Collections.unmodifiableList(results);
+         this.commandBarrier = commandBarrier;
+         }
+
+      /** Returns whether the command succeeded on each finch, in index order. */
+      public List<Boolean> getResults()
+         {
+         return results;
+         }
+
+      /**
+       * Returns <code>true</code> if every finch was ready in time, so that the commands were all released together.
+       * Otherwise, the commands which were ready were released when the wait timed out.
+       */
+      public boolean wasSynchronized()
+         {
+         return !commandBarrier.isBroken();
+         }
+
+      /**
+       * Returns the time between the first and last finch completing the command, or -1 if none completed.  This is
+       * the best available measure of how far apart the finches actually acted.
+       */
+      public long getCompletionSpread(final TimeUnit timeUnit)
+         {
+         return commandBarrier.getCompletionSpread(timeUnit);
+         }
+
+      @Override
+      public String toString()
+         {
+         final StringBuilder sb = new StringBuilder();
+         sb.append("GroupCommandResult");
+         sb.append("{results=").append(results);
+         sb.append(", wasSynchronized=").append(wasSynchronized());
+         sb.append(", completionSpreadMicros=").append(getCompletionSpread(TimeUnit.MICROSECONDS));
+         sb.append('}');
+         return sb.toString();
+         }
+      }
+
+   /**
+    * Connects, in parallel, to every attached USB HID finch and to a backpacked finch on each of the given serial ports
+    * (which may be empty), and returns the fleet of those which connected successfully.
+    */
+   public static FinchFleet connect(final Collection<String> backpackSerialPortNames)
+      {
+      final List<Callable<FinchController>> connectors = new ArrayList<Callable<FinchController>>();
+
+      // claim every available HID finch (which is quick), deferring the slower controller creation to the connectors
+      for (final HIDDevice hidDevice : HIDFinchController.connectToAllHIDDevices())
+         {
+         connectors.add(
+               new Callable<FinchController>()
+               {
+               public FinchController call()
+                  {
+                  return HIDFinchController.create(hidDevice);
+                  }
+               });
+         }
+
+      if (backpackSerialPortNames != null)
+         {
+         for (final String serialPortName : backpackSerialPortNames)
+            {
+            connectors.add(
+                  new Callable<FinchController>()
+                  {
+                  public FinchController call()
+                     {
+                     return BackpackedFinchController.create(serialPortName);
+                     }
+                  });
+            }
+         }
+
+      return connect(connectors);
+      }
+
+   /**
+    * Runs the given connectors in parallel, and returns the fleet of the finches they created.  Connectors may return
+    * <code>null</code> (or throw) upon failure, in which case the finch is left out.  This is useful for building
+    * fleets of simulated or emulated finches.
+    */
+   public static FinchFleet connect(final List<Callable<FinchController>> connectors)
+      {
+      final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, connectors.size()), new DaemonThreadFactory("FinchFleet.executor"));
+      try
+         {
+         final List<Future<FinchController>> futures = new ArrayList<Future<FinchController>>(connectors.size());
+         for (final Callable<FinchController> connector : connectors)
+            {
+            futures.add(executor.submit(connector));
+            }
+
+         final List<FinchController> finchControllers = new ArrayList<FinchController>(futures.size());
+         for (final Future<FinchController> future : futures)
+            {
+            final FinchController finchController = getQuietly(future);
+            if (finchController != null)
+               {
+               finchControllers.add(finchController);
+               }
+            }
+         if (LOG.isInfoEnabled())
+            {
+            LOG.info("FinchFleet.connect(): connected to [" + finchControllers.size() + "] of [" + connectors.size() + "] finches");
+            }
+         return new FinchFleet(finchControllers);
+         }
+      finally
+         {
+         executor.shutdown();
+         }
+      }
+
+   private static <T> T getQuietly(final Future<T> future)
+      {
+      try
+         {
+         return future.get();
+         }
+      catch (InterruptedException e)
+         {
+         LOG.error("FinchFleet.getQuietly(): InterruptedException while waiting for a result", e);
+         Thread.currentThread().interrupt();
+         }
+      catch (ExecutionException e)
+         {
+         LOG.error("FinchFleet.getQuietly(): ExecutionException while waiting for a result", e);
+         }
+      return null;
+      }
+
+   private final List<FinchController> finchControllers;
+   private final Map<String, FinchController> finchControllersByPortName = new LinkedHashMap<String, FinchController>();
+   private final ExecutorService executor;
+   private volatile long groupCommandTimeoutInMillis = Math.max(1, Integer.getInteger(GROUP_COMMAND_TIMEOUT_SYSTEM_PROPERTY, DEFAULT_GROUP_COMMAND_TIMEOUT_MILLIS));
+
+   private FinchFleet(final List<FinchController> finchControllers)
+      {
+      this.finchControllers = Collections.unmodifiableList(finchControllers);
+      for (final FinchController finchController : finchControllers)
+         {
+         finchControllersByPortName.put(finchController.getPortName(), finchController);
+         }
+      executor = Executors.newFixedThreadPool(Math.max(1, finchControllers.size()), new DaemonThreadFactory("FinchFleet.executor"));
+      }
+
+   /** Returns the number of finches in the fleet. */
+   public int size()
+      {
+      return finchControllers.size();
+      }
+
+   /**
+    * Returns the finch at the given index.
+    *
+    * @throws IndexOutOfBoundsException if the index is out of range
+    */
+   public FinchController get(final int index)
+      {
+      return finchControllers.get(index);
+      }
+
+   /** Returns the finch connected to the port with the given name, or <code>null</code> if there is none. */
+   public FinchController get(final String portName)
+      {
+      return finchControllersByPortName.get(portName);
+      }
+
+   /** Returns an unmodifiable list of every finch in the fleet, in index order. */
+   public List<FinchController> getFinchControllers()
+      {
+      return finchControllers;
+      }
+
+   /** Returns the port names of the finches in the fleet, in index order. */
+   public List<String> getPortNames()
+      {
+      return new ArrayList<String>(finchControllersByPortName.keySet());
+      }
+
+   /**
+    * Performs the given operation on every finch in parallel, blocks until all are done, and returns the results in
+    * index order.  The result for a finch is <code>null</code> if the operation threw an exception.
+    */
+   public <T> List<T> execute(final Operation<T> operation)
+      {
+      final List<Future<T>> futures = new ArrayList<Future<T>>(finchControllers.size());
+      for (final FinchController finchController : finchControllers)
+         {
+         futures.add(executor.submit(
+               new Callable<T>()
+               {
+               public T call() throws Exception
+                  {
+                  return operation.execute(finchController);
+                  }
+               }));
+         }
+      return getAll(futures);
+      }
+
+   /** Sets the full-color LED of every finch, returning whether each succeeded. */
+   public List<Boolean> setFullColorLED(final int red, final int green, final int blue)
+      {
+      final List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(finchControllers.size());
+      for (final AsyncFinchController asyncFinchController : getAsyncFinchControllers())
+         {
+         futures.add(asyncFinchController.setFullColorLED(red, green, blue));
+         }
+      return getAll(futures);
+      }
+
+   /** Sets the motor velocities of every finch, returning whether each succeeded. */
+   public List<Boolean> setMotorVelocities(final int leftVelocity, final int rightVelocity)
+      {
+      final List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(finchControllers.size());
+      for (final AsyncFinchController asyncFinchController : getAsyncFinchControllers())
+         {
+         futures.add(asyncFinchController.setMotorVelocities(leftVelocity, rightVelocity));
+         }
+      return getAll(futures);
+      }
+
+   /** Turns off the motors and LED of every finch, returning whether each succeeded. */
+   public List<Boolean> emergencyStop()
+      {
+      final List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(finchControllers.size());
+      for (final AsyncFinchController asyncFinchController : getAsyncFinchControllers())
+         {
+         futures.add(asyncFinchController.emergencyStop());
+         }
+      return getAll(futures);
+      }
+
+   /** Reads all the sensors of every finch. */
+   public List<FinchSensorSnapshot> getSensorSnapshots()
+      {
+      final List<Future<FinchSensorSnapshot>> futures = new ArrayList<Future<FinchSensorSnapshot>>(finchControllers.size());
+      for (final AsyncFinchController asyncFinchController : getAsyncFinchControllers())
+         {
+         futures.add(asyncFinchController.getSensorSnapshot());
+         }
+      return getAll(futures);
+      }
+
+   /**
+    * Submits the given command to every finch, holding each at the head of its finch's queue until all are there, and
+    * then releasing them at once.  Blocks until every finch has executed the command.
+    */
+   public GroupCommandResult executeTogether(final GroupCommand groupCommand)
+      {
+      final CommandBarrier commandBarrier = new CommandBarrier(Math.max(1, finchControllers.size()), groupCommandTimeoutInMillis, TimeUnit.MILLISECONDS);
+      if (finchControllers.isEmpty())
+         {
+         commandBarrier.withdraw();
+         }
+
+      final List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>(finchControllers.size());
+      for (final AsyncFinchController asyncFinchController : getAsyncFinchControllers())
+         {
+         try
+            {
+            futures.add(groupCommand.submit(asyncFinchController, commandBarrier));
+            }
+         catch (Exception e)
+            {
+            LOG.error("FinchFleet.executeTogether(): Exception while submitting a group command", e);
+            commandBarrier.withdraw();
+            futures.add(null);
+            }
+         }
+
+      final List<Boolean> results = new ArrayList<Boolean>(futures.size());
+      for (final Future<Boolean> future : futures)
+         {
+         results.add(future == null ? null : getQuietly(future));
+         }
+      final GroupCommandResult result = new GroupCommandResult(results, commandBarrier);
+      if (LOG.isDebugEnabled())
+         {
+         LOG.debug("FinchFleet.executeTogether(): " + result);
+         }
+      return result;
+      }
+
+   /** Sets the full-color LED of every finch at the same moment. */
+   public GroupCommandResult setFullColorLEDTogether(final int red, final int green, final int blue)
+      {
+      return executeTogether(
+            new GroupCommand()
+            {
+            public Future<Boolean> submit(final AsyncFinchController asyncFinchController, final CommandBarrier commandBarrier)
+               {
+               return asyncFinchController.setFullColorLED(red, green, blue, commandBarrier);
+               }
+            });
+      }
+
+   /** Sets the motor velocities of every finch at the same moment. */
+   public GroupCommandResult setMotorVelocitiesTogether(final int leftVelocity, final int rightVelocity)
+      {
+      return executeTogether(
+            new GroupCommand()
+            {
+            public Future<Boolean> submit(final AsyncFinchController asyncFinchController, final CommandBarrier commandBarrier)
+               {
+               return asyncFinchController.setMotorVelocities(leftVelocity, rightVelocity, commandBarrier);
+               }
+            });
+      }
+
+   /**
+    * Sets how long a group command waits for every finch to be ready before releasing those which are.
+    *
+    * @throws IllegalArgumentException if the timeout isn't positive
+    */
+   public void setGroupCommandTimeout(final long timeout, final TimeUnit timeUnit)
+      {
+      if (timeout <= 0)
+         {
+         throw new IllegalArgumentException("The group command timeout must be positive");
+         }
+      groupCommandTimeoutInMillis = Math.max(1, timeUnit.toMillis(timeout));
+      }
+
+   /** Disconnects every finch in parallel, and releases the fleet's threads. */
+   public void disconnect()
+      {
+      execute(
+            new Operation<Void>()
+            {
+            public Void execute(final FinchController finchController)
+               {
+               finchController.disconnect();
+               return null;
+               }
+            });
+      executor.shutdown();
+      }
+
+   private List<AsyncFinchController> getAsyncFinchControllers()
+      {
+      final List<AsyncFinchController> asyncFinchControllers = new ArrayList<AsyncFinchController>(finchControllers.size());
+      for (final FinchController finchController : finchControllers)
+         {
+         asyncFinchControllers.add(finchController.getAsyncFinchController());
+         }
+      return asyncFinchControllers;
+      }
+
+   private static <T> List<T> getAll(final List<Future<T>> futures)
+      {
+      final List<T> results = new ArrayList<T>(futures.size());
+      for (final Future<T> future : futures)
+         {
+         results.add(getQuietly(future));
+         }
+      return results;
+      }
+   }
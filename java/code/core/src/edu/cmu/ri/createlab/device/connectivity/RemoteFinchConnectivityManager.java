@@ -0,0 +1,33 @@
+package edu.cmu.ri.createlab.device.connectivity;
+
+import edu.cmu.ri.createlab.terk.robot.finch.FinchController;
+import edu.cmu.ri.createlab.terk.robot.finch.net.FinchServer;
+import edu.cmu.ri.createlab.terk.robot.finch.net.RemoteFinchController;
+
+/**
+ * Connects to a finch shared by a {@link FinchServer} on another computer.
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class RemoteFinchConnectivityManager extends FinchConnectivityManager
+   {
+   private final String hostName;
+   private final int port;
+
+   public RemoteFinchConnectivityManager(final String hostName)
+      {
+      this(hostName, FinchServer.DEFAULT_PORT);
+      }
+
+   public RemoteFinchConnectivityManager(final String hostName, final int port)
+      {
+      this.hostName = hostName;
+      this.port = port;
+      }
+
+   @Override
+   protected FinchController scanForDeviceAndCreateProxy()
+      {
+      return RemoteFinchController.create(hostName, port);
+      }
+   }
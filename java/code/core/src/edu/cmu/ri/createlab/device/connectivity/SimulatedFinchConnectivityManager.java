@@ -0,0 +1,30 @@
+package edu.cmu.ri.createlab.device.connectivity;
+
+import edu.cmu.ri.createlab.terk.robot.finch.FinchController;
+import edu.cmu.ri.createlab.terk.robot.finch.SimulatedFinchController;
+import edu.cmu.ri.createlab.terk.robot.finch.simulator.FinchSimulator;
+
+/**
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class SimulatedFinchConnectivityManager extends FinchConnectivityManager
+   {
+   private final FinchSimulator simulator;
+
+   /** Connects to a new, real-time {@link FinchSimulator}. */
+   public SimulatedFinchConnectivityManager()
+      {
+      this(new FinchSimulator());
+      }
+
+   public SimulatedFinchConnectivityManager(final FinchSimulator simulator)
+      {
+      this.simulator = simulator;
+      }
+
+   @Override
+   protected FinchController scanForDeviceAndCreateProxy()
+      {
+      return SimulatedFinchController.create(simulator);
+      }
+   }
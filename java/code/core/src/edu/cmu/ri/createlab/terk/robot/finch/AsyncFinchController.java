@@ -0,0 +1,90 @@
+package edu.cmu.ri.createlab.terk.robot.finch;
+
+import java.awt.Color;
+import java.util.concurrent.Future;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.CommandBarrier;
+import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerGs;
+import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerState;
+
+/**
+ * <p>
+ * <code>AsyncFinchController</code> is the non-blocking counterpart of the {@link FinchController}.  Every sensor and
+ * actuator method here submits its command to the finch's command queue and returns immediately with a
+ * {@link Future} for the result, so that callers can issue several commands back to back and collect the results
+ * later.  Commands submitted via the <code>AsyncFinchController</code> and the {@link FinchController} share the same
+ * queue, so they're executed in the order in which they were issued.
+ * </p>
+ * <p>
+ * The value yielded by each {@link Future} is the same as the value that the corresponding {@link FinchController}
+ * method would have returned, so a <code>null</code> (or <code>false</code>) signals that an error occurred.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ * @see FinchController#getAsyncFinchController()
+ */
+public interface AsyncFinchController
+   {
+   /** @see FinchController#getAccelerometerState() */
+   Future<AccelerometerState> getAccelerometerState();
+
+   /** @see FinchController#getAccelerometerGs() */
+   Future<AccelerometerGs> getAccelerometerGs();
+
+   /** @see FinchController#isObstacleDetected(int) */
+   Future<Boolean> isObstacleDetected(final int id);
+
+   /** @see FinchController#areObstaclesDetected() */
+   Future<boolean[]> areObstaclesDetected();
+
+   /** @see FinchController#getPhotoresistors() */
+   Future<int[]> getPhotoresistors();
+
+   /** @see FinchController#getThermistor(int) */
+   Future<Integer> getThermistor(final int id);
+
+   /** @see FinchController#getThermistor() */
+   Future<Integer> getThermistor();
+
+   /** @see FinchController#getThermistorCelsiusTemperature() */
+   Future<Double> getThermistorCelsiusTemperature();
+
+   /** @see FinchController#getSensorSnapshot() */
+   Future<FinchSensorSnapshot> getSensorSnapshot();
+
+   /** @see FinchController#getAnalogInput(int) */
+   Future<Integer> getAnalogInput(final int id);
+
+   /** @see FinchController#getVoltage() */
+   Future<Integer> getVoltage();
+
+   /** @see FinchController#setFullColorLED(int, int, int) */
+   Future<Boolean> setFullColorLED(final int red, final int green, final int blue);
+
+   /** @see FinchController#setFullColorLED(Color) */
+   Future<Boolean> setFullColorLED(final Color color);
+
+   /** @see FinchController#setMotorVelocities(int, int) */
+   Future<Boolean> setMotorVelocities(final int leftVelocity, final int rightVelocity);
+
+   /**
+    * Sets the full-color LED at the same moment as the other commands sharing the given {@link CommandBarrier}
+    * (typically on other finches).  The command waits at the head of this finch's queue until every party has arrived.
+    *
+    * @see FinchController#setFullColorLED(int, int, int)
+    */
+   Future<Boolean> setFullColorLED(final int red, final int green, final int blue, final CommandBarrier commandBarrier);
+
+   /**
+    * Sets the motor velocities at the same moment as the other commands sharing the given {@link CommandBarrier}
+    * (typically on other finches).  The command waits at the head of this finch's queue until every party has arrived.
+    *
+    * @see FinchController#setMotorVelocities(int, int)
+    */
+   Future<Boolean> setMotorVelocities(final int leftVelocity, final int rightVelocity, final CommandBarrier commandBarrier);
+
+   /** @see FinchController#playBuzzerTone(int, int) */
+   Future<Boolean> playBuzzerTone(final int frequency, final int durationInMilliseconds);
+
+   /** @see FinchController#emergencyStop() */
+   Future<Boolean> emergencyStop();
+   }
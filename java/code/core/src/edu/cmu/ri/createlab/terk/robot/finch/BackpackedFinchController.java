@@ -2,11 +2,21 @@ package edu.cmu.ri.createlab.terk.robot.finch;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import edu.cmu.ri.createlab.serial.SerialDeviceCommandExecutionQueue;
-import edu.cmu.ri.createlab.serial.SerialDeviceNoReturnValueCommandExecutor;
-import edu.cmu.ri.createlab.serial.SerialDeviceReturnValueCommandExecutor;
-import edu.cmu.ri.createlab.util.commandexecution.CommandExecutionFailureHandler;
+import edu.cmu.ri.createlab.serial.SerialDeviceCommandResponse;
+import edu.cmu.ri.createlab.serial.SerialDeviceIOHelper;
 import edu.cmu.ri.createlab.serial.config.SerialIOConfiguration;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.AsyncCommandExecutionQueue;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.AsyncNoReturnValueCommandExecutor;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.AsyncReturnValueCommandExecutor;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.CommandBarrier;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.CommandDeadlines;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.FinchMetrics;
+import edu.cmu.ri.createlab.terk.robot.finch.commands.BuzzerCommandStrategyHelper;
+import edu.cmu.ri.createlab.terk.robot.finch.commands.FullColorLEDCommandStrategyHelper;
+import edu.cmu.ri.createlab.terk.robot.finch.commands.MotorVelocityCommandStrategyHelper;
 import edu.cmu.ri.createlab.terk.robot.finch.commands.serial.BuzzerCommandStrategy;
 import edu.cmu.ri.createlab.terk.robot.finch.commands.serial.DisconnectCommandStrategy;
 import edu.cmu.ri.createlab.terk.robot.finch.commands.serial.EmergencyStopCommandStrategy;
@@ -15,15 +25,22 @@ import edu.cmu.ri.createlab.terk.robot.finch.commands.serial.GetAccelerometerCom
 import edu.cmu.ri.createlab.terk.robot.finch.commands.serial.GetAnalogInputCommandStrategy;
 import edu.cmu.ri.createlab.terk.robot.finch.commands.serial.GetObstacleSensorCommandStrategy;
 import edu.cmu.ri.createlab.terk.robot.finch.commands.serial.GetPhotoresistorCommandStrategy;
+import edu.cmu.ri.createlab.terk.robot.finch.commands.serial.GetSensorSnapshotCommandStrategy;
 import edu.cmu.ri.createlab.terk.robot.finch.commands.serial.GetThermistorCommandStrategy;
 import edu.cmu.ri.createlab.terk.robot.finch.commands.serial.GetVoltageCommandStrategy;
 import edu.cmu.ri.createlab.terk.robot.finch.commands.serial.HandshakeCommandStrategy;
 import edu.cmu.ri.createlab.terk.robot.finch.commands.serial.MotorVelocityCommandStrategy;
+import edu.cmu.ri.createlab.terk.robot.finch.trace.TraceRecorder;
 import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerState;
 import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerUnitConversionStrategy;
 import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerUnitConversionStrategyFinder;
 import edu.cmu.ri.createlab.terk.services.thermistor.ThermistorUnitConversionStrategy;
 import edu.cmu.ri.createlab.terk.services.thermistor.ThermistorUnitConversionStrategyFinder;
+import edu.cmu.ri.createlab.util.commandexecution.CommandExecutionFailureHandler;
+import edu.cmu.ri.createlab.util.commandexecution.CommandExecutionQueue;
+import edu.cmu.ri.createlab.util.commandexecution.CommandStrategy;
+import edu.cmu.ri.createlab.util.commandexecution.NoReturnValueCommandExecutor;
+import edu.cmu.ri.createlab.util.commandexecution.ReturnValueCommandExecutor;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 
@@ -42,8 +59,26 @@ public final class BackpackedFinchController extends BaseFinchController
     *
     * @throws IllegalArgumentException if the <code>serialPortName</code> is <code>null</code>
     */
-   @SuppressWarnings({"UseOfSystemOutOrSystemErr"})
    public static FinchController create(final String serialPortName)
+      {
+      return create(serialPortName, 0, null);
+      }
+
+   /**
+    * Tries to create a <code>FinchController</code> by connecting to a Finch Backpack on the serial port specified by
+    * the given <code>serialPortName</code>, giving up on the handshake if the backpack doesn't respond within the given
+    * timeout.  Pass a <code>null</code> {@link TimeUnit} to use the serial port's default timeout.  Returns
+    * <code>null</code> if the connection could not be established.
+    *
+    * @param serialPortName - the name of the serial port device which should be used to establish the connection
+    * @param handshakeTimeout - the longest to wait for the backpack to respond to the handshake
+    * @param handshakeTimeoutTimeUnit - the unit of the <code>handshakeTimeout</code>, or <code>null</code> for the
+    * default timeout
+    *
+    * @throws IllegalArgumentException if the <code>serialPortName</code> is <code>null</code>
+    */
+   @SuppressWarnings({"UseOfSystemOutOrSystemErr"})
+   public static FinchController create(final String serialPortName, final long handshakeTimeout, final TimeUnit handshakeTimeoutTimeUnit)
       {
       // a little error checking...
       if (serialPortName == null)
@@ -79,43 +114,9 @@ public final class BackpackedFinchController extends BaseFinchController
                LOG.debug("Serial port '" + serialPortName + "' opened.");
                }
 
-            // Check the battery voltage to make sure you're getting proper data back
-             final SerialDeviceReturnValueCommandExecutor<Integer> integerReturnValueCommandExecutor =
-             					new SerialDeviceReturnValueCommandExecutor<Integer>(commandQueue,
-																								  new CommandExecutionFailureHandler()
-																								  {
-																								  @Override
-																								  public void handleExecutionFailure()
-																									 {
-																										//commandQueue.shutdown();
-																									 }
-																								  });
-			final Integer voltage =  integerReturnValueCommandExecutor.execute(new GetVoltageCommandStrategy());
-
-			boolean wasHandshakeSuccessful = false;
-			if(voltage != null)
-			{
-				if(voltage <= 255 && voltage > 100)
-					wasHandshakeSuccessful = true;
-			}
-
-			// see if the handshake was a success
-
-			 if (wasHandshakeSuccessful)
-			   {
-			   LOG.info("Finch handshake successful!");
-
-			   // now create and return the proxy
-			   return new BackpackedFinchController(commandQueue, serialPortName);
-			   }
-			else
-			   {
-			   LOG.error("Failed to handshake with finch");
-			   }
-
-			// the handshake failed, so shutdown the command queue to release the serial port
-			commandQueue.shutdown();
-			}
+            // check the battery voltage to make sure we're getting proper data back
+            return create(commandQueue, serialPortName, handshakeTimeout, handshakeTimeoutTimeUnit);
+            }
          }
       catch (Exception e)
          {
@@ -125,9 +126,106 @@ public final class BackpackedFinchController extends BaseFinchController
       return null;
       }
 
+   /**
+    * Tries to create a <code>FinchController</code> which talks to a Finch Backpack through the given serial command
+    * queue (e.g. one which talks to a {@link edu.cmu.ri.createlab.terk.robot.finch.simulator.FinchFirmwareEmulator}
+    * rather than a real serial port).  The battery voltage is read first to make sure the backpack is responding
+    * properly, and the command queue is shut down if it isn't.  Returns <code>null</code> if the connection could not be
+    * established.
+    *
+    * @param serialCommandQueue - the command queue used to talk to the backpack
+    * @param serialPortName - the name reported by {@link #getPortName()}
+    *
+    * @throws IllegalArgumentException if the <code>serialCommandQueue</code> or <code>serialPortName</code> is
+    * <code>null</code>
+    */
+   public static FinchController create(final CommandExecutionQueue<CommandStrategy<SerialDeviceIOHelper, SerialDeviceCommandResponse>, SerialDeviceCommandResponse> serialCommandQueue,
+                                        final String serialPortName)
+      {
+      return create(serialCommandQueue, serialPortName, 0, null);
+      }
+
+   /**
+    * Tries to create a <code>FinchController</code> which talks to a Finch Backpack through the given serial command
+    * queue, giving up on the handshake if the backpack doesn't respond within the given timeout.  Pass a
+    * <code>null</code> {@link TimeUnit} to use the command queue's default timeout.  The command queue is shut down if
+    * the handshake fails.  Returns <code>null</code> if the connection could not be established.
+    *
+    * @param serialCommandQueue - the command queue used to talk to the backpack
+    * @param serialPortName - the name reported by {@link #getPortName()}
+    * @param handshakeTimeout - the longest to wait for the backpack to respond to the handshake
+    * @param handshakeTimeoutTimeUnit - the unit of the <code>handshakeTimeout</code>, or <code>null</code> for the
+    * default timeout
+    *
+    * @throws IllegalArgumentException if the <code>serialCommandQueue</code> or <code>serialPortName</code> is
+    * <code>null</code>
+    */
+   public static FinchController create(final CommandExecutionQueue<CommandStrategy<SerialDeviceIOHelper, SerialDeviceCommandResponse>, SerialDeviceCommandResponse> serialCommandQueue,
+                                        final String serialPortName,
+                                        final long handshakeTimeout,
+                                        final TimeUnit handshakeTimeoutTimeUnit)
+      {
+      if (serialCommandQueue == null || serialPortName == null)
+         {
+         throw new IllegalArgumentException("The serial command queue and serial port name may not be null");
+         }
+
+      try
+         {
+         final ReturnValueCommandExecutor<SerialDeviceIOHelper, SerialDeviceCommandResponse, Integer> integerReturnValueCommandExecutor =
+               new ReturnValueCommandExecutor<SerialDeviceIOHelper, SerialDeviceCommandResponse, Integer>(serialCommandQueue,
+                                                                                                           new CommandExecutionFailureHandler()
+                                                                                                           {
+                                                                                                           @Override
+                                                                                                           public void handleExecutionFailure()
+                                                                                                              {
+                                                                                                              // nothing to do, since a null voltage fails the handshake below
+                                                                                                              }
+                                                                                                           });
+         final Integer voltage;
+         if (handshakeTimeoutTimeUnit == null)
+            {
+            voltage = integerReturnValueCommandExecutor.execute(new GetVoltageCommandStrategy());
+            }
+         else
+            {
+            voltage = integerReturnValueCommandExecutor.execute(new GetVoltageCommandStrategy(), handshakeTimeout, handshakeTimeoutTimeUnit);
+            }
+
+         // see if the handshake was a success
+         if (voltage != null && voltage <= 255 && voltage > 100)
+            {
+            LOG.info("Finch handshake successful!");
+
+            // now create and return the proxy, recording a trace of the command queue if requested
+            final BackpackedFinchController finchController = new BackpackedFinchController(TraceRecorder.wrapSerialCommandQueueIfEnabled(serialCommandQueue), serialPortName);
+            finchController.registerMBean();
+            return finchController;
+            }
+         else
+            {
+            LOG.error("Failed to handshake with finch");
+            }
+         }
+      catch (Exception e)
+         {
+         LOG.error("Exception while trying to create the BackpackedFinchController", e);
+         }
+
+      // the handshake failed, so shutdown the command queue to release the serial port
+      serialCommandQueue.shutdown();
+
+      return null;
+      }
+
    private final FinchProperties finchProperties = BackpackedFinchProperties.getInstance();
 
-   private final SerialDeviceCommandExecutionQueue commandQueue;
+   /** Shared by all of the actuator command strategies, which encode their setpoints into the helpers' buffers. */
+   private final FullColorLEDCommandStrategyHelper fullColorLEDCommandStrategyHelper = new FullColorLEDCommandStrategyHelper(finchProperties);
+   private final MotorVelocityCommandStrategyHelper motorVelocityCommandStrategyHelper = new MotorVelocityCommandStrategyHelper(finchProperties);
+   private final BuzzerCommandStrategyHelper buzzerCommandStrategyHelper = new BuzzerCommandStrategyHelper(finchProperties);
+
+   private final AsyncCommandExecutionQueue<SerialDeviceIOHelper, SerialDeviceCommandResponse> commandQueue;
    private final String serialPortName;
 
    private final DisconnectCommandStrategy disconnectHIDCommandStrategy = new DisconnectCommandStrategy();
@@ -140,26 +238,45 @@ public final class BackpackedFinchController extends BaseFinchController
 
    private final Map<Integer, GetAnalogInputCommandStrategy> analogInputCommandStategyMap = new HashMap<Integer, GetAnalogInputCommandStrategy>();
 
-   private final SerialDeviceNoReturnValueCommandExecutor noReturnValueCommandExecutor;
-   private final SerialDeviceReturnValueCommandExecutor<AccelerometerState> accelerometerStateReturnValueCommandExecutor;
-   private final SerialDeviceReturnValueCommandExecutor<boolean[]> booleanArrayStateReturnValueCommandExecutor;
-   private final SerialDeviceReturnValueCommandExecutor<int[]> intArrayStateReturnValueCommandExecutor;
-   private final SerialDeviceReturnValueCommandExecutor<Integer> integerReturnValueCommandExecutor;
+   private final NoReturnValueCommandExecutor<SerialDeviceIOHelper, SerialDeviceCommandResponse> noReturnValueCommandExecutor;
+   private final ReturnValueCommandExecutor<SerialDeviceIOHelper, SerialDeviceCommandResponse, AccelerometerState> accelerometerStateReturnValueCommandExecutor;
+   private final ReturnValueCommandExecutor<SerialDeviceIOHelper, SerialDeviceCommandResponse, boolean[]> booleanArrayStateReturnValueCommandExecutor;
+   private final ReturnValueCommandExecutor<SerialDeviceIOHelper, SerialDeviceCommandResponse, int[]> intArrayStateReturnValueCommandExecutor;
+   private final ReturnValueCommandExecutor<SerialDeviceIOHelper, SerialDeviceCommandResponse, Integer> integerReturnValueCommandExecutor;
+   private final ReturnValueCommandExecutor<SerialDeviceIOHelper, SerialDeviceCommandResponse, FinchSensorSnapshot> sensorSnapshotReturnValueCommandExecutor;
+
+   private final AsyncNoReturnValueCommandExecutor<SerialDeviceIOHelper, SerialDeviceCommandResponse> asyncNoReturnValueCommandExecutor;
+   private final AsyncReturnValueCommandExecutor<SerialDeviceIOHelper, SerialDeviceCommandResponse, AccelerometerState> asyncAccelerometerStateReturnValueCommandExecutor;
+   private final AsyncReturnValueCommandExecutor<SerialDeviceIOHelper, SerialDeviceCommandResponse, boolean[]> asyncBooleanArrayStateReturnValueCommandExecutor;
+   private final AsyncReturnValueCommandExecutor<SerialDeviceIOHelper, SerialDeviceCommandResponse, int[]> asyncIntArrayStateReturnValueCommandExecutor;
+   private final AsyncReturnValueCommandExecutor<SerialDeviceIOHelper, SerialDeviceCommandResponse, Integer> asyncIntegerReturnValueCommandExecutor;
+   private final AsyncReturnValueCommandExecutor<SerialDeviceIOHelper, SerialDeviceCommandResponse, FinchSensorSnapshot> asyncSensorSnapshotReturnValueCommandExecutor;
+
+   private final AsyncFinchController asyncFinchController = new BackpackedAsyncFinchController();
 
    private final AccelerometerUnitConversionStrategy accelerometerUnitConversionStrategy = AccelerometerUnitConversionStrategyFinder.getInstance().lookup(finchProperties.getAccelerometerDeviceId());
    private final ThermistorUnitConversionStrategy thermistorUnitConversionStrategy = ThermistorUnitConversionStrategyFinder.getInstance().lookup(finchProperties.getThermistorDeviceId());
+   private final GetSensorSnapshotCommandStrategy getSensorSnapshotCommandStrategy = new GetSensorSnapshotCommandStrategy(accelerometerUnitConversionStrategy, thermistorUnitConversionStrategy);
 
-   private BackpackedFinchController(final SerialDeviceCommandExecutionQueue commandQueue, final String serialPortName)
+   private BackpackedFinchController(final CommandExecutionQueue<CommandStrategy<SerialDeviceIOHelper, SerialDeviceCommandResponse>, SerialDeviceCommandResponse> serialCommandQueue, final String serialPortName)
       {
       super(false);
-      this.commandQueue = commandQueue;
+      this.commandQueue = new AsyncCommandExecutionQueue<SerialDeviceIOHelper, SerialDeviceCommandResponse>(serialCommandQueue, deadlineFailureHandler);
       this.serialPortName = serialPortName;
 
-      noReturnValueCommandExecutor = new SerialDeviceNoReturnValueCommandExecutor(commandQueue, this);
-      accelerometerStateReturnValueCommandExecutor = new SerialDeviceReturnValueCommandExecutor<AccelerometerState>(commandQueue, this);
-      booleanArrayStateReturnValueCommandExecutor = new SerialDeviceReturnValueCommandExecutor<boolean[]>(commandQueue, this);
-      intArrayStateReturnValueCommandExecutor = new SerialDeviceReturnValueCommandExecutor<int[]>(commandQueue, this);
-      integerReturnValueCommandExecutor = new SerialDeviceReturnValueCommandExecutor<Integer>(commandQueue, this);
+      noReturnValueCommandExecutor = new NoReturnValueCommandExecutor<SerialDeviceIOHelper, SerialDeviceCommandResponse>(commandQueue, this);
+      accelerometerStateReturnValueCommandExecutor = new ReturnValueCommandExecutor<SerialDeviceIOHelper, SerialDeviceCommandResponse, AccelerometerState>(commandQueue, this);
+      booleanArrayStateReturnValueCommandExecutor = new ReturnValueCommandExecutor<SerialDeviceIOHelper, SerialDeviceCommandResponse, boolean[]>(commandQueue, this);
+      intArrayStateReturnValueCommandExecutor = new ReturnValueCommandExecutor<SerialDeviceIOHelper, SerialDeviceCommandResponse, int[]>(commandQueue, this);
+      integerReturnValueCommandExecutor = new ReturnValueCommandExecutor<SerialDeviceIOHelper, SerialDeviceCommandResponse, Integer>(commandQueue, this);
+      sensorSnapshotReturnValueCommandExecutor = new ReturnValueCommandExecutor<SerialDeviceIOHelper, SerialDeviceCommandResponse, FinchSensorSnapshot>(commandQueue, this);
+
+      asyncNoReturnValueCommandExecutor = new AsyncNoReturnValueCommandExecutor<SerialDeviceIOHelper, SerialDeviceCommandResponse>(commandQueue, this);
+      asyncAccelerometerStateReturnValueCommandExecutor = new AsyncReturnValueCommandExecutor<SerialDeviceIOHelper, SerialDeviceCommandResponse, AccelerometerState>(commandQueue, this);
+      asyncBooleanArrayStateReturnValueCommandExecutor = new AsyncReturnValueCommandExecutor<SerialDeviceIOHelper, SerialDeviceCommandResponse, boolean[]>(commandQueue, this);
+      asyncIntArrayStateReturnValueCommandExecutor = new AsyncReturnValueCommandExecutor<SerialDeviceIOHelper, SerialDeviceCommandResponse, int[]>(commandQueue, this);
+      asyncIntegerReturnValueCommandExecutor = new AsyncReturnValueCommandExecutor<SerialDeviceIOHelper, SerialDeviceCommandResponse, Integer>(commandQueue, this);
+      asyncSensorSnapshotReturnValueCommandExecutor = new AsyncReturnValueCommandExecutor<SerialDeviceIOHelper, SerialDeviceCommandResponse, FinchSensorSnapshot>(commandQueue, this);
 
       // initialize the analog input command strategy map
       for (int i = 0; i < finchProperties.getAnalogInputDeviceCount(); i++)
@@ -174,6 +291,24 @@ public final class BackpackedFinchController extends BaseFinchController
       return finchProperties;
       }
 
+   @Override
+   public AsyncFinchController getAsyncFinchController()
+      {
+      return asyncFinchController;
+      }
+
+   @Override
+   public FinchMetrics getFinchMetrics()
+      {
+      return commandQueue.getMetrics();
+      }
+
+   @Override
+   public CommandDeadlines getCommandDeadlines()
+      {
+      return commandQueue.getCommandDeadlines();
+      }
+
    @Override
    public String getPortName()
       {
@@ -187,7 +322,7 @@ public final class BackpackedFinchController extends BaseFinchController
       }
 
    @Override
-   public AccelerometerState getAccelerometerState()
+   protected AccelerometerState readAccelerometerState()
       {
       return accelerometerStateReturnValueCommandExecutor.execute(getAccelerometerCommandStrategy);
       }
@@ -204,6 +339,12 @@ public final class BackpackedFinchController extends BaseFinchController
       return intArrayStateReturnValueCommandExecutor.execute(getPhotoresistorCommandStrategy);
       }
 
+   @Override
+   protected FinchSensorSnapshot readSensorSnapshot()
+      {
+      return sensorSnapshotReturnValueCommandExecutor.execute(getSensorSnapshotCommandStrategy);
+      }
+
    @Override
    protected ThermistorUnitConversionStrategy getThermistorUnitConversionStrategy()
       {
@@ -243,26 +384,27 @@ public final class BackpackedFinchController extends BaseFinchController
    @Override
    public boolean setFullColorLED(final int red, final int green, final int blue)
       {
-      return noReturnValueCommandExecutor.execute(new FullColorLEDCommandStrategy(red, green, blue, finchProperties));
+      updateFullColorLEDShadow(red, green, blue);
+      return noReturnValueCommandExecutor.execute(new FullColorLEDCommandStrategy(red, green, blue, fullColorLEDCommandStrategyHelper));
       }
 
    @Override
    public boolean setMotorVelocities(final int leftVelocity, final int rightVelocity)
       {
-      return noReturnValueCommandExecutor.execute(new MotorVelocityCommandStrategy(leftVelocity,
-                                                                                   rightVelocity,
-                                                                                   finchProperties));
+      updateMotorVelocitiesShadow(leftVelocity, rightVelocity);
+      return noReturnValueCommandExecutor.execute(new MotorVelocityCommandStrategy(leftVelocity, rightVelocity, motorVelocityCommandStrategyHelper));
       }
 
    @Override
    public boolean playBuzzerTone(final int frequency, final int durationInMilliseconds)
       {
-      return noReturnValueCommandExecutor.execute(new BuzzerCommandStrategy(frequency, durationInMilliseconds, finchProperties));
+      return noReturnValueCommandExecutor.execute(new BuzzerCommandStrategy(frequency, durationInMilliseconds, buzzerCommandStrategyHelper));
       }
 
    @Override
    public boolean emergencyStop()
       {
+      clearActuatorShadow();
       return noReturnValueCommandExecutor.execute(emergencyStopCommandStrategy);
       }
 
@@ -277,4 +419,89 @@ public final class BackpackedFinchController extends BaseFinchController
       {
       commandQueue.shutdown();
       }
+   
+   private final class BackpackedAsyncFinchController extends BaseAsyncFinchController
+      {
+      protected Future<AccelerometerState> readAccelerometerState()
+         {
+         return asyncAccelerometerStateReturnValueCommandExecutor.execute(getAccelerometerCommandStrategy);
+         }
+
+      public Future<boolean[]> areObstaclesDetected()
+         {
+         return asyncBooleanArrayStateReturnValueCommandExecutor.execute(getObstacleSensorCommandStrategy);
+         }
+
+      public Future<int[]> getPhotoresistors()
+         {
+         return asyncIntArrayStateReturnValueCommandExecutor.execute(getPhotoresistorCommandStrategy);
+         }
+
+      protected Future<FinchSensorSnapshot> readSensorSnapshot()
+         {
+         return asyncSensorSnapshotReturnValueCommandExecutor.execute(getSensorSnapshotCommandStrategy);
+         }
+
+      public Future<Integer> getThermistor(final int id)
+         {
+         if (id >= 0 && id < finchProperties.getThermistorDeviceCount())
+            {
+            return asyncIntegerReturnValueCommandExecutor.execute(getThermistorCommandStrategy);
+            }
+
+         return createCompletedFuture(null);
+         }
+
+      public Future<Integer> getAnalogInput(final int id)
+         {
+         final GetAnalogInputCommandStrategy strategy = analogInputCommandStategyMap.get(id);
+
+         if (strategy != null)
+            {
+            return asyncIntegerReturnValueCommandExecutor.execute(strategy);
+            }
+
+         return createCompletedFuture(null);
+         }
+
+      public Future<Integer> getVoltage()
+         {
+         return asyncIntegerReturnValueCommandExecutor.execute(getVoltageCommandStrategy);
+         }
+
+      public Future<Boolean> setFullColorLED(final int red, final int green, final int blue)
+         {
+         updateFullColorLEDShadow(red, green, blue);
+         return asyncNoReturnValueCommandExecutor.execute(new FullColorLEDCommandStrategy(red, green, blue, fullColorLEDCommandStrategyHelper));
+         }
+
+      public Future<Boolean> setMotorVelocities(final int leftVelocity, final int rightVelocity)
+         {
+         updateMotorVelocitiesShadow(leftVelocity, rightVelocity);
+         return asyncNoReturnValueCommandExecutor.execute(new MotorVelocityCommandStrategy(leftVelocity, rightVelocity, motorVelocityCommandStrategyHelper));
+         }
+
+      public Future<Boolean> setFullColorLED(final int red, final int green, final int blue, final CommandBarrier commandBarrier)
+         {
+         updateFullColorLEDShadow(red, green, blue);
+         return asyncNoReturnValueCommandExecutor.execute(new FullColorLEDCommandStrategy(red, green, blue, fullColorLEDCommandStrategyHelper), commandBarrier);
+         }
+
+      public Future<Boolean> setMotorVelocities(final int leftVelocity, final int rightVelocity, final CommandBarrier commandBarrier)
+         {
+         updateMotorVelocitiesShadow(leftVelocity, rightVelocity);
+         return asyncNoReturnValueCommandExecutor.execute(new MotorVelocityCommandStrategy(leftVelocity, rightVelocity, motorVelocityCommandStrategyHelper), commandBarrier);
+         }
+
+      public Future<Boolean> playBuzzerTone(final int frequency, final int durationInMilliseconds)
+         {
+         return asyncNoReturnValueCommandExecutor.execute(new BuzzerCommandStrategy(frequency, durationInMilliseconds, buzzerCommandStrategyHelper));
+         }
+
+      public Future<Boolean> emergencyStop()
+         {
+         clearActuatorShadow();
+         return asyncNoReturnValueCommandExecutor.execute(emergencyStopCommandStrategy);
+         }
+      }
    }
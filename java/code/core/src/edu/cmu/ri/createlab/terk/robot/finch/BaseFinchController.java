@@ -1,16 +1,29 @@
 package edu.cmu.ri.createlab.terk.robot.finch;
 
 import java.awt.Color;
+import java.lang.management.ManagementFactory;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.concurrent.Callable;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 import edu.cmu.ri.createlab.audio.AudioHelper;
 import edu.cmu.ri.createlab.device.CreateLabDevicePingFailureEventListener;
 import edu.cmu.ri.createlab.speech.Mouth;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.ConvertingFuture;
 import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerGs;
+import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerState;
 import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerUnitConversionStrategy;
 import edu.cmu.ri.createlab.terk.services.thermistor.ThermistorUnitConversionStrategy;
 import edu.cmu.ri.createlab.util.commandexecution.CommandExecutionFailureHandler;
@@ -25,27 +38,47 @@ abstract class BaseFinchController implements FinchController, CommandExecutionF
    {
    private static final Logger LOG = Logger.getLogger(BaseFinchController.class);
 
-   private static final int DELAY_IN_SECONDS_BETWEEN_PEER_PINGS = 2;
+   /**
+    * The system property which sets how long, in milliseconds, the finch may go without successfully completing a
+    * command before it's pinged.  Defaults to {@link #DEFAULT_PING_IDLE_PERIOD_IN_MILLIS}.
+    */
+   public static final String PING_IDLE_PERIOD_SYSTEM_PROPERTY = "finch.ping.idle-millis";
+
+   private static final int DEFAULT_PING_IDLE_PERIOD_IN_MILLIS = 1000;
 
-   private boolean isDisconnected = false;
+   private static final String MBEAN_DOMAIN = "edu.cmu.ri.createlab.terk.robot.finch";
+   private static final AtomicInteger NEXT_MBEAN_ID = new AtomicInteger(0);
+
+   private volatile boolean isDisconnected = false;
+   private volatile boolean isDisconnecting = false;
+   private final AtomicBoolean hasFailed = new AtomicBoolean(false);
    private final Pinger pinger = new Pinger();
    private final ScheduledExecutorService pingExecutorService = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("BaseFinchController.pingExecutorService"));
-   private final ScheduledFuture<?> pingScheduledFuture;
+   private final boolean isPingerEnabled;
    private final Collection<CreateLabDevicePingFailureEventListener> createLabDevicePingFailureEventListeners = new HashSet<CreateLabDevicePingFailureEventListener>();
 
+   private final AtomicReference<FinchSensorSnapshot> latestSensorSnapshot = new AtomicReference<FinchSensorSnapshot>();
+   private final AtomicBoolean wasShaken = new AtomicBoolean(false);
+   private final AtomicBoolean wasTapped = new AtomicBoolean(false);
+   private final SensorSampler sensorSampler = new SensorSampler();
+   private final ScheduledExecutorService sensorSamplerExecutorService = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("BaseFinchController.sensorSamplerExecutorService"));
+   private final Object sensorSamplerLock = new Object();
+   private ScheduledFuture<?> sensorSamplerScheduledFuture = null;
+
+   /** The most recently commanded actuator state, as reported by the {@link FinchControllerMBean}. */
+   private volatile int[] fullColorLEDShadow = new int[]{0, 0, 0};
+   private volatile int[] motorVelocitiesShadow = new int[]{0, 0};
+
+   private final Object mbeanLock = new Object();
+   private ObjectName mbeanName = null;
+
    protected BaseFinchController(final boolean usePinger)
       {
+      isPingerEnabled = usePinger;
       if (usePinger)
          {
-         // schedule periodic pings
-         pingScheduledFuture = pingExecutorService.scheduleAtFixedRate(pinger,
-                                                                       DELAY_IN_SECONDS_BETWEEN_PEER_PINGS, // delay before first ping
-                                                                       DELAY_IN_SECONDS_BETWEEN_PEER_PINGS, // delay between pings
-                                                                       TimeUnit.SECONDS);
-         }
-      else
-         {
-         pingScheduledFuture = null;
+         // schedule the first check for idleness (the pinger reschedules itself after that)
+         pinger.schedule(pinger.getIdlePeriodInNanos());
          }
       }
 
@@ -55,6 +88,23 @@ abstract class BaseFinchController implements FinchController, CommandExecutionF
       pinger.forceFailure();
       }
 
+   /**
+    * The handler which implementations should give to their command queue, to be notified when too many consecutive
+    * commands miss their deadlines.  The ping failure listeners are notified first, and only then is the finch
+    * disconnected, since disconnecting from a wedged device may itself take several seconds.
+    */
+   protected final CommandExecutionFailureHandler deadlineFailureHandler = new CommandExecutionFailureHandler()
+   {
+   public void handleExecutionFailure()
+      {
+      // a deliberate disconnect may well miss deadlines, but that's no failure
+      if (!isDisconnecting)
+         {
+         pinger.handlePingFailure(true);
+         }
+      }
+   };
+
    @Override
    public final void addCreateLabDevicePingFailureEventListener(final CreateLabDevicePingFailureEventListener listener)
       {
@@ -113,6 +163,19 @@ abstract class BaseFinchController implements FinchController, CommandExecutionF
 
    protected abstract AccelerometerUnitConversionStrategy getAccelerometerUnitConversionStrategy();
 
+   /**
+    * Reads the state of the accelerometer.  Implementations should return <code>null</code> if an error occurred while
+    * trying to read the state.
+    */
+   protected abstract AccelerometerState readAccelerometerState();
+
+   public final AccelerometerState getAccelerometerState()
+      {
+      final AccelerometerState accelerometerState = readAccelerometerState();
+      recordShakeAndTap(accelerometerState);
+      return accelerometerState;
+      }
+
    /**
     * Returns the state of the accelerometer in g's; returns <code>null</code> if an error occurred while trying to read
     * the state.
@@ -159,6 +222,123 @@ abstract class BaseFinchController implements FinchController, CommandExecutionF
       return null;
       }
 
+   /**
+    * Reads all the sensors in a single command execution.  Implementations should return <code>null</code> if an error
+    * occurred while trying to read the values.
+    */
+   protected abstract FinchSensorSnapshot readSensorSnapshot();
+
+   public final FinchSensorSnapshot getSensorSnapshot()
+      {
+      final FinchSensorSnapshot snapshot = readSensorSnapshot();
+      publishSensorSnapshot(snapshot);
+      return snapshot;
+      }
+
+   public final FinchSensorSnapshot getSensorSnapshot(final int maxAgeInMillis)
+      {
+      final FinchSensorSnapshot cachedSnapshot = latestSensorSnapshot.get();
+      if (cachedSnapshot != null && cachedSnapshot.getAgeInMillis() <= maxAgeInMillis)
+         {
+         return cachedSnapshot;
+         }
+      return getSensorSnapshot();
+      }
+
+   /**
+    * Makes the given snapshot the latest one, unless it's <code>null</code> or older than the current one.  Shakes and
+    * taps are recorded either way, since the finch forgets them once they've been read.
+    */
+   private void publishSensorSnapshot(final FinchSensorSnapshot snapshot)
+      {
+      if (snapshot != null)
+         {
+         recordShakeAndTap(snapshot.getAccelerometerState());
+
+         while (true)
+            {
+            final FinchSensorSnapshot currentSnapshot = latestSensorSnapshot.get();
+            if (currentSnapshot != null && currentSnapshot.getTimestamp() > snapshot.getTimestamp())
+               {
+               return;
+               }
+            if (latestSensorSnapshot.compareAndSet(currentSnapshot, snapshot))
+               {
+               return;
+               }
+            }
+         }
+      }
+
+   /**
+    * Records any shake or tap reported by the given state (which may be <code>null</code>).  This must be done for
+    * every accelerometer state read from the finch, since the finch forgets them once they've been read.
+    */
+   private void recordShakeAndTap(final AccelerometerState accelerometerState)
+      {
+      if (accelerometerState != null)
+         {
+         if (accelerometerState.wasShaken())
+            {
+            wasShaken.set(true);
+            }
+         if (accelerometerState.wasTapped())
+            {
+            wasTapped.set(true);
+            }
+         }
+      }
+
+   public final boolean wasShakenSinceLastCheck()
+      {
+      return wasShaken.getAndSet(false);
+      }
+
+   public final boolean wasTappedSinceLastCheck()
+      {
+      return wasTapped.getAndSet(false);
+      }
+
+   public final void startSensorSampling(final int periodInMillis)
+      {
+      if (periodInMillis <= 0)
+         {
+         throw new IllegalArgumentException("The sampling period must be positive");
+         }
+
+      synchronized (sensorSamplerLock)
+         {
+         if (sensorSamplerScheduledFuture != null)
+            {
+            sensorSamplerScheduledFuture.cancel(false);
+            }
+         try
+            {
+            sensorSamplerScheduledFuture = sensorSamplerExecutorService.scheduleAtFixedRate(sensorSampler,
+                                                                                            0,
+                                                                                            periodInMillis,
+                                                                                            TimeUnit.MILLISECONDS);
+            }
+         catch (RejectedExecutionException e)
+            {
+            LOG.error("BaseFinchController.startSensorSampling(): RejectedExecutionException while trying to schedule the sensor sampler (has the Finch been disconnected?)", e);
+            sensorSamplerScheduledFuture = null;
+            }
+         }
+      }
+
+   public final void stopSensorSampling()
+      {
+      synchronized (sensorSamplerLock)
+         {
+         if (sensorSamplerScheduledFuture != null)
+            {
+            sensorSamplerScheduledFuture.cancel(false);
+            sensorSamplerScheduledFuture = null;
+            }
+         }
+      }
+
    /**
     * Sets the full-color LED to the given {@link Color color}.  Returns the current {@link Color} if the command
     * succeeded, <code>null</code> otherwise.
@@ -170,6 +350,78 @@ abstract class BaseFinchController implements FinchController, CommandExecutionF
                              color.getBlue());
       }
 
+   /**
+    * Records the given LED color as the one most recently commanded.  Implementations should call this whenever they
+    * send an LED command.
+    */
+   protected final void updateFullColorLEDShadow(final int red, final int green, final int blue)
+      {
+      fullColorLEDShadow = new int[]{red, green, blue};
+      }
+
+   /**
+    * Records the given motor velocities as the ones most recently commanded.  Implementations should call this whenever
+    * they send a motor command.
+    */
+   protected final void updateMotorVelocitiesShadow(final int leftVelocity, final int rightVelocity)
+      {
+      motorVelocitiesShadow = new int[]{leftVelocity, rightVelocity};
+      }
+
+   /** Records that the motors and LED were turned off.  Implementations should call this upon emergency stop. */
+   protected final void clearActuatorShadow()
+      {
+      fullColorLEDShadow = new int[]{0, 0, 0};
+      motorVelocitiesShadow = new int[]{0, 0};
+      }
+
+   /**
+    * Registers this controller's {@link FinchControllerMBean} with the platform MBean server.  Implementations should
+    * call this once the controller is fully constructed.  Failure to register is logged, but is otherwise harmless.
+    */
+   protected final void registerMBean()
+      {
+      synchronized (mbeanLock)
+         {
+         if (mbeanName == null)
+            {
+            try
+               {
+               final ObjectName name = new ObjectName(MBEAN_DOMAIN + ":type=FinchController,id=" + NEXT_MBEAN_ID.getAndIncrement() + ",port=" + ObjectName.quote(String.valueOf(getPortName())));
+               ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(new FinchControllerMBeanImpl(), FinchControllerMBean.class), name);
+               mbeanName = name;
+               if (LOG.isDebugEnabled())
+                  {
+                  LOG.debug("BaseFinchController.registerMBean(): registered MBean [" + name + "]");
+                  }
+               }
+            catch (Exception e)
+               {
+               LOG.error("BaseFinchController.registerMBean(): Exception while trying to register the MBean", e);
+               }
+            }
+         }
+      }
+
+   private void unregisterMBean()
+      {
+      synchronized (mbeanLock)
+         {
+         if (mbeanName != null)
+            {
+            try
+               {
+               ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+               }
+            catch (Exception e)
+               {
+               LOG.error("BaseFinchController.unregisterMBean(): Exception while trying to unregister the MBean", e);
+               }
+            mbeanName = null;
+            }
+         }
+      }
+
    @Override
    public final void disconnect()
       {
@@ -182,14 +434,14 @@ abstract class BaseFinchController implements FinchController, CommandExecutionF
          {
          LOG.debug("BaseFinchController.disconnect(" + willAddDisconnectCommandToQueue + ")");
          }
+      isDisconnecting = true;
 
       // turn off the pinger
-      if (pingScheduledFuture != null)
+      if (isPingerEnabled)
          {
          try
             {
             LOG.debug("BaseFinchController.disconnect(): Shutting down finch pinger...");
-            pingScheduledFuture.cancel(false);
             pingExecutorService.shutdownNow();
             LOG.debug("BaseFinchController.disconnect(): Successfully shut down the Finch pinger.");
             }
@@ -199,6 +451,18 @@ abstract class BaseFinchController implements FinchController, CommandExecutionF
             }
          }
 
+      // turn off the sensor sampler
+      try
+         {
+         LOG.debug("BaseFinchController.disconnect(): Shutting down the sensor sampler...");
+         stopSensorSampling();
+         sensorSamplerExecutorService.shutdownNow();
+         }
+      catch (Exception e)
+         {
+         LOG.error("BaseFinchController.disconnect(): Exception caught while trying to shut down the sensor sampler", e);
+         }
+
       // optionally send goodbye command to the Finch
       if (willAddDisconnectCommandToQueue)
          {
@@ -227,11 +491,17 @@ abstract class BaseFinchController implements FinchController, CommandExecutionF
          shutdownCommandQueue();
          isDisconnected = true;
          LOG.debug("BaseFinchController.disconnect(): done shutting down the CommandExecutionQueue");
+         if (LOG.isDebugEnabled())
+            {
+            LOG.debug("BaseFinchController.disconnect(): command metrics: " + getFinchMetrics());
+            }
          }
       catch (Exception e)
          {
          LOG.error("BaseFinchController.disconnect(): Exception while trying to shut down the CommandExecutionQueue", e);
          }
+
+      unregisterMBean();
       }
 
    public final boolean isDisconnected()
@@ -243,21 +513,63 @@ abstract class BaseFinchController implements FinchController, CommandExecutionF
 
    protected abstract void shutdownCommandQueue();
 
-   private class Pinger implements Runnable
+   private class SensorSampler implements Runnable
       {
       public void run()
          {
+         // catch everything, since an uncaught exception would cancel all subsequent runs
          try
             {
-            // ping the device
-            final CommandResponse response = executePingCommand();
-            final boolean pingSuccessful = (response != null) && response.wasSuccessful();
+            getSensorSnapshot();
+            }
+         catch (Exception e)
+            {
+            LOG.error("BaseFinchController$SensorSampler.run(): Exception caught while sampling the sensors", e);
+            }
+         }
+      }
+
+   /**
+    * Tracks the liveness of the finch.  Every successfully completed command counts as a heartbeat, so a real ping
+    * (see {@link #executePingCommand()}) is only sent once the finch has gone idle for the ping idle period.  The
+    * pinger reschedules itself to check again when the idle period would next expire.
+    */
+   private class Pinger implements Runnable
+      {
+      private final AtomicLong pingCount = new AtomicLong(0);
+      private final AtomicLong pingFailureCount = new AtomicLong(0);
+      private volatile long lastRoundTripTimeInNanos = -1;
+      private volatile long idlePeriodInNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, Integer.getInteger(PING_IDLE_PERIOD_SYSTEM_PROPERTY, DEFAULT_PING_IDLE_PERIOD_IN_MILLIS)));
 
-            // if the ping failed, then we know we have a problem, so disconnect (which
-            // probably won't work) and then notify the listeners
-            if (!pingSuccessful)
+      public void run()
+         {
+         long delayUntilNextCheckInNanos = idlePeriodInNanos;
+         try
+            {
+            // skip the ping if some other command succeeded recently enough
+            final long nanosSinceLastSuccess = getFinchMetrics().getNanosSinceLastSuccess();
+            if (nanosSinceLastSuccess >= 0 && nanosSinceLastSuccess < idlePeriodInNanos)
                {
-               handlePingFailure();
+               delayUntilNextCheckInNanos = idlePeriodInNanos - nanosSinceLastSuccess;
+               }
+            else
+               {
+               // ping the device
+               final long startTime = System.nanoTime();
+               final CommandResponse response = executePingCommand();
+               final boolean pingSuccessful = (response != null) && response.wasSuccessful();
+               pingCount.incrementAndGet();
+               if (pingSuccessful)
+                  {
+                  lastRoundTripTimeInNanos = System.nanoTime() - startTime;
+                  }
+
+               // if the ping failed, then we know we have a problem, so disconnect (which
+               // probably won't work) and then notify the listeners
+               if (!pingSuccessful)
+                  {
+                  handlePingFailure(false);
+                  }
                }
             }
          catch (Exception e)
@@ -265,10 +577,50 @@ abstract class BaseFinchController implements FinchController, CommandExecutionF
             LOG.error("BaseFinchController$Pinger.run(): Exception caught while executing the pinger", e);
             forceFailure();
             }
+
+         if (!isDisconnected())
+            {
+            schedule(delayUntilNextCheckInNanos);
+            }
          }
 
-      private void handlePingFailure()
+      private void schedule(final long delayInNanos)
          {
+         try
+            {
+            pingExecutorService.schedule(this, delayInNanos, TimeUnit.NANOSECONDS);
+            }
+         catch (RejectedExecutionException ignored)
+            {
+            // the pinger has been shut down because the finch was disconnected, so there's nothing more to check
+            LOG.debug("BaseFinchController$Pinger.schedule(): pinger shut down, so it won't be rescheduled");
+            }
+         }
+
+      private long getIdlePeriodInNanos()
+         {
+         return idlePeriodInNanos;
+         }
+
+      private void setIdlePeriodInNanos(final long idlePeriodInNanos)
+         {
+         this.idlePeriodInNanos = idlePeriodInNanos;
+         }
+
+      private void handlePingFailure(final boolean willNotifyListenersBeforeDisconnecting)
+         {
+         pingFailureCount.incrementAndGet();
+
+         // only the first failure needs handling, since the finch is disconnected upon failure
+         if (!hasFailed.compareAndSet(false, true))
+            {
+            return;
+            }
+
+         if (willNotifyListenersBeforeDisconnecting)
+            {
+            notifyPingFailureEventListeners();
+            }
          try
             {
             LOG.debug("BaseFinchController$Pinger.handlePingFailure(): Peer ping failed.  Attempting to disconnect...");
@@ -279,10 +631,17 @@ abstract class BaseFinchController implements FinchController, CommandExecutionF
             {
             LOG.error("BaseFinchController$Pinger.handlePingFailure(): Exeption caught while trying to disconnect from the Finch", e);
             }
+         if (!willNotifyListenersBeforeDisconnecting)
+            {
+            notifyPingFailureEventListeners();
+            }
+         }
 
+      private void notifyPingFailureEventListeners()
+         {
          if (LOG.isDebugEnabled())
             {
-            LOG.debug("BaseFinchController$Pinger.handlePingFailure(): Notifying " + createLabDevicePingFailureEventListeners.size() + " listeners of ping failure...");
+            LOG.debug("BaseFinchController$Pinger.notifyPingFailureEventListeners(): Notifying " + createLabDevicePingFailureEventListeners.size() + " listeners of ping failure...");
             }
          for (final CreateLabDevicePingFailureEventListener listener : createLabDevicePingFailureEventListeners)
             {
@@ -290,20 +649,134 @@ abstract class BaseFinchController implements FinchController, CommandExecutionF
                {
                if (LOG.isDebugEnabled())
                   {
-                  LOG.debug("   BaseFinchController$Pinger.handlePingFailure(): Notifying " + listener);
+                  LOG.debug("   BaseFinchController$Pinger.notifyPingFailureEventListeners(): Notifying " + listener);
                   }
                listener.handlePingFailureEvent();
                }
             catch (Exception e)
                {
-               LOG.error("BaseFinchController$Pinger.handlePingFailure(): Exeption caught while notifying CreateLabDevicePingFailureEventListener", e);
+               LOG.error("BaseFinchController$Pinger.notifyPingFailureEventListeners(): Exeption caught while notifying CreateLabDevicePingFailureEventListener", e);
                }
             }
          }
 
       private void forceFailure()
          {
-         handlePingFailure();
+         handlePingFailure(false);
+         }
+      }
+
+   private final class FinchControllerMBeanImpl implements FinchControllerMBean
+      {
+      public String getPortName()
+         {
+         return BaseFinchController.this.getPortName();
+         }
+
+      public String getDeviceName()
+         {
+         return getFinchProperties().getDeviceCommonName();
+         }
+
+      public boolean isConnected()
+         {
+         return !isDisconnected();
+         }
+
+      public int getQueueDepth()
+         {
+         return getFinchMetrics().getQueueDepth();
+         }
+
+      public int getMaxQueueDepth()
+         {
+         return getFinchMetrics().getMaxQueueDepth();
+         }
+
+      public long getCommandCount()
+         {
+         return getFinchMetrics().getExecutionCount();
+         }
+
+      public long getCommandFailureCount()
+         {
+         return getFinchMetrics().getFailureCount();
+         }
+
+      public String getLastCommand()
+         {
+         final Class<?> commandStrategyClass = getFinchMetrics().getLastCommandStrategyClass();
+         return (commandStrategyClass == null) ? null : commandStrategyClass.getSimpleName();
+         }
+
+      public long getLastCommandLatencyMicros()
+         {
+         return toMicros(getFinchMetrics().getLastExecutionTimeNanos());
+         }
+
+      public long getPingCount()
+         {
+         return pinger.pingCount.get();
+         }
+
+      public long getPingFailureCount()
+         {
+         return pinger.pingFailureCount.get();
+         }
+
+      public long getLastPingRoundTripTimeMicros()
+         {
+         return toMicros(pinger.lastRoundTripTimeInNanos);
+         }
+
+      public int getPingIdlePeriodMillis()
+         {
+         return (int)TimeUnit.NANOSECONDS.toMillis(pinger.getIdlePeriodInNanos());
+         }
+
+      public void setPingIdlePeriodMillis(final int millis)
+         {
+         if (millis <= 0)
+            {
+            throw new IllegalArgumentException("The ping idle period must be positive");
+            }
+         pinger.setIdlePeriodInNanos(TimeUnit.MILLISECONDS.toNanos(millis));
+         }
+
+      public long getMillisSinceLastSuccessfulCommand()
+         {
+         final long nanos = getFinchMetrics().getNanosSinceLastSuccess();
+         return (nanos < 0) ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+         }
+
+      public long getMedianRoundTripTimeMicros()
+         {
+         return toMicros(getFinchMetrics().getRoundTripTimeHistogram().getMedianNanos());
+         }
+
+      public long get99thPercentileRoundTripTimeMicros()
+         {
+         return toMicros(getFinchMetrics().getRoundTripTimeHistogram().get99thPercentileNanos());
+         }
+
+      public int[] getFullColorLED()
+         {
+         return fullColorLEDShadow.clone();
+         }
+
+      public int[] getMotorVelocities()
+         {
+         return motorVelocitiesShadow.clone();
+         }
+
+      public void resetMetrics()
+         {
+         getFinchMetrics().reset();
+         }
+
+      private long toMicros(final long nanos)
+         {
+         return (nanos < 0) ? -1 : TimeUnit.NANOSECONDS.toMicros(nanos);
          }
       }
 
@@ -312,4 +785,146 @@ abstract class BaseFinchController implements FinchController, CommandExecutionF
       // default does nothing
       return null;
       }
+
+   /** Returns a {@link Future} which has already completed with the given <code>value</code>. */
+   protected static <T> Future<T> createCompletedFuture(final T value)
+      {
+      final FutureTask<T> future = new FutureTask<T>(
+            new Callable<T>()
+            {
+            public T call()
+               {
+               return value;
+               }
+            });
+      future.run();
+      return future;
+      }
+
+   /**
+    * Base class for the {@link AsyncFinchController} implementations, which implements the methods that are merely
+    * conversions of (or conveniences for) other methods.
+    */
+   protected abstract class BaseAsyncFinchController implements AsyncFinchController
+      {
+      /** Submits a command to read the state of the accelerometer. */
+      protected abstract Future<AccelerometerState> readAccelerometerState();
+
+      /** Submits a command to read all the sensors in a single command execution. */
+      protected abstract Future<FinchSensorSnapshot> readSensorSnapshot();
+
+      public final Future<AccelerometerState> getAccelerometerState()
+         {
+         return new ConvertingFuture<AccelerometerState, AccelerometerState>(readAccelerometerState())
+         {
+         protected AccelerometerState convert(final AccelerometerState accelerometerState)
+            {
+            recordShakeAndTap(accelerometerState);
+            return accelerometerState;
+            }
+
+         protected AccelerometerState getValueUponFailure()
+            {
+            return null;
+            }
+         };
+         }
+
+      public final Future<FinchSensorSnapshot> getSensorSnapshot()
+         {
+         return new ConvertingFuture<FinchSensorSnapshot, FinchSensorSnapshot>(readSensorSnapshot())
+         {
+         protected FinchSensorSnapshot convert(final FinchSensorSnapshot snapshot)
+            {
+            publishSensorSnapshot(snapshot);
+            return snapshot;
+            }
+
+         protected FinchSensorSnapshot getValueUponFailure()
+            {
+            return null;
+            }
+         };
+         }
+
+      public final Future<AccelerometerGs> getAccelerometerGs()
+         {
+         final AccelerometerUnitConversionStrategy conversionStrategy = getAccelerometerUnitConversionStrategy();
+         if (conversionStrategy != null)
+            {
+            return new ConvertingFuture<AccelerometerState, AccelerometerGs>(getAccelerometerState())
+            {
+            protected AccelerometerGs convert(final AccelerometerState accelerometerState)
+               {
+               return conversionStrategy.convert(accelerometerState);
+               }
+
+            protected AccelerometerGs getValueUponFailure()
+               {
+               return null;
+               }
+            };
+            }
+
+         return createCompletedFuture(null);
+         }
+
+      public final Future<Boolean> isObstacleDetected(final int id)
+         {
+         if (id >= 0 && id < getFinchProperties().getSimpleObstacleSensorDeviceCount())
+            {
+            return new ConvertingFuture<boolean[], Boolean>(areObstaclesDetected())
+            {
+            protected Boolean convert(final boolean[] isDetected)
+               {
+               if (isDetected != null && id < isDetected.length)
+                  {
+                  return isDetected[id];
+                  }
+               return null;
+               }
+
+            protected Boolean getValueUponFailure()
+               {
+               return null;
+               }
+            };
+            }
+         return createCompletedFuture(null);
+         }
+
+      public final Future<Integer> getThermistor()
+         {
+         return getThermistor(0);
+         }
+
+      public final Future<Double> getThermistorCelsiusTemperature()
+         {
+         final ThermistorUnitConversionStrategy conversionStrategy = getThermistorUnitConversionStrategy();
+         if (conversionStrategy != null)
+            {
+            return new ConvertingFuture<Integer, Double>(getThermistor(0))
+            {
+            protected Double convert(final Integer rawValue)
+               {
+               return conversionStrategy.convertToCelsius(rawValue);
+               }
+
+            protected Double getValueUponFailure()
+               {
+               return null;
+               }
+            };
+            }
+
+         return createCompletedFuture(null);
+         }
+
+      public final Future<Boolean> setFullColorLED(final Color color)
+         {
+         return setFullColorLED(color.getRed(),
+                                color.getGreen(),
+                                color.getBlue());
+         }
+      }
    }
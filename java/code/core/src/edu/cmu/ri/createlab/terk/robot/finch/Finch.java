@@ -6,17 +6,27 @@ import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import javax.swing.JFrame;
 import javax.swing.SwingUtilities;
 import javax.swing.WindowConstants;
 import edu.cmu.ri.createlab.device.connectivity.BackpackedFinchConnectivityManager;
+import edu.cmu.ri.createlab.device.connectivity.CachingFinchConnectivityManager;
 import edu.cmu.ri.createlab.device.connectivity.FinchConnectivityManager;
 import edu.cmu.ri.createlab.device.connectivity.HIDFinchConnectivityManager;
+import edu.cmu.ri.createlab.device.connectivity.RemoteFinchConnectivityManager;
+import edu.cmu.ri.createlab.device.connectivity.SimulatedFinchConnectivityManager;
+import edu.cmu.ri.createlab.speech.Mouth;
 import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerGs;
 import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerState;
 import edu.cmu.ri.createlab.userinterface.component.DatasetPlotter;
 import edu.cmu.ri.createlab.util.FileUtils;
+import edu.cmu.ri.createlab.util.thread.DaemonThreadFactory;
 import org.apache.log4j.Logger;
 
 /**
@@ -30,10 +40,16 @@ public final class Finch implements FinchInterface
    {
    private static final Logger LOG = Logger.getLogger(Finch.class);
 
-   // set new plotters to graph sensor values
-   private final DatasetPlotter<Double> accelerometerPlotter = new DatasetPlotter<Double>(-1.7, 1.7, 340, 340, 10, TimeUnit.MILLISECONDS);
-   private final DatasetPlotter<Integer> lightPlotter = new DatasetPlotter<Integer>(-10, 270, 340, 340, 10, TimeUnit.MILLISECONDS);
-   private final DatasetPlotter<Double> temperaturePlotter = new DatasetPlotter<Double>(0.0, 40.0, 340, 340, 10, TimeUnit.MILLISECONDS);
+   /**
+    * If this system property is set to <code>true</code>, the no-arg constructor connects to a simulated finch rather
+    * than to a finch attached via USB, so that programs can be run without any hardware.
+    */
+   public static final String USE_SIMULATOR_SYSTEM_PROPERTY = "finch.simulator";
+
+   // plotters to graph sensor values
+   private final DatasetPlotter<Double> accelerometerPlotter;
+   private final DatasetPlotter<Integer> lightPlotter;
+   private final DatasetPlotter<Double> temperaturePlotter;
 
    // create accelerometer, temperature, and light sensor jFrames
    private JFrame jFrameAccel;
@@ -42,25 +58,47 @@ public final class Finch implements FinchInterface
 
    private FinchController finchController;
    private final FinchConnectivityManager connectivityManager;
+   private final FinchStartupProfile startupProfile;
 
+   // maximum age of cached sensor values, or -1 if sensor sampling is disabled (see startSensorSampling())
+   private volatile int sensorSnapshotMaxAgeInMillis = -1;
+
+   /**
+    * Connects to the finch attached via USB, or to a simulated finch if the {@link #USE_SIMULATOR_SYSTEM_PROPERTY}
+    * system property is <code>true</code>.
+    */
    public Finch()
       {
-      this(new HIDFinchConnectivityManager());
+      this(Boolean.getBoolean(USE_SIMULATOR_SYSTEM_PROPERTY) ? new SimulatedFinchConnectivityManager() : new HIDFinchConnectivityManager());
       }
 
+   /**
+    * Connects to the Finch Backpack on the given serial port.  If the last connection was to a backpack on the same
+    * port (see {@link CachingFinchConnectivityManager}), the handshake is first tried with a short timeout.
+    */
    public Finch(final String serialPortName)
       {
-      this(new BackpackedFinchConnectivityManager(serialPortName));
+      this(new CachingFinchConnectivityManager(new BackpackedFinchConnectivityManager(serialPortName)));
+      }
+
+   /**
+    * Connects to the finch shared by the {@link edu.cmu.ri.createlab.terk.robot.finch.net.FinchServer} listening on
+    * the given host and port.
+    */
+   public Finch(final String hostName, final int port)
+      {
+      this(new RemoteFinchConnectivityManager(hostName, port));
       }
 
    public Finch(final FinchConnectivityManager connectivityManager)
       {
       this.connectivityManager = connectivityManager;
+      this.startupProfile = new FinchStartupProfile();
+      final long startTime = System.nanoTime();
 
       System.out.println("Connecting to Finch...this may take a few seconds...");
 
-      // Set system properties to point to the freeTTS directory for saySomething support
-      System.setProperty("freetts.voices", "com.sun.speech.freetts.en.us.cmu_us_kal.KevinVoiceDirectory");
+      configureSpeech();
 
       try
          {
@@ -71,6 +109,189 @@ public final class Finch implements FinchInterface
          LOG.error("Exception caught while trying to create the Finch!  Aborting.", e);
          System.exit(1);
          }
+      startupProfile.recordPhase(FinchStartupProfile.Phase.CONNECT, System.nanoTime() - startTime);
+
+      final long plotterStartTime = System.nanoTime();
+      accelerometerPlotter = createAccelerometerPlotter();
+      lightPlotter = createLightPlotter();
+      temperaturePlotter = createTemperaturePlotter();
+      startupProfile.recordPhase(FinchStartupProfile.Phase.PLOTTER_WARMUP, System.nanoTime() - plotterStartTime);
+      startupProfile.recordTotal(System.nanoTime() - startTime);
+      }
+
+   private Finch(final FinchConnectivityManager connectivityManager,
+                 final FinchController finchController,
+                 final DatasetPlotter<Double> accelerometerPlotter,
+                 final DatasetPlotter<Integer> lightPlotter,
+                 final DatasetPlotter<Double> temperaturePlotter,
+                 final FinchStartupProfile startupProfile)
+      {
+      this.connectivityManager = connectivityManager;
+      this.finchController = finchController;
+      this.accelerometerPlotter = accelerometerPlotter;
+      this.lightPlotter = lightPlotter;
+      this.temperaturePlotter = temperaturePlotter;
+      this.startupProfile = startupProfile;
+      }
+
+   /**
+    * Starts connecting to the finch attached via USB (or to a simulated finch, as for the no-arg constructor) in the
+    * background, and returns immediately.  See {@link #connectAsync(FinchConnectivityManager)}.
+    */
+   public static Future<Finch> connectAsync()
+      {
+      return connectAsync(Boolean.getBoolean(USE_SIMULATOR_SYSTEM_PROPERTY) ? new SimulatedFinchConnectivityManager() : new HIDFinchConnectivityManager());
+      }
+
+   /**
+    * <p>
+    * Starts connecting to a finch using the given {@link FinchConnectivityManager} in the background, and returns a
+    * {@link Future} for the connected <code>Finch</code>.  While the connection is being established, the speech
+    * engine and the sensor plotters are warmed up on other threads, so that the first call to
+    * {@link #saySomething(String)} doesn't stall.  The time spent in each phase is available from
+    * {@link #getStartupProfile()}.
+    * </p>
+    * <p>
+    * Unlike the constructors, this never exits the JVM: if the connection fails, the returned future's
+    * {@link Future#get() get()} method throws an {@link ExecutionException} whose cause is the reason for the failure.
+    * If the future is cancelled (with interruption) while connecting, the finch is disconnected as soon as the
+    * connection completes, rather than being handed to anyone.  A failure to warm up the speech engine is logged but doesn't fail the connection.
+    * </p>
+    *
+    * @throws IllegalArgumentException if the <code>connectivityManager</code> is <code>null</code>
+    */
+   public static Future<Finch> connectAsync(final FinchConnectivityManager connectivityManager)
+      {
+      if (connectivityManager == null)
+         {
+         throw new IllegalArgumentException("The FinchConnectivityManager cannot be null");
+         }
+
+      final ExecutorService executor = Executors.newFixedThreadPool(3, new DaemonThreadFactory("Finch.startupExecutor"));
+      final FinchStartupProfile startupProfile = new FinchStartupProfile();
+      final long startTime = System.nanoTime();
+
+      final Future<?> speechWarmup = executor.submit(
+            new Runnable()
+            {
+            public void run()
+               {
+               final long phaseStartTime = System.nanoTime();
+               configureSpeech();
+               Mouth.getInstance();
+               startupProfile.recordPhase(FinchStartupProfile.Phase.SPEECH_WARMUP, System.nanoTime() - phaseStartTime);
+               }
+            });
+
+      final Future<DatasetPlotter<?>[]> plotterWarmup = executor.submit(
+            new Callable<DatasetPlotter<?>[]>()
+            {
+            public DatasetPlotter<?>[] call()
+               {
+               final long phaseStartTime = System.nanoTime();
+               final DatasetPlotter<?>[] plotters = new DatasetPlotter<?>[]{createAccelerometerPlotter(), createLightPlotter(), createTemperaturePlotter()};
+               startupProfile.recordPhase(FinchStartupProfile.Phase.PLOTTER_WARMUP, System.nanoTime() - phaseStartTime);
+               return plotters;
+               }
+            });
+
+      final Future<Finch> finchFuture = executor.submit(
+            new Callable<Finch>()
+            {
+            @SuppressWarnings({"unchecked"})
+            public Finch call() throws Exception
+               {
+               try
+                  {
+                  final long phaseStartTime = System.nanoTime();
+                  final FinchController finchController = connectivityManager.connect();
+                  startupProfile.recordPhase(FinchStartupProfile.Phase.CONNECT, System.nanoTime() - phaseStartTime);
+
+                  final DatasetPlotter<?>[] plotters;
+                  try
+                     {
+                     // the connection can't be interrupted, so check whether the future was cancelled while connecting
+                     throwIfInterrupted();
+                     plotters = plotterWarmup.get();
+                     waitForSpeechWarmup(speechWarmup);
+                     throwIfInterrupted();
+                     }
+                  catch (Exception e)
+                     {
+                     // don't leak the connection if we can't finish building the Finch (or if the future was cancelled)
+                     connectivityManager.disconnect();
+                     throw e;
+                     }
+                  startupProfile.recordTotal(System.nanoTime() - startTime);
+
+                  if (LOG.isInfoEnabled())
+                     {
+                     LOG.info("Finch.connectAsync(): " + startupProfile);
+                     }
+                  return new Finch(connectivityManager,
+                                   finchController,
+                                   (DatasetPlotter<Double>)plotters[0],
+                                   (DatasetPlotter<Integer>)plotters[1],
+                                   (DatasetPlotter<Double>)plotters[2],
+                                   startupProfile);
+                  }
+               finally
+                  {
+                  executor.shutdown();
+                  }
+               }
+            });
+
+      return finchFuture;
+      }
+
+   private static void throwIfInterrupted() throws InterruptedException
+      {
+      if (Thread.currentThread().isInterrupted())
+         {
+         throw new InterruptedException("Interrupted while connecting to the finch");
+         }
+      }
+
+   private static void waitForSpeechWarmup(final Future<?> speechWarmup) throws InterruptedException
+      {
+      try
+         {
+         speechWarmup.get();
+         }
+      catch (ExecutionException e)
+         {
+         LOG.error("Finch.waitForSpeechWarmup(): ExecutionException while warming up the speech engine, speech may be slow to start", e);
+         }
+      }
+
+   private static void configureSpeech()
+      {
+      // Set system properties to point to the freeTTS directory for saySomething support
+      System.setProperty("freetts.voices", "com.sun.speech.freetts.en.us.cmu_us_kal.KevinVoiceDirectory");
+      }
+
+   private static DatasetPlotter<Double> createAccelerometerPlotter()
+      {
+      return new DatasetPlotter<Double>(-1.7, 1.7, 340, 340, 10, TimeUnit.MILLISECONDS);
+      }
+
+   private static DatasetPlotter<Integer> createLightPlotter()
+      {
+      return new DatasetPlotter<Integer>(-10, 270, 340, 340, 10, TimeUnit.MILLISECONDS);
+      }
+
+   private static DatasetPlotter<Double> createTemperaturePlotter()
+      {
+      return new DatasetPlotter<Double>(0.0, 40.0, 340, 340, 10, TimeUnit.MILLISECONDS);
+      }
+
+   /**
+    * Returns how long each phase of starting up this <code>Finch</code> took.
+    */
+   public FinchStartupProfile getStartupProfile()
+      {
+      return startupProfile;
       }
 
    /**
@@ -335,7 +556,7 @@ public final class Finch implements FinchInterface
    @Override
    public double getXAcceleration()
       {
-      final AccelerometerGs accelerometerGs = finchController.getAccelerometerGs();
+      final AccelerometerGs accelerometerGs = readAccelerometerGs();
       if (accelerometerGs != null)
          {
          return accelerometerGs.getX();
@@ -353,7 +574,7 @@ public final class Finch implements FinchInterface
    @Override
    public double getYAcceleration()
       {
-      final AccelerometerGs accelerometerGs = finchController.getAccelerometerGs();
+      final AccelerometerGs accelerometerGs = readAccelerometerGs();
       if (accelerometerGs != null)
          {
          return accelerometerGs.getY();
@@ -371,7 +592,7 @@ public final class Finch implements FinchInterface
    @Override
    public double getZAcceleration()
       {
-      final AccelerometerGs accelerometerGs = finchController.getAccelerometerGs();
+      final AccelerometerGs accelerometerGs = readAccelerometerGs();
       if (accelerometerGs != null)
          {
          return accelerometerGs.getZ();
@@ -390,7 +611,7 @@ public final class Finch implements FinchInterface
    @Override
    public double[] getAccelerations()
       {
-      final AccelerometerGs accelerometerGs = finchController.getAccelerometerGs();
+      final AccelerometerGs accelerometerGs = readAccelerometerGs();
       if (accelerometerGs != null)
          {
          final double[] accelerations = new double[3];
@@ -525,6 +746,18 @@ public final class Finch implements FinchInterface
    @Override
    public boolean isShaken()
       {
+      // while sampling, the sampler's reads clear the finch's own flag, so ask the controller what the samples saw
+      final int maxAgeInMillis = sensorSnapshotMaxAgeInMillis;
+      if (maxAgeInMillis >= 0)
+         {
+         if (finchController.getSensorSnapshot(maxAgeInMillis) == null)
+            {
+            System.out.println("Accelerometer not responding, check Finch connection");
+            return false;
+            }
+         return finchController.wasShakenSinceLastCheck();
+         }
+
       final AccelerometerState accelerometerState = finchController.getAccelerometerState();
       if (accelerometerState != null)
          {
@@ -542,6 +775,18 @@ public final class Finch implements FinchInterface
    @Override
    public boolean isTapped()
       {
+      // while sampling, the sampler's reads clear the finch's own flag, so ask the controller what the samples saw
+      final int maxAgeInMillis = sensorSnapshotMaxAgeInMillis;
+      if (maxAgeInMillis >= 0)
+         {
+         if (finchController.getSensorSnapshot(maxAgeInMillis) == null)
+            {
+            System.out.println("Accelerometer not responding, check Finch connection");
+            return false;
+            }
+         return finchController.wasTappedSinceLastCheck();
+         }
+
       final AccelerometerState accelerometerState = finchController.getAccelerometerState();
       if (accelerometerState != null)
          {
@@ -715,7 +960,7 @@ public final class Finch implements FinchInterface
 
    private int getLightSensor(final int id)
       {
-      final int[] values = finchController.getPhotoresistors();
+      final int[] values = readPhotoresistors();
       if (values != null)
          {
          return values[id];
@@ -735,7 +980,7 @@ public final class Finch implements FinchInterface
    @Override
    public int[] getLightSensors()
       {
-      final int[] values = finchController.getPhotoresistors();
+      final int[] values = readPhotoresistors();
 
       if (values == null)
          {
@@ -797,13 +1042,13 @@ public final class Finch implements FinchInterface
 
    private boolean isObstactleDetected(final int id)
       {
-      final Boolean isDetected = finchController.isObstacleDetected(id);
-      if (isDetected == null)
+      final boolean[] areDetected = readObstacleSensors();
+      if (areDetected == null || id < 0 || id >= areDetected.length)
          {
          System.out.println("Obstacle sensor not responding, check Finch connection");
          return false;
          }
-      return isDetected;
+      return areDetected[id];
       }
 
    /**
@@ -828,7 +1073,7 @@ public final class Finch implements FinchInterface
    @Override
    public boolean[] getObstacleSensors()
       {
-      final boolean[] areDetected = finchController.areObstaclesDetected();
+      final boolean[] areDetected = readObstacleSensors();
       if (areDetected == null)
          {
          System.out.println("Obstacle sensors not responding, check Finch connection");
@@ -846,7 +1091,7 @@ public final class Finch implements FinchInterface
    @Override
    public double getTemperature()
       {
-      final Double temperature = finchController.getThermistorCelsiusTemperature();
+      final Double temperature = readTemperature();
       if (temperature == null)
          {
          System.out.println("Temperature sensor not responding, check Finch connection");
@@ -1104,6 +1349,95 @@ public final class Finch implements FinchInterface
       jFrameTemp.dispose();
       }
 
+   /**
+    * Starts reading all of the Finch's sensors in the background every <code>periodInMillis</code> milliseconds.
+    * While sampling is on, the sensor methods (accelerations, tilt, light, obstacle, and temperature) return the most
+    * recent background reading instead of asking the Finch each time, which makes them much faster.  Readings are
+    * never more than twice the sampling period old.  {@link #isShaken()} and {@link #isTapped()} report whether any
+    * reading since they were last called saw a shake or tap.
+    *
+    * @param periodInMillis how often to read the sensors, in milliseconds
+    */
+   public void startSensorSampling(final int periodInMillis)
+      {
+      startSensorSampling(periodInMillis, 2 * periodInMillis);
+      }
+
+   /**
+    * Starts reading all of the Finch's sensors in the background every <code>periodInMillis</code> milliseconds.
+    * While sampling is on, the sensor methods (accelerations, tilt, light, obstacle, and temperature) return the most
+    * recent background reading, as long as it is no older than <code>maxAgeInMillis</code> milliseconds; older
+    * readings cause the Finch to be asked directly.  {@link #isShaken()} and {@link #isTapped()} report whether any
+    * reading since they were last called saw a shake or tap.
+    *
+    * @param periodInMillis how often to read the sensors, in milliseconds
+    * @param maxAgeInMillis the maximum age, in milliseconds, of a reading returned by the sensor methods
+    */
+   public void startSensorSampling(final int periodInMillis, final int maxAgeInMillis)
+      {
+      if (periodInMillis <= 0 || maxAgeInMillis < 0)
+         {
+         System.out.println("Sensor sampling period must be positive and maximum age must not be negative, sensor sampling not started");
+         return;
+         }
+      finchController.startSensorSampling(periodInMillis);
+      sensorSnapshotMaxAgeInMillis = maxAgeInMillis;
+      }
+
+   /**
+    * Stops the background sensor reading started by {@link #startSensorSampling(int)}, so that the sensor methods once
+    * again ask the Finch directly.
+    */
+   public void stopSensorSampling()
+      {
+      sensorSnapshotMaxAgeInMillis = -1;
+      finchController.stopSensorSampling();
+      }
+
+   private AccelerometerGs readAccelerometerGs()
+      {
+      final int maxAgeInMillis = sensorSnapshotMaxAgeInMillis;
+      if (maxAgeInMillis >= 0)
+         {
+         final FinchSensorSnapshot snapshot = finchController.getSensorSnapshot(maxAgeInMillis);
+         return (snapshot == null) ? null : snapshot.getAccelerometerGs();
+         }
+      return finchController.getAccelerometerGs();
+      }
+
+   private int[] readPhotoresistors()
+      {
+      final int maxAgeInMillis = sensorSnapshotMaxAgeInMillis;
+      if (maxAgeInMillis >= 0)
+         {
+         final FinchSensorSnapshot snapshot = finchController.getSensorSnapshot(maxAgeInMillis);
+         return (snapshot == null) ? null : snapshot.getPhotoresistors();
+         }
+      return finchController.getPhotoresistors();
+      }
+
+   private boolean[] readObstacleSensors()
+      {
+      final int maxAgeInMillis = sensorSnapshotMaxAgeInMillis;
+      if (maxAgeInMillis >= 0)
+         {
+         final FinchSensorSnapshot snapshot = finchController.getSensorSnapshot(maxAgeInMillis);
+         return (snapshot == null) ? null : snapshot.areObstaclesDetected();
+         }
+      return finchController.areObstaclesDetected();
+      }
+
+   private Double readTemperature()
+      {
+      final int maxAgeInMillis = sensorSnapshotMaxAgeInMillis;
+      if (maxAgeInMillis >= 0)
+         {
+         final FinchSensorSnapshot snapshot = finchController.getSensorSnapshot(maxAgeInMillis);
+         return (snapshot == null) ? null : snapshot.getThermistorCelsiusTemperature();
+         }
+      return finchController.getThermistorCelsiusTemperature();
+      }
+
    /**
     * This method properly closes the connection with the Finch and resets the Finch so that
     * it is immediately ready to be controlled by subsequent programs.  Note that if this
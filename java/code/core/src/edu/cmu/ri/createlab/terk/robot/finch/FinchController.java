@@ -2,6 +2,8 @@ package edu.cmu.ri.createlab.terk.robot.finch;
 
 import java.awt.Color;
 import edu.cmu.ri.createlab.device.CreateLabDeviceProxy;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.CommandDeadlines;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.FinchMetrics;
 import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerGs;
 import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerState;
 
@@ -13,6 +15,25 @@ public interface FinchController extends CreateLabDeviceProxy
    /** Returns the {@link FinchProperties} for this finch. */
    FinchProperties getFinchProperties();
 
+   /**
+    * Returns the {@link AsyncFinchController} for this finch, which provides non-blocking versions of the sensor and
+    * actuator methods.  Commands issued through it share this controller's command queue.
+    */
+   AsyncFinchController getAsyncFinchController();
+
+   /**
+    * Returns the {@link FinchMetrics} for this finch, which count and time every command sent to the finch, keyed by
+    * command strategy class.
+    */
+   FinchMetrics getFinchMetrics();
+
+   /**
+    * Returns the {@link CommandDeadlines} for this finch, which may be changed to set how long each kind of command may
+    * take before it's cancelled, and how many missed deadlines in a row mean the finch has failed (in which case the
+    * ping failure listeners are notified).
+    */
+   CommandDeadlines getCommandDeadlines();
+
    /**
     * Returns the state of the accelerometer; returns <code>null</code> if an error occurred while trying to read the
     * state.
@@ -65,6 +86,49 @@ public interface FinchController extends CreateLabDeviceProxy
     */
    Double getThermistorCelsiusTemperature();
 
+   /**
+    * Returns a {@link FinchSensorSnapshot} containing the values of the accelerometer, obstacle sensors,
+    * photoresistors, and thermistor, all read within a single command execution.  This is considerably cheaper than
+    * reading each sensor individually, and guarantees that all values were read at (nearly) the same time.  Returns
+    * <code>null</code> if an error occurred while trying to read the values.
+    */
+   FinchSensorSnapshot getSensorSnapshot();
+
+   /**
+    * Returns the most recently read {@link FinchSensorSnapshot} if it is no older than the given
+    * <code>maxAgeInMillis</code>, otherwise reads and returns a new one (see {@link #getSensorSnapshot()}).  When the
+    * sensor sampler is running (see {@link #startSensorSampling(int)}), this will usually return immediately without
+    * talking to the finch at all.  Returns <code>null</code> if a new snapshot was needed and an error occurred while
+    * trying to read it.
+    */
+   FinchSensorSnapshot getSensorSnapshot(final int maxAgeInMillis);
+
+   /**
+    * Starts (or restarts) a background thread which reads a {@link FinchSensorSnapshot} every
+    * <code>periodInMillis</code> milliseconds, making the most recent one available via
+    * {@link #getSensorSnapshot(int)}.  Sampling stops upon {@link #stopSensorSampling()} or {@link #disconnect()}.
+    *
+    * @throws IllegalArgumentException if <code>periodInMillis</code> is not positive
+    */
+   void startSensorSampling(final int periodInMillis);
+
+   /** Stops the sensor sampler started by {@link #startSensorSampling(int)}.  Does nothing if it isn't running. */
+   void stopSensorSampling();
+
+   /**
+    * Returns <code>true</code> if any {@link FinchSensorSnapshot} read since the last call to this method (including
+    * those read by the sensor sampler) reported that the finch had been shaken.  Reading a snapshot clears the finch's
+    * own shake flag, so this is how to find out about shakes while the sensor sampler is running.
+    */
+   boolean wasShakenSinceLastCheck();
+
+   /**
+    * Returns <code>true</code> if any {@link FinchSensorSnapshot} read since the last call to this method (including
+    * those read by the sensor sampler) reported that the finch had been tapped.  Reading a snapshot clears the finch's
+    * own tap flag, so this is how to find out about taps while the sensor sampler is running.
+    */
+   boolean wasTappedSinceLastCheck();
+
    /**
     * Returns the current value of the analog input specified by the given <code>id</code>.  Invalid analog input ids
     * cause this method to return <code>null</code>.    Note that, for finches without analog inputs, this method will
@@ -130,7 +194,8 @@ public interface FinchController extends CreateLabDeviceProxy
 
    /**
     * Turns off both motors and the full-color LED. Returns <code>true</code> if the command succeeded,
-    * <code>false</code> otherwise.
+    * <code>false</code> otherwise.  The emergency stop is executed ahead of any other commands still waiting to be
+    * executed, and waiting motor, LED, and buzzer commands are cancelled so that they can't undo it.
     */
    boolean emergencyStop();
 
@@ -0,0 +1,91 @@
+package edu.cmu.ri.createlab.terk.robot.finch;
+
+/**
+ * <p>
+ * <code>FinchControllerMBean</code> is the JMX management interface registered for every connected finch controller,
+ * so that the health of long-running sessions with many finches can be watched from JConsole (or any other JMX client)
+ * without attaching a debugger.  Each controller is registered under the name
+ * <code>edu.cmu.ri.createlab.terk.robot.finch:type=FinchController,id=<i>n</i>,port=<i>"port name"</i></code> upon
+ * creation, and unregistered upon disconnect.
+ * </p>
+ * <p>
+ * Durations are reported in microseconds, and are -1 if nothing has been measured yet.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public interface FinchControllerMBean
+   {
+   /** Returns the name of the port to which the finch is connected. */
+   String getPortName();
+
+   /** Returns the common name of the kind of finch (e.g. USB HID or backpacked). */
+   String getDeviceName();
+
+   /** Returns <code>true</code> if the finch hasn't been disconnected. */
+   boolean isConnected();
+
+   /** Returns the number of commands currently waiting to be sent to the finch. */
+   int getQueueDepth();
+
+   /** Returns the largest number of commands which have been waiting to be sent to the finch at once. */
+   int getMaxQueueDepth();
+
+   /** Returns the total number of commands sent to the finch. */
+   long getCommandCount();
+
+   /** Returns the total number of commands which failed. */
+   long getCommandFailureCount();
+
+   /** Returns the simple class name of the most recently executed command, or <code>null</code> if there is none. */
+   String getLastCommand();
+
+   /** Returns the time it took to execute the most recently executed command. */
+   long getLastCommandLatencyMicros();
+
+   /**
+    * Returns the number of pings sent to the finch.  Every successful command counts as a heartbeat, so pings are only
+    * sent once the finch has been idle for the ping idle period.
+    */
+   long getPingCount();
+
+   /** Returns the number of failed pings, including failures forced by failed commands. */
+   long getPingFailureCount();
+
+   /** Returns the round-trip time of the most recent successful ping. */
+   long getLastPingRoundTripTimeMicros();
+
+   /** Returns how long, in milliseconds, the finch may go without a successful command before it's pinged. */
+   int getPingIdlePeriodMillis();
+
+   /**
+    * Sets how long, in milliseconds, the finch may go without a successful command before it's pinged.  Takes effect
+    * after the next check for idleness.
+    *
+    * @throws IllegalArgumentException if <code>millis</code> isn't positive
+    */
+   void setPingIdlePeriodMillis(int millis);
+
+   /** Returns the number of milliseconds since a command last succeeded, or -1 if none has. */
+   long getMillisSinceLastSuccessfulCommand();
+
+   /** Returns the median round-trip time of every successful command, including pings. */
+   long getMedianRoundTripTimeMicros();
+
+   /** Returns the 99th percentile round-trip time of every successful command, including pings. */
+   long get99thPercentileRoundTripTimeMicros();
+
+   /**
+    * Returns the most recently commanded red, green, and blue intensities of the full-color LED.  All are zero after an
+    * emergency stop.
+    */
+   int[] getFullColorLED();
+
+   /**
+    * Returns the most recently commanded left and right motor velocities.  Both are zero after an emergency stop.
+    */
+   int[] getMotorVelocities();
+
+   /** Zeroes the command counters, latency histograms, and max queue depth (see {@link FinchController#getFinchMetrics()}). */
+   void resetMetrics();
+   }
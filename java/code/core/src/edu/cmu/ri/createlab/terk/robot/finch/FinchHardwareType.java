@@ -12,7 +12,8 @@ import org.apache.log4j.Logger;
 public enum FinchHardwareType
    {
       BACKPACK("Backpack"),
-      HID("HID");
+      HID("HID"),
+      SIMULATED("Simulated");
 
    private static final Logger LOG = Logger.getLogger(FinchHardwareType.class);
 
@@ -48,6 +49,20 @@ public enum FinchHardwareType
       return name;
       }
 
+   /** Returns the {@link FinchProperties} of finches of this type. */
+   public FinchProperties getFinchProperties()
+      {
+      switch (this)
+         {
+         case BACKPACK:
+            return BackpackedFinchProperties.getInstance();
+         case HID:
+            return HIDFinchProperties.getInstance();
+         default:
+            return SimulatedFinchProperties.getInstance();
+         }
+      }
+
    @Override
    public String toString()
       {
@@ -0,0 +1,198 @@
+package edu.cmu.ri.createlab.terk.robot.finch;
+
+import java.util.Arrays;
+import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerGs;
+import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerState;
+
+/**
+ * <p>
+ * <code>FinchSensorSnapshot</code> holds the values of all of the finch's sensors (accelerometer, obstacle sensors,
+ * photoresistors, and thermistor), read together in a single trip through the command queue and stamped with a single
+ * timestamp.  Instances are immutable, so a snapshot may be freely shared between threads.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ * @see FinchController#getSensorSnapshot()
+ */
+public final class FinchSensorSnapshot
+   {
+   private final long timestamp;
+   private final AccelerometerState accelerometerState;
+   private final AccelerometerGs accelerometerGs;
+   private final boolean[] obstacles;
+   private final int[] photoresistors;
+   private final int thermistor;
+   private final Double thermistorCelsiusTemperature;
+
+   /**
+    * Creates a <code>FinchSensorSnapshot</code>.  The given arrays are copied, so the caller is free to mutate them
+    * afterwards.
+    *
+    * @param timestamp the time (as returned by {@link System#currentTimeMillis()}) at which the sensors were read
+    * @param accelerometerState the raw accelerometer state
+    * @param accelerometerGs the accelerometer state in g's, or <code>null</code> if unknown
+    * @param obstacles the obstacle sensor states
+    * @param photoresistors the photoresistor values
+    * @param thermistor the raw thermistor value
+    * @param thermistorCelsiusTemperature the thermistor value in degrees Celsius, or <code>null</code> if unknown
+    */
+   public FinchSensorSnapshot(final long timestamp,
+                              final AccelerometerState accelerometerState,
+                              final AccelerometerGs accelerometerGs,
+                              final boolean[] obstacles,
+                              final int[] photoresistors,
+                              final int thermistor,
+                              final Double thermistorCelsiusTemperature)
+      {
+      this.timestamp = timestamp;
+      this.accelerometerState = accelerometerState;
+      this.accelerometerGs = accelerometerGs;
+      this.obstacles = obstacles.clone();
+      this.photoresistors = photoresistors.clone();
+      this.thermistor = thermistor;
+      this.thermistorCelsiusTemperature = thermistorCelsiusTemperature;
+      }
+
+   /** Returns the time (as returned by {@link System#currentTimeMillis()}) at which the sensors were read. */
+   public long getTimestamp()
+      {
+      return timestamp;
+      }
+
+   /** Returns the number of milliseconds which have elapsed since the sensors were read. */
+   public long getAgeInMillis()
+      {
+      return System.currentTimeMillis() - timestamp;
+      }
+
+   public AccelerometerState getAccelerometerState()
+      {
+      return accelerometerState;
+      }
+
+   /** Returns the state of the accelerometer in g's; may be <code>null</code> if no unit conversion was available. */
+   public AccelerometerGs getAccelerometerGs()
+      {
+      return accelerometerGs;
+      }
+
+   /**
+    * Returns the state of the obstacle detectors as an array of <code>boolean</code>s where element 0 denotes the left
+    * obstacle detector and element 1 denotes the right obstacle detector.  A copy is returned.
+    */
+   public boolean[] areObstaclesDetected()
+      {
+      return obstacles.clone();
+      }
+
+   /**
+    * Returns the state of the obstacle detector specified by the given <code>id</code>, or <code>null</code> if the id
+    * is invalid.
+    */
+   public Boolean isObstacleDetected(final int id)
+      {
+      if (id >= 0 && id < obstacles.length)
+         {
+         return obstacles[id];
+         }
+      return null;
+      }
+
+   /**
+    * Returns the values of the photoresistors as an array of <code>int</code>s where element 0 denotes the left
+    * photoresistor and element 1 denotes the right photoresistor.  A copy is returned.
+    */
+   public int[] getPhotoresistors()
+      {
+      return photoresistors.clone();
+      }
+
+   /**
+    * Returns the value of the photoresistor specified by the given <code>id</code>, or <code>null</code> if the id is
+    * invalid.
+    */
+   public Integer getPhotoresistor(final int id)
+      {
+      if (id >= 0 && id < photoresistors.length)
+         {
+         return photoresistors[id];
+         }
+      return null;
+      }
+
+   public int getThermistor()
+      {
+      return thermistor;
+      }
+
+   /** Returns the thermistor value in degrees Celsius; may be <code>null</code> if no unit conversion was available. */
+   public Double getThermistorCelsiusTemperature()
+      {
+      return thermistorCelsiusTemperature;
+      }
+
+   @Override
+   public boolean equals(final Object o)
+      {
+      if (this == o)
+         {
+         return true;
+         }
+      if (o == null || getClass() != o.getClass())
+         {
+         return false;
+         }
+
+      final FinchSensorSnapshot that = (FinchSensorSnapshot)o;
+
+      if (timestamp != that.timestamp)
+         {
+         return false;
+         }
+      if (thermistor != that.thermistor)
+         {
+         return false;
+         }
+      if (accelerometerState != null ? !accelerometerState.equals(that.accelerometerState) : that.accelerometerState != null)
+         {
+         return false;
+         }
+      if (!Arrays.equals(obstacles, that.obstacles))
+         {
+         return false;
+         }
+      if (!Arrays.equals(photoresistors, that.photoresistors))
+         {
+         return false;
+         }
+
+      return true;
+      }
+
+   @Override
+   public int hashCode()
+      {
+      int result = (int)(timestamp ^ (timestamp >>> 32));
+      result = 31 * result + (accelerometerState != null ? accelerometerState.hashCode() : 0);
+      result = 31 * result + Arrays.hashCode(obstacles);
+      result = 31 * result + Arrays.hashCode(photoresistors);
+      result = 31 * result + thermistor;
+      return result;
+      }
+
+   @Override
+   public String toString()
+      {
+      final StringBuilder sb = new StringBuilder();
+      sb.append("FinchSensorSnapshot");
+      sb.append("{timestamp=").append(timestamp);
+      sb.append(", accelerometerState=").append(accelerometerState);
+      sb.append(", accelerometerGs=").append(accelerometerGs);
+      sb.append(", obstacles=").append(Arrays.toString(obstacles));
+      sb.append(", photoresistors=").append(Arrays.toString(photoresistors));
+      sb.append(", thermistor=").append(thermistor);
+      sb.append(", thermistorCelsiusTemperature=").append(thermistorCelsiusTemperature);
+      sb.append('}');
+      return sb.toString();
+      }
+   }
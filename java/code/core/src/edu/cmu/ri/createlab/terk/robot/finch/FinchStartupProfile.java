@@ -0,0 +1,91 @@
+package edu.cmu.ri.createlab.terk.robot.finch;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * <code>FinchStartupProfile</code> records how long each phase of constructing a {@link Finch} took.  Phases which
+ * ran concurrently (see {@link Finch#connectAsync(edu.cmu.ri.createlab.device.connectivity.FinchConnectivityManager)})
+ * overlap, so the {@link #getTotalDuration(TimeUnit) total duration} may be less than the sum of the phases.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class FinchStartupProfile
+   {
+   /** The phases of starting up a {@link Finch}. */
+   public enum Phase
+      {
+         CONNECT("connect"),
+         SPEECH_WARMUP("speech warm-up"),
+         PLOTTER_WARMUP("plotter warm-up");
+
+      private final String name;
+
+      Phase(final String name)
+         {
+         this.name = name;
+         }
+
+      public String getName()
+         {
+         return name;
+         }
+
+      @Override
+      public String toString()
+         {
+         return getName();
+         }
+      }
+
+   private final AtomicLongArray phaseDurationsInNanos = new AtomicLongArray(Phase.values().length);
+   private volatile long totalDurationInNanos = -1;
+
+   FinchStartupProfile()
+      {
+      for (int i = 0; i < phaseDurationsInNanos.length(); i++)
+         {
+         phaseDurationsInNanos.set(i, -1);
+         }
+      }
+
+   /** Returns how long the given phase took, or -1 if it didn't run (or didn't complete). */
+   public long getPhaseDuration(final Phase phase, final TimeUnit timeUnit)
+      {
+      final long durationInNanos = phaseDurationsInNanos.get(phase.ordinal());
+      return durationInNanos < 0 ? -1 : timeUnit.convert(durationInNanos, TimeUnit.NANOSECONDS);
+      }
+
+   /** Returns how long the whole startup took, or -1 if it hasn't completed. */
+   public long getTotalDuration(final TimeUnit timeUnit)
+      {
+      final long durationInNanos = totalDurationInNanos;
+      return durationInNanos < 0 ? -1 : timeUnit.convert(durationInNanos, TimeUnit.NANOSECONDS);
+      }
+
+   void recordPhase(final Phase phase, final long durationInNanos)
+      {
+      phaseDurationsInNanos.set(phase.ordinal(), durationInNanos);
+      }
+
+   void recordTotal(final long durationInNanos)
+      {
+      totalDurationInNanos = durationInNanos;
+      }
+
+   @Override
+   public String toString()
+      {
+      final StringBuilder sb = new StringBuilder();
+      sb.append("FinchStartupProfile");
+      sb.append("{totalMillis=").append(getTotalDuration(TimeUnit.MILLISECONDS));
+      for (final Phase phase : Phase.values())
+         {
+         sb.append(", ").append(phase.name()).append("Millis=").append(getPhaseDuration(phase, TimeUnit.MILLISECONDS));
+         }
+      sb.append('}');
+      return sb.toString();
+      }
+   }
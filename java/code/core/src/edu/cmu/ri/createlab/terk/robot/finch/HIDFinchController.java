@@ -1,5 +1,17 @@
 package edu.cmu.ri.createlab.terk.robot.finch;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.AsyncCommandExecutionQueue;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.AsyncNoReturnValueCommandExecutor;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.AsyncReturnValueCommandExecutor;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.CommandBarrier;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.CommandDeadlines;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.FinchMetrics;
+import edu.cmu.ri.createlab.terk.robot.finch.commands.BuzzerCommandStrategyHelper;
+import edu.cmu.ri.createlab.terk.robot.finch.commands.FullColorLEDCommandStrategyHelper;
+import edu.cmu.ri.createlab.terk.robot.finch.commands.MotorVelocityCommandStrategyHelper;
 import edu.cmu.ri.createlab.terk.robot.finch.commands.hid.BuzzerCommandStrategy;
 import edu.cmu.ri.createlab.terk.robot.finch.commands.hid.DisconnectCommandStrategy;
 import edu.cmu.ri.createlab.terk.robot.finch.commands.hid.EmergencyStopCommandStrategy;
@@ -7,21 +19,26 @@ import edu.cmu.ri.createlab.terk.robot.finch.commands.hid.FullColorLEDCommandStr
 import edu.cmu.ri.createlab.terk.robot.finch.commands.hid.GetAccelerometerCommandStrategy;
 import edu.cmu.ri.createlab.terk.robot.finch.commands.hid.GetObstacleSensorCommandStrategy;
 import edu.cmu.ri.createlab.terk.robot.finch.commands.hid.GetPhotoresistorCommandStrategy;
+import edu.cmu.ri.createlab.terk.robot.finch.commands.hid.GetSensorSnapshotCommandStrategy;
 import edu.cmu.ri.createlab.terk.robot.finch.commands.hid.GetThermistorCommandStrategy;
 import edu.cmu.ri.createlab.terk.robot.finch.commands.hid.MotorVelocityCommandStrategy;
+import edu.cmu.ri.createlab.terk.robot.finch.trace.TraceRecorder;
 import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerState;
 import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerUnitConversionStrategy;
 import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerUnitConversionStrategyFinder;
 import edu.cmu.ri.createlab.terk.services.thermistor.ThermistorUnitConversionStrategy;
 import edu.cmu.ri.createlab.terk.services.thermistor.ThermistorUnitConversionStrategyFinder;
 import edu.cmu.ri.createlab.usb.hid.HIDCommandExecutionQueue;
+import edu.cmu.ri.createlab.usb.hid.HIDCommandResponse;
 import edu.cmu.ri.createlab.usb.hid.HIDConnectionException;
 import edu.cmu.ri.createlab.usb.hid.HIDDevice;
 import edu.cmu.ri.createlab.usb.hid.HIDDeviceFactory;
-import edu.cmu.ri.createlab.usb.hid.HIDDeviceNoReturnValueCommandExecutor;
 import edu.cmu.ri.createlab.usb.hid.HIDDeviceNotFoundException;
-import edu.cmu.ri.createlab.usb.hid.HIDDeviceReturnValueCommandExecutor;
+import edu.cmu.ri.createlab.util.commandexecution.CommandExecutionQueue;
 import edu.cmu.ri.createlab.util.commandexecution.CommandResponse;
+import edu.cmu.ri.createlab.util.commandexecution.CommandStrategy;
+import edu.cmu.ri.createlab.util.commandexecution.NoReturnValueCommandExecutor;
+import edu.cmu.ri.createlab.util.commandexecution.ReturnValueCommandExecutor;
 import org.apache.log4j.Logger;
 
 /**
@@ -46,18 +63,7 @@ public final class HIDFinchController extends BaseFinchController
          LOG.debug("HIDFinchController.create(): attempting connection...");
          hidDevice.connectExclusively();
 
-         // create the HID device command execution queue (which will attempt to connect to the device)
-         final HIDCommandExecutionQueue commandQueue = new HIDCommandExecutionQueue(hidDevice);
-         if (commandQueue != null)
-            {
-            // create the FinchController
-            final HIDFinchController finchController = new HIDFinchController(commandQueue, hidDevice);
-
-            // call the emergency stop command immediately, to make sure the LED and motors are turned off.
-            finchController.emergencyStop();
-
-            return finchController;
-            }
+         return create(hidDevice);
          }
       catch (UnsupportedOperationException e)
          {
@@ -76,9 +82,78 @@ public final class HIDFinchController extends BaseFinchController
       return null;
       }
 
+   /**
+    * Connects to every USB HID finch which isn't already in use, and returns the connected {@link HIDDevice}s, each of
+    * which may be passed to {@link #create(HIDDevice)}.  Returns an empty list if there are none, or if HID isn't
+    * supported on this platform.
+    */
+   public static List<HIDDevice> connectToAllHIDDevices()
+      {
+      final List<HIDDevice> hidDevices = new ArrayList<HIDDevice>();
+      try
+         {
+         // each connection claims a device which isn't already in use, so keep going until none are left
+         while (true)
+            {
+            final HIDDevice hidDevice = HIDDeviceFactory.create(HIDFinchProperties.UsbHidConfiguration.FINCH_HID_DEVICE_DESCRIPTOR);
+            hidDevice.connectExclusively();
+            hidDevices.add(hidDevice);
+            }
+         }
+      catch (HIDDeviceNotFoundException ignored)
+         {
+         if (LOG.isDebugEnabled())
+            {
+            LOG.debug("HIDFinchController.connectToAllHIDDevices(): no more finches found, connected to [" + hidDevices.size() + "]");
+            }
+         }
+      catch (HIDConnectionException e)
+         {
+         LOG.error("HIDFinchController.connectToAllHIDDevices(): HIDConnectionException while trying to connect to a finch", e);
+         }
+      catch (UnsupportedOperationException e)
+         {
+         LOG.error("HIDFinchController.connectToAllHIDDevices(): UnsupportedOperationException while trying to connect to a finch", e);
+         }
+      return hidDevices;
+      }
+
+   /**
+    * Creates a <code>FinchController</code> which talks to the finch through the given, already-connected
+    * {@link HIDDevice} (e.g. a {@link edu.cmu.ri.createlab.terk.robot.finch.simulator.EmulatedHIDDevice} rather than a
+    * real USB device).  The motors and LED are turned off immediately.
+    *
+    * @throws IllegalArgumentException if the <code>hidDevice</code> is <code>null</code>
+    */
+   public static FinchController create(final HIDDevice hidDevice)
+      {
+      if (hidDevice == null)
+         {
+         throw new IllegalArgumentException("The HIDDevice may not be null");
+         }
+
+      // create the HID device command execution queue, recording a trace of it if requested
+      final CommandExecutionQueue<CommandStrategy<HIDDevice, HIDCommandResponse>, HIDCommandResponse> commandQueue = TraceRecorder.wrapHIDCommandQueueIfEnabled(new HIDCommandExecutionQueue(hidDevice), hidDevice);
+
+      // create the FinchController
+      final HIDFinchController finchController = new HIDFinchController(commandQueue, hidDevice);
+
+      // call the emergency stop command immediately, to make sure the LED and motors are turned off.
+      finchController.emergencyStop();
+
+      finchController.registerMBean();
+
+      return finchController;
+      }
+
    private final FinchProperties finchProperties = HIDFinchProperties.getInstance();
 
-   private final HIDCommandExecutionQueue commandQueue;
+   /** Shared by all of the actuator command strategies, which encode their setpoints into the helpers' buffers. */
+   private final FullColorLEDCommandStrategyHelper fullColorLEDCommandStrategyHelper = new FullColorLEDCommandStrategyHelper(finchProperties);
+   private final MotorVelocityCommandStrategyHelper motorVelocityCommandStrategyHelper = new MotorVelocityCommandStrategyHelper(finchProperties);
+   private final BuzzerCommandStrategyHelper buzzerCommandStrategyHelper = new BuzzerCommandStrategyHelper(finchProperties);
+
+   private final AsyncCommandExecutionQueue<HIDDevice, HIDCommandResponse> commandQueue;
    private final HIDDevice hidDevice;
 
    private final DisconnectCommandStrategy disconnectHIDCommandStrategy = new DisconnectCommandStrategy();
@@ -88,26 +163,45 @@ public final class HIDFinchController extends BaseFinchController
    private final GetThermistorCommandStrategy getThermistorCommandStrategy = new GetThermistorCommandStrategy();
    private final EmergencyStopCommandStrategy emergencyStopCommandStrategy = new EmergencyStopCommandStrategy();
 
-   private final HIDDeviceNoReturnValueCommandExecutor noReturnValueCommandExecutor;
-   private final HIDDeviceReturnValueCommandExecutor<AccelerometerState> accelerometerStateReturnValueCommandExecutor;
-   private final HIDDeviceReturnValueCommandExecutor<boolean[]> booleanArrayStateReturnValueCommandExecutor;
-   private final HIDDeviceReturnValueCommandExecutor<int[]> intArrayStateReturnValueCommandExecutor;
-   private final HIDDeviceReturnValueCommandExecutor<Integer> integerReturnValueCommandExecutor;
+   private final NoReturnValueCommandExecutor<HIDDevice, HIDCommandResponse> noReturnValueCommandExecutor;
+   private final ReturnValueCommandExecutor<HIDDevice, HIDCommandResponse, AccelerometerState> accelerometerStateReturnValueCommandExecutor;
+   private final ReturnValueCommandExecutor<HIDDevice, HIDCommandResponse, boolean[]> booleanArrayStateReturnValueCommandExecutor;
+   private final ReturnValueCommandExecutor<HIDDevice, HIDCommandResponse, int[]> intArrayStateReturnValueCommandExecutor;
+   private final ReturnValueCommandExecutor<HIDDevice, HIDCommandResponse, Integer> integerReturnValueCommandExecutor;
+   private final ReturnValueCommandExecutor<HIDDevice, HIDCommandResponse, FinchSensorSnapshot> sensorSnapshotReturnValueCommandExecutor;
+
+   private final AsyncNoReturnValueCommandExecutor<HIDDevice, HIDCommandResponse> asyncNoReturnValueCommandExecutor;
+   private final AsyncReturnValueCommandExecutor<HIDDevice, HIDCommandResponse, AccelerometerState> asyncAccelerometerStateReturnValueCommandExecutor;
+   private final AsyncReturnValueCommandExecutor<HIDDevice, HIDCommandResponse, boolean[]> asyncBooleanArrayStateReturnValueCommandExecutor;
+   private final AsyncReturnValueCommandExecutor<HIDDevice, HIDCommandResponse, int[]> asyncIntArrayStateReturnValueCommandExecutor;
+   private final AsyncReturnValueCommandExecutor<HIDDevice, HIDCommandResponse, Integer> asyncIntegerReturnValueCommandExecutor;
+   private final AsyncReturnValueCommandExecutor<HIDDevice, HIDCommandResponse, FinchSensorSnapshot> asyncSensorSnapshotReturnValueCommandExecutor;
+
+   private final AsyncFinchController asyncFinchController = new HIDAsyncFinchController();
 
    private final AccelerometerUnitConversionStrategy accelerometerUnitConversionStrategy = AccelerometerUnitConversionStrategyFinder.getInstance().lookup(finchProperties.getAccelerometerDeviceId());
    private final ThermistorUnitConversionStrategy thermistorUnitConversionStrategy = ThermistorUnitConversionStrategyFinder.getInstance().lookup(finchProperties.getThermistorDeviceId());
+   private final GetSensorSnapshotCommandStrategy getSensorSnapshotCommandStrategy = new GetSensorSnapshotCommandStrategy(accelerometerUnitConversionStrategy, thermistorUnitConversionStrategy);
 
-   private HIDFinchController(final HIDCommandExecutionQueue commandQueue, final HIDDevice hidDevice)
+   private HIDFinchController(final CommandExecutionQueue<CommandStrategy<HIDDevice, HIDCommandResponse>, HIDCommandResponse> hidCommandQueue, final HIDDevice hidDevice)
       {
       super(true);
-      this.commandQueue = commandQueue;
+      this.commandQueue = new AsyncCommandExecutionQueue<HIDDevice, HIDCommandResponse>(hidCommandQueue, deadlineFailureHandler);
       this.hidDevice = hidDevice;
 
-      noReturnValueCommandExecutor = new HIDDeviceNoReturnValueCommandExecutor(commandQueue, this);
-      accelerometerStateReturnValueCommandExecutor = new HIDDeviceReturnValueCommandExecutor<AccelerometerState>(commandQueue, this);
-      booleanArrayStateReturnValueCommandExecutor = new HIDDeviceReturnValueCommandExecutor<boolean[]>(commandQueue, this);
-      intArrayStateReturnValueCommandExecutor = new HIDDeviceReturnValueCommandExecutor<int[]>(commandQueue, this);
-      integerReturnValueCommandExecutor = new HIDDeviceReturnValueCommandExecutor<Integer>(commandQueue, this);
+      noReturnValueCommandExecutor = new NoReturnValueCommandExecutor<HIDDevice, HIDCommandResponse>(commandQueue, this);
+      accelerometerStateReturnValueCommandExecutor = new ReturnValueCommandExecutor<HIDDevice, HIDCommandResponse, AccelerometerState>(commandQueue, this);
+      booleanArrayStateReturnValueCommandExecutor = new ReturnValueCommandExecutor<HIDDevice, HIDCommandResponse, boolean[]>(commandQueue, this);
+      intArrayStateReturnValueCommandExecutor = new ReturnValueCommandExecutor<HIDDevice, HIDCommandResponse, int[]>(commandQueue, this);
+      integerReturnValueCommandExecutor = new ReturnValueCommandExecutor<HIDDevice, HIDCommandResponse, Integer>(commandQueue, this);
+      sensorSnapshotReturnValueCommandExecutor = new ReturnValueCommandExecutor<HIDDevice, HIDCommandResponse, FinchSensorSnapshot>(commandQueue, this);
+
+      asyncNoReturnValueCommandExecutor = new AsyncNoReturnValueCommandExecutor<HIDDevice, HIDCommandResponse>(commandQueue, this);
+      asyncAccelerometerStateReturnValueCommandExecutor = new AsyncReturnValueCommandExecutor<HIDDevice, HIDCommandResponse, AccelerometerState>(commandQueue, this);
+      asyncBooleanArrayStateReturnValueCommandExecutor = new AsyncReturnValueCommandExecutor<HIDDevice, HIDCommandResponse, boolean[]>(commandQueue, this);
+      asyncIntArrayStateReturnValueCommandExecutor = new AsyncReturnValueCommandExecutor<HIDDevice, HIDCommandResponse, int[]>(commandQueue, this);
+      asyncIntegerReturnValueCommandExecutor = new AsyncReturnValueCommandExecutor<HIDDevice, HIDCommandResponse, Integer>(commandQueue, this);
+      asyncSensorSnapshotReturnValueCommandExecutor = new AsyncReturnValueCommandExecutor<HIDDevice, HIDCommandResponse, FinchSensorSnapshot>(commandQueue, this);
       }
 
    @Override
@@ -116,6 +210,24 @@ public final class HIDFinchController extends BaseFinchController
       return finchProperties;
       }
 
+   @Override
+   public AsyncFinchController getAsyncFinchController()
+      {
+      return asyncFinchController;
+      }
+
+   @Override
+   public FinchMetrics getFinchMetrics()
+      {
+      return commandQueue.getMetrics();
+      }
+
+   @Override
+   public CommandDeadlines getCommandDeadlines()
+      {
+      return commandQueue.getCommandDeadlines();
+      }
+
    @Override
    public String getPortName()
       {
@@ -129,7 +241,7 @@ public final class HIDFinchController extends BaseFinchController
       }
 
    @Override
-   public AccelerometerState getAccelerometerState()
+   protected AccelerometerState readAccelerometerState()
       {
       return accelerometerStateReturnValueCommandExecutor.execute(getAccelerometerCommandStrategy);
       }
@@ -146,6 +258,12 @@ public final class HIDFinchController extends BaseFinchController
       return intArrayStateReturnValueCommandExecutor.execute(getPhotoresistorCommandStrategy);
       }
 
+   @Override
+   protected FinchSensorSnapshot readSensorSnapshot()
+      {
+      return sensorSnapshotReturnValueCommandExecutor.execute(getSensorSnapshotCommandStrategy);
+      }
+
    @Override
    protected ThermistorUnitConversionStrategy getThermistorUnitConversionStrategy()
       {
@@ -184,26 +302,27 @@ public final class HIDFinchController extends BaseFinchController
    @Override
    public boolean setFullColorLED(final int red, final int green, final int blue)
       {
-      return noReturnValueCommandExecutor.execute(new FullColorLEDCommandStrategy(red, green, blue, finchProperties));
+      updateFullColorLEDShadow(red, green, blue);
+      return noReturnValueCommandExecutor.execute(new FullColorLEDCommandStrategy(red, green, blue, fullColorLEDCommandStrategyHelper));
       }
 
    @Override
    public boolean setMotorVelocities(final int leftVelocity, final int rightVelocity)
       {
-      return noReturnValueCommandExecutor.execute(new MotorVelocityCommandStrategy(leftVelocity,
-                                                                                   rightVelocity,
-                                                                                   finchProperties));
+      updateMotorVelocitiesShadow(leftVelocity, rightVelocity);
+      return noReturnValueCommandExecutor.execute(new MotorVelocityCommandStrategy(leftVelocity, rightVelocity, motorVelocityCommandStrategyHelper));
       }
 
    @Override
    public boolean playBuzzerTone(final int frequency, final int durationInMilliseconds)
       {
-      return noReturnValueCommandExecutor.execute(new BuzzerCommandStrategy(frequency, durationInMilliseconds, finchProperties));
+      return noReturnValueCommandExecutor.execute(new BuzzerCommandStrategy(frequency, durationInMilliseconds, buzzerCommandStrategyHelper));
       }
 
    @Override
    public boolean emergencyStop()
       {
+      clearActuatorShadow();
       return noReturnValueCommandExecutor.execute(emergencyStopCommandStrategy);
       }
 
@@ -224,4 +343,84 @@ public final class HIDFinchController extends BaseFinchController
       {
       return commandQueue.execute(getThermistorCommandStrategy);
       }
+   
+   private final class HIDAsyncFinchController extends BaseAsyncFinchController
+      {
+      protected Future<AccelerometerState> readAccelerometerState()
+         {
+         return asyncAccelerometerStateReturnValueCommandExecutor.execute(getAccelerometerCommandStrategy);
+         }
+
+      public Future<boolean[]> areObstaclesDetected()
+         {
+         return asyncBooleanArrayStateReturnValueCommandExecutor.execute(getObstacleSensorCommandStrategy);
+         }
+
+      public Future<int[]> getPhotoresistors()
+         {
+         return asyncIntArrayStateReturnValueCommandExecutor.execute(getPhotoresistorCommandStrategy);
+         }
+
+      protected Future<FinchSensorSnapshot> readSensorSnapshot()
+         {
+         return asyncSensorSnapshotReturnValueCommandExecutor.execute(getSensorSnapshotCommandStrategy);
+         }
+
+      public Future<Integer> getThermistor(final int id)
+         {
+         if (id >= 0 && id < finchProperties.getThermistorDeviceCount())
+            {
+            return asyncIntegerReturnValueCommandExecutor.execute(getThermistorCommandStrategy);
+            }
+
+         return createCompletedFuture(null);
+         }
+
+      /** Finches connected via USB HID don't have analog inputs, so the returned {@link Future} always yields <code>null</code>. */
+      public Future<Integer> getAnalogInput(final int id)
+         {
+         return createCompletedFuture(null);
+         }
+
+      /** Finches connected via USB HID don't have a useful voltage value, so the returned {@link Future} always yields <code>null</code>. */
+      public Future<Integer> getVoltage()
+         {
+         return createCompletedFuture(null);
+         }
+
+      public Future<Boolean> setFullColorLED(final int red, final int green, final int blue)
+         {
+         updateFullColorLEDShadow(red, green, blue);
+         return asyncNoReturnValueCommandExecutor.execute(new FullColorLEDCommandStrategy(red, green, blue, fullColorLEDCommandStrategyHelper));
+         }
+
+      public Future<Boolean> setMotorVelocities(final int leftVelocity, final int rightVelocity)
+         {
+         updateMotorVelocitiesShadow(leftVelocity, rightVelocity);
+         return asyncNoReturnValueCommandExecutor.execute(new MotorVelocityCommandStrategy(leftVelocity, rightVelocity, motorVelocityCommandStrategyHelper));
+         }
+
+      public Future<Boolean> setFullColorLED(final int red, final int green, final int blue, final CommandBarrier commandBarrier)
+         {
+         updateFullColorLEDShadow(red, green, blue);
+         return asyncNoReturnValueCommandExecutor.execute(new FullColorLEDCommandStrategy(red, green, blue, fullColorLEDCommandStrategyHelper), commandBarrier);
+         }
+
+      public Future<Boolean> setMotorVelocities(final int leftVelocity, final int rightVelocity, final CommandBarrier commandBarrier)
+         {
+         updateMotorVelocitiesShadow(leftVelocity, rightVelocity);
+         return asyncNoReturnValueCommandExecutor.execute(new MotorVelocityCommandStrategy(leftVelocity, rightVelocity, motorVelocityCommandStrategyHelper), commandBarrier);
+         }
+
+      public Future<Boolean> playBuzzerTone(final int frequency, final int durationInMilliseconds)
+         {
+         return asyncNoReturnValueCommandExecutor.execute(new BuzzerCommandStrategy(frequency, durationInMilliseconds, buzzerCommandStrategyHelper));
+         }
+
+      public Future<Boolean> emergencyStop()
+         {
+         clearActuatorShadow();
+         return asyncNoReturnValueCommandExecutor.execute(emergencyStopCommandStrategy);
+         }
+      }
    }
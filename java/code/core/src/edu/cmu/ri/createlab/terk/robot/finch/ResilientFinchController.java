@@ -0,0 +1,874 @@
+package edu.cmu.ri.createlab.terk.robot.finch;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import edu.cmu.ri.createlab.device.CreateLabDevicePingFailureEventListener;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.CommandBarrier;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.CommandDeadlines;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.FinchMetrics;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.LatencyHistogram;
+import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerGs;
+import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerState;
+import edu.cmu.ri.createlab.util.thread.DaemonThreadFactory;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * <code>ResilientFinchController</code> is an opt-in {@link FinchController} wrapper which survives ping failures.
+ * Rather than leaving the caller with a dead controller, it reconnects in the background (using the connector it was
+ * created with), waiting between attempts with exponential backoff, and once reconnected it replays the most recently
+ * commanded actuator state: the LED color, the motor velocities, the remainder of any buzzer tone still playing, and
+ * the sensor sampler, if it was running.
+ * </p>
+ * <p>
+ * While reconnecting, sensor reads return <code>null</code>.  What happens to actuator commands depends on the
+ * {@link CommandPolicy}: with {@link CommandPolicy#BUFFER BUFFER} they're accepted and become the state which is
+ * replayed upon reconnection (so only the latest of each kind is kept), and with {@link CommandPolicy#REJECT REJECT}
+ * they fail.  An emergency stop is always honored, in that nothing is replayed after it.
+ * </p>
+ * <p>
+ * The time from failure to reconnection is recorded in the {@link #getReconnectTimeHistogram() reconnect time
+ * histogram}.  Ping failure listeners are only notified if reconnection is given up (see
+ * {@link #MAX_ATTEMPTS_SYSTEM_PROPERTY}), which by default never happens.  The {@link FinchMetrics} and
+ * {@link CommandDeadlines} are those of the current connection, so they start afresh after each reconnection.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class ResilientFinchController implements FinchController
+   {
+   private static final Logger LOG = Logger.getLogger(ResilientFinchController.class);
+
+   /** The system property which sets the delay before the second reconnection attempt, in milliseconds. */
+   public static final String INITIAL_BACKOFF_SYSTEM_PROPERTY = "finch.reconnect.initial-backoff-millis";
+
+   /** The system property which sets the longest delay between reconnection attempts, in milliseconds. */
+   public static final String MAX_BACKOFF_SYSTEM_PROPERTY = "finch.reconnect.max-backoff-millis";
+
+   /** The system property which sets the number of reconnection attempts before giving up, or 0 to never give up. */
+   public static final String MAX_ATTEMPTS_SYSTEM_PROPERTY = "finch.reconnect.max-attempts";
+
+   public static final int DEFAULT_INITIAL_BACKOFF_MILLIS = 100;
+   public static final int DEFAULT_MAX_BACKOFF_MILLIS = 5000;
+   public static final int DEFAULT_MAX_ATTEMPTS = 0;
+
+   /** What to do with actuator commands issued while reconnecting. */
+   public enum CommandPolicy
+      {
+         /** Accept them, keeping the latest of each kind to be replayed upon reconnection. */
+         BUFFER,
+
+         /** Fail them. */
+         REJECT
+      }
+
+   /**
+    * Connects using the given <code>connector</code>, which is called again whenever the finch needs to be
+    * reconnected.  The connector should return <code>null</code> (or throw) upon failure.  Returns <code>null</code>
+    * if the initial connection fails.
+    *
+    * @throws IllegalArgumentException if the <code>connector</code> or <code>commandPolicy</code> is <code>null</code>
+    */
+   public static ResilientFinchController create(final Callable<FinchController> connector, final CommandPolicy commandPolicy)
+      {
+      if (connector == null || commandPolicy == null)
+         {
+         throw new IllegalArgumentException("The connector and command policy may not be null");
+         }
+
+      final FinchController finchController = connect(connector);
+      if (finchController == null)
+         {
+         LOG.error("ResilientFinchController.create(): initial connection failed, returning null");
+         return null;
+         }
+      return new ResilientFinchController(connector, commandPolicy, finchController);
+      }
+
+   /** Connects to a finch via USB HID, reconnecting to the next available one upon failure. */
+   public static ResilientFinchController createHID(final CommandPolicy commandPolicy)
+      {
+      return create(
+            new Callable<FinchController>()
+            {
+            public FinchController call()
+               {
+               return HIDFinchController.create();
+               }
+            },
+            commandPolicy);
+      }
+
+   /** Connects to the Finch Backpack on the given serial port, reconnecting to it upon failure. */
+   public static ResilientFinchController createBackpacked(final String serialPortName, final CommandPolicy commandPolicy)
+      {
+      if (serialPortName == null)
+         {
+         throw new IllegalArgumentException("The serial port name may not be null");
+         }
+      return create(
+            new Callable<FinchController>()
+            {
+            public FinchController call()
+               {
+               return BackpackedFinchController.create(serialPortName);
+               }
+            },
+            commandPolicy);
+      }
+
+   private static FinchController connect(final Callable<FinchController> connector)
+      {
+      try
+         {
+         return connector.call();
+         }
+      catch (Exception e)
+         {
+         LOG.error("ResilientFinchController.connect(): Exception while trying to connect", e);
+         }
+      return null;
+      }
+
+   private final Callable<FinchController> connector;
+   private final CommandPolicy commandPolicy;
+   private final long initialBackoffInMillis = Math.max(1, Integer.getInteger(INITIAL_BACKOFF_SYSTEM_PROPERTY, DEFAULT_INITIAL_BACKOFF_MILLIS));
+   private final long maxBackoffInMillis = Math.max(initialBackoffInMillis, Integer.getInteger(MAX_BACKOFF_SYSTEM_PROPERTY, DEFAULT_MAX_BACKOFF_MILLIS));
+   private final int maxAttempts = Math.max(0, Integer.getInteger(MAX_ATTEMPTS_SYSTEM_PROPERTY, DEFAULT_MAX_ATTEMPTS));
+   private final ScheduledExecutorService reconnectExecutorService = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("ResilientFinchController.reconnectExecutorService"));
+   private final Set<CreateLabDevicePingFailureEventListener> createLabDevicePingFailureEventListeners = new CopyOnWriteArraySet<CreateLabDevicePingFailureEventListener>();
+   private final AsyncFinchController asyncFinchController = new ResilientAsyncFinchController();
+
+   /** Guards the connection and the actuator state, so that a reconnection can't miss a command issued during it. */
+   private final Object stateLock = new Object();
+
+   /** The current connection, or <code>null</code> while reconnecting (or once disconnected). */
+   private FinchController finchController;
+
+   /** The most recent connection, which stays usable for the properties, port name, and audio while reconnecting. */
+   private volatile FinchController lastFinchController;
+
+   /** Incremented each time a new connection is published, so that a replay can tell whether it's still current. */
+   private long connectionGeneration = 0;
+
+   private boolean isDisconnected = false;
+   private int[] fullColorLED = new int[]{0, 0, 0};
+   private int[] motorVelocities = new int[]{0, 0};
+   private int buzzerFrequency = 0;
+   private long buzzerEndTimeInNanos = 0;
+   private int sensorSamplingPeriodInMillis = 0;
+   private long failureTimeInNanos = 0;
+
+   private final AtomicLong reconnectCount = new AtomicLong(0);
+   private final AtomicLong failedAttemptCount = new AtomicLong(0);
+   private final LatencyHistogram reconnectTimeHistogram = new LatencyHistogram();
+
+   private final CreateLabDevicePingFailureEventListener pingFailureEventListener =
+         new CreateLabDevicePingFailureEventListener()
+         {
+         public void handlePingFailureEvent()
+            {
+            handleConnectionFailure();
+            }
+         };
+
+   private ResilientFinchController(final Callable<FinchController> connector, final CommandPolicy commandPolicy, final FinchController finchController)
+      {
+      this.connector = connector;
+      this.commandPolicy = commandPolicy;
+      this.finchController = finchController;
+      this.lastFinchController = finchController;
+      finchController.addCreateLabDevicePingFailureEventListener(pingFailureEventListener);
+      }
+
+   /** Returns <code>true</code> if the connection has failed and is being re-established. */
+   public boolean isReconnecting()
+      {
+      synchronized (stateLock)
+         {
+         return finchController == null && !isDisconnected;
+         }
+      }
+
+   /** Returns the {@link CommandPolicy} for actuator commands issued while reconnecting. */
+   public CommandPolicy getCommandPolicy()
+      {
+      return commandPolicy;
+      }
+
+   /** Returns the number of successful reconnections. */
+   public long getReconnectCount()
+      {
+      return reconnectCount.get();
+      }
+
+   /** Returns the number of reconnection attempts which failed. */
+   public long getFailedReconnectAttemptCount()
+      {
+      return failedAttemptCount.get();
+      }
+
+   /** Returns the histogram of the time taken to reconnect, from the failure through to the replay of the state. */
+   public LatencyHistogram getReconnectTimeHistogram()
+      {
+      return reconnectTimeHistogram;
+      }
+
+   private void handleConnectionFailure()
+      {
+      final FinchController failedFinchController;
+      synchronized (stateLock)
+         {
+         if (isDisconnected || finchController == null)
+            {
+            return;
+            }
+         failedFinchController = finchController;
+         finchController = null;
+         failureTimeInNanos = System.nanoTime();
+         }
+      failedFinchController.removeCreateLabDevicePingFailureEventListener(pingFailureEventListener);
+
+      LOG.info("ResilientFinchController.handleConnectionFailure(): connection to the finch failed, reconnecting...");
+
+      // the failed connection may still be disconnecting itself, so the reconnector waits for it before trying
+      new Reconnector(failedFinchController).schedule(initialBackoffInMillis);
+      }
+
+   /**
+    * Queues the commands which replay the most recently commanded actuator state, and returns their futures.  The
+    * caller must hold the <code>stateLock</code>, which it may since queueing a command doesn't wait for the finch.
+    */
+   private List<Future<Boolean>> restoreState(final FinchController newFinchController)
+      {
+      final AsyncFinchController newAsyncFinchController = newFinchController.getAsyncFinchController();
+      final List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+      if (fullColorLED[0] != 0 || fullColorLED[1] != 0 || fullColorLED[2] != 0)
+         {
+         futures.add(newAsyncFinchController.setFullColorLED(fullColorLED[0], fullColorLED[1], fullColorLED[2]));
+         }
+      if (motorVelocities[0] != 0 || motorVelocities[1] != 0)
+         {
+         futures.add(newAsyncFinchController.setMotorVelocities(motorVelocities[0], motorVelocities[1]));
+         }
+      final long remainingBuzzerMillis = TimeUnit.NANOSECONDS.toMillis(buzzerEndTimeInNanos - System.nanoTime());
+      if (buzzerFrequency > 0 && remainingBuzzerMillis > 0)
+         {
+         futures.add(newAsyncFinchController.playBuzzerTone(buzzerFrequency, (int)remainingBuzzerMillis));
+         }
+      if (sensorSamplingPeriodInMillis > 0)
+         {
+         newFinchController.startSensorSampling(sensorSamplingPeriodInMillis);
+         }
+      return futures;
+      }
+
+   /**
+    * Waits for the given replayed commands to complete, returning <code>true</code> if they did so while the
+    * connection of the given generation was still the current one.
+    */
+   private boolean awaitRestoredState(final List<Future<Boolean>> futures, final long generation)
+      {
+      for (final Future<Boolean> future : futures)
+         {
+         if (!isCurrentConnection(generation))
+            {
+            return false;
+            }
+         try
+            {
+            future.get();
+            }
+         catch (CancellationException ignored)
+            {
+            // the connection failed (or was disconnected) during the replay, which the check above will see
+            }
+         catch (ExecutionException e)
+            {
+            LOG.error("ResilientFinchController.awaitRestoredState(): Exception while replaying the actuator state", e.getCause());
+            }
+         catch (InterruptedException ignored)
+            {
+            LOG.debug("ResilientFinchController.awaitRestoredState(): interrupted while waiting for the actuator state to be replayed");
+            Thread.currentThread().interrupt();
+            return false;
+            }
+         }
+      return isCurrentConnection(generation);
+      }
+
+   /** Returns <code>true</code> if the connection of the given generation is still the current one. */
+   private boolean isCurrentConnection(final long generation)
+      {
+      synchronized (stateLock)
+         {
+         return connectionGeneration == generation && finchController != null;
+         }
+      }
+
+   private void notifyPingFailureEventListeners()
+      {
+      for (final CreateLabDevicePingFailureEventListener listener : createLabDevicePingFailureEventListeners)
+         {
+         try
+            {
+            listener.handlePingFailureEvent();
+            }
+         catch (Exception e)
+            {
+            LOG.error("ResilientFinchController.notifyPingFailureEventListeners(): Exception caught while notifying listener", e);
+            }
+         }
+      }
+
+   /** Returns the current connection, or <code>null</code> while reconnecting. */
+   private FinchController getFinchController()
+      {
+      synchronized (stateLock)
+         {
+         return finchController;
+         }
+      }
+
+   /** Returns whether an actuator command issued while reconnecting counts as a success. */
+   private boolean isBuffering()
+      {
+      return CommandPolicy.BUFFER.equals(commandPolicy);
+      }
+
+   public void addCreateLabDevicePingFailureEventListener(final CreateLabDevicePingFailureEventListener listener)
+      {
+      if (listener != null)
+         {
+         createLabDevicePingFailureEventListeners.add(listener);
+         }
+      }
+
+   public void removeCreateLabDevicePingFailureEventListener(final CreateLabDevicePingFailureEventListener listener)
+      {
+      if (listener != null)
+         {
+         createLabDevicePingFailureEventListeners.remove(listener);
+         }
+      }
+
+   public String getPortName()
+      {
+      return lastFinchController.getPortName();
+      }
+
+   public FinchProperties getFinchProperties()
+      {
+      return lastFinchController.getFinchProperties();
+      }
+
+   public AsyncFinchController getAsyncFinchController()
+      {
+      return asyncFinchController;
+      }
+
+   public FinchMetrics getFinchMetrics()
+      {
+      return lastFinchController.getFinchMetrics();
+      }
+
+   public CommandDeadlines getCommandDeadlines()
+      {
+      return lastFinchController.getCommandDeadlines();
+      }
+
+   public AccelerometerState getAccelerometerState()
+      {
+      final FinchController controller = getFinchController();
+      return (controller == null) ? null : controller.getAccelerometerState();
+      }
+
+   public AccelerometerGs getAccelerometerGs()
+      {
+      final FinchController controller = getFinchController();
+      return (controller == null) ? null : controller.getAccelerometerGs();
+      }
+
+   public Boolean isObstacleDetected(final int id)
+      {
+      final FinchController controller = getFinchController();
+      return (controller == null) ? null : controller.isObstacleDetected(id);
+      }
+
+   public boolean[] areObstaclesDetected()
+      {
+      final FinchController controller = getFinchController();
+      return (controller == null) ? null : controller.areObstaclesDetected();
+      }
+
+   public int[] getPhotoresistors()
+      {
+      final FinchController controller = getFinchController();
+      return (controller == null) ? null : controller.getPhotoresistors();
+      }
+
+   public Integer getThermistor(final int id)
+      {
+      final FinchController controller = getFinchController();
+      return (controller == null) ? null : controller.getThermistor(id);
+      }
+
+   public Integer getThermistor()
+      {
+      final FinchController controller = getFinchController();
+      return (controller == null) ? null : controller.getThermistor();
+      }
+
+   public Double getThermistorCelsiusTemperature()
+      {
+      final FinchController controller = getFinchController();
+      return (controller == null) ? null : controller.getThermistorCelsiusTemperature();
+      }
+
+   public FinchSensorSnapshot getSensorSnapshot()
+      {
+      final FinchController controller = getFinchController();
+      return (controller == null) ? null : controller.getSensorSnapshot();
+      }
+
+   public FinchSensorSnapshot getSensorSnapshot(final int maxAgeInMillis)
+      {
+      final FinchController controller = getFinchController();
+      return (controller == null) ? null : controller.getSensorSnapshot(maxAgeInMillis);
+      }
+
+   public void startSensorSampling(final int periodInMillis)
+      {
+      if (periodInMillis <= 0)
+         {
+         throw new IllegalArgumentException("The sampling period must be positive");
+         }
+      final FinchController controller;
+      synchronized (stateLock)
+         {
+         sensorSamplingPeriodInMillis = periodInMillis;
+         controller = finchController;
+         }
+      if (controller != null)
+         {
+         controller.startSensorSampling(periodInMillis);
+         }
+      }
+
+   public void stopSensorSampling()
+      {
+      final FinchController controller;
+      synchronized (stateLock)
+         {
+         sensorSamplingPeriodInMillis = 0;
+         controller = finchController;
+         }
+      if (controller != null)
+         {
+         controller.stopSensorSampling();
+         }
+      }
+
+   public boolean wasShakenSinceLastCheck()
+      {
+      final FinchController controller = getFinchController();
+      return controller != null && controller.wasShakenSinceLastCheck();
+      }
+
+   public boolean wasTappedSinceLastCheck()
+      {
+      final FinchController controller = getFinchController();
+      return controller != null && controller.wasTappedSinceLastCheck();
+      }
+
+   public Integer getAnalogInput(final int id)
+      {
+      final FinchController controller = getFinchController();
+      return (controller == null) ? null : controller.getAnalogInput(id);
+      }
+
+   public Integer getVoltage()
+      {
+      final FinchController controller = getFinchController();
+      return (controller == null) ? null : controller.getVoltage();
+      }
+
+   public boolean setFullColorLED(final int red, final int green, final int blue)
+      {
+      final FinchController controller = setFullColorLEDState(red, green, blue);
+      return (controller == null) ? isBuffering() : controller.setFullColorLED(red, green, blue);
+      }
+
+   public boolean setFullColorLED(final Color color)
+      {
+      return setFullColorLED(color.getRed(), color.getGreen(), color.getBlue());
+      }
+
+   public boolean setMotorVelocities(final int leftVelocity, final int rightVelocity)
+      {
+      final FinchController controller = setMotorVelocitiesState(leftVelocity, rightVelocity);
+      return (controller == null) ? isBuffering() : controller.setMotorVelocities(leftVelocity, rightVelocity);
+      }
+
+   public boolean playBuzzerTone(final int frequency, final int durationInMilliseconds)
+      {
+      final FinchController controller = setBuzzerState(frequency, durationInMilliseconds);
+      return (controller == null) ? isBuffering() : controller.playBuzzerTone(frequency, durationInMilliseconds);
+      }
+
+   public void playTone(final int frequency, final int amplitude, final int duration)
+      {
+      lastFinchController.playTone(frequency, amplitude, duration);
+      }
+
+   public void playClip(final byte[] data)
+      {
+      lastFinchController.playClip(data);
+      }
+
+   public byte[] getSpeech(final String whatToSay)
+      {
+      return lastFinchController.getSpeech(whatToSay);
+      }
+
+   public void speak(final String whatToSay)
+      {
+      lastFinchController.speak(whatToSay);
+      }
+
+   public boolean emergencyStop()
+      {
+      final FinchController controller = clearActuatorState();
+      return (controller == null) ? isBuffering() : controller.emergencyStop();
+      }
+
+   /** Records the LED color to be replayed, and returns the current connection (or <code>null</code>). */
+   private FinchController setFullColorLEDState(final int red, final int green, final int blue)
+      {
+      synchronized (stateLock)
+         {
+         if (finchController != null || isBuffering())
+            {
+            fullColorLED = new int[]{red, green, blue};
+            }
+         return finchController;
+         }
+      }
+
+   /** Records the motor velocities to be replayed, and returns the current connection (or <code>null</code>). */
+   private FinchController setMotorVelocitiesState(final int leftVelocity, final int rightVelocity)
+      {
+      synchronized (stateLock)
+         {
+         if (finchController != null || isBuffering())
+            {
+            motorVelocities = new int[]{leftVelocity, rightVelocity};
+            }
+         return finchController;
+         }
+      }
+
+   /** Records the buzzer tone to be replayed, and returns the current connection (or <code>null</code>). */
+   private FinchController setBuzzerState(final int frequency, final int durationInMilliseconds)
+      {
+      synchronized (stateLock)
+         {
+         if (finchController != null || isBuffering())
+            {
+            buzzerFrequency = frequency;
+            buzzerEndTimeInNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, durationInMilliseconds));
+            }
+         return finchController;
+         }
+      }
+
+   /** Clears the actuator state so nothing is replayed, and returns the current connection (or <code>null</code>). */
+   private FinchController clearActuatorState()
+      {
+      synchronized (stateLock)
+         {
+         fullColorLED = new int[]{0, 0, 0};
+         motorVelocities = new int[]{0, 0};
+         buzzerFrequency = 0;
+         buzzerEndTimeInNanos = 0;
+         return finchController;
+         }
+      }
+
+   public void disconnect()
+      {
+      final FinchController controller;
+      synchronized (stateLock)
+         {
+         isDisconnected = true;
+         controller = finchController;
+         finchController = null;
+         }
+      reconnectExecutorService.shutdownNow();
+
+      if (controller != null)
+         {
+         controller.removeCreateLabDevicePingFailureEventListener(pingFailureEventListener);
+         controller.disconnect();
+         }
+      }
+
+   public boolean isDisconnected()
+      {
+      synchronized (stateLock)
+         {
+         return isDisconnected;
+         }
+      }
+
+   /**
+    * Tries to reconnect, rescheduling itself with exponential backoff until it succeeds or gives up.  The first attempt
+    * waits (for up to the maximum backoff) until the failed connection has finished disconnecting, so that the two
+    * don't race for the device.
+    */
+   private final class Reconnector implements Runnable
+      {
+      private final FinchController failedFinchController;
+      private int attemptCount = 0;
+      private long backoffInMillis = initialBackoffInMillis;
+      private long disconnectWaitInMillis = initialBackoffInMillis;
+
+      private Reconnector(final FinchController failedFinchController)
+         {
+         this.failedFinchController = failedFinchController;
+         }
+
+      public void run()
+         {
+         if (isDisconnected())
+            {
+            return;
+            }
+
+         if (attemptCount == 0 && !failedFinchController.isDisconnected() && disconnectWaitInMillis < maxBackoffInMillis)
+            {
+            if (LOG.isDebugEnabled())
+               {
+               LOG.debug("ResilientFinchController$Reconnector.run(): the failed connection is still disconnecting, waiting another [" + initialBackoffInMillis + "] ms");
+               }
+            disconnectWaitInMillis += initialBackoffInMillis;
+            schedule(initialBackoffInMillis);
+            return;
+            }
+
+         attemptCount++;
+         final FinchController newFinchController = connect(connector);
+         if (newFinchController == null)
+            {
+            failedAttemptCount.incrementAndGet();
+            if (maxAttempts > 0 && attemptCount >= maxAttempts)
+               {
+               giveUp();
+               }
+            else
+               {
+               if (LOG.isDebugEnabled())
+                  {
+                  LOG.debug("ResilientFinchController$Reconnector.run(): attempt [" + attemptCount + "] failed, retrying in [" + backoffInMillis + "] ms");
+                  }
+               schedule(backoffInMillis);
+               backoffInMillis = Math.min(backoffInMillis * 2, maxBackoffInMillis);
+               }
+            return;
+            }
+
+         // publish the new connection and queue the replay of the state atomically, so that a command issued meanwhile
+         // is neither lost nor overwritten by the replay, but wait for the replay only once the lock is released
+         final long generation;
+         final long failureTime;
+         final List<Future<Boolean>> replayFutures;
+         synchronized (stateLock)
+            {
+            if (isDisconnected)
+               {
+               newFinchController.disconnect();
+               return;
+               }
+            newFinchController.addCreateLabDevicePingFailureEventListener(pingFailureEventListener);
+            finchController = newFinchController;
+            lastFinchController = newFinchController;
+            generation = ++connectionGeneration;
+            failureTime = failureTimeInNanos;
+            replayFutures = restoreState(newFinchController);
+            }
+         if (!awaitRestoredState(replayFutures, generation))
+            {
+            LOG.debug("ResilientFinchController$Reconnector.run(): the new connection was lost (or disconnected) while replaying the state");
+            return;
+            }
+         final long reconnectTimeInNanos = System.nanoTime() - failureTime;
+         reconnectCount.incrementAndGet();
+         reconnectTimeHistogram.record(reconnectTimeInNanos);
+
+         if (LOG.isInfoEnabled())
+            {
+            LOG.info("ResilientFinchController$Reconnector.run(): reconnected to [" + newFinchController.getPortName() + "] after [" + attemptCount + "] attempt(s) in [" + TimeUnit.NANOSECONDS.toMillis(reconnectTimeInNanos) + "] ms");
+            }
+         }
+
+      private void giveUp()
+         {
+         if (LOG.isEnabledFor(Level.ERROR))
+            {
+            LOG.error("ResilientFinchController$Reconnector.giveUp(): giving up after [" + attemptCount + "] failed attempts to reconnect");
+            }
+         synchronized (stateLock)
+            {
+            isDisconnected = true;
+            }
+         reconnectExecutorService.shutdown();
+         notifyPingFailureEventListeners();
+         }
+
+      private void schedule(final long delayInMillis)
+         {
+         try
+            {
+            reconnectExecutorService.schedule(this, delayInMillis, TimeUnit.MILLISECONDS);
+            }
+         catch (RejectedExecutionException ignored)
+            {
+            // disconnected meanwhile, so there's nothing more to do
+            LOG.debug("ResilientFinchController$Reconnector.schedule(): disconnected, so no more attempts will be made");
+            }
+         }
+      }
+
+   private final class ResilientAsyncFinchController implements AsyncFinchController
+      {
+      public Future<AccelerometerState> getAccelerometerState()
+         {
+         final FinchController controller = getFinchController();
+         return (controller == null) ? BaseFinchController.<AccelerometerState>createCompletedFuture(null) : controller.getAsyncFinchController().getAccelerometerState();
+         }
+
+      public Future<AccelerometerGs> getAccelerometerGs()
+         {
+         final FinchController controller = getFinchController();
+         return (controller == null) ? BaseFinchController.<AccelerometerGs>createCompletedFuture(null) : controller.getAsyncFinchController().getAccelerometerGs();
+         }
+
+      public Future<Boolean> isObstacleDetected(final int id)
+         {
+         final FinchController controller = getFinchController();
+         return (controller == null) ? BaseFinchController.<Boolean>createCompletedFuture(null) : controller.getAsyncFinchController().isObstacleDetected(id);
+         }
+
+      public Future<boolean[]> areObstaclesDetected()
+         {
+         final FinchController controller = getFinchController();
+         return (controller == null) ? BaseFinchController.<boolean[]>createCompletedFuture(null) : controller.getAsyncFinchController().areObstaclesDetected();
+         }
+
+      public Future<int[]> getPhotoresistors()
+         {
+         final FinchController controller = getFinchController();
+         return (controller == null) ? BaseFinchController.<int[]>createCompletedFuture(null) : controller.getAsyncFinchController().getPhotoresistors();
+         }
+
+      public Future<Integer> getThermistor(final int id)
+         {
+         final FinchController controller = getFinchController();
+         return (controller == null) ? BaseFinchController.<Integer>createCompletedFuture(null) : controller.getAsyncFinchController().getThermistor(id);
+         }
+
+      public Future<Integer> getThermistor()
+         {
+         final FinchController controller = getFinchController();
+         return (controller == null) ? BaseFinchController.<Integer>createCompletedFuture(null) : controller.getAsyncFinchController().getThermistor();
+         }
+
+      public Future<Double> getThermistorCelsiusTemperature()
+         {
+         final FinchController controller = getFinchController();
+         return (controller == null) ? BaseFinchController.<Double>createCompletedFuture(null) : controller.getAsyncFinchController().getThermistorCelsiusTemperature();
+         }
+
+      public Future<FinchSensorSnapshot> getSensorSnapshot()
+         {
+         final FinchController controller = getFinchController();
+         return (controller == null) ? BaseFinchController.<FinchSensorSnapshot>createCompletedFuture(null) : controller.getAsyncFinchController().getSensorSnapshot();
+         }
+
+      public Future<Integer> getAnalogInput(final int id)
+         {
+         final FinchController controller = getFinchController();
+         return (controller == null) ? BaseFinchController.<Integer>createCompletedFuture(null) : controller.getAsyncFinchController().getAnalogInput(id);
+         }
+
+      public Future<Integer> getVoltage()
+         {
+         final FinchController controller = getFinchController();
+         return (controller == null) ? BaseFinchController.<Integer>createCompletedFuture(null) : controller.getAsyncFinchController().getVoltage();
+         }
+
+      public Future<Boolean> setFullColorLED(final int red, final int green, final int blue)
+         {
+         final FinchController controller = setFullColorLEDState(red, green, blue);
+         return (controller == null) ? BaseFinchController.createCompletedFuture(isBuffering()) : controller.getAsyncFinchController().setFullColorLED(red, green, blue);
+         }
+
+      public Future<Boolean> setFullColorLED(final Color color)
+         {
+         return setFullColorLED(color.getRed(), color.getGreen(), color.getBlue());
+         }
+
+      public Future<Boolean> setMotorVelocities(final int leftVelocity, final int rightVelocity)
+         {
+         final FinchController controller = setMotorVelocitiesState(leftVelocity, rightVelocity);
+         return (controller == null) ? BaseFinchController.createCompletedFuture(isBuffering()) : controller.getAsyncFinchController().setMotorVelocities(leftVelocity, rightVelocity);
+         }
+
+      public Future<Boolean> setFullColorLED(final int red, final int green, final int blue, final CommandBarrier commandBarrier)
+         {
+         final FinchController controller = setFullColorLEDState(red, green, blue);
+         if (controller == null)
+            {
+            commandBarrier.withdraw();
+            return BaseFinchController.createCompletedFuture(isBuffering());
+            }
+         return controller.getAsyncFinchController().setFullColorLED(red, green, blue, commandBarrier);
+         }
+
+      public Future<Boolean> setMotorVelocities(final int leftVelocity, final int rightVelocity, final CommandBarrier commandBarrier)
+         {
+         final FinchController controller = setMotorVelocitiesState(leftVelocity, rightVelocity);
+         if (controller == null)
+            {
+            commandBarrier.withdraw();
+            return BaseFinchController.createCompletedFuture(isBuffering());
+            }
+         return controller.getAsyncFinchController().setMotorVelocities(leftVelocity, rightVelocity, commandBarrier);
+         }
+
+      public Future<Boolean> playBuzzerTone(final int frequency, final int durationInMilliseconds)
+         {
+         final FinchController controller = setBuzzerState(frequency, durationInMilliseconds);
+         return (controller == null) ? BaseFinchController.createCompletedFuture(isBuffering()) : controller.getAsyncFinchController().playBuzzerTone(frequency, durationInMilliseconds);
+         }
+
+      public Future<Boolean> emergencyStop()
+         {
+         final FinchController controller = clearActuatorState();
+         return (controller == null) ? BaseFinchController.createCompletedFuture(isBuffering()) : controller.getAsyncFinchController().emergencyStop();
+         }
+      }
+   }
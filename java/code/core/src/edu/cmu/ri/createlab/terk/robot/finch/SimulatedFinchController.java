@@ -0,0 +1,369 @@
+package edu.cmu.ri.createlab.terk.robot.finch;
+
+import java.util.concurrent.Future;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.AsyncCommandExecutionQueue;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.AsyncNoReturnValueCommandExecutor;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.AsyncReturnValueCommandExecutor;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.CommandBarrier;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.CommandDeadlines;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.FinchMetrics;
+import edu.cmu.ri.createlab.terk.robot.finch.commands.simulated.BuzzerCommandStrategy;
+import edu.cmu.ri.createlab.terk.robot.finch.commands.simulated.DisconnectCommandStrategy;
+import edu.cmu.ri.createlab.terk.robot.finch.commands.simulated.EmergencyStopCommandStrategy;
+import edu.cmu.ri.createlab.terk.robot.finch.commands.simulated.FullColorLEDCommandStrategy;
+import edu.cmu.ri.createlab.terk.robot.finch.commands.simulated.GetAccelerometerCommandStrategy;
+import edu.cmu.ri.createlab.terk.robot.finch.commands.simulated.GetObstacleSensorCommandStrategy;
+import edu.cmu.ri.createlab.terk.robot.finch.commands.simulated.GetPhotoresistorCommandStrategy;
+import edu.cmu.ri.createlab.terk.robot.finch.commands.simulated.GetSensorSnapshotCommandStrategy;
+import edu.cmu.ri.createlab.terk.robot.finch.commands.simulated.GetThermistorCommandStrategy;
+import edu.cmu.ri.createlab.terk.robot.finch.commands.simulated.MotorVelocityCommandStrategy;
+import edu.cmu.ri.createlab.terk.robot.finch.simulator.FinchSimulator;
+import edu.cmu.ri.createlab.terk.robot.finch.simulator.SimulatedCommandExecutionQueue;
+import edu.cmu.ri.createlab.terk.robot.finch.simulator.SimulatedCommandResponse;
+import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerState;
+import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerUnitConversionStrategy;
+import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerUnitConversionStrategyFinder;
+import edu.cmu.ri.createlab.terk.services.thermistor.ThermistorUnitConversionStrategy;
+import edu.cmu.ri.createlab.terk.services.thermistor.ThermistorUnitConversionStrategyFinder;
+import edu.cmu.ri.createlab.util.commandexecution.CommandResponse;
+import edu.cmu.ri.createlab.util.commandexecution.NoReturnValueCommandExecutor;
+import edu.cmu.ri.createlab.util.commandexecution.ReturnValueCommandExecutor;
+
+/**
+ * <p>
+ * <code>SimulatedFinchController</code> is a {@link FinchController} for a {@link FinchSimulator} rather than a real
+ * finch, so that applications, services, and load tests can run without any hardware attached.  Commands go through
+ * the same asynchronous command queue as they do for real finches, and the simulated latency, jitter, and failure rate
+ * of each command may be configured (see {@link #setCommandLatency(int, int)} and
+ * {@link #setCommandFailureProbability(double)}).  By default, commands complete immediately and never fail.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class SimulatedFinchController extends BaseFinchController
+   {
+   private static final String PORT_NAME = "simulator";
+
+   /** Creates a <code>SimulatedFinchController</code> for a new, real-time {@link FinchSimulator}. */
+   public static FinchController create()
+      {
+      return create(new FinchSimulator());
+      }
+
+   /**
+    * Creates a <code>SimulatedFinchController</code> for the given {@link FinchSimulator}.
+    *
+    * @throws IllegalArgumentException if the given <code>simulator</code> is <code>null</code>
+    */
+   public static SimulatedFinchController create(final FinchSimulator simulator)
+      {
+      final SimulatedFinchController finchController = new SimulatedFinchController(new SimulatedCommandExecutionQueue(simulator));
+
+      // call the emergency stop command immediately, just as for a real finch
+      finchController.emergencyStop();
+
+      finchController.registerMBean();
+
+      return finchController;
+      }
+
+   private final FinchProperties finchProperties = SimulatedFinchProperties.getInstance();
+
+   private final AsyncCommandExecutionQueue<FinchSimulator, SimulatedCommandResponse> commandQueue;
+   private final SimulatedCommandExecutionQueue simulatedCommandQueue;
+
+   private final DisconnectCommandStrategy disconnectCommandStrategy = new DisconnectCommandStrategy();
+   private final GetAccelerometerCommandStrategy getAccelerometerCommandStrategy = new GetAccelerometerCommandStrategy();
+   private final GetObstacleSensorCommandStrategy getObstacleSensorCommandStrategy = new GetObstacleSensorCommandStrategy();
+   private final GetPhotoresistorCommandStrategy getPhotoresistorCommandStrategy = new GetPhotoresistorCommandStrategy();
+   private final GetThermistorCommandStrategy getThermistorCommandStrategy = new GetThermistorCommandStrategy();
+   private final EmergencyStopCommandStrategy emergencyStopCommandStrategy = new EmergencyStopCommandStrategy();
+
+   private final NoReturnValueCommandExecutor<FinchSimulator, SimulatedCommandResponse> noReturnValueCommandExecutor;
+   private final ReturnValueCommandExecutor<FinchSimulator, SimulatedCommandResponse, AccelerometerState> accelerometerStateReturnValueCommandExecutor;
+   private final ReturnValueCommandExecutor<FinchSimulator, SimulatedCommandResponse, boolean[]> booleanArrayStateReturnValueCommandExecutor;
+   private final ReturnValueCommandExecutor<FinchSimulator, SimulatedCommandResponse, int[]> intArrayStateReturnValueCommandExecutor;
+   private final ReturnValueCommandExecutor<FinchSimulator, SimulatedCommandResponse, Integer> integerReturnValueCommandExecutor;
+   private final ReturnValueCommandExecutor<FinchSimulator, SimulatedCommandResponse, FinchSensorSnapshot> sensorSnapshotReturnValueCommandExecutor;
+
+   private final AsyncNoReturnValueCommandExecutor<FinchSimulator, SimulatedCommandResponse> asyncNoReturnValueCommandExecutor;
+   private final AsyncReturnValueCommandExecutor<FinchSimulator, SimulatedCommandResponse, AccelerometerState> asyncAccelerometerStateReturnValueCommandExecutor;
+   private final AsyncReturnValueCommandExecutor<FinchSimulator, SimulatedCommandResponse, boolean[]> asyncBooleanArrayStateReturnValueCommandExecutor;
+   private final AsyncReturnValueCommandExecutor<FinchSimulator, SimulatedCommandResponse, int[]> asyncIntArrayStateReturnValueCommandExecutor;
+   private final AsyncReturnValueCommandExecutor<FinchSimulator, SimulatedCommandResponse, Integer> asyncIntegerReturnValueCommandExecutor;
+   private final AsyncReturnValueCommandExecutor<FinchSimulator, SimulatedCommandResponse, FinchSensorSnapshot> asyncSensorSnapshotReturnValueCommandExecutor;
+
+   private final AsyncFinchController asyncFinchController = new SimulatedAsyncFinchController();
+
+   private final AccelerometerUnitConversionStrategy accelerometerUnitConversionStrategy = AccelerometerUnitConversionStrategyFinder.getInstance().lookup(finchProperties.getAccelerometerDeviceId());
+   private final ThermistorUnitConversionStrategy thermistorUnitConversionStrategy = ThermistorUnitConversionStrategyFinder.getInstance().lookup(finchProperties.getThermistorDeviceId());
+   private final GetSensorSnapshotCommandStrategy getSensorSnapshotCommandStrategy = new GetSensorSnapshotCommandStrategy(accelerometerUnitConversionStrategy, thermistorUnitConversionStrategy);
+
+   private SimulatedFinchController(final SimulatedCommandExecutionQueue simulatedCommandQueue)
+      {
+      super(true);
+      this.simulatedCommandQueue = simulatedCommandQueue;
+      this.commandQueue = new AsyncCommandExecutionQueue<FinchSimulator, SimulatedCommandResponse>(simulatedCommandQueue, deadlineFailureHandler);
+
+      noReturnValueCommandExecutor = new NoReturnValueCommandExecutor<FinchSimulator, SimulatedCommandResponse>(commandQueue, this);
+      accelerometerStateReturnValueCommandExecutor = new ReturnValueCommandExecutor<FinchSimulator, SimulatedCommandResponse, AccelerometerState>(commandQueue, this);
+      booleanArrayStateReturnValueCommandExecutor = new ReturnValueCommandExecutor<FinchSimulator, SimulatedCommandResponse, boolean[]>(commandQueue, this);
+      intArrayStateReturnValueCommandExecutor = new ReturnValueCommandExecutor<FinchSimulator, SimulatedCommandResponse, int[]>(commandQueue, this);
+      integerReturnValueCommandExecutor = new ReturnValueCommandExecutor<FinchSimulator, SimulatedCommandResponse, Integer>(commandQueue, this);
+      sensorSnapshotReturnValueCommandExecutor = new ReturnValueCommandExecutor<FinchSimulator, SimulatedCommandResponse, FinchSensorSnapshot>(commandQueue, this);
+
+      asyncNoReturnValueCommandExecutor = new AsyncNoReturnValueCommandExecutor<FinchSimulator, SimulatedCommandResponse>(commandQueue, this);
+      asyncAccelerometerStateReturnValueCommandExecutor = new AsyncReturnValueCommandExecutor<FinchSimulator, SimulatedCommandResponse, AccelerometerState>(commandQueue, this);
+      asyncBooleanArrayStateReturnValueCommandExecutor = new AsyncReturnValueCommandExecutor<FinchSimulator, SimulatedCommandResponse, boolean[]>(commandQueue, this);
+      asyncIntArrayStateReturnValueCommandExecutor = new AsyncReturnValueCommandExecutor<FinchSimulator, SimulatedCommandResponse, int[]>(commandQueue, this);
+      asyncIntegerReturnValueCommandExecutor = new AsyncReturnValueCommandExecutor<FinchSimulator, SimulatedCommandResponse, Integer>(commandQueue, this);
+      asyncSensorSnapshotReturnValueCommandExecutor = new AsyncReturnValueCommandExecutor<FinchSimulator, SimulatedCommandResponse, FinchSensorSnapshot>(commandQueue, this);
+      }
+
+   @Override
+   public FinchProperties getFinchProperties()
+      {
+      return finchProperties;
+      }
+
+   @Override
+   public AsyncFinchController getAsyncFinchController()
+      {
+      return asyncFinchController;
+      }
+
+   @Override
+   public FinchMetrics getFinchMetrics()
+      {
+      return commandQueue.getMetrics();
+      }
+
+   @Override
+   public CommandDeadlines getCommandDeadlines()
+      {
+      return commandQueue.getCommandDeadlines();
+      }
+
+   @Override
+   public String getPortName()
+      {
+      return PORT_NAME;
+      }
+
+   /** Returns the {@link FinchSimulator} which this controller drives. */
+   public FinchSimulator getSimulator()
+      {
+      return simulatedCommandQueue.getSimulator();
+      }
+
+   /**
+    * Sets the simulated time taken by each command.
+    *
+    * @see SimulatedCommandExecutionQueue#setLatency(int, int)
+    */
+   public void setCommandLatency(final int latencyInMillis, final int jitterInMillis)
+      {
+      simulatedCommandQueue.setLatency(latencyInMillis, jitterInMillis);
+      }
+
+   /**
+    * Sets the probability that any given command fails.  Note that a failed ping causes the controller to disconnect,
+    * just as it would for a real finch.
+    *
+    * @see SimulatedCommandExecutionQueue#setFailureProbability(double)
+    */
+   public void setCommandFailureProbability(final double failureProbability)
+      {
+      simulatedCommandQueue.setFailureProbability(failureProbability);
+      }
+
+   @Override
+   protected AccelerometerUnitConversionStrategy getAccelerometerUnitConversionStrategy()
+      {
+      return accelerometerUnitConversionStrategy;
+      }
+
+   @Override
+   protected AccelerometerState readAccelerometerState()
+      {
+      return accelerometerStateReturnValueCommandExecutor.execute(getAccelerometerCommandStrategy);
+      }
+
+   @Override
+   public boolean[] areObstaclesDetected()
+      {
+      return booleanArrayStateReturnValueCommandExecutor.execute(getObstacleSensorCommandStrategy);
+      }
+
+   @Override
+   public int[] getPhotoresistors()
+      {
+      return intArrayStateReturnValueCommandExecutor.execute(getPhotoresistorCommandStrategy);
+      }
+
+   @Override
+   protected FinchSensorSnapshot readSensorSnapshot()
+      {
+      return sensorSnapshotReturnValueCommandExecutor.execute(getSensorSnapshotCommandStrategy);
+      }
+
+   @Override
+   protected ThermistorUnitConversionStrategy getThermistorUnitConversionStrategy()
+      {
+      return thermistorUnitConversionStrategy;
+      }
+
+   public Integer getThermistor(final int id)
+      {
+      if (id >= 0 && id < finchProperties.getThermistorDeviceCount())
+         {
+         return integerReturnValueCommandExecutor.execute(getThermistorCommandStrategy);
+         }
+
+      return null;
+      }
+
+   /**
+    * Simulated finches don't have analog inputs, so this method will always return <code>null</code>.
+    */
+   @Override
+   public Integer getAnalogInput(final int id)
+      {
+      return null;
+      }
+
+   /**
+    * Returns the voltage.  Simulated finches don't have a battery pack, so this method will always return
+    * <code>null</code>.
+    */
+   @Override
+   public Integer getVoltage()
+      {
+      return null;
+      }
+
+   @Override
+   public boolean setFullColorLED(final int red, final int green, final int blue)
+      {
+      updateFullColorLEDShadow(red, green, blue);
+      return noReturnValueCommandExecutor.execute(new FullColorLEDCommandStrategy(red, green, blue, finchProperties));
+      }
+
+   @Override
+   public boolean setMotorVelocities(final int leftVelocity, final int rightVelocity)
+      {
+      updateMotorVelocitiesShadow(leftVelocity, rightVelocity);
+      return noReturnValueCommandExecutor.execute(new MotorVelocityCommandStrategy(leftVelocity, rightVelocity, finchProperties));
+      }
+
+   @Override
+   public boolean playBuzzerTone(final int frequency, final int durationInMilliseconds)
+      {
+      return noReturnValueCommandExecutor.execute(new BuzzerCommandStrategy(frequency, durationInMilliseconds, finchProperties));
+      }
+
+   @Override
+   public boolean emergencyStop()
+      {
+      clearActuatorShadow();
+      return noReturnValueCommandExecutor.execute(emergencyStopCommandStrategy);
+      }
+
+   @Override
+   protected boolean disconnectAndReturnStatus() throws Exception
+      {
+      return commandQueue.executeAndReturnStatus(disconnectCommandStrategy);
+      }
+
+   @Override
+   protected void shutdownCommandQueue()
+      {
+      commandQueue.shutdown();
+      }
+
+   @Override
+   protected CommandResponse executePingCommand() throws Exception
+      {
+      return commandQueue.execute(getThermistorCommandStrategy);
+      }
+   
+   private final class SimulatedAsyncFinchController extends BaseAsyncFinchController
+      {
+      protected Future<AccelerometerState> readAccelerometerState()
+         {
+         return asyncAccelerometerStateReturnValueCommandExecutor.execute(getAccelerometerCommandStrategy);
+         }
+
+      public Future<boolean[]> areObstaclesDetected()
+         {
+         return asyncBooleanArrayStateReturnValueCommandExecutor.execute(getObstacleSensorCommandStrategy);
+         }
+
+      public Future<int[]> getPhotoresistors()
+         {
+         return asyncIntArrayStateReturnValueCommandExecutor.execute(getPhotoresistorCommandStrategy);
+         }
+
+      protected Future<FinchSensorSnapshot> readSensorSnapshot()
+         {
+         return asyncSensorSnapshotReturnValueCommandExecutor.execute(getSensorSnapshotCommandStrategy);
+         }
+
+      public Future<Integer> getThermistor(final int id)
+         {
+         if (id >= 0 && id < finchProperties.getThermistorDeviceCount())
+            {
+            return asyncIntegerReturnValueCommandExecutor.execute(getThermistorCommandStrategy);
+            }
+
+         return createCompletedFuture(null);
+         }
+
+      /** Simulated finches don't have analog inputs, so the returned {@link Future} always yields <code>null</code>. */
+      public Future<Integer> getAnalogInput(final int id)
+         {
+         return createCompletedFuture(null);
+         }
+
+      /** Simulated finches don't have a battery pack, so the returned {@link Future} always yields <code>null</code>. */
+      public Future<Integer> getVoltage()
+         {
+         return createCompletedFuture(null);
+         }
+
+      public Future<Boolean> setFullColorLED(final int red, final int green, final int blue)
+         {
+         updateFullColorLEDShadow(red, green, blue);
+         return asyncNoReturnValueCommandExecutor.execute(new FullColorLEDCommandStrategy(red, green, blue, finchProperties));
+         }
+
+      public Future<Boolean> setMotorVelocities(final int leftVelocity, final int rightVelocity)
+         {
+         updateMotorVelocitiesShadow(leftVelocity, rightVelocity);
+         return asyncNoReturnValueCommandExecutor.execute(new MotorVelocityCommandStrategy(leftVelocity, rightVelocity, finchProperties));
+         }
+
+      public Future<Boolean> setFullColorLED(final int red, final int green, final int blue, final CommandBarrier commandBarrier)
+         {
+         updateFullColorLEDShadow(red, green, blue);
+         return asyncNoReturnValueCommandExecutor.execute(new FullColorLEDCommandStrategy(red, green, blue, finchProperties), commandBarrier);
+         }
+
+      public Future<Boolean> setMotorVelocities(final int leftVelocity, final int rightVelocity, final CommandBarrier commandBarrier)
+         {
+         updateMotorVelocitiesShadow(leftVelocity, rightVelocity);
+         return asyncNoReturnValueCommandExecutor.execute(new MotorVelocityCommandStrategy(leftVelocity, rightVelocity, finchProperties), commandBarrier);
+         }
+
+      public Future<Boolean> playBuzzerTone(final int frequency, final int durationInMilliseconds)
+         {
+         return asyncNoReturnValueCommandExecutor.execute(new BuzzerCommandStrategy(frequency, durationInMilliseconds, finchProperties));
+         }
+
+      public Future<Boolean> emergencyStop()
+         {
+         clearActuatorShadow();
+         return asyncNoReturnValueCommandExecutor.execute(emergencyStopCommandStrategy);
+         }
+      }
+   }
@@ -0,0 +1,50 @@
+package edu.cmu.ri.createlab.terk.robot.finch;
+
+/**
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+final class SimulatedFinchProperties extends BaseFinchProperties
+   {
+   private static final FinchProperties INSTANCE = new SimulatedFinchProperties();
+
+   private static final String DEVICE_COMMON_NAME = "Simulated Finch";
+
+   private static final FinchHardwareType HARDWARE_TYPE = FinchHardwareType.SIMULATED;
+
+   private static final int BACKPACK_DEVICE_COUNT = 0;
+   private static final int ANALOG_INPUT_DEVICE_COUNT = 0;
+
+   static FinchProperties getInstance()
+      {
+      return INSTANCE;
+      }
+
+   private SimulatedFinchProperties()
+      {
+      // private to prevent instantiation
+      }
+
+   @Override
+   public String getDeviceCommonName()
+      {
+      return DEVICE_COMMON_NAME;
+      }
+
+   @Override
+   public FinchHardwareType getHardwareType()
+      {
+      return HARDWARE_TYPE;
+      }
+
+   @Override
+   public int getFinchBackpackDeviceCount()
+      {
+      return BACKPACK_DEVICE_COUNT;
+      }
+
+   @Override
+   public int getAnalogInputDeviceCount()
+      {
+      return ANALOG_INPUT_DEVICE_COUNT;
+      }
+   }
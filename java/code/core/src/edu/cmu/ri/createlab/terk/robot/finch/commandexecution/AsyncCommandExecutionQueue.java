@@ -0,0 +1,950 @@
+package edu.cmu.ri.createlab.terk.robot.finch.commandexecution;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import edu.cmu.ri.createlab.util.commandexecution.CommandExecutionFailureHandler;
+import edu.cmu.ri.createlab.util.commandexecution.CommandExecutionQueue;
+import edu.cmu.ri.createlab.util.commandexecution.CommandResponse;
+import edu.cmu.ri.createlab.util.commandexecution.CommandStrategy;
+import edu.cmu.ri.createlab.util.commandexecution.ReturnValueCommandStrategy;
+import edu.cmu.ri.createlab.util.thread.DaemonThreadFactory;
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * <code>AsyncCommandExecutionQueue</code> is a {@link CommandExecutionQueue} which sits in front of a device's own
+ * command queue (e.g. an <code>HIDCommandExecutionQueue</code> or a <code>SerialDeviceCommandExecutionQueue</code>)
+ * and allows commands to be {@link #submit(CommandStrategy) submitted} without blocking the caller.  Commands are
+ * handed to the underlying queue one at a time, in the order in which they were submitted, regardless of whether they
+ * were submitted via {@link #submit(CommandStrategy)} or via one of the blocking <code>execute</code> methods.
+ * </p>
+ * <p>
+ * Commands implementing {@link CoalescibleCommandStrategy} are coalesced: if a command of the same class is still
+ * waiting in the queue, the newer command simply takes its place (and its callers share the newer command's result),
+ * so that the device always acts on the most recent setpoint and doesn't fall behind when setpoints are issued faster
+ * than the device can accept them.  Each caller gets a <code>Future</code> of its own, so a caller who cancels it only
+ * stops waiting; the command still executes for the others.  Any other command which doesn't return a value (e.g. an emergency stop) acts as a
+ * barrier: coalescible commands submitted after it are never moved ahead of it.
+ * </p>
+ * <p>
+ * Commands implementing {@link SharableCommandStrategy} are shared: a caller who submits a strategy instance which is
+ * already waiting or executing shares that command's result (through a <code>Future</code> of its own, like a
+ * coalesced command's callers), so that several threads polling the same sensor cost the device one request rather
+ * than one each.  A command is never shared across an actuator command (or a new coalescible command) submitted after
+ * it, so a caller never reads a sensor as it was before its own setpoint.
+ * </p>
+ * <p>
+ * Commands implementing {@link PriorityCommandStrategy} (e.g. an emergency stop) skip the line: they're executed as
+ * soon as the command currently executing (if any) completes, and any waiting commands which don't return a value are
+ * cancelled so that they can't undo the priority command.  A command waiting at its <code>CommandBarrier</code> is
+ * cancelled too, rather than holding up the priority command until the other parties arrive.  The <code>Future</code>s of cancelled commands report
+ * cancellation, and the blocking <code>execute</code> methods return <code>null</code> for them.
+ * </p>
+ * <p>
+ * Every command has a deadline (see {@link CommandDeadlines}), measured from the moment it starts executing: if the
+ * command hasn't completed by then, its <code>Future</code> is cancelled, so that a wedged device can't block the
+ * callers forever.  Time spent waiting in the queue (or at a <code>CommandBarrier</code>) doesn't count, since a busy
+ * queue says nothing about the device's health.  After a number of consecutive missed deadlines, the queue's
+ * {@link CommandExecutionFailureHandler} (if any) is notified immediately, rather than waiting for the next ping to
+ * fail.
+ * </p>
+ * <p>
+ * A command may also be {@link #submit(CommandStrategy, CommandBarrier) submitted with a <code>CommandBarrier</code>},
+ * in which case it waits at the head of the queue until the commands sharing the barrier (typically on other devices'
+ * queues) have all reached the heads of theirs, so that they're released together.
+ * </p>
+ * <p>
+ * Every command is counted and timed, keyed by strategy class, in the queue's {@link FinchMetrics}.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class AsyncCommandExecutionQueue<DeviceIOClass, ResponseClass extends CommandResponse> implements CommandExecutionQueue<CommandStrategy<DeviceIOClass, ResponseClass>, ResponseClass>
+   {
+   private static final Logger LOG = Logger.getLogger(AsyncCommandExecutionQueue.class);
+
+   private final CommandExecutionQueue<CommandStrategy<DeviceIOClass, ResponseClass>, ResponseClass> commandQueue;
+   private final ThreadPoolExecutor executor = new ThreadPoolExecutor(1,
+                                                                      1,
+                                                                      0L,
+                                                                      TimeUnit.MILLISECONDS,
+                                                                      new PriorityBlockingQueue<Runnable>(),
+                                                                      new DaemonThreadFactory("AsyncCommandExecutionQueue.executor"));
+
+   /** Pending coalescible commands, keyed by strategy class.  Guarded by the lock. */
+   private final Map<Class<?>, PendingCommand> pendingCoalescibleCommands = new HashMap<Class<?>, PendingCommand>();
+
+   /** Sharable commands which are waiting or executing, keyed by strategy instance.  Guarded by the lock. */
+   private final Map<CommandStrategy<DeviceIOClass, ResponseClass>, SharedQueuedCommand> inFlightSharableCommands = new IdentityHashMap<CommandStrategy<DeviceIOClass, ResponseClass>, SharedQueuedCommand>();
+
+   private final FinchMetrics metrics = new FinchMetrics();
+
+   private final CommandDeadlines commandDeadlines = new CommandDeadlines();
+   private final CommandExecutionFailureHandler failureHandler;
+   private final ScheduledExecutorService deadlineExecutor = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("AsyncCommandExecutionQueue.deadlineExecutor"));
+   private final AtomicInteger consecutiveDeadlineMissCount = new AtomicInteger(0);
+
+   /** The command the executor is currently running.  Only written by the executor's thread. */
+   private volatile QueuedCommand executingCommand = null;
+
+   /** Used to keep commands of equal priority in submission order.  Guarded by the lock. */
+   private long nextSequenceNumber = 0;
+   private final Object lock = new Object();
+
+   /**
+    * Creates an <code>AsyncCommandExecutionQueue</code> which executes commands using the given
+    * <code>commandQueue</code>.
+    *
+    * @throws IllegalArgumentException if the given <code>commandQueue</code> is <code>null</code>
+    */
+   public AsyncCommandExecutionQueue(final CommandExecutionQueue<CommandStrategy<DeviceIOClass, ResponseClass>, ResponseClass> commandQueue)
+      {
+      this(commandQueue, null);
+      }
+
+   /**
+    * Creates an <code>AsyncCommandExecutionQueue</code> which executes commands using the given
+    * <code>commandQueue</code>, and notifies the given <code>failureHandler</code> (if non-<code>null</code>) when too
+    * many consecutive command deadlines are missed.
+    *
+    * @throws IllegalArgumentException if the given <code>commandQueue</code> is <code>null</code>
+    */
+   public AsyncCommandExecutionQueue(final CommandExecutionQueue<CommandStrategy<DeviceIOClass, ResponseClass>, ResponseClass> commandQueue,
+                                     final CommandExecutionFailureHandler failureHandler)
+      {
+      if (commandQueue == null)
+         {
+         throw new IllegalArgumentException("The command queue may not be null");
+         }
+      this.commandQueue = commandQueue;
+      this.failureHandler = failureHandler;
+      }
+
+   /** Returns the {@link FinchMetrics} for the commands executed by this queue. */
+   public FinchMetrics getMetrics()
+      {
+      return metrics;
+      }
+
+   /** Returns the {@link CommandDeadlines} enforced by this queue, which may be changed at any time. */
+   public CommandDeadlines getCommandDeadlines()
+      {
+      return commandDeadlines;
+      }
+
+   /**
+    * Adds the given {@link CommandStrategy} to the queue and returns immediately.  The returned {@link Future} will
+    * hold the response once the command has been executed.  If the queue has already been shut down, the returned
+    * {@link Future} will already be cancelled.
+    */
+   public Future<ResponseClass> submit(final CommandStrategy<DeviceIOClass, ResponseClass> commandStrategy)
+      {
+      return submitWithFailureHandler(commandStrategy, null);
+      }
+
+   /**
+    * Submits the given {@link CommandStrategy} like {@link #submit(CommandStrategy)}, and notifies the given
+    * <code>failureHandler</code> (if non-<code>null</code>) as soon as the command fails with an exception, whether or
+    * not anyone ever calls <code>get()</code> on the returned {@link Future}.
+    */
+   Future<ResponseClass> submitWithFailureHandler(final CommandStrategy<DeviceIOClass, ResponseClass> commandStrategy, final CommandExecutionFailureHandler failureHandler)
+      {
+      final Class<?> commandStrategyClass = commandStrategy.getClass();
+      final long deadlineInNanos = commandDeadlines.getDeadlineInNanos(commandStrategyClass);
+
+      synchronized (lock)
+         {
+         if (commandStrategy instanceof PriorityCommandStrategy)
+            {
+            pendingCoalescibleCommands.clear();
+            inFlightSharableCommands.clear();
+            cancelWaitingCommands();
+
+            // don't let a command waiting at a barrier hold up the executor
+            final QueuedCommand currentCommand = executingCommand;
+            if (currentCommand != null)
+               {
+               currentCommand.abortBarrierWait();
+               }
+
+            final QueuedCommand priorityCommand = new QueuedCommand(createCallable(commandStrategy, deadlineInNanos), true, false);
+            priorityCommand.setFailureHandler(failureHandler);
+            return enqueue(priorityCommand);
+            }
+
+         if (commandStrategy instanceof CoalescibleCommandStrategy)
+            {
+            final Class<?> key = commandStrategyClass;
+            final PendingCommand pendingCommand = pendingCoalescibleCommands.get(key);
+            if (pendingCommand != null && pendingCommand.replaceCommandStrategy(commandStrategy))
+               {
+               metrics.getOrCreateCommandMetrics(key).recordCoalesced();
+               if (LOG.isTraceEnabled())
+                  {
+                  LOG.trace("AsyncCommandExecutionQueue.submit(): coalesced pending command [" + key.getName() + "]");
+                  }
+               return pendingCommand.getFuture().createCallerFuture(failureHandler);
+               }
+
+            // later reads must see the effect of this setpoint, so they mustn't share a read sent before it
+            inFlightSharableCommands.clear();
+
+            final PendingCommand newPendingCommand = new PendingCommand(commandStrategy, deadlineInNanos);
+            pendingCoalescibleCommands.put(key, newPendingCommand);
+            return enqueue(newPendingCommand.getFuture()).createCallerFuture(failureHandler);
+            }
+
+         if (commandStrategy instanceof SharableCommandStrategy)
+            {
+            final QueuedCommand inFlightCommand = inFlightSharableCommands.get(commandStrategy);
+            if (inFlightCommand != null && !inFlightCommand.isDone())
+               {
+               metrics.getOrCreateCommandMetrics(commandStrategyClass).recordShared();
+               if (LOG.isTraceEnabled())
+                  {
+                  LOG.trace("AsyncCommandExecutionQueue.submit(): shared in-flight command [" + commandStrategyClass.getName() + "]");
+                  }
+               return inFlightCommand.createCallerFuture(failureHandler);
+               }
+
+            final SharedQueuedCommand sharedCommand = new SharedQueuedCommand(createCallable(commandStrategy, deadlineInNanos), commandStrategy);
+            inFlightSharableCommands.put(commandStrategy, sharedCommand);
+            return enqueue(sharedCommand).createCallerFuture(failureHandler);
+            }
+
+         final boolean isActuatorCommand = !(commandStrategy instanceof ReturnValueCommandStrategy);
+         if (isActuatorCommand)
+            {
+            // this command may affect the actuators, so don't let later coalescible commands jump ahead of it, nor
+            // let later reads share a read sent before it
+            pendingCoalescibleCommands.clear();
+            inFlightSharableCommands.clear();
+            }
+
+         final QueuedCommand queuedCommand = new QueuedCommand(createCallable(commandStrategy, deadlineInNanos), false, isActuatorCommand);
+         queuedCommand.setFailureHandler(failureHandler);
+         return enqueue(queuedCommand);
+         }
+      }
+
+   /**
+    * Adds the given {@link CommandStrategy} to the queue and returns immediately, like {@link #submit(CommandStrategy)},
+    * except that once the command reaches the head of the queue it waits for the other parties of the given
+    * {@link CommandBarrier} before executing.  The command is never coalesced, and acts as a barrier to coalescing like
+    * any other actuator command.  If the command is cancelled (e.g. by a priority command or by shutdown) before it
+    * reaches the barrier, it withdraws from the barrier.  A priority command submitted while the command is waiting at
+    * the barrier cancels it and stops the wait, which {@link CommandBarrier#isBroken() breaks} the barrier.
+    */
+   public Future<ResponseClass> submit(final CommandStrategy<DeviceIOClass, ResponseClass> commandStrategy, final CommandBarrier commandBarrier)
+      {
+      return submitWithFailureHandler(commandStrategy, commandBarrier, null);
+      }
+
+   /**
+    * Submits the given {@link CommandStrategy} like {@link #submit(CommandStrategy, CommandBarrier)}, and notifies the
+    * given <code>failureHandler</code> as for {@link #submitWithFailureHandler(CommandStrategy, CommandExecutionFailureHandler)}.
+    */
+   Future<ResponseClass> submitWithFailureHandler(final CommandStrategy<DeviceIOClass, ResponseClass> commandStrategy, final CommandBarrier commandBarrier, final CommandExecutionFailureHandler failureHandler)
+      {
+      final Class<?> commandStrategyClass = commandStrategy.getClass();
+      final long deadlineInNanos = commandDeadlines.getDeadlineInNanos(commandStrategyClass);
+
+      synchronized (lock)
+         {
+         // don't let later coalescible commands jump ahead of this one, nor later reads share a read sent before it
+         pendingCoalescibleCommands.clear();
+         inFlightSharableCommands.clear();
+
+         final GatedCommand gatedCommand = new GatedCommand(createCallable(commandStrategy, deadlineInNanos), commandBarrier);
+         final QueuedCommand gatedQueuedCommand = new GatedQueuedCommand(gatedCommand);
+         gatedQueuedCommand.setFailureHandler(failureHandler);
+         return enqueue(gatedQueuedCommand);
+         }
+      }
+
+   private Callable<ResponseClass> createCallable(final CommandStrategy<DeviceIOClass, ResponseClass> commandStrategy, final long deadlineInNanos)
+      {
+      final long submissionTime = System.nanoTime();
+      return new Callable<ResponseClass>()
+      {
+      public ResponseClass call() throws Exception
+         {
+         return executeAndRecordMetrics(commandStrategy, submissionTime, deadlineInNanos);
+         }
+      };
+      }
+
+   /**
+    * Executes the given command on the underlying queue, enforcing its deadline (if any) from now, and records its
+    * timing and outcome in the metrics.  Must only be called by the executor's thread.
+    */
+   private ResponseClass executeAndRecordMetrics(final CommandStrategy<DeviceIOClass, ResponseClass> commandStrategy, final long submissionTime, final long deadlineInNanos) throws Exception
+      {
+      final Class<?> commandStrategyClass = commandStrategy.getClass();
+      final AtomicBoolean hasMissedDeadline = new AtomicBoolean(false);
+      final long startTime = System.nanoTime();
+      final ScheduledFuture<?> deadline = (deadlineInNanos > 0) ? scheduleDeadline(executingCommand, commandStrategyClass, deadlineInNanos, hasMissedDeadline) : null;
+      boolean wasSuccessful = false;
+      try
+         {
+         final ResponseClass response;
+         if (deadlineInNanos > 0)
+            {
+            response = commandQueue.execute(commandStrategy, deadlineInNanos, TimeUnit.NANOSECONDS);
+            }
+         else
+            {
+            response = commandQueue.execute(commandStrategy);
+            }
+         wasSuccessful = (response != null) && response.wasSuccessful();
+         return response;
+         }
+      finally
+         {
+         final long endTime = System.nanoTime();
+         if (deadline != null)
+            {
+            deadline.cancel(false);
+            }
+         metrics.recordExecution(commandStrategyClass,
+                                 startTime - submissionTime,
+                                 endTime - startTime,
+                                 wasSuccessful);
+
+         if (deadlineInNanos > 0 && endTime - startTime >= deadlineInNanos)
+            {
+            // the underlying queue may give up at the deadline just before the timer would have noticed
+            if (!wasSuccessful && hasMissedDeadline.compareAndSet(false, true))
+               {
+               handleDeadlineMiss(commandStrategyClass);
+               }
+            }
+         else if (wasSuccessful)
+            {
+            // a command which succeeded in time shows that the device isn't wedged
+            consecutiveDeadlineMissCount.set(0);
+            }
+         }
+      }
+
+   /**
+    * Cancels the given command if it's still executing once its deadline passes, and counts the miss (unless it has
+    * already been counted).  Returns <code>null</code> if the queue has been shut down.
+    */
+   private ScheduledFuture<?> scheduleDeadline(final QueuedCommand task, final Class<?> commandStrategyClass, final long deadlineInNanos, final AtomicBoolean hasMissedDeadline)
+      {
+      try
+         {
+         return deadlineExecutor.schedule(
+               new Runnable()
+               {
+               public void run()
+                  {
+                  if (task.cancel(false) && hasMissedDeadline.compareAndSet(false, true))
+                     {
+                     handleDeadlineMiss(commandStrategyClass);
+                     }
+                  }
+               },
+               deadlineInNanos,
+               TimeUnit.NANOSECONDS);
+         }
+      catch (RejectedExecutionException ignored)
+         {
+         // the queue has been shut down, which cancels the command anyway
+         LOG.debug("AsyncCommandExecutionQueue.scheduleDeadline(): queue shut down, so the deadline won't be enforced");
+         return null;
+         }
+      }
+
+   private void handleDeadlineMiss(final Class<?> commandStrategyClass)
+      {
+      metrics.recordDeadlineMiss(commandStrategyClass);
+      final int missCount = consecutiveDeadlineMissCount.incrementAndGet();
+      if (LOG.isDebugEnabled())
+         {
+         LOG.debug("AsyncCommandExecutionQueue.handleDeadlineMiss(): command [" + commandStrategyClass.getName() + "] missed its deadline (" + missCount + " in a row)");
+         }
+      if (missCount == commandDeadlines.getMaxConsecutiveMisses() && failureHandler != null)
+         {
+         LOG.error("AsyncCommandExecutionQueue.handleDeadlineMiss(): [" + missCount + "] consecutive commands missed their deadlines, so the device appears to have failed");
+         try
+            {
+            failureHandler.handleExecutionFailure();
+            }
+         catch (Exception e)
+            {
+            LOG.error("AsyncCommandExecutionQueue.handleDeadlineMiss(): Exception while notifying the failure handler", e);
+            }
+         }
+      }
+
+   /**
+    * Cancels every waiting (i.e. not yet started) command which doesn't return a value.  Must only be called while
+    * holding the lock.
+    */
+   private void cancelWaitingCommands()
+      {
+      int numCancelled = 0;
+      for (final Runnable task : executor.getQueue())
+         {
+         if (task instanceof AsyncCommandExecutionQueue.QueuedCommand)
+            {
+            final AsyncCommandExecutionQueue<?, ?>.QueuedCommand queuedCommand = (AsyncCommandExecutionQueue<?, ?>.QueuedCommand)task;
+
+            // only cancel it if the executor hasn't already started it
+            if (queuedCommand.isCancellable() && executor.remove(queuedCommand))
+               {
+               metrics.decrementQueueDepth();
+               queuedCommand.cancel(false);
+               numCancelled++;
+               }
+            }
+         }
+      if (numCancelled > 0 && LOG.isDebugEnabled())
+         {
+         LOG.debug("AsyncCommandExecutionQueue.cancelWaitingCommands(): cancelled [" + numCancelled + "] waiting command(s) ahead of a priority command");
+         }
+      }
+
+   private QueuedCommand enqueue(final QueuedCommand task)
+      {
+      metrics.incrementQueueDepth();
+      try
+         {
+         executor.execute(task);
+         }
+      catch (RejectedExecutionException e)
+         {
+         LOG.error("AsyncCommandExecutionQueue.submit(): RejectedExecutionException while trying to schedule the command for execution", e);
+         metrics.decrementQueueDepth();
+         task.cancel(false);
+         }
+
+      return task;
+      }
+
+   /**
+    * Adds the given {@link CommandStrategy} to the queue, blocks until its execution is complete, and then returns the
+    * result.  Returns <code>null</code> if an error occurred while trying to obtain the result.  Exceptions thrown by
+    * the underlying command queue are rethrown.
+    */
+   @Override
+   public ResponseClass execute(final CommandStrategy<DeviceIOClass, ResponseClass> commandStrategy) throws Exception
+      {
+      return execute(commandStrategy, 0, null);
+      }
+
+   /**
+    * Adds the given {@link CommandStrategy} to the queue, blocks until its execution is complete or times out, and then
+    * returns the result.  Returns <code>null</code> if an error occurred while trying to obtain the result, or if the
+    * timeout expired (in which case the caller's <code>Future</code> is cancelled, which cancels the command itself
+    * unless it's coalesced or shared with other callers).  To specify no timeout (i.e.
+    * block until complete), pass in a <code>null</code> {@link TimeUnit}.  Exceptions thrown by the underlying command
+    * queue are rethrown.
+    */
+   @Override
+   public ResponseClass execute(final CommandStrategy<DeviceIOClass, ResponseClass> commandStrategy, final long timeout, final TimeUnit timeoutTimeUnit) throws Exception
+      {
+      final Future<ResponseClass> future = submit(commandStrategy);
+
+      try
+         {
+         if (timeoutTimeUnit == null)
+            {
+            return future.get();
+            }
+         return future.get(timeout, timeoutTimeUnit);
+         }
+      catch (ExecutionException e)
+         {
+         final Throwable cause = e.getCause();
+         if (cause instanceof Exception)
+            {
+            throw (Exception)cause;
+            }
+         LOG.error("AsyncCommandExecutionQueue.execute(): ExecutionException while trying to get the response [" + cause + "]", e);
+         }
+      catch (CancellationException ignored)
+         {
+         // the command was cancelled by a priority command or by shutdown, neither of which is an error
+         LOG.debug("AsyncCommandExecutionQueue.execute(): the command was cancelled before it was executed");
+         }
+      catch (TimeoutException e)
+         {
+         LOG.error("AsyncCommandExecutionQueue.execute(): TimeoutException while trying to get the response", e);
+         metrics.getOrCreateCommandMetrics(commandStrategy.getClass()).recordTimeout();
+
+         future.cancel(false);
+         }
+      catch (InterruptedException e)
+         {
+         LOG.error("AsyncCommandExecutionQueue.execute(): InterruptedException while trying to get the response", e);
+         }
+
+      return null;
+      }
+
+   @Override
+   public boolean executeAndReturnStatus(final CommandStrategy<DeviceIOClass, ResponseClass> commandStrategy) throws Exception
+      {
+      final ResponseClass response = execute(commandStrategy);
+      return response != null && response.wasSuccessful();
+      }
+
+   @Override
+   public boolean executeAndReturnStatus(final CommandStrategy<DeviceIOClass, ResponseClass> commandStrategy, final long timeout, final TimeUnit timeoutTimeUnit) throws Exception
+      {
+      final ResponseClass response = execute(commandStrategy, timeout, timeoutTimeUnit);
+      return response != null && response.wasSuccessful();
+      }
+
+   /**
+    * Shuts down this queue, cancels any commands which haven't been started yet, and then shuts down the underlying
+    * command queue.
+    */
+   @Override
+   public void shutdown()
+      {
+      try
+         {
+         LOG.debug("AsyncCommandExecutionQueue.shutdown(): Shutting down the command execution queue");
+         final List<Runnable> unexecutedTasks = executor.shutdownNow();
+         if (unexecutedTasks != null)
+            {
+            if (LOG.isDebugEnabled())
+               {
+               LOG.debug("AsyncCommandExecutionQueue.shutdown(): Cancelling " + unexecutedTasks.size() + " unexecuted task(s)");
+               }
+            for (final Runnable task : unexecutedTasks)
+               {
+               metrics.decrementQueueDepth();
+               if (task instanceof Future)
+                  {
+                  ((Future<?>)task).cancel(false);
+                  }
+               }
+            }
+         executor.awaitTermination(10, TimeUnit.SECONDS);
+         LOG.debug("AsyncCommandExecutionQueue.shutdown(): Command execution queue successfully shutdown");
+         }
+      catch (Exception e)
+         {
+         LOG.error("AsyncCommandExecutionQueue.shutdown(): Exception while trying to shut down the command execution queue", e);
+         }
+
+      // shut down the deadline executor last, since shutdown may have been triggered by a missed deadline
+      deadlineExecutor.shutdownNow();
+
+      commandQueue.shutdown();
+      }
+   
+   /** Notifies the given failure handler (if any) if the given completed future failed with an exception. */
+   private void notifyIfFailed(final Future<ResponseClass> future, final CommandExecutionFailureHandler failureHandler)
+      {
+      if (failureHandler != null && !future.isCancelled())
+         {
+         try
+            {
+            future.get();
+            }
+         catch (ExecutionException ignored)
+            {
+            try
+               {
+               failureHandler.handleExecutionFailure();
+               }
+            catch (Exception e)
+               {
+               LOG.error("AsyncCommandExecutionQueue.notifyIfFailed(): Exception while notifying the failure handler", e);
+               }
+            }
+         catch (InterruptedException ignored)
+            {
+            // can't happen, since the future is already done
+            Thread.currentThread().interrupt();
+            }
+         }
+      }
+
+   /**
+    * A command waiting in the executor's queue.  Priority commands are ordered ahead of all others, and commands of
+    * equal priority are ordered by submission.  Must only be constructed while holding the lock.
+    */
+   private class QueuedCommand extends FutureTask<ResponseClass> implements Comparable<QueuedCommand>
+      {
+      private final boolean isPriority;
+      private final boolean isCancellable;
+      private final long sequenceNumber;
+
+      /** The futures of the callers sharing this command, which are completed along with it.  Guarded by this. */
+      private List<CallerFuture> callerFutures = null;
+      private boolean isComplete = false;
+
+      /** Notified if the command fails, when it's the caller's own (unshared) command. */
+      private CommandExecutionFailureHandler failureHandler = null;
+
+      private QueuedCommand(final Callable<ResponseClass> callable, final boolean isPriority, final boolean isCancellable)
+         {
+         super(callable);
+         this.isPriority = isPriority;
+         this.isCancellable = isCancellable;
+         this.sequenceNumber = nextSequenceNumber++;
+         }
+
+      @Override
+      public void run()
+         {
+         metrics.decrementQueueDepth();
+         executingCommand = this;
+         try
+            {
+            super.run();
+            }
+         finally
+            {
+            executingCommand = null;
+            }
+         }
+
+      /** Returns <code>true</code> if this command may be cancelled by a later priority command. */
+      private boolean isCancellable()
+         {
+         return isCancellable;
+         }
+
+      /**
+       * Cancels this command if it's waiting at a {@link CommandBarrier}, and stops it waiting.  Does nothing for
+       * commands which don't wait at a barrier.
+       */
+      void abortBarrierWait()
+         {
+         // nothing to do, since only gated commands wait at a barrier
+         }
+
+      /** Sets the handler to notify if the command fails.  Must be called before the command is enqueued. */
+      private void setFailureHandler(final CommandExecutionFailureHandler failureHandler)
+         {
+         this.failureHandler = failureHandler;
+         }
+
+      /**
+       * Returns a new <code>Future</code> for one of the callers sharing this command, which completes along with the
+       * command, but which the caller may cancel without cancelling the command for everyone else.  The given
+       * <code>failureHandler</code> (if any) is notified if the command fails.
+       */
+      private Future<ResponseClass> createCallerFuture(final CommandExecutionFailureHandler failureHandler)
+         {
+         final CallerFuture callerFuture = new CallerFuture(failureHandler);
+         synchronized (this)
+            {
+            if (!isComplete)
+               {
+               if (callerFutures == null)
+                  {
+                  callerFutures = new ArrayList<CallerFuture>();
+                  }
+               callerFutures.add(callerFuture);
+               return callerFuture;
+               }
+            }
+         callerFuture.complete(this);
+         return callerFuture;
+         }
+
+      @Override
+      protected void done()
+         {
+         final List<CallerFuture> futuresToComplete;
+         synchronized (this)
+            {
+            isComplete = true;
+            futuresToComplete = callerFutures;
+            callerFutures = null;
+            }
+         if (futuresToComplete != null)
+            {
+            for (final CallerFuture callerFuture : futuresToComplete)
+               {
+               callerFuture.complete(this);
+               }
+            }
+         notifyIfFailed(this, failureHandler);
+         }
+
+      public int compareTo(final QueuedCommand other)
+         {
+         if (isPriority != other.isPriority)
+            {
+            return isPriority ? -1 : 1;
+            }
+         if (sequenceNumber == other.sequenceNumber)
+            {
+            return 0;
+            }
+         return (sequenceNumber < other.sequenceNumber) ? -1 : 1;
+         }
+      }
+
+   /**
+    * A command which waits at its {@link CommandBarrier} before executing.  The wait may be {@link #abortWait() aborted}
+    * (by interrupting the executor's thread) so that a priority command needn't wait for the other parties.
+    */
+   private final class GatedCommand implements Callable<ResponseClass>
+      {
+      private final Callable<ResponseClass> callable;
+      private final CommandBarrier commandBarrier;
+      private final AtomicBoolean hasArrived = new AtomicBoolean(false);
+
+      /** The thread waiting at the barrier, if any.  Guarded by this, as are the flags. */
+      private Thread waitingThread = null;
+      private boolean isAborted = false;
+      private boolean isReleased = false;
+
+      private GatedCommand(final Callable<ResponseClass> callable, final CommandBarrier commandBarrier)
+         {
+         this.callable = callable;
+         this.commandBarrier = commandBarrier;
+         }
+
+      public ResponseClass call() throws Exception
+         {
+         if (hasArrived.compareAndSet(false, true))
+            {
+            synchronized (this)
+               {
+               if (isAborted)
+                  {
+                  commandBarrier.withdraw();
+                  return null;
+                  }
+               waitingThread = Thread.currentThread();
+               }
+            commandBarrier.await();
+            synchronized (this)
+               {
+               waitingThread = null;
+               if (isAborted)
+                  {
+                  // the interrupt was delivered while holding this lock, so clearing it here can't miss it
+                  Thread.interrupted();
+                  return null;
+                  }
+               isReleased = true;
+               }
+            }
+         try
+            {
+            return callable.call();
+            }
+         finally
+            {
+            commandBarrier.recordCompletion();
+            }
+         }
+
+      /**
+       * Stops the command waiting at (or about to wait at) the barrier, returning <code>true</code> upon success, or
+       * <code>false</code> if it has already been released.  Must only be called once the command has started.
+       */
+      private synchronized boolean abortWait()
+         {
+         if (isReleased || isAborted)
+            {
+            return false;
+            }
+         isAborted = true;
+         if (waitingThread != null)
+            {
+            waitingThread.interrupt();
+            }
+         return true;
+         }
+
+      /** Withdraws from the barrier, unless the command has already arrived at it. */
+      private void withdraw()
+         {
+         if (hasArrived.compareAndSet(false, true))
+            {
+            commandBarrier.withdraw();
+            }
+         }
+      }
+
+   /** A queued {@link GatedCommand}, which withdraws from its barrier if it's cancelled before it gets there. */
+   private final class GatedQueuedCommand extends QueuedCommand
+      {
+      private final GatedCommand gatedCommand;
+
+      private GatedQueuedCommand(final GatedCommand gatedCommand)
+         {
+         super(gatedCommand, false, true);
+         this.gatedCommand = gatedCommand;
+         }
+
+      @Override
+      void abortBarrierWait()
+         {
+         if (gatedCommand.abortWait())
+            {
+            cancel(false);
+            if (LOG.isDebugEnabled())
+               {
+               LOG.debug("AsyncCommandExecutionQueue$GatedQueuedCommand.abortBarrierWait(): cancelled a command waiting at its barrier, ahead of a priority command");
+               }
+            }
+         }
+
+      @Override
+      protected void done()
+         {
+         if (isCancelled())
+            {
+            gatedCommand.withdraw();
+            }
+         super.done();
+         }
+      }
+
+   /** A queued sharable command, which stops being shared once it completes. */
+   private final class SharedQueuedCommand extends QueuedCommand
+      {
+      private final CommandStrategy<DeviceIOClass, ResponseClass> commandStrategy;
+
+      private SharedQueuedCommand(final Callable<ResponseClass> callable, final CommandStrategy<DeviceIOClass, ResponseClass> commandStrategy)
+         {
+         super(callable, false, false);
+         this.commandStrategy = commandStrategy;
+         }
+
+      @Override
+      protected void done()
+         {
+         synchronized (lock)
+            {
+            if (inFlightSharableCommands.get(commandStrategy) == this)
+               {
+               inFlightSharableCommands.remove(commandStrategy);
+               }
+            }
+         super.done();
+         }
+      }
+
+   /**
+    * One caller's <code>Future</code> for a {@link QueuedCommand} which may be shared with other callers.  It's never
+    * run, but instead completed with the command's outcome once the command is done.  Cancelling it only means that the
+    * caller is no longer interested: the command itself is left alone.
+    */
+   private final class CallerFuture extends FutureTask<ResponseClass>
+      {
+      private final CommandExecutionFailureHandler failureHandler;
+
+      private CallerFuture(final CommandExecutionFailureHandler failureHandler)
+         {
+         super(new Callable<ResponseClass>()
+         {
+         public ResponseClass call()
+            {
+            throw new IllegalStateException("A CallerFuture is completed by its command, and must not be run");
+            }
+         });
+         this.failureHandler = failureHandler;
+         }
+
+      @Override
+      protected void done()
+         {
+         notifyIfFailed(this, failureHandler);
+         }
+
+      private void complete(final QueuedCommand queuedCommand)
+         {
+         if (queuedCommand.isCancelled())
+            {
+            cancel(false);
+            return;
+            }
+         try
+            {
+            set(queuedCommand.get());
+            }
+         catch (ExecutionException e)
+            {
+            setException(e.getCause());
+            }
+         catch (InterruptedException e)
+            {
+            // can't happen, since the command is already done
+            Thread.currentThread().interrupt();
+            cancel(false);
+            }
+         }
+      }
+
+   /** A coalescible command whose strategy may be replaced up until the moment it starts executing. */
+   private final class PendingCommand implements Callable<ResponseClass>
+      {
+      private final AtomicReference<CommandStrategy<DeviceIOClass, ResponseClass>> commandStrategy;
+      private final QueuedCommand future = new QueuedCommand(this, false, true);
+      private final long submissionTime = System.nanoTime();
+      private final long deadlineInNanos;
+
+      private PendingCommand(final CommandStrategy<DeviceIOClass, ResponseClass> commandStrategy, final long deadlineInNanos)
+         {
+         this.commandStrategy = new AtomicReference<CommandStrategy<DeviceIOClass, ResponseClass>>(commandStrategy);
+         this.deadlineInNanos = deadlineInNanos;
+         }
+
+      private QueuedCommand getFuture()
+         {
+         return future;
+         }
+
+      /**
+       * Replaces the strategy with the given one, returning <code>true</code> upon success, or <code>false</code> if
+       * the command has already started (or been cancelled).
+       */
+      private boolean replaceCommandStrategy(final CommandStrategy<DeviceIOClass, ResponseClass> newCommandStrategy)
+         {
+         while (!future.isDone())
+            {
+            final CommandStrategy<DeviceIOClass, ResponseClass> currentCommandStrategy = commandStrategy.get();
+            if (currentCommandStrategy == null)
+               {
+               return false;
+               }
+            if (commandStrategy.compareAndSet(currentCommandStrategy, newCommandStrategy))
+               {
+               return true;
+               }
+            }
+         return false;
+         }
+
+      public ResponseClass call() throws Exception
+         {
+         // claim the strategy so that it can no longer be replaced
+         return executeAndRecordMetrics(commandStrategy.getAndSet(null), submissionTime, deadlineInNanos);
+         }
+      }
+   }
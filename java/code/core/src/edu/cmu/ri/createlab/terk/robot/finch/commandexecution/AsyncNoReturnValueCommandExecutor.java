@@ -0,0 +1,67 @@
+package edu.cmu.ri.createlab.terk.robot.finch.commandexecution;
+
+import java.util.concurrent.Future;
+import edu.cmu.ri.createlab.util.commandexecution.CommandExecutionFailureHandler;
+import edu.cmu.ri.createlab.util.commandexecution.CommandResponse;
+import edu.cmu.ri.createlab.util.commandexecution.CommandStrategy;
+
+/**
+ * <p>
+ * <code>AsyncNoReturnValueCommandExecutor</code> is the asynchronous counterpart of the
+ * {@link edu.cmu.ri.createlab.util.commandexecution.NoReturnValueCommandExecutor NoReturnValueCommandExecutor}: it
+ * submits a {@link CommandStrategy} to an {@link AsyncCommandExecutionQueue} and returns a {@link Future} for the
+ * status of the response.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public class AsyncNoReturnValueCommandExecutor<DeviceIOClass, ResponseClass extends CommandResponse>
+   {
+   private final AsyncCommandExecutionQueue<DeviceIOClass, ResponseClass> commandQueue;
+   private final CommandExecutionFailureHandler failureHandler;
+
+   public AsyncNoReturnValueCommandExecutor(final AsyncCommandExecutionQueue<DeviceIOClass, ResponseClass> commandQueue,
+                                            final CommandExecutionFailureHandler failureHandler)
+      {
+      this.commandQueue = commandQueue;
+      this.failureHandler = failureHandler;
+      }
+
+   /**
+    * Submits the given {@link CommandStrategy} for execution and returns a {@link Future} for the status of the
+    * response.  If the command fails to execute, the {@link CommandExecutionFailureHandler#handleExecutionFailure()}
+    * method is called as soon as it fails (even if nobody calls <code>get()</code>) and the {@link Future} yields
+    * <code>false</code>.
+    */
+   public final Future<Boolean> execute(final CommandStrategy<DeviceIOClass, ResponseClass> commandStrategy)
+      {
+      return createFuture(commandQueue.submitWithFailureHandler(commandStrategy, failureHandler));
+      }
+
+   /**
+    * Submits the given {@link CommandStrategy} for execution once every party of the given {@link CommandBarrier} has
+    * arrived, and returns a {@link Future} for the status of the response, as for {@link #execute(CommandStrategy)}.
+    *
+    * @see AsyncCommandExecutionQueue#submit(CommandStrategy, CommandBarrier)
+    */
+   public final Future<Boolean> execute(final CommandStrategy<DeviceIOClass, ResponseClass> commandStrategy, final CommandBarrier commandBarrier)
+      {
+      return createFuture(commandQueue.submitWithFailureHandler(commandStrategy, commandBarrier, failureHandler));
+      }
+
+   private Future<Boolean> createFuture(final Future<ResponseClass> future)
+      {
+      return new ConvertingFuture<ResponseClass, Boolean>(future)
+      {
+      protected Boolean convert(final ResponseClass response)
+         {
+         return response != null && response.wasSuccessful();
+         }
+
+      protected Boolean getValueUponFailure()
+         {
+         return false;
+         }
+      };
+      }
+   }
@@ -0,0 +1,51 @@
+package edu.cmu.ri.createlab.terk.robot.finch.commandexecution;
+
+import java.util.concurrent.Future;
+import edu.cmu.ri.createlab.util.commandexecution.CommandExecutionFailureHandler;
+import edu.cmu.ri.createlab.util.commandexecution.CommandResponse;
+import edu.cmu.ri.createlab.util.commandexecution.ReturnValueCommandStrategy;
+
+/**
+ * <p>
+ * <code>AsyncReturnValueCommandExecutor</code> is the asynchronous counterpart of the
+ * {@link edu.cmu.ri.createlab.util.commandexecution.ReturnValueCommandExecutor ReturnValueCommandExecutor}: it
+ * submits a {@link ReturnValueCommandStrategy} to an {@link AsyncCommandExecutionQueue} and returns a {@link Future}
+ * for the converted response.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public class AsyncReturnValueCommandExecutor<DeviceIOClass, ResponseClass extends CommandResponse, DesiredClass>
+   {
+   private final AsyncCommandExecutionQueue<DeviceIOClass, ResponseClass> commandQueue;
+   private final CommandExecutionFailureHandler failureHandler;
+
+   public AsyncReturnValueCommandExecutor(final AsyncCommandExecutionQueue<DeviceIOClass, ResponseClass> commandQueue,
+                                          final CommandExecutionFailureHandler failureHandler)
+      {
+      this.commandQueue = commandQueue;
+      this.failureHandler = failureHandler;
+      }
+
+   /**
+    * Submits the given {@link ReturnValueCommandStrategy} for execution and returns a {@link Future} for the response,
+    * converted using {@link ReturnValueCommandStrategy#convertResponse(CommandResponse)}.  If the command fails to
+    * execute, the {@link CommandExecutionFailureHandler#handleExecutionFailure()} method is called as soon as it fails
+    * (even if nobody calls <code>get()</code>) and the {@link Future} yields <code>null</code>.
+    */
+   public final Future<DesiredClass> execute(final ReturnValueCommandStrategy<DeviceIOClass, ResponseClass, DesiredClass> commandStrategy)
+      {
+      return new ConvertingFuture<ResponseClass, DesiredClass>(commandQueue.submitWithFailureHandler(commandStrategy, failureHandler))
+      {
+      protected DesiredClass convert(final ResponseClass response)
+         {
+         return commandStrategy.convertResponse(response);
+         }
+
+      protected DesiredClass getValueUponFailure()
+         {
+         return null;
+         }
+      };
+      }
+   }
@@ -0,0 +1,21 @@
+package edu.cmu.ri.createlab.terk.robot.finch.commandexecution;
+
+/**
+ * <p>
+ * <code>CoalescibleCommandStrategy</code> is a marker interface for command strategies which merely set the state of
+ * an actuator (e.g. the motor velocities or the LED color), such that only the most recent one matters.  The
+ * {@link AsyncCommandExecutionQueue} will replace a pending, not-yet-started command with a newer command of the same
+ * class, and the callers of both share the result of the newer one.  Commands where every submission matters, such as
+ * buzzer tones, must not implement it.
+ * </p>
+ * <p>
+ * A coalescible strategy must not be reused across submissions, though.  A command which isn't coalesced (because
+ * another command was submitted after it, or because it waits on a {@link CommandBarrier}) must still send the
+ * setpoint it was submitted with, so each submission gets its own instance.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public interface CoalescibleCommandStrategy
+   {
+   }
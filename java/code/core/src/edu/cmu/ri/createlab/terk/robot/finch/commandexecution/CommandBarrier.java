@@ -0,0 +1,133 @@
+package edu.cmu.ri.createlab.terk.robot.finch.commandexecution;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * <code>CommandBarrier</code> synchronizes the execution of commands across several {@link AsyncCommandExecutionQueue}s
+ * (and thus several devices), so that, for example, a group of finches can all start moving at the same moment.  Each
+ * command {@link AsyncCommandExecutionQueue#submit(edu.cmu.ri.createlab.util.commandexecution.CommandStrategy, CommandBarrier)
+ * submitted with the barrier} waits at the head of its queue until every party has arrived, and then all are released
+ * at once.  A party which won't be submitting its command must {@link #withdraw() withdraw}, so that the others
+ * aren't kept waiting for it.
+ * </p>
+ * <p>
+ * The barrier gives up waiting after the timeout given upon construction, in which case the commands which did arrive
+ * are executed anyway and the barrier is marked as {@link #isBroken() broken}.  The time from the first command's
+ * completion to the last is recorded as the {@link #getCompletionSpread(TimeUnit) completion spread}.  A
+ * <code>CommandBarrier</code> may only be used once.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class CommandBarrier
+   {
+   private static final Logger LOG = Logger.getLogger(CommandBarrier.class);
+
+   private final CountDownLatch arrivals;
+   private final long timeoutInNanos;
+   private volatile boolean isBroken = false;
+   private final AtomicInteger completionCount = new AtomicInteger(0);
+   private final AtomicLong firstCompletionTime = new AtomicLong(Long.MAX_VALUE);
+   private final AtomicLong lastCompletionTime = new AtomicLong(Long.MIN_VALUE);
+
+   /**
+    * Creates a <code>CommandBarrier</code> for the given number of parties, which waits no longer than the given
+    * timeout for all of them to arrive.
+    *
+    * @throws IllegalArgumentException if <code>parties</code> or <code>timeout</code> isn't positive, or if the
+    * <code>timeUnit</code> is <code>null</code>
+    */
+   public CommandBarrier(final int parties, final long timeout, final TimeUnit timeUnit)
+      {
+      if (parties <= 0)
+         {
+         throw new IllegalArgumentException("The number of parties must be positive");
+         }
+      if (timeout <= 0 || timeUnit == null)
+         {
+         throw new IllegalArgumentException("The timeout must be positive");
+         }
+      this.arrivals = new CountDownLatch(parties);
+      this.timeoutInNanos = timeUnit.toNanos(timeout);
+      }
+
+   /**
+    * Removes a party from the barrier without waiting, for use when its command won't be submitted (e.g. because its
+    * finch is disconnected).
+    */
+   public void withdraw()
+      {
+      arrivals.countDown();
+      }
+
+   /** Returns <code>true</code> if the barrier gave up waiting for a party (or a waiting party was interrupted). */
+   public boolean isBroken()
+      {
+      return isBroken;
+      }
+
+   /** Returns the number of commands which have completed after passing the barrier. */
+   public int getCompletionCount()
+      {
+      return completionCount.get();
+      }
+
+   /**
+    * Returns the time between the completion of the first command and the completion of the last one so far, or -1 if
+    * none has completed.
+    */
+   public long getCompletionSpread(final TimeUnit timeUnit)
+      {
+      if (completionCount.get() == 0)
+         {
+         return -1;
+         }
+      return timeUnit.convert(lastCompletionTime.get() - firstCompletionTime.get(), TimeUnit.NANOSECONDS);
+      }
+
+   /** Arrives at the barrier, and waits for the other parties to arrive (or the timeout to expire). */
+   void await()
+      {
+      arrivals.countDown();
+      try
+         {
+         if (!arrivals.await(timeoutInNanos, TimeUnit.NANOSECONDS))
+            {
+            isBroken = true;
+            if (LOG.isDebugEnabled())
+               {
+               LOG.debug("CommandBarrier.await(): timed out waiting for [" + arrivals.getCount() + "] parties, proceeding anyway");
+               }
+            }
+         }
+      catch (InterruptedException ignored)
+         {
+         // e.g. the command's queue aborted the wait for a priority command
+         isBroken = true;
+         LOG.debug("CommandBarrier.await(): interrupted while waiting for the other parties");
+         Thread.currentThread().interrupt();
+         }
+      }
+
+   /** Records that a command which passed the barrier has completed. */
+   void recordCompletion()
+      {
+      final long now = System.nanoTime();
+      long first = firstCompletionTime.get();
+      while (now < first && !firstCompletionTime.compareAndSet(first, now))
+         {
+         first = firstCompletionTime.get();
+         }
+      long last = lastCompletionTime.get();
+      while (now > last && !lastCompletionTime.compareAndSet(last, now))
+         {
+         last = lastCompletionTime.get();
+         }
+      completionCount.incrementAndGet();
+      }
+   }
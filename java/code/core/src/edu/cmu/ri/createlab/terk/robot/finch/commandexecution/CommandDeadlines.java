@@ -0,0 +1,113 @@
+package edu.cmu.ri.createlab.terk.robot.finch.commandexecution;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ * <code>CommandDeadlines</code> holds the deadlines enforced by an {@link AsyncCommandExecutionQueue}: the longest a
+ * command may take, from the start of its execution to completion, before its {@link java.util.concurrent.Future Future}
+ * is cancelled and the deadline is counted as missed.  Time spent waiting in the queue doesn't count.  Deadlines may be set per command strategy class, and otherwise default to
+ * the value of the {@link #DEFAULT_DEADLINE_SYSTEM_PROPERTY} system property, or
+ * {@link #DEFAULT_DEADLINE_IN_MILLIS} if it isn't set.  A deadline of zero means no deadline.
+ * </p>
+ * <p>
+ * Once {@link #getMaxConsecutiveMisses() a number} of deadlines in a row are missed, the device is assumed to be
+ * wedged and the queue's failure handler is notified.  Changes take effect for commands submitted afterwards.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class CommandDeadlines
+   {
+   /** The system property which sets the default deadline, in milliseconds. */
+   public static final String DEFAULT_DEADLINE_SYSTEM_PROPERTY = "finch.deadline.default-millis";
+
+   /** The system property which sets the number of consecutive deadline misses which signal a failure. */
+   public static final String MAX_CONSECUTIVE_MISSES_SYSTEM_PROPERTY = "finch.deadline.max-consecutive-misses";
+
+   public static final int DEFAULT_DEADLINE_IN_MILLIS = 1000;
+   public static final int DEFAULT_MAX_CONSECUTIVE_MISSES = 3;
+
+   private final ConcurrentMap<Class<?>, Long> deadlinesInNanos = new ConcurrentHashMap<Class<?>, Long>();
+   private volatile long defaultDeadlineInNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, Integer.getInteger(DEFAULT_DEADLINE_SYSTEM_PROPERTY, DEFAULT_DEADLINE_IN_MILLIS)));
+   private volatile int maxConsecutiveMisses = Math.max(1, Integer.getInteger(MAX_CONSECUTIVE_MISSES_SYSTEM_PROPERTY, DEFAULT_MAX_CONSECUTIVE_MISSES));
+
+   /** Returns the deadline for commands whose class has no deadline of its own, or zero if there is none. */
+   public long getDefaultDeadline(final TimeUnit timeUnit)
+      {
+      return timeUnit.convert(defaultDeadlineInNanos, TimeUnit.NANOSECONDS);
+      }
+
+   /**
+    * Sets the deadline for commands whose class has no deadline of its own.  Pass zero for no deadline.
+    *
+    * @throws IllegalArgumentException if the deadline is negative
+    */
+   public void setDefaultDeadline(final long deadline, final TimeUnit timeUnit)
+      {
+      defaultDeadlineInNanos = toNanos(deadline, timeUnit);
+      }
+
+   /** Returns the deadline for commands of the given class, or zero if there is none. */
+   public long getDeadline(final Class<?> commandStrategyClass, final TimeUnit timeUnit)
+      {
+      return timeUnit.convert(getDeadlineInNanos(commandStrategyClass), TimeUnit.NANOSECONDS);
+      }
+
+   /**
+    * Sets the deadline for commands of the given class, overriding the default.  Pass zero for no deadline.
+    *
+    * @throws IllegalArgumentException if the class is <code>null</code> or the deadline is negative
+    */
+   public void setDeadline(final Class<?> commandStrategyClass, final long deadline, final TimeUnit timeUnit)
+      {
+      if (commandStrategyClass == null)
+         {
+         throw new IllegalArgumentException("The command strategy class may not be null");
+         }
+      deadlinesInNanos.put(commandStrategyClass, toNanos(deadline, timeUnit));
+      }
+
+   /** Removes the deadline for commands of the given class, so that the default applies again. */
+   public void clearDeadline(final Class<?> commandStrategyClass)
+      {
+      deadlinesInNanos.remove(commandStrategyClass);
+      }
+
+   /** Returns the number of deadlines which must be missed in a row before the device is considered to have failed. */
+   public int getMaxConsecutiveMisses()
+      {
+      return maxConsecutiveMisses;
+      }
+
+   /**
+    * Sets the number of deadlines which must be missed in a row before the device is considered to have failed.
+    *
+    * @throws IllegalArgumentException if <code>maxConsecutiveMisses</code> isn't positive
+    */
+   public void setMaxConsecutiveMisses(final int maxConsecutiveMisses)
+      {
+      if (maxConsecutiveMisses <= 0)
+         {
+         throw new IllegalArgumentException("The max number of consecutive misses must be positive");
+         }
+      this.maxConsecutiveMisses = maxConsecutiveMisses;
+      }
+
+   long getDeadlineInNanos(final Class<?> commandStrategyClass)
+      {
+      final Long deadlineInNanos = deadlinesInNanos.get(commandStrategyClass);
+      return (deadlineInNanos == null) ? defaultDeadlineInNanos : deadlineInNanos;
+      }
+
+   private static long toNanos(final long deadline, final TimeUnit timeUnit)
+      {
+      if (deadline < 0)
+         {
+         throw new IllegalArgumentException("The deadline may not be negative");
+         }
+      return timeUnit.toNanos(deadline);
+      }
+   }
@@ -0,0 +1,163 @@
+package edu.cmu.ri.createlab.terk.robot.finch.commandexecution;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>
+ * <code>CommandMetrics</code> holds the counters and {@link LatencyHistogram latency histograms} for a single class of
+ * command strategy executed by an {@link AsyncCommandExecutionQueue}.  Instances are obtained from
+ * {@link FinchMetrics}.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class CommandMetrics
+   {
+   private final Class<?> commandStrategyClass;
+   private final AtomicLong executionCount = new AtomicLong(0);
+   private final AtomicLong failureCount = new AtomicLong(0);
+   private final AtomicLong timeoutCount = new AtomicLong(0);
+   private final AtomicLong deadlineMissCount = new AtomicLong(0);
+   private final AtomicLong coalescedCount = new AtomicLong(0);
+   private final AtomicLong sharedCount = new AtomicLong(0);
+   private final LatencyHistogram executionTimeHistogram = new LatencyHistogram();
+   private final LatencyHistogram queueWaitTimeHistogram = new LatencyHistogram();
+
+   CommandMetrics(final Class<?> commandStrategyClass)
+      {
+      this.commandStrategyClass = commandStrategyClass;
+      }
+
+   /** Returns the class of command strategy to which these metrics apply. */
+   public Class<?> getCommandStrategyClass()
+      {
+      return commandStrategyClass;
+      }
+
+   /** Returns the number of times a command of this class was handed to the device's command queue. */
+   public long getExecutionCount()
+      {
+      return executionCount.get();
+      }
+
+   /**
+    * Returns the number of executions which threw an exception, returned no response, or returned an unsuccessful
+    * response.  Timeouts within the device's own command queue show up here, since the device's queue reports them as
+    * a missing response.
+    */
+   public long getFailureCount()
+      {
+      return failureCount.get();
+      }
+
+   /** Returns the number of times a caller gave up waiting for a command of this class to complete. */
+   public long getTimeoutCount()
+      {
+      return timeoutCount.get();
+      }
+
+   /**
+    * Returns the number of commands of this class which were cancelled because they missed their deadline (see
+    * {@link CommandDeadlines}).
+    */
+   public long getDeadlineMissCount()
+      {
+      return deadlineMissCount.get();
+      }
+
+   /**
+    * Returns the number of submissions which were coalesced into an already-pending command of this class (see
+    * {@link CoalescibleCommandStrategy}) rather than executed separately.
+    */
+   public long getCoalescedCount()
+      {
+      return coalescedCount.get();
+      }
+
+   /**
+    * Returns the number of submissions which were given the result of an identical command of this class which was
+    * already waiting or executing (see {@link SharableCommandStrategy}) rather than executed separately.
+    */
+   public long getSharedCount()
+      {
+      return sharedCount.get();
+      }
+
+   /** Returns the histogram of the time spent executing commands of this class in the device's command queue. */
+   public LatencyHistogram getExecutionTimeHistogram()
+      {
+      return executionTimeHistogram;
+      }
+
+   /** Returns the histogram of the time commands of this class spent waiting behind other commands. */
+   public LatencyHistogram getQueueWaitTimeHistogram()
+      {
+      return queueWaitTimeHistogram;
+      }
+
+   void recordExecution(final long queueWaitTimeInNanos, final long executionTimeInNanos, final boolean wasSuccessful)
+      {
+      executionCount.incrementAndGet();
+      if (!wasSuccessful)
+         {
+         failureCount.incrementAndGet();
+         }
+      queueWaitTimeHistogram.record(queueWaitTimeInNanos);
+      executionTimeHistogram.record(executionTimeInNanos);
+      }
+
+   void recordTimeout()
+      {
+      timeoutCount.incrementAndGet();
+      }
+
+   void recordDeadlineMiss()
+      {
+      deadlineMissCount.incrementAndGet();
+      }
+
+   void recordCoalesced()
+      {
+      coalescedCount.incrementAndGet();
+      }
+
+   void recordShared()
+      {
+      sharedCount.incrementAndGet();
+      }
+
+   void reset()
+      {
+      executionCount.set(0);
+      failureCount.set(0);
+      timeoutCount.set(0);
+      deadlineMissCount.set(0);
+      coalescedCount.set(0);
+      sharedCount.set(0);
+      executionTimeHistogram.reset();
+      queueWaitTimeHistogram.reset();
+      }
+
+   @Override
+   public String toString()
+      {
+      return commandStrategyClass.getName() +
+             ": executions=" + executionCount.get() +
+             " failures=" + failureCount.get() +
+             " timeouts=" + timeoutCount.get() +
+             " deadline misses=" + deadlineMissCount.get() +
+             " coalesced=" + coalescedCount.get() +
+             " shared=" + sharedCount.get() +
+             " execution(us): p50=" + toMicros(executionTimeHistogram.getMedianNanos()) +
+             " p99=" + toMicros(executionTimeHistogram.get99thPercentileNanos()) +
+             " max=" + toMicros(executionTimeHistogram.getMaxNanos()) +
+             " wait(us): p50=" + toMicros(queueWaitTimeHistogram.getMedianNanos()) +
+             " p99=" + toMicros(queueWaitTimeHistogram.get99thPercentileNanos()) +
+             " max=" + toMicros(queueWaitTimeHistogram.getMaxNanos());
+      }
+
+   private static long toMicros(final long nanos)
+      {
+      return nanos / 1000;
+      }
+   }
@@ -0,0 +1,119 @@
+package edu.cmu.ri.createlab.terk.robot.finch.commandexecution;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * <code>ConvertingFuture</code> is a {@link Future} which wraps another {@link Future} and converts its result upon
+ * retrieval.  If the wrapped {@link Future} completed with an exception, the exception is logged (once) and the value
+ * returned by {@link #getValueUponFailure()} is returned.  The same is true if the wrapped {@link Future} was
+ * cancelled, except that nothing is logged.  Notifying a
+ * {@link edu.cmu.ri.createlab.util.commandexecution.CommandExecutionFailureHandler CommandExecutionFailureHandler} is
+ * left to the {@link AsyncCommandExecutionQueue}, which does so as soon as the command fails, rather than whenever (if
+ * ever) someone calls <code>get()</code>.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public abstract class ConvertingFuture<SourceClass, DesiredClass> implements Future<DesiredClass>
+   {
+   private static final Logger LOG = Logger.getLogger(ConvertingFuture.class);
+
+   private final Future<SourceClass> future;
+   private boolean isConverted = false;
+   private DesiredClass convertedValue = null;
+
+   protected ConvertingFuture(final Future<SourceClass> future)
+      {
+      this.future = future;
+      }
+
+   /** Converts the given source value to the desired value.  Called at most once. */
+   protected abstract DesiredClass convert(final SourceClass value);
+
+   /** Returns the value which should be returned when the wrapped {@link Future} failed or was cancelled. */
+   protected abstract DesiredClass getValueUponFailure();
+
+   public final boolean cancel(final boolean mayInterruptIfRunning)
+      {
+      return future.cancel(mayInterruptIfRunning);
+      }
+
+   public final boolean isCancelled()
+      {
+      return future.isCancelled();
+      }
+
+   public final boolean isDone()
+      {
+      return future.isDone();
+      }
+
+   public final DesiredClass get() throws InterruptedException
+      {
+      try
+         {
+         return getConvertedValue(future.get());
+         }
+      catch (ExecutionException e)
+         {
+         return handleFailure(e);
+         }
+      catch (CancellationException ignored)
+         {
+         return getValueUponFailure();
+         }
+      }
+
+   public final DesiredClass get(final long timeout, final TimeUnit unit) throws InterruptedException, TimeoutException
+      {
+      try
+         {
+         return getConvertedValue(future.get(timeout, unit));
+         }
+      catch (ExecutionException e)
+         {
+         return handleFailure(e);
+         }
+      catch (CancellationException ignored)
+         {
+         return getValueUponFailure();
+         }
+      }
+
+   private synchronized DesiredClass getConvertedValue(final SourceClass value)
+      {
+      if (!isConverted)
+         {
+         convertedValue = convert(value);
+         isConverted = true;
+         }
+      return convertedValue;
+      }
+
+   private DesiredClass handleFailure(final ExecutionException e)
+      {
+      boolean willLogFailure = false;
+      synchronized (this)
+         {
+         if (!isConverted)
+            {
+            isConverted = true;
+            convertedValue = getValueUponFailure();
+            willLogFailure = true;
+            }
+         }
+
+      if (willLogFailure)
+         {
+         LOG.error("Exception caught while trying to execute a command", e.getCause());
+         }
+
+      return getValueUponFailure();
+      }
+   }
@@ -0,0 +1,216 @@
+package edu.cmu.ri.createlab.terk.robot.finch.commandexecution;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>
+ * <code>FinchMetrics</code> collects {@link CommandMetrics} (counts, failures, timeouts, and latency histograms),
+ * keyed by command strategy class, for every command executed by an {@link AsyncCommandExecutionQueue}, along with the
+ * depth of the queue.  Each finch controller has its own instance, available via
+ * {@link edu.cmu.ri.createlab.terk.robot.finch.FinchController#getFinchMetrics()}.  The {@link #toString()} method
+ * returns a human-readable report, suitable for logging.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class FinchMetrics
+   {
+   private static final Comparator<CommandMetrics> COMMAND_METRICS_COMPARATOR = new Comparator<CommandMetrics>()
+   {
+   public int compare(final CommandMetrics metrics1, final CommandMetrics metrics2)
+      {
+      return metrics1.getCommandStrategyClass().getName().compareTo(metrics2.getCommandStrategyClass().getName());
+      }
+   };
+
+   private final ConcurrentMap<Class<?>, CommandMetrics> commandMetricsMap = new ConcurrentHashMap<Class<?>, CommandMetrics>();
+   private final AtomicInteger queueDepth = new AtomicInteger(0);
+   private final AtomicInteger maxQueueDepth = new AtomicInteger(0);
+   private volatile Class<?> lastCommandStrategyClass = null;
+   private volatile long lastExecutionTimeInNanos = -1;
+   private final LatencyHistogram roundTripTimeHistogram = new LatencyHistogram();
+   private volatile boolean hasSucceeded = false;
+   private volatile long lastSuccessTime = 0;
+
+   /**
+    * Creates an empty <code>FinchMetrics</code>.  Each {@link AsyncCommandExecutionQueue} creates its own; controllers
+    * which don't execute their commands through one (e.g. those talking to a finch over the network) may create one and
+    * record their commands with {@link #recordExecution(Class, long, long, boolean)} and friends.
+    */
+   public FinchMetrics()
+      {
+      }
+
+   /**
+    * Returns the {@link CommandMetrics} for the given command strategy class, or <code>null</code> if no command of
+    * that class has been submitted yet.
+    */
+   public CommandMetrics getCommandMetrics(final Class<?> commandStrategyClass)
+      {
+      return commandMetricsMap.get(commandStrategyClass);
+      }
+
+   /** Returns the {@link CommandMetrics} for every command strategy class submitted so far, sorted by class name. */
+   public List<CommandMetrics> getAllCommandMetrics()
+      {
+      final List<CommandMetrics> allCommandMetrics = new ArrayList<CommandMetrics>(commandMetricsMap.values());
+      Collections.sort(allCommandMetrics, COMMAND_METRICS_COMPARATOR);
+      return allCommandMetrics;
+      }
+
+   /** Returns the total number of commands of every class handed to the device's command queue. */
+   public long getExecutionCount()
+      {
+      long count = 0;
+      for (final CommandMetrics commandMetrics : commandMetricsMap.values())
+         {
+         count += commandMetrics.getExecutionCount();
+         }
+      return count;
+      }
+
+   /** Returns the total number of failed commands of every class (see {@link CommandMetrics#getFailureCount()}). */
+   public long getFailureCount()
+      {
+      long count = 0;
+      for (final CommandMetrics commandMetrics : commandMetricsMap.values())
+         {
+         count += commandMetrics.getFailureCount();
+         }
+      return count;
+      }
+
+   /** Returns the class of the most recently executed command, or <code>null</code> if none has been executed. */
+   public Class<?> getLastCommandStrategyClass()
+      {
+      return lastCommandStrategyClass;
+      }
+
+   /**
+    * Returns the time spent executing the most recently executed command in the device's command queue, or -1 if none
+    * has been executed.
+    */
+   public long getLastExecutionTimeNanos()
+      {
+      return lastExecutionTimeInNanos;
+      }
+
+   /**
+    * Returns the distribution of the time spent executing each successful command of any class in the device's command
+    * queue, that is, the round trip time to the device.
+    */
+   public LatencyHistogram getRoundTripTimeHistogram()
+      {
+      return roundTripTimeHistogram;
+      }
+
+   /**
+    * Returns the number of nanoseconds since a command of any class last completed successfully, or -1 if none has.
+    * Every successful command shows that the device is still alive, so this is the time since the last heartbeat.
+    */
+   public long getNanosSinceLastSuccess()
+      {
+      if (hasSucceeded)
+         {
+         return System.nanoTime() - lastSuccessTime;
+         }
+      return -1;
+      }
+
+   /** Returns the number of commands currently waiting to be executed. */
+   public int getQueueDepth()
+      {
+      return Math.max(0, queueDepth.get());
+      }
+
+   /** Returns the largest number of commands which have been waiting to be executed at once. */
+   public int getMaxQueueDepth()
+      {
+      return maxQueueDepth.get();
+      }
+
+   /** Zeroes every counter and histogram, and the max queue depth. */
+   public void reset()
+      {
+      for (final CommandMetrics commandMetrics : commandMetricsMap.values())
+         {
+         commandMetrics.reset();
+         }
+      roundTripTimeHistogram.reset();
+      maxQueueDepth.set(getQueueDepth());
+      }
+
+   CommandMetrics getOrCreateCommandMetrics(final Class<?> commandStrategyClass)
+      {
+      final CommandMetrics commandMetrics = commandMetricsMap.get(commandStrategyClass);
+      if (commandMetrics != null)
+         {
+         return commandMetrics;
+         }
+
+      final CommandMetrics newCommandMetrics = new CommandMetrics(commandStrategyClass);
+      final CommandMetrics existingCommandMetrics = commandMetricsMap.putIfAbsent(commandStrategyClass, newCommandMetrics);
+      return (existingCommandMetrics == null) ? newCommandMetrics : existingCommandMetrics;
+      }
+
+   /**
+    * Records the execution of a command of the given class, which waited for the given time before being executed, and
+    * then took the given time to execute.
+    */
+   public void recordExecution(final Class<?> commandStrategyClass, final long queueWaitTimeInNanos, final long executionTimeInNanos, final boolean wasSuccessful)
+      {
+      getOrCreateCommandMetrics(commandStrategyClass).recordExecution(queueWaitTimeInNanos, executionTimeInNanos, wasSuccessful);
+      lastCommandStrategyClass = commandStrategyClass;
+      lastExecutionTimeInNanos = executionTimeInNanos;
+      if (wasSuccessful)
+         {
+         roundTripTimeHistogram.record(executionTimeInNanos);
+         lastSuccessTime = System.nanoTime();
+         hasSucceeded = true;
+         }
+      }
+
+   /** Records that a command of the given class missed its deadline (see {@link CommandDeadlines}). */
+   public void recordDeadlineMiss(final Class<?> commandStrategyClass)
+      {
+      getOrCreateCommandMetrics(commandStrategyClass).recordDeadlineMiss();
+      }
+
+   /** Records that a command has been queued (or, for remote controllers, sent and not yet answered). */
+   public void incrementQueueDepth()
+      {
+      final int depth = queueDepth.incrementAndGet();
+      int currentMax = maxQueueDepth.get();
+      while (depth > currentMax && !maxQueueDepth.compareAndSet(currentMax, depth))
+         {
+         currentMax = maxQueueDepth.get();
+         }
+      }
+
+   /** Records that a queued command has been completed. */
+   public void decrementQueueDepth()
+      {
+      queueDepth.decrementAndGet();
+      }
+
+   @Override
+   public String toString()
+      {
+      final StringBuilder s = new StringBuilder();
+      s.append("queue depth=").append(getQueueDepth()).append(" max=").append(getMaxQueueDepth());
+      s.append(" round trip(us): p50=").append(roundTripTimeHistogram.getMedianNanos() / 1000);
+      s.append(" p99=").append(roundTripTimeHistogram.get99thPercentileNanos() / 1000);
+      s.append(" max=").append(roundTripTimeHistogram.getMaxNanos() / 1000);
+      for (final CommandMetrics commandMetrics : getAllCommandMetrics())
+         {
+         s.append('\n').append("   ").append(commandMetrics);
+         }
+      return s.toString();
+      }
+   }
@@ -0,0 +1,151 @@
+package edu.cmu.ri.createlab.terk.robot.finch.commandexecution;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <p>
+ * <code>LatencyHistogram</code> is a lock-free histogram of durations (in nanoseconds) in the style of an HDR
+ * histogram: each power of two is split into {@link #SUB_BUCKET_COUNT} linear sub-buckets, so that any percentile is
+ * reported to within about 6% of its true value no matter whether the durations are microseconds or seconds.
+ * Recording a duration costs a few atomic increments and never allocates, so histograms can be left on in production.
+ * </p>
+ * <p>
+ * The values returned by the getters are read without locking while durations are being recorded, so they may be very
+ * slightly inconsistent with one another (e.g. the count may include a duration which isn't yet in the max).
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class LatencyHistogram
+   {
+   private static final int SUB_BUCKET_BITS = 4;
+   public static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+   private static final int SUB_BUCKET_MASK = SUB_BUCKET_COUNT - 1;
+
+   /** Enough buckets for any non-negative <code>long</code>. */
+   private static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+   private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+   private final AtomicLong count = new AtomicLong(0);
+   private final AtomicLong totalNanos = new AtomicLong(0);
+   private final AtomicLong maxNanos = new AtomicLong(0);
+
+   /** Records the given duration.  Negative durations (which can't happen with {@link System#nanoTime()}) count as 0. */
+   public void record(final long durationInNanos)
+      {
+      final long duration = Math.max(0, durationInNanos);
+      counts.incrementAndGet(getBucketIndex(duration));
+      count.incrementAndGet();
+      totalNanos.addAndGet(duration);
+
+      long currentMax = maxNanos.get();
+      while (duration > currentMax && !maxNanos.compareAndSet(currentMax, duration))
+         {
+         currentMax = maxNanos.get();
+         }
+      }
+
+   /** Returns the number of durations recorded. */
+   public long getCount()
+      {
+      return count.get();
+      }
+
+   /** Returns the longest duration recorded, or 0 if none have been recorded. */
+   public long getMaxNanos()
+      {
+      return maxNanos.get();
+      }
+
+   /** Returns the mean of the durations recorded, or 0 if none have been recorded. */
+   public long getMeanNanos()
+      {
+      final long n = count.get();
+      return (n == 0) ? 0 : totalNanos.get() / n;
+      }
+
+   /** Returns the median duration.  Equivalent to <code>getPercentileNanos(50)</code>. */
+   public long getMedianNanos()
+      {
+      return getPercentileNanos(50);
+      }
+
+   /** Returns the 99th percentile duration.  Equivalent to <code>getPercentileNanos(99)</code>. */
+   public long get99thPercentileNanos()
+      {
+      return getPercentileNanos(99);
+      }
+
+   /**
+    * Returns the duration at or below which the given <code>percentile</code> of the recorded durations fall, or 0 if
+    * none have been recorded.  The value returned is the upper bound of the bucket containing that duration, capped at
+    * the {@link #getMaxNanos() max}.
+    *
+    * @throws IllegalArgumentException if the <code>percentile</code> is not within the range [0, 100]
+    */
+   public long getPercentileNanos(final double percentile)
+      {
+      if (percentile < 0 || percentile > 100)
+         {
+         throw new IllegalArgumentException("The percentile must be within the range [0, 100]");
+         }
+
+      final long n = count.get();
+      if (n == 0)
+         {
+         return 0;
+         }
+
+      final long target = Math.max(1, (long)Math.ceil(n * percentile / 100.0));
+      long cumulativeCount = 0;
+      for (int i = 0; i < BUCKET_COUNT; i++)
+         {
+         cumulativeCount += counts.get(i);
+         if (cumulativeCount >= target)
+            {
+            return Math.min(getBucketUpperBound(i), maxNanos.get());
+            }
+         }
+
+      // only reachable if durations were recorded while we were counting
+      return maxNanos.get();
+      }
+
+   /** Discards every duration recorded so far. */
+   void reset()
+      {
+      for (int i = 0; i < BUCKET_COUNT; i++)
+         {
+         counts.set(i, 0);
+         }
+      count.set(0);
+      totalNanos.set(0);
+      maxNanos.set(0);
+      }
+
+   private static int getBucketIndex(final long value)
+      {
+      if (value < SUB_BUCKET_COUNT)
+         {
+         return (int)value;
+         }
+
+      // the exponent of the highest set bit, which is at least SUB_BUCKET_BITS here
+      final int exponent = (Long.SIZE - 1) - Long.numberOfLeadingZeros(value);
+      final int subBucket = (int)(value >>> (exponent - SUB_BUCKET_BITS)) & SUB_BUCKET_MASK;
+      return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+      }
+
+   private static long getBucketUpperBound(final int index)
+      {
+      if (index < SUB_BUCKET_COUNT)
+         {
+         return index;
+         }
+
+      final int shift = (index / SUB_BUCKET_COUNT) - 1;
+      final long subBucket = index & SUB_BUCKET_MASK;
+      return ((SUB_BUCKET_COUNT + subBucket + 1) << shift) - 1;
+      }
+   }
@@ -0,0 +1,16 @@
+package edu.cmu.ri.createlab.terk.robot.finch.commandexecution;
+
+/**
+ * <p>
+ * <code>PriorityCommandStrategy</code> is a marker interface for command strategies which must reach the device as
+ * soon as possible (e.g. an emergency stop).  The {@link AsyncCommandExecutionQueue} executes such a command ahead of
+ * every other command still waiting in the queue, and cancels any waiting commands which would otherwise set an
+ * actuator after it (e.g. motor velocities submitted just before an emergency stop).  Commands which return a value,
+ * such as sensor reads, are kept and executed after the priority command.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public interface PriorityCommandStrategy
+   {
+   }
@@ -0,0 +1,21 @@
+package edu.cmu.ri.createlab.terk.robot.finch.commandexecution;
+
+/**
+ * <p>
+ * <code>SharableCommandStrategy</code> is a marker interface for command strategies which merely read the state of a
+ * sensor (e.g. the accelerometer, the photoresistors, or a whole sensor snapshot), such that every caller who asks at
+ * the same moment wants the same answer.  The {@link AsyncCommandExecutionQueue} gives a caller who submits a strategy
+ * instance which is already waiting or executing the <code>Future</code> of that command, rather than sending the
+ * device the same request again.
+ * </p>
+ * <p>
+ * Sharing is by instance, so a strategy whose command depends on its arguments (e.g. which analog input to read) is
+ * only shared between callers who submit the same instance.  Each caller gets a <code>Future</code> of its own, so
+ * cancelling it only stops that caller waiting.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public interface SharableCommandStrategy
+   {
+   }
@@ -4,6 +4,12 @@ import edu.cmu.ri.createlab.terk.robot.finch.FinchProperties;
 import edu.cmu.ri.createlab.util.MathUtils;
 
 /**
+ * <p>
+ * <code>BuzzerCommandStrategyHelper</code> encodes the command for playing a tone on the buzzer.  Each controller owns
+ * a single helper, which every buzzer command strategy encodes its tone into with {@link #getCommand(int, int)}, so
+ * that encoding a command doesn't allocate.
+ * </p>
+ *
  * @author Chris Bartley (bartley@cmu.edu)
  */
 public final class BuzzerCommandStrategyHelper extends BaseCommandStrategyHelper
@@ -11,21 +17,20 @@ public final class BuzzerCommandStrategyHelper extends BaseCommandStrategyHelper
    /** The command character used to set the buzzer frequency. */
    private static final byte COMMAND_PREFIX = 'B';
 
-   private final byte[] command;
+   private final int minFrequency;
+   private final int maxFrequency;
+   private final int minDuration;
+   private final int maxDuration;
 
-   public BuzzerCommandStrategyHelper(final int frequency, final int durationInMilliseconds, final FinchProperties finchProperties)
+   /** Only touched by the thread executing the commands, which the controller's command queue runs one at a time. */
+   private final byte[] command = new byte[]{COMMAND_PREFIX, 0, 0, 0, 0};
+
+   public BuzzerCommandStrategyHelper(final FinchProperties finchProperties)
       {
-      final int minFrequency = finchProperties.getBuzzerDeviceMinFrequency();
-      final int maxFrequency = finchProperties.getBuzzerDeviceMaxFrequency();
-      final int minDuration = finchProperties.getBuzzerDeviceMinDuration();
-      final int maxDuration = finchProperties.getBuzzerDeviceMaxDuration();
-      final int cleanedFrequency = MathUtils.ensureRange(frequency, minFrequency, maxFrequency);
-      final int cleanedDurationInMilliseconds = MathUtils.ensureRange(durationInMilliseconds, minDuration, maxDuration);
-      this.command = new byte[]{COMMAND_PREFIX,
-                                getHighByteFromInt(cleanedDurationInMilliseconds),
-                                getLowByteFromInt(cleanedDurationInMilliseconds),
-                                getHighByteFromInt(cleanedFrequency),
-                                getLowByteFromInt(cleanedFrequency)};
+      this.minFrequency = finchProperties.getBuzzerDeviceMinFrequency();
+      this.maxFrequency = finchProperties.getBuzzerDeviceMaxFrequency();
+      this.minDuration = finchProperties.getBuzzerDeviceMinDuration();
+      this.maxDuration = finchProperties.getBuzzerDeviceMaxDuration();
       }
 
    private byte getHighByteFromInt(final int val)
@@ -38,8 +43,18 @@ public final class BuzzerCommandStrategyHelper extends BaseCommandStrategyHelper
       return (byte)((val << 24) >> 24);
       }
 
-   public byte[] getCommand()
+   /**
+    * Encodes the given tone and returns the command.  The returned array is reused by subsequent calls, so it must not
+    * be modified or retained, and this method must only be called by the thread executing the command.
+    */
+   public byte[] getCommand(final int frequency, final int durationInMilliseconds)
       {
-      return command.clone();
+      final int cleanedFrequency = MathUtils.ensureRange(frequency, minFrequency, maxFrequency);
+      final int cleanedDurationInMilliseconds = MathUtils.ensureRange(durationInMilliseconds, minDuration, maxDuration);
+      command[1] = getHighByteFromInt(cleanedDurationInMilliseconds);
+      command[2] = getLowByteFromInt(cleanedDurationInMilliseconds);
+      command[3] = getHighByteFromInt(cleanedFrequency);
+      command[4] = getLowByteFromInt(cleanedFrequency);
+      return command;
       }
    }
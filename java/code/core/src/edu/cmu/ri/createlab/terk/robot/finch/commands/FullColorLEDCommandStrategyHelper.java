@@ -4,6 +4,12 @@ import edu.cmu.ri.createlab.terk.robot.finch.FinchProperties;
 import edu.cmu.ri.createlab.util.ByteUtils;
 
 /**
+ * <p>
+ * <code>FullColorLEDCommandStrategyHelper</code> encodes the command for setting the full-color LED.  Each controller
+ * owns a single helper, which every LED command strategy encodes its color into with
+ * {@link #getCommand(int, int, int)}, so that encoding a command doesn't allocate.
+ * </p>
+ *
  * @author Chris Bartley (bartley@cmu.edu)
  */
 public final class FullColorLEDCommandStrategyHelper extends BaseCommandStrategyHelper
@@ -11,34 +17,36 @@ public final class FullColorLEDCommandStrategyHelper extends BaseCommandStrategy
    /** The command character used to turn on a full-color LED. */
    private static final byte COMMAND_PREFIX = 'O';
 
-   private final byte[] command;
-
    private final int minIntensity;
    private final int maxIntensity;
 
-   public FullColorLEDCommandStrategyHelper(final int red, final int green, final int blue, final FinchProperties finchProperties)
+   /** Only touched by the thread executing the commands, which the controller's command queue runs one at a time. */
+   private final byte[] command = new byte[]{COMMAND_PREFIX, 0, 0, 0};
+
+   public FullColorLEDCommandStrategyHelper(final FinchProperties finchProperties)
       {
       this.minIntensity = finchProperties.getFullColorLedDeviceMinIntensity();
       this.maxIntensity = finchProperties.getFullColorLedDeviceMaxIntensity();
-
-      // construct the command
-      this.command = new byte[]{COMMAND_PREFIX,
-                                cleanIntensity(red),
-                                cleanIntensity(green),
-                                cleanIntensity(blue)};
       }
 
    private byte cleanIntensity(final int rawIntensity)
       {
       // clamp the intensity to the allowed range
-      int intensity = Math.min(Math.max(rawIntensity, minIntensity), maxIntensity);
+      final int intensity = Math.min(Math.max(rawIntensity, minIntensity), maxIntensity);
 
       // finally, convert it to an unsigned byte
       return ByteUtils.intToUnsignedByte(intensity);
       }
 
-   public byte[] getCommand()
+   /**
+    * Encodes the given color and returns the command.  The returned array is reused by subsequent calls, so it must
+    * not be modified or retained, and this method must only be called by the thread executing the command.
+    */
+   public byte[] getCommand(final int red, final int green, final int blue)
       {
-      return command.clone();
+      command[1] = cleanIntensity(red);
+      command[2] = cleanIntensity(green);
+      command[3] = cleanIntensity(blue);
+      return command;
       }
    }
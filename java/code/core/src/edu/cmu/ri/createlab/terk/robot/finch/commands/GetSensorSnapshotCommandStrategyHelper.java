@@ -0,0 +1,132 @@
+package edu.cmu.ri.createlab.terk.robot.finch.commands;
+
+import edu.cmu.ri.createlab.terk.robot.finch.FinchSensorSnapshot;
+import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerState;
+import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerUnitConversionStrategy;
+import edu.cmu.ri.createlab.terk.services.thermistor.ThermistorUnitConversionStrategy;
+import edu.cmu.ri.createlab.util.ByteUtils;
+import edu.cmu.ri.createlab.util.commandexecution.CommandResponse;
+
+/**
+ * <p>
+ * Helper for the sensor snapshot command strategies, which read all of the finch's sensors within a single command
+ * queue task.  The individual responses are packed into a single response in the following layout:
+ * </p>
+ * <ul>
+ *    <li>bytes 0-3: accelerometer X, Y, Z, and tap/shake</li>
+ *    <li>bytes 4-5: left and right obstacle sensors</li>
+ *    <li>bytes 6-7: left and right photoresistors</li>
+ *    <li>byte 8: thermistor</li>
+ *    <li>bytes 9-16: the time at which the sensors were read, in milliseconds (big endian)</li>
+ * </ul>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class GetSensorSnapshotCommandStrategyHelper extends BaseCommandStrategyHelper
+   {
+   private static final int ACCELEROMETER_OFFSET = 0;
+   private static final int OBSTACLE_SENSOR_OFFSET = 4;
+   private static final int PHOTORESISTOR_OFFSET = 6;
+   private static final int THERMISTOR_OFFSET = 8;
+   private static final int TIMESTAMP_OFFSET = 9;
+
+   /** The size of the packed response, in bytes */
+   private static final int SIZE_IN_BYTES_OF_RESPONSE = 17;
+
+   private final GetAccelerometerCommandStrategyHelper accelerometerHelper = new GetAccelerometerCommandStrategyHelper();
+   private final AccelerometerUnitConversionStrategy accelerometerUnitConversionStrategy;
+   private final ThermistorUnitConversionStrategy thermistorUnitConversionStrategy;
+
+   /**
+    * Creates the helper.  Either conversion strategy may be <code>null</code>, in which case the corresponding
+    * converted value in the snapshot will be <code>null</code>.
+    */
+   public GetSensorSnapshotCommandStrategyHelper(final AccelerometerUnitConversionStrategy accelerometerUnitConversionStrategy,
+                                                 final ThermistorUnitConversionStrategy thermistorUnitConversionStrategy)
+      {
+      this.accelerometerUnitConversionStrategy = accelerometerUnitConversionStrategy;
+      this.thermistorUnitConversionStrategy = thermistorUnitConversionStrategy;
+      }
+
+   /**
+    * Packs the data from the individual sensor responses into a single response, stamped with the given
+    * <code>timestamp</code>.  The accelerometer data is read starting at <code>accelerometerDataOffset</code> to allow
+    * for transports which prefix the accelerometer data with a bogus byte.  Returns <code>null</code> if any of the
+    * given responses is <code>null</code>, unsuccessful, or too short.
+    */
+   public byte[] packResponses(final CommandResponse accelerometerResponse,
+                               final int accelerometerDataOffset,
+                               final CommandResponse obstacleSensorResponse,
+                               final CommandResponse photoresistorResponse,
+                               final CommandResponse thermistorResponse,
+                               final long timestamp)
+      {
+      final byte[] accelerometerData = getData(accelerometerResponse, accelerometerDataOffset + 4);
+      final byte[] obstacleSensorData = getData(obstacleSensorResponse, 2);
+      final byte[] photoresistorData = getData(photoresistorResponse, 2);
+      final byte[] thermistorData = getData(thermistorResponse, 1);
+
+      if (accelerometerData == null || obstacleSensorData == null || photoresistorData == null || thermistorData == null)
+         {
+         return null;
+         }
+
+      final byte[] data = new byte[SIZE_IN_BYTES_OF_RESPONSE];
+      System.arraycopy(accelerometerData, accelerometerDataOffset, data, ACCELEROMETER_OFFSET, 4);
+      System.arraycopy(obstacleSensorData, 0, data, OBSTACLE_SENSOR_OFFSET, 2);
+      System.arraycopy(photoresistorData, 0, data, PHOTORESISTOR_OFFSET, 2);
+      data[THERMISTOR_OFFSET] = thermistorData[0];
+      for (int i = 0; i < 8; i++)
+         {
+         data[TIMESTAMP_OFFSET + i] = (byte)(timestamp >>> (56 - 8 * i));
+         }
+      return data;
+      }
+
+   private static byte[] getData(final CommandResponse response, final int minimumLength)
+      {
+      if (response != null && response.wasSuccessful())
+         {
+         final byte[] data = response.getData();
+         if (data != null && data.length >= minimumLength)
+            {
+            return data;
+            }
+         }
+      return null;
+      }
+
+   public FinchSensorSnapshot convertResponse(final CommandResponse response)
+      {
+      if (response != null && response.wasSuccessful())
+         {
+         final byte[] data = response.getData();
+         if (data != null && data.length >= SIZE_IN_BYTES_OF_RESPONSE)
+            {
+            final AccelerometerState accelerometerState = accelerometerHelper.convertResponse(data[ACCELEROMETER_OFFSET],
+                                                                                               data[ACCELEROMETER_OFFSET + 1],
+                                                                                               data[ACCELEROMETER_OFFSET + 2],
+                                                                                               data[ACCELEROMETER_OFFSET + 3]);
+            final int thermistor = ByteUtils.unsignedByteToInt(data[THERMISTOR_OFFSET]);
+
+            long timestamp = 0;
+            for (int i = 0; i < 8; i++)
+               {
+               timestamp = (timestamp << 8) | ByteUtils.unsignedByteToInt(data[TIMESTAMP_OFFSET + i]);
+               }
+
+            return new FinchSensorSnapshot(timestamp,
+                                           accelerometerState,
+                                           accelerometerUnitConversionStrategy == null ? null : accelerometerUnitConversionStrategy.convert(accelerometerState),
+                                           new boolean[]{ByteUtils.unsignedByteToInt(data[OBSTACLE_SENSOR_OFFSET]) == 1,
+                                                         ByteUtils.unsignedByteToInt(data[OBSTACLE_SENSOR_OFFSET + 1]) == 1},
+                                           new int[]{ByteUtils.unsignedByteToInt(data[PHOTORESISTOR_OFFSET]),
+                                                     ByteUtils.unsignedByteToInt(data[PHOTORESISTOR_OFFSET + 1])},
+                                           thermistor,
+                                           thermistorUnitConversionStrategy == null ? null : thermistorUnitConversionStrategy.convertToCelsius(thermistor));
+            }
+         }
+
+      return null;
+      }
+   }
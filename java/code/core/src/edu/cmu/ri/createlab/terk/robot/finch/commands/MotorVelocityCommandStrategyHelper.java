@@ -4,6 +4,12 @@ import edu.cmu.ri.createlab.terk.robot.finch.FinchProperties;
 import edu.cmu.ri.createlab.util.MathUtils;
 
 /**
+ * <p>
+ * <code>MotorVelocityCommandStrategyHelper</code> encodes the command for setting the motor velocities.  Each
+ * controller owns a single helper, which every motor command strategy encodes its velocities into with
+ * {@link #getCommand(int, int)}, so that encoding a command doesn't allocate.
+ * </p>
+ *
  * @author Chris Bartley (bartley@cmu.edu)
  */
 public final class MotorVelocityCommandStrategyHelper extends BaseCommandStrategyHelper
@@ -11,27 +17,30 @@ public final class MotorVelocityCommandStrategyHelper extends BaseCommandStrateg
    /** The command character used to set the motor velocities. */
    private static final byte COMMAND_PREFIX = 'M';
 
-   private final byte[] command;
+   private final int minVelocity;
+   private final int maxVelocity;
 
-   public MotorVelocityCommandStrategyHelper(final int leftVelocity, final int rightVelocity, final FinchProperties finchProperties)
+   /** Only touched by the thread executing the commands, which the controller's command queue runs one at a time. */
+   private final byte[] command = new byte[]{COMMAND_PREFIX, 0, 0, 0, 0};
+
+   public MotorVelocityCommandStrategyHelper(final FinchProperties finchProperties)
       {
-      final int minVelocity = finchProperties.getMotorDeviceMinVelocity();
-      final int maxVelocity = finchProperties.getMotorDeviceMaxVelocity();
-      final int cleanedLeftVelocity = MathUtils.ensureRange(leftVelocity, minVelocity, maxVelocity);
-      final int cleanedRightVelocity = MathUtils.ensureRange(rightVelocity, minVelocity, maxVelocity);
-      final byte leftDirection = (byte)((cleanedLeftVelocity < 0) ? 1 : 0);
-      final byte leftSpeed = (byte)Math.abs(cleanedLeftVelocity);
-      final byte rightDirection = (byte)((cleanedRightVelocity < 0) ? 1 : 0);
-      final byte rightSpeed = (byte)Math.abs(cleanedRightVelocity);
-      this.command = new byte[]{COMMAND_PREFIX,
-                                leftDirection,
-                                leftSpeed,
-                                rightDirection,
-                                rightSpeed};
+      this.minVelocity = finchProperties.getMotorDeviceMinVelocity();
+      this.maxVelocity = finchProperties.getMotorDeviceMaxVelocity();
       }
 
-   public byte[] getCommand()
+   /**
+    * Encodes the given velocities and returns the command.  The returned array is reused by subsequent calls, so it
+    * must not be modified or retained, and this method must only be called by the thread executing the command.
+    */
+   public byte[] getCommand(final int leftVelocity, final int rightVelocity)
       {
-      return command.clone();
+      final int cleanedLeftVelocity = MathUtils.ensureRange(leftVelocity, minVelocity, maxVelocity);
+      final int cleanedRightVelocity = MathUtils.ensureRange(rightVelocity, minVelocity, maxVelocity);
+      command[1] = (byte)((cleanedLeftVelocity < 0) ? 1 : 0);
+      command[2] = (byte)Math.abs(cleanedLeftVelocity);
+      command[3] = (byte)((cleanedRightVelocity < 0) ? 1 : 0);
+      command[4] = (byte)Math.abs(cleanedRightVelocity);
+      return command;
       }
    }
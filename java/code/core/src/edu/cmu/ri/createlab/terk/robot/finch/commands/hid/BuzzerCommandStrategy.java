@@ -1,6 +1,5 @@
 package edu.cmu.ri.createlab.terk.robot.finch.commands.hid;
 
-import edu.cmu.ri.createlab.terk.robot.finch.FinchProperties;
 import edu.cmu.ri.createlab.terk.robot.finch.commands.BuzzerCommandStrategyHelper;
 import edu.cmu.ri.createlab.usb.hid.CreateLabHIDCommandStrategy;
 
@@ -12,11 +11,16 @@ public final class BuzzerCommandStrategy extends CreateLabHIDCommandStrategy
    /** The size of the expected response, in bytes */
    private static final int SIZE_IN_BYTES_OF_EXPECTED_RESPONSE = 0;
 
+   private final int frequency;
+   private final int durationInMilliseconds;
    private final BuzzerCommandStrategyHelper helper;
 
-   public BuzzerCommandStrategy(final int frequency, final int durationInMilliseconds, final FinchProperties finchProperties)
+   /** Creates a strategy which encodes its setpoint with the given helper, which is shared by the controller's commands. */
+   public BuzzerCommandStrategy(final int frequency, final int durationInMilliseconds, final BuzzerCommandStrategyHelper helper)
       {
-      helper = new BuzzerCommandStrategyHelper(frequency, durationInMilliseconds, finchProperties);
+      this.frequency = frequency;
+      this.durationInMilliseconds = durationInMilliseconds;
+      this.helper = helper;
       }
 
    @Override
@@ -28,6 +32,6 @@ public final class BuzzerCommandStrategy extends CreateLabHIDCommandStrategy
    @Override
    protected byte[] getCommand()
       {
-      return helper.getCommand();
+      return helper.getCommand(frequency, durationInMilliseconds);
       }
    }
\ No newline at end of file
@@ -1,12 +1,13 @@
 package edu.cmu.ri.createlab.terk.robot.finch.commands.hid;
 
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.PriorityCommandStrategy;
 import edu.cmu.ri.createlab.terk.robot.finch.commands.EmergencyStopCommandStrategyHelper;
 import edu.cmu.ri.createlab.usb.hid.CreateLabHIDCommandStrategy;
 
 /**
  * @author Chris Bartley (bartley@cmu.edu)
  */
-public final class EmergencyStopCommandStrategy extends CreateLabHIDCommandStrategy
+public final class EmergencyStopCommandStrategy extends CreateLabHIDCommandStrategy implements PriorityCommandStrategy
    {
    /** The size of the expected response, in bytes */
    private static final int SIZE_IN_BYTES_OF_EXPECTED_RESPONSE = 0;
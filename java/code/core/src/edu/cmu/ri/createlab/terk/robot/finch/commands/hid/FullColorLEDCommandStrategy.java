@@ -1,22 +1,29 @@
 package edu.cmu.ri.createlab.terk.robot.finch.commands.hid;
 
-import edu.cmu.ri.createlab.terk.robot.finch.FinchProperties;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.CoalescibleCommandStrategy;
 import edu.cmu.ri.createlab.terk.robot.finch.commands.FullColorLEDCommandStrategyHelper;
 import edu.cmu.ri.createlab.usb.hid.CreateLabHIDCommandStrategy;
 
 /**
  * @author Chris Bartley (bartley@cmu.edu)
  */
-public final class FullColorLEDCommandStrategy extends CreateLabHIDCommandStrategy
+public final class FullColorLEDCommandStrategy extends CreateLabHIDCommandStrategy implements CoalescibleCommandStrategy
    {
    /** The size of the expected response, in bytes */
    private static final int SIZE_IN_BYTES_OF_EXPECTED_RESPONSE = 0;
 
+   private final int red;
+   private final int green;
+   private final int blue;
    private final FullColorLEDCommandStrategyHelper helper;
 
-   public FullColorLEDCommandStrategy(final int red, final int green, final int blue, final FinchProperties finchProperties)
+   /** Creates a strategy which encodes its setpoint with the given helper, which is shared by the controller's commands. */
+   public FullColorLEDCommandStrategy(final int red, final int green, final int blue, final FullColorLEDCommandStrategyHelper helper)
       {
-      helper = new FullColorLEDCommandStrategyHelper(red, green, blue, finchProperties);
+      this.red = red;
+      this.green = green;
+      this.blue = blue;
+      this.helper = helper;
       }
 
    @Override
@@ -28,6 +35,6 @@ public final class FullColorLEDCommandStrategy extends CreateLabHIDCommandStrate
    @Override
    protected byte[] getCommand()
       {
-      return helper.getCommand();
+      return helper.getCommand(red, green, blue);
       }
    }
\ No newline at end of file
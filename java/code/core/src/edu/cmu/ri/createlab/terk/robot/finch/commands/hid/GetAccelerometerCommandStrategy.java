@@ -1,5 +1,6 @@
 package edu.cmu.ri.createlab.terk.robot.finch.commands.hid;
 
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.SharableCommandStrategy;
 import edu.cmu.ri.createlab.terk.robot.finch.commands.GetAccelerometerCommandStrategyHelper;
 import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerState;
 import edu.cmu.ri.createlab.usb.hid.CreateLabHIDReturnValueCommandStrategy;
@@ -8,7 +9,7 @@ import edu.cmu.ri.createlab.usb.hid.HIDCommandResponse;
 /**
  * @author Chris Bartley (bartley@cmu.edu)
  */
-public final class GetAccelerometerCommandStrategy extends CreateLabHIDReturnValueCommandStrategy<AccelerometerState>
+public final class GetAccelerometerCommandStrategy extends CreateLabHIDReturnValueCommandStrategy<AccelerometerState> implements SharableCommandStrategy
    {
    /**
     * The size of the expected response, in bytes.  This is 5 bytes because the first byte is bogus data, the next three
@@ -1,5 +1,6 @@
 package edu.cmu.ri.createlab.terk.robot.finch.commands.hid;
 
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.SharableCommandStrategy;
 import edu.cmu.ri.createlab.terk.robot.finch.commands.GetObstacleSensorCommandStrategyHelper;
 import edu.cmu.ri.createlab.usb.hid.CreateLabHIDReturnValueCommandStrategy;
 import edu.cmu.ri.createlab.usb.hid.HIDCommandResponse;
@@ -7,7 +8,7 @@ import edu.cmu.ri.createlab.usb.hid.HIDCommandResponse;
 /**
  * @author Chris Bartley (bartley@cmu.edu)
  */
-public final class GetObstacleSensorCommandStrategy extends CreateLabHIDReturnValueCommandStrategy<boolean[]>
+public final class GetObstacleSensorCommandStrategy extends CreateLabHIDReturnValueCommandStrategy<boolean[]> implements SharableCommandStrategy
    {
    private final GetObstacleSensorCommandStrategyHelper helper = new GetObstacleSensorCommandStrategyHelper();
 
@@ -0,0 +1,74 @@
+package edu.cmu.ri.createlab.terk.robot.finch.commands.hid;
+
+import edu.cmu.ri.createlab.terk.robot.finch.FinchSensorSnapshot;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.SharableCommandStrategy;
+import edu.cmu.ri.createlab.terk.robot.finch.commands.GetSensorSnapshotCommandStrategyHelper;
+import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerUnitConversionStrategy;
+import edu.cmu.ri.createlab.terk.services.thermistor.ThermistorUnitConversionStrategy;
+import edu.cmu.ri.createlab.usb.hid.HIDCommandResponse;
+import edu.cmu.ri.createlab.usb.hid.HIDDevice;
+import edu.cmu.ri.createlab.usb.hid.HIDDeviceFailureException;
+import edu.cmu.ri.createlab.usb.hid.HIDDeviceNotConnectedException;
+import edu.cmu.ri.createlab.usb.hid.HIDDeviceReturnValueCommandStrategy;
+
+/**
+ * <p>
+ * <code>GetSensorSnapshotCommandStrategy</code> reads the accelerometer, obstacle sensors, photoresistors, and
+ * thermistor one after another within a single execution, so that the whole set costs only one trip through the
+ * command queue.  If any of the reads fail, the remaining reads are skipped and an unsuccessful response is returned.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class GetSensorSnapshotCommandStrategy implements HIDDeviceReturnValueCommandStrategy<FinchSensorSnapshot>, SharableCommandStrategy
+   {
+   /** The HID accelerometer response starts with a bogus byte (see {@link GetAccelerometerCommandStrategy}) */
+   private static final int ACCELEROMETER_DATA_OFFSET = 1;
+
+   private final GetAccelerometerCommandStrategy getAccelerometerCommandStrategy = new GetAccelerometerCommandStrategy();
+   private final GetObstacleSensorCommandStrategy getObstacleSensorCommandStrategy = new GetObstacleSensorCommandStrategy();
+   private final GetPhotoresistorCommandStrategy getPhotoresistorCommandStrategy = new GetPhotoresistorCommandStrategy();
+   private final GetThermistorCommandStrategy getThermistorCommandStrategy = new GetThermistorCommandStrategy();
+   private final GetSensorSnapshotCommandStrategyHelper helper;
+
+   public GetSensorSnapshotCommandStrategy(final AccelerometerUnitConversionStrategy accelerometerUnitConversionStrategy,
+                                           final ThermistorUnitConversionStrategy thermistorUnitConversionStrategy)
+      {
+      helper = new GetSensorSnapshotCommandStrategyHelper(accelerometerUnitConversionStrategy, thermistorUnitConversionStrategy);
+      }
+
+   @Override
+   public HIDCommandResponse execute(final HIDDevice hidDevice) throws HIDDeviceNotConnectedException, HIDDeviceFailureException
+      {
+      final long timestamp = System.currentTimeMillis();
+
+      final HIDCommandResponse accelerometerResponse = getAccelerometerCommandStrategy.execute(hidDevice);
+      if (accelerometerResponse.wasSuccessful())
+         {
+         final HIDCommandResponse obstacleSensorResponse = getObstacleSensorCommandStrategy.execute(hidDevice);
+         if (obstacleSensorResponse.wasSuccessful())
+            {
+            final HIDCommandResponse photoresistorResponse = getPhotoresistorCommandStrategy.execute(hidDevice);
+            if (photoresistorResponse.wasSuccessful())
+               {
+               final HIDCommandResponse thermistorResponse = getThermistorCommandStrategy.execute(hidDevice);
+               final byte[] data = helper.packResponses(accelerometerResponse,
+                                                        ACCELEROMETER_DATA_OFFSET,
+                                                        obstacleSensorResponse,
+                                                        photoresistorResponse,
+                                                        thermistorResponse,
+                                                        timestamp);
+               return new HIDCommandResponse(true, data != null, data);
+               }
+            }
+         }
+
+      return new HIDCommandResponse(true, false, null);
+      }
+
+   @Override
+   public FinchSensorSnapshot convertResponse(final HIDCommandResponse response)
+      {
+      return helper.convertResponse(response);
+      }
+   }
@@ -1,5 +1,6 @@
 package edu.cmu.ri.createlab.terk.robot.finch.commands.hid;
 
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.SharableCommandStrategy;
 import edu.cmu.ri.createlab.terk.robot.finch.commands.GetThermistorCommandStrategyHelper;
 import edu.cmu.ri.createlab.usb.hid.CreateLabHIDReturnValueCommandStrategy;
 import edu.cmu.ri.createlab.usb.hid.HIDCommandResponse;
@@ -7,7 +8,7 @@ import edu.cmu.ri.createlab.usb.hid.HIDCommandResponse;
 /**
  * @author Chris Bartley (bartley@cmu.edu)
  */
-public final class GetThermistorCommandStrategy extends CreateLabHIDReturnValueCommandStrategy<Integer>
+public final class GetThermistorCommandStrategy extends CreateLabHIDReturnValueCommandStrategy<Integer> implements SharableCommandStrategy
    {
    private final GetThermistorCommandStrategyHelper helper = new GetThermistorCommandStrategyHelper();
 
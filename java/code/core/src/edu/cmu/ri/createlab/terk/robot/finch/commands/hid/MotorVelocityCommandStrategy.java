@@ -1,22 +1,27 @@
 package edu.cmu.ri.createlab.terk.robot.finch.commands.hid;
 
-import edu.cmu.ri.createlab.terk.robot.finch.FinchProperties;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.CoalescibleCommandStrategy;
 import edu.cmu.ri.createlab.terk.robot.finch.commands.MotorVelocityCommandStrategyHelper;
 import edu.cmu.ri.createlab.usb.hid.CreateLabHIDCommandStrategy;
 
 /**
  * @author Chris Bartley (bartley@cmu.edu)
  */
-public final class MotorVelocityCommandStrategy extends CreateLabHIDCommandStrategy
+public final class MotorVelocityCommandStrategy extends CreateLabHIDCommandStrategy implements CoalescibleCommandStrategy
    {
    /** The size of the expected response, in bytes */
    private static final int SIZE_IN_BYTES_OF_EXPECTED_RESPONSE = 0;
 
+   private final int leftVelocity;
+   private final int rightVelocity;
    private final MotorVelocityCommandStrategyHelper helper;
 
-   public MotorVelocityCommandStrategy(final int leftVelocity, final int rightVelocity, final FinchProperties finchProperties)
+   /** Creates a strategy which encodes its setpoint with the given helper, which is shared by the controller's commands. */
+   public MotorVelocityCommandStrategy(final int leftVelocity, final int rightVelocity, final MotorVelocityCommandStrategyHelper helper)
       {
-      helper = new MotorVelocityCommandStrategyHelper(leftVelocity, rightVelocity, finchProperties);
+      this.leftVelocity = leftVelocity;
+      this.rightVelocity = rightVelocity;
+      this.helper = helper;
       }
 
    @Override
@@ -28,6 +33,6 @@ public final class MotorVelocityCommandStrategy extends CreateLabHIDCommandStrat
    @Override
    protected byte[] getCommand()
       {
-      return helper.getCommand();
+      return helper.getCommand(leftVelocity, rightVelocity);
       }
    }
\ No newline at end of file
@@ -1,7 +1,6 @@
 package edu.cmu.ri.createlab.terk.robot.finch.commands.serial;
 
 import edu.cmu.ri.createlab.serial.CreateLabSerialDeviceNoReturnValueCommandStrategy;
-import edu.cmu.ri.createlab.terk.robot.finch.FinchProperties;
 import edu.cmu.ri.createlab.terk.robot.finch.commands.BuzzerCommandStrategyHelper;
 
 /**
@@ -9,16 +8,21 @@ import edu.cmu.ri.createlab.terk.robot.finch.commands.BuzzerCommandStrategyHelpe
  */
 public final class BuzzerCommandStrategy extends CreateLabSerialDeviceNoReturnValueCommandStrategy
    {
+   private final int frequency;
+   private final int durationInMilliseconds;
    private final BuzzerCommandStrategyHelper helper;
 
-   public BuzzerCommandStrategy(final int frequency, final int durationInMilliseconds, final FinchProperties finchProperties)
+   /** Creates a strategy which encodes its setpoint with the given helper, which is shared by the controller's commands. */
+   public BuzzerCommandStrategy(final int frequency, final int durationInMilliseconds, final BuzzerCommandStrategyHelper helper)
       {
-      helper = new BuzzerCommandStrategyHelper(frequency, durationInMilliseconds, finchProperties);
+      this.frequency = frequency;
+      this.durationInMilliseconds = durationInMilliseconds;
+      this.helper = helper;
       }
 
    @Override
    protected byte[] getCommand()
       {
-      return helper.getCommand();
+      return helper.getCommand(frequency, durationInMilliseconds);
       }
    }
\ No newline at end of file
@@ -1,12 +1,13 @@
 package edu.cmu.ri.createlab.terk.robot.finch.commands.serial;
 
 import edu.cmu.ri.createlab.serial.CreateLabSerialDeviceNoReturnValueCommandStrategy;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.PriorityCommandStrategy;
 import edu.cmu.ri.createlab.terk.robot.finch.commands.DisconnectCommandStrategyHelper;
 
 /**
  * @author Chris Bartley (bartley@cmu.edu)
  */
-public final class DisconnectCommandStrategy extends CreateLabSerialDeviceNoReturnValueCommandStrategy
+public final class DisconnectCommandStrategy extends CreateLabSerialDeviceNoReturnValueCommandStrategy implements PriorityCommandStrategy
    {
    private final DisconnectCommandStrategyHelper helper = new DisconnectCommandStrategyHelper();
 
@@ -1,12 +1,13 @@
 package edu.cmu.ri.createlab.terk.robot.finch.commands.serial;
 
 import edu.cmu.ri.createlab.serial.CreateLabSerialDeviceNoReturnValueCommandStrategy;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.PriorityCommandStrategy;
 import edu.cmu.ri.createlab.terk.robot.finch.commands.EmergencyStopCommandStrategyHelper;
 
 /**
  * @author Chris Bartley (bartley@cmu.edu)
  */
-public final class EmergencyStopCommandStrategy extends CreateLabSerialDeviceNoReturnValueCommandStrategy
+public final class EmergencyStopCommandStrategy extends CreateLabSerialDeviceNoReturnValueCommandStrategy implements PriorityCommandStrategy
    {
    private final EmergencyStopCommandStrategyHelper helper = new EmergencyStopCommandStrategyHelper();
 
@@ -1,24 +1,31 @@
 package edu.cmu.ri.createlab.terk.robot.finch.commands.serial;
 
 import edu.cmu.ri.createlab.serial.CreateLabSerialDeviceNoReturnValueCommandStrategy;
-import edu.cmu.ri.createlab.terk.robot.finch.FinchProperties;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.CoalescibleCommandStrategy;
 import edu.cmu.ri.createlab.terk.robot.finch.commands.FullColorLEDCommandStrategyHelper;
 
 /**
  * @author Chris Bartley (bartley@cmu.edu)
  */
-public final class FullColorLEDCommandStrategy extends CreateLabSerialDeviceNoReturnValueCommandStrategy
+public final class FullColorLEDCommandStrategy extends CreateLabSerialDeviceNoReturnValueCommandStrategy implements CoalescibleCommandStrategy
    {
+   private final int red;
+   private final int green;
+   private final int blue;
    private final FullColorLEDCommandStrategyHelper helper;
 
-   public FullColorLEDCommandStrategy(final int red, final int green, final int blue, final FinchProperties finchProperties)
+   /** Creates a strategy which encodes its setpoint with the given helper, which is shared by the controller's commands. */
+   public FullColorLEDCommandStrategy(final int red, final int green, final int blue, final FullColorLEDCommandStrategyHelper helper)
       {
-      helper = new FullColorLEDCommandStrategyHelper(red, green, blue, finchProperties);
+      this.red = red;
+      this.green = green;
+      this.blue = blue;
+      this.helper = helper;
       }
 
    @Override
    protected byte[] getCommand()
       {
-      return helper.getCommand();
+      return helper.getCommand(red, green, blue);
       }
    }
\ No newline at end of file
@@ -2,13 +2,14 @@ package edu.cmu.ri.createlab.terk.robot.finch.commands.serial;
 
 import edu.cmu.ri.createlab.serial.CreateLabSerialDeviceReturnValueCommandStrategy;
 import edu.cmu.ri.createlab.serial.SerialDeviceCommandResponse;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.SharableCommandStrategy;
 import edu.cmu.ri.createlab.terk.robot.finch.commands.GetAccelerometerCommandStrategyHelper;
 import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerState;
 
 /**
  * @author Chris Bartley (bartley@cmu.edu)
  */
-public final class GetAccelerometerCommandStrategy extends CreateLabSerialDeviceReturnValueCommandStrategy<AccelerometerState>
+public final class GetAccelerometerCommandStrategy extends CreateLabSerialDeviceReturnValueCommandStrategy<AccelerometerState> implements SharableCommandStrategy
    {
    /**
     * The size of the expected response, in bytes.  This is 4 bytes because the first three are the X, Y, and Z values,
@@ -3,12 +3,13 @@ package edu.cmu.ri.createlab.terk.robot.finch.commands.serial;
 import edu.cmu.ri.createlab.serial.CreateLabSerialDeviceReturnValueCommandStrategy;
 import edu.cmu.ri.createlab.serial.SerialDeviceCommandResponse;
 import edu.cmu.ri.createlab.terk.robot.finch.FinchProperties;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.SharableCommandStrategy;
 import edu.cmu.ri.createlab.terk.robot.finch.commands.AnalogInputCommandStrategyHelper;
 
 /**
  * @author Chris Bartley (bartley@cmu.edu)
  */
-public final class GetAnalogInputCommandStrategy extends CreateLabSerialDeviceReturnValueCommandStrategy<Integer>
+public final class GetAnalogInputCommandStrategy extends CreateLabSerialDeviceReturnValueCommandStrategy<Integer> implements SharableCommandStrategy
    {
    private final AnalogInputCommandStrategyHelper helper;
 
@@ -2,12 +2,13 @@ package edu.cmu.ri.createlab.terk.robot.finch.commands.serial;
 
 import edu.cmu.ri.createlab.serial.CreateLabSerialDeviceReturnValueCommandStrategy;
 import edu.cmu.ri.createlab.serial.SerialDeviceCommandResponse;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.SharableCommandStrategy;
 import edu.cmu.ri.createlab.terk.robot.finch.commands.GetObstacleSensorCommandStrategyHelper;
 
 /**
  * @author Chris Bartley (bartley@cmu.edu)
  */
-public final class GetObstacleSensorCommandStrategy extends CreateLabSerialDeviceReturnValueCommandStrategy<boolean[]>
+public final class GetObstacleSensorCommandStrategy extends CreateLabSerialDeviceReturnValueCommandStrategy<boolean[]> implements SharableCommandStrategy
    {
    private final GetObstacleSensorCommandStrategyHelper helper = new GetObstacleSensorCommandStrategyHelper();
 
@@ -2,12 +2,13 @@ package edu.cmu.ri.createlab.terk.robot.finch.commands.serial;
 
 import edu.cmu.ri.createlab.serial.CreateLabSerialDeviceReturnValueCommandStrategy;
 import edu.cmu.ri.createlab.serial.SerialDeviceCommandResponse;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.SharableCommandStrategy;
 import edu.cmu.ri.createlab.terk.robot.finch.commands.GetPhotoresistorCommandStrategyHelper;
 
 /**
  * @author Chris Bartley (bartley@cmu.edu)
  */
-public final class GetPhotoresistorCommandStrategy extends CreateLabSerialDeviceReturnValueCommandStrategy<int[]>
+public final class GetPhotoresistorCommandStrategy extends CreateLabSerialDeviceReturnValueCommandStrategy<int[]> implements SharableCommandStrategy
    {
    private final GetPhotoresistorCommandStrategyHelper helper = new GetPhotoresistorCommandStrategyHelper();
 
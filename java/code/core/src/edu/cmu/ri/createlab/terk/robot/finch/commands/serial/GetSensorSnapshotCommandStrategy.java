@@ -0,0 +1,68 @@
+package edu.cmu.ri.createlab.terk.robot.finch.commands.serial;
+
+import edu.cmu.ri.createlab.serial.SerialDeviceCommandResponse;
+import edu.cmu.ri.createlab.serial.SerialDeviceIOHelper;
+import edu.cmu.ri.createlab.serial.SerialDeviceReturnValueCommandStrategy;
+import edu.cmu.ri.createlab.terk.robot.finch.FinchSensorSnapshot;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.SharableCommandStrategy;
+import edu.cmu.ri.createlab.terk.robot.finch.commands.GetSensorSnapshotCommandStrategyHelper;
+import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerUnitConversionStrategy;
+import edu.cmu.ri.createlab.terk.services.thermistor.ThermistorUnitConversionStrategy;
+
+/**
+ * <p>
+ * <code>GetSensorSnapshotCommandStrategy</code> reads the accelerometer, obstacle sensors, photoresistors, and
+ * thermistor one after another within a single execution, so that the whole set costs only one trip through the
+ * command queue.  If any of the reads fail, the remaining reads are skipped and an unsuccessful response is returned.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class GetSensorSnapshotCommandStrategy implements SerialDeviceReturnValueCommandStrategy<FinchSensorSnapshot>, SharableCommandStrategy
+   {
+   private final GetAccelerometerCommandStrategy getAccelerometerCommandStrategy = new GetAccelerometerCommandStrategy();
+   private final GetObstacleSensorCommandStrategy getObstacleSensorCommandStrategy = new GetObstacleSensorCommandStrategy();
+   private final GetPhotoresistorCommandStrategy getPhotoresistorCommandStrategy = new GetPhotoresistorCommandStrategy();
+   private final GetThermistorCommandStrategy getThermistorCommandStrategy = new GetThermistorCommandStrategy();
+   private final GetSensorSnapshotCommandStrategyHelper helper;
+
+   public GetSensorSnapshotCommandStrategy(final AccelerometerUnitConversionStrategy accelerometerUnitConversionStrategy,
+                                           final ThermistorUnitConversionStrategy thermistorUnitConversionStrategy)
+      {
+      helper = new GetSensorSnapshotCommandStrategyHelper(accelerometerUnitConversionStrategy, thermistorUnitConversionStrategy);
+      }
+
+   @Override
+   public SerialDeviceCommandResponse execute(final SerialDeviceIOHelper ioHelper)
+      {
+      final long timestamp = System.currentTimeMillis();
+
+      final SerialDeviceCommandResponse accelerometerResponse = getAccelerometerCommandStrategy.execute(ioHelper);
+      if (accelerometerResponse.wasSuccessful())
+         {
+         final SerialDeviceCommandResponse obstacleSensorResponse = getObstacleSensorCommandStrategy.execute(ioHelper);
+         if (obstacleSensorResponse.wasSuccessful())
+            {
+            final SerialDeviceCommandResponse photoresistorResponse = getPhotoresistorCommandStrategy.execute(ioHelper);
+            if (photoresistorResponse.wasSuccessful())
+               {
+               final SerialDeviceCommandResponse thermistorResponse = getThermistorCommandStrategy.execute(ioHelper);
+               return new SerialDeviceCommandResponse(helper.packResponses(accelerometerResponse,
+                                                                           0,
+                                                                           obstacleSensorResponse,
+                                                                           photoresistorResponse,
+                                                                           thermistorResponse,
+                                                                           timestamp));
+               }
+            }
+         }
+
+      return new SerialDeviceCommandResponse(false);
+      }
+
+   @Override
+   public FinchSensorSnapshot convertResponse(final SerialDeviceCommandResponse response)
+      {
+      return helper.convertResponse(response);
+      }
+   }
@@ -2,12 +2,13 @@ package edu.cmu.ri.createlab.terk.robot.finch.commands.serial;
 
 import edu.cmu.ri.createlab.serial.CreateLabSerialDeviceReturnValueCommandStrategy;
 import edu.cmu.ri.createlab.serial.SerialDeviceCommandResponse;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.SharableCommandStrategy;
 import edu.cmu.ri.createlab.terk.robot.finch.commands.GetThermistorCommandStrategyHelper;
 
 /**
  * @author Chris Bartley (bartley@cmu.edu)
  */
-public final class GetThermistorCommandStrategy extends CreateLabSerialDeviceReturnValueCommandStrategy<Integer>
+public final class GetThermistorCommandStrategy extends CreateLabSerialDeviceReturnValueCommandStrategy<Integer> implements SharableCommandStrategy
    {
    private final GetThermistorCommandStrategyHelper helper = new GetThermistorCommandStrategyHelper();
 
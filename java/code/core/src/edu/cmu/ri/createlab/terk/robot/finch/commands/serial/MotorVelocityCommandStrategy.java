@@ -1,24 +1,29 @@
 package edu.cmu.ri.createlab.terk.robot.finch.commands.serial;
 
 import edu.cmu.ri.createlab.serial.CreateLabSerialDeviceNoReturnValueCommandStrategy;
-import edu.cmu.ri.createlab.terk.robot.finch.FinchProperties;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.CoalescibleCommandStrategy;
 import edu.cmu.ri.createlab.terk.robot.finch.commands.MotorVelocityCommandStrategyHelper;
 
 /**
  * @author Chris Bartley (bartley@cmu.edu)
  */
-public final class MotorVelocityCommandStrategy extends CreateLabSerialDeviceNoReturnValueCommandStrategy
+public final class MotorVelocityCommandStrategy extends CreateLabSerialDeviceNoReturnValueCommandStrategy implements CoalescibleCommandStrategy
    {
+   private final int leftVelocity;
+   private final int rightVelocity;
    private final MotorVelocityCommandStrategyHelper helper;
 
-   public MotorVelocityCommandStrategy(final int leftVelocity, final int rightVelocity, final FinchProperties finchProperties)
+   /** Creates a strategy which encodes its setpoint with the given helper, which is shared by the controller's commands. */
+   public MotorVelocityCommandStrategy(final int leftVelocity, final int rightVelocity, final MotorVelocityCommandStrategyHelper helper)
       {
-      helper = new MotorVelocityCommandStrategyHelper(leftVelocity, rightVelocity, finchProperties);
+      this.leftVelocity = leftVelocity;
+      this.rightVelocity = rightVelocity;
+      this.helper = helper;
       }
 
    @Override
    protected byte[] getCommand()
       {
-      return helper.getCommand();
+      return helper.getCommand(leftVelocity, rightVelocity);
       }
    }
\ No newline at end of file
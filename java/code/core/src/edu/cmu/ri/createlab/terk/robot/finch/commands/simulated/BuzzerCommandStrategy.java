@@ -0,0 +1,28 @@
+package edu.cmu.ri.createlab.terk.robot.finch.commands.simulated;
+
+import edu.cmu.ri.createlab.terk.robot.finch.FinchProperties;
+import edu.cmu.ri.createlab.terk.robot.finch.simulator.FinchSimulator;
+import edu.cmu.ri.createlab.terk.robot.finch.simulator.SimulatedCommandResponse;
+import edu.cmu.ri.createlab.util.MathUtils;
+import edu.cmu.ri.createlab.util.commandexecution.CommandStrategy;
+
+/**
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class BuzzerCommandStrategy implements CommandStrategy<FinchSimulator, SimulatedCommandResponse>
+   {
+   private final int frequency;
+   private final int durationInMilliseconds;
+
+   public BuzzerCommandStrategy(final int frequency, final int durationInMilliseconds, final FinchProperties finchProperties)
+      {
+      this.frequency = MathUtils.ensureRange(frequency, finchProperties.getBuzzerDeviceMinFrequency(), finchProperties.getBuzzerDeviceMaxFrequency());
+      this.durationInMilliseconds = MathUtils.ensureRange(durationInMilliseconds, finchProperties.getBuzzerDeviceMinDuration(), finchProperties.getBuzzerDeviceMaxDuration());
+      }
+
+   public SimulatedCommandResponse execute(final FinchSimulator simulator)
+      {
+      simulator.playBuzzerTone(frequency, durationInMilliseconds);
+      return SimulatedCommandResponse.SUCCESS;
+      }
+   }
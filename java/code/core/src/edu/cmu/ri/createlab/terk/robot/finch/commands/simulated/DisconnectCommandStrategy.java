@@ -0,0 +1,19 @@
+package edu.cmu.ri.createlab.terk.robot.finch.commands.simulated;
+
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.PriorityCommandStrategy;
+import edu.cmu.ri.createlab.terk.robot.finch.simulator.FinchSimulator;
+import edu.cmu.ri.createlab.terk.robot.finch.simulator.SimulatedCommandResponse;
+import edu.cmu.ri.createlab.util.commandexecution.CommandStrategy;
+
+/**
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class DisconnectCommandStrategy implements CommandStrategy<FinchSimulator, SimulatedCommandResponse>, PriorityCommandStrategy
+   {
+   public SimulatedCommandResponse execute(final FinchSimulator simulator)
+      {
+      // putting the finch back into startup mode turns off the motors and the LED
+      simulator.emergencyStop();
+      return SimulatedCommandResponse.SUCCESS;
+      }
+   }
@@ -0,0 +1,33 @@
+package edu.cmu.ri.createlab.terk.robot.finch.commands.simulated;
+
+import edu.cmu.ri.createlab.terk.robot.finch.FinchProperties;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.CoalescibleCommandStrategy;
+import edu.cmu.ri.createlab.terk.robot.finch.simulator.FinchSimulator;
+import edu.cmu.ri.createlab.terk.robot.finch.simulator.SimulatedCommandResponse;
+import edu.cmu.ri.createlab.util.MathUtils;
+import edu.cmu.ri.createlab.util.commandexecution.CommandStrategy;
+
+/**
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class FullColorLEDCommandStrategy implements CommandStrategy<FinchSimulator, SimulatedCommandResponse>, CoalescibleCommandStrategy
+   {
+   private final int red;
+   private final int green;
+   private final int blue;
+
+   public FullColorLEDCommandStrategy(final int red, final int green, final int blue, final FinchProperties finchProperties)
+      {
+      final int minIntensity = finchProperties.getFullColorLedDeviceMinIntensity();
+      final int maxIntensity = finchProperties.getFullColorLedDeviceMaxIntensity();
+      this.red = MathUtils.ensureRange(red, minIntensity, maxIntensity) & 0xFF;
+      this.green = MathUtils.ensureRange(green, minIntensity, maxIntensity) & 0xFF;
+      this.blue = MathUtils.ensureRange(blue, minIntensity, maxIntensity) & 0xFF;
+      }
+
+   public SimulatedCommandResponse execute(final FinchSimulator simulator)
+      {
+      simulator.setFullColorLED(red, green, blue);
+      return SimulatedCommandResponse.SUCCESS;
+      }
+   }
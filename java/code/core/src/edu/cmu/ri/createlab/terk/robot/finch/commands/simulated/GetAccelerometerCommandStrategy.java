@@ -0,0 +1,28 @@
+package edu.cmu.ri.createlab.terk.robot.finch.commands.simulated;
+
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.SharableCommandStrategy;
+import edu.cmu.ri.createlab.terk.robot.finch.simulator.FinchSimulator;
+import edu.cmu.ri.createlab.terk.robot.finch.simulator.SimulatedCommandResponse;
+import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerState;
+import edu.cmu.ri.createlab.util.commandexecution.ReturnValueCommandStrategy;
+
+/**
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class GetAccelerometerCommandStrategy implements ReturnValueCommandStrategy<FinchSimulator, SimulatedCommandResponse, AccelerometerState>, SharableCommandStrategy
+   {
+   public SimulatedCommandResponse execute(final FinchSimulator simulator)
+      {
+      return new SimulatedCommandResponse(simulator.getAccelerometerState());
+      }
+
+   public AccelerometerState convertResponse(final SimulatedCommandResponse response)
+      {
+      if (response != null && response.wasSuccessful())
+         {
+         return (AccelerometerState)response.getValue();
+         }
+
+      return null;
+      }
+   }
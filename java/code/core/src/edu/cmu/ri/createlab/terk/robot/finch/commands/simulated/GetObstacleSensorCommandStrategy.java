@@ -0,0 +1,27 @@
+package edu.cmu.ri.createlab.terk.robot.finch.commands.simulated;
+
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.SharableCommandStrategy;
+import edu.cmu.ri.createlab.terk.robot.finch.simulator.FinchSimulator;
+import edu.cmu.ri.createlab.terk.robot.finch.simulator.SimulatedCommandResponse;
+import edu.cmu.ri.createlab.util.commandexecution.ReturnValueCommandStrategy;
+
+/**
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class GetObstacleSensorCommandStrategy implements ReturnValueCommandStrategy<FinchSimulator, SimulatedCommandResponse, boolean[]>, SharableCommandStrategy
+   {
+   public SimulatedCommandResponse execute(final FinchSimulator simulator)
+      {
+      return new SimulatedCommandResponse(simulator.areObstaclesDetected());
+      }
+
+   public boolean[] convertResponse(final SimulatedCommandResponse response)
+      {
+      if (response != null && response.wasSuccessful())
+         {
+         return (boolean[])response.getValue();
+         }
+
+      return null;
+      }
+   }
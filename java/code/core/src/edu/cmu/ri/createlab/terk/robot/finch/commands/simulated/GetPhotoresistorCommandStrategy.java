@@ -0,0 +1,27 @@
+package edu.cmu.ri.createlab.terk.robot.finch.commands.simulated;
+
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.SharableCommandStrategy;
+import edu.cmu.ri.createlab.terk.robot.finch.simulator.FinchSimulator;
+import edu.cmu.ri.createlab.terk.robot.finch.simulator.SimulatedCommandResponse;
+import edu.cmu.ri.createlab.util.commandexecution.ReturnValueCommandStrategy;
+
+/**
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class GetPhotoresistorCommandStrategy implements ReturnValueCommandStrategy<FinchSimulator, SimulatedCommandResponse, int[]>, SharableCommandStrategy
+   {
+   public SimulatedCommandResponse execute(final FinchSimulator simulator)
+      {
+      return new SimulatedCommandResponse(simulator.getPhotoresistors());
+      }
+
+   public int[] convertResponse(final SimulatedCommandResponse response)
+      {
+      if (response != null && response.wasSuccessful())
+         {
+         return (int[])response.getValue();
+         }
+
+      return null;
+      }
+   }
@@ -0,0 +1,54 @@
+package edu.cmu.ri.createlab.terk.robot.finch.commands.simulated;
+
+import edu.cmu.ri.createlab.terk.robot.finch.FinchSensorSnapshot;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.SharableCommandStrategy;
+import edu.cmu.ri.createlab.terk.robot.finch.simulator.FinchSimulator;
+import edu.cmu.ri.createlab.terk.robot.finch.simulator.SimulatedCommandResponse;
+import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerState;
+import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerUnitConversionStrategy;
+import edu.cmu.ri.createlab.terk.services.thermistor.ThermistorUnitConversionStrategy;
+import edu.cmu.ri.createlab.util.commandexecution.ReturnValueCommandStrategy;
+
+/**
+ * <p>
+ * <code>GetSensorSnapshotCommandStrategy</code> reads all of the simulated finch's sensors in a single command
+ * execution.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class GetSensorSnapshotCommandStrategy implements ReturnValueCommandStrategy<FinchSimulator, SimulatedCommandResponse, FinchSensorSnapshot>, SharableCommandStrategy
+   {
+   private final AccelerometerUnitConversionStrategy accelerometerUnitConversionStrategy;
+   private final ThermistorUnitConversionStrategy thermistorUnitConversionStrategy;
+
+   public GetSensorSnapshotCommandStrategy(final AccelerometerUnitConversionStrategy accelerometerUnitConversionStrategy,
+                                           final ThermistorUnitConversionStrategy thermistorUnitConversionStrategy)
+      {
+      this.accelerometerUnitConversionStrategy = accelerometerUnitConversionStrategy;
+      this.thermistorUnitConversionStrategy = thermistorUnitConversionStrategy;
+      }
+
+   public SimulatedCommandResponse execute(final FinchSimulator simulator)
+      {
+      final AccelerometerState accelerometerState = simulator.getAccelerometerState();
+      final int thermistor = simulator.getThermistor();
+      return new SimulatedCommandResponse(new FinchSensorSnapshot(System.currentTimeMillis(),
+                                                                  accelerometerState,
+                                                                  accelerometerUnitConversionStrategy == null ? null : accelerometerUnitConversionStrategy.convert(accelerometerState),
+                                                                  simulator.areObstaclesDetected(),
+                                                                  simulator.getPhotoresistors(),
+                                                                  thermistor,
+                                                                  thermistorUnitConversionStrategy == null ? null : thermistorUnitConversionStrategy.convertToCelsius(thermistor)));
+      }
+
+   public FinchSensorSnapshot convertResponse(final SimulatedCommandResponse response)
+      {
+      if (response != null && response.wasSuccessful())
+         {
+         return (FinchSensorSnapshot)response.getValue();
+         }
+
+      return null;
+      }
+   }
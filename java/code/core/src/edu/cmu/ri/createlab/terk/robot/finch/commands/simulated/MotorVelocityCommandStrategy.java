@@ -0,0 +1,31 @@
+package edu.cmu.ri.createlab.terk.robot.finch.commands.simulated;
+
+import edu.cmu.ri.createlab.terk.robot.finch.FinchProperties;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.CoalescibleCommandStrategy;
+import edu.cmu.ri.createlab.terk.robot.finch.simulator.FinchSimulator;
+import edu.cmu.ri.createlab.terk.robot.finch.simulator.SimulatedCommandResponse;
+import edu.cmu.ri.createlab.util.MathUtils;
+import edu.cmu.ri.createlab.util.commandexecution.CommandStrategy;
+
+/**
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class MotorVelocityCommandStrategy implements CommandStrategy<FinchSimulator, SimulatedCommandResponse>, CoalescibleCommandStrategy
+   {
+   private final int leftVelocity;
+   private final int rightVelocity;
+
+   public MotorVelocityCommandStrategy(final int leftVelocity, final int rightVelocity, final FinchProperties finchProperties)
+      {
+      final int minVelocity = finchProperties.getMotorDeviceMinVelocity();
+      final int maxVelocity = finchProperties.getMotorDeviceMaxVelocity();
+      this.leftVelocity = MathUtils.ensureRange(leftVelocity, minVelocity, maxVelocity);
+      this.rightVelocity = MathUtils.ensureRange(rightVelocity, minVelocity, maxVelocity);
+      }
+
+   public SimulatedCommandResponse execute(final FinchSimulator simulator)
+      {
+      simulator.setMotorVelocities(leftVelocity, rightVelocity);
+      return SimulatedCommandResponse.SUCCESS;
+      }
+   }
@@ -0,0 +1,213 @@
+package edu.cmu.ri.createlab.terk.robot.finch.net;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import edu.cmu.ri.createlab.terk.robot.finch.FinchSensorSnapshot;
+import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerGs;
+import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerState;
+
+/**
+ * <p>
+ * <code>FinchProtocol</code> defines the binary protocol spoken by the {@link FinchServer}.  All values are
+ * big-endian.  Every message, in either direction, is a frame:
+ * </p>
+ * <pre>
+ *    int      length of the rest of the frame, in bytes
+ *    int      request id (chosen by the client, and echoed in the response)
+ *    byte     opcode (in a request) or status (in a response)
+ *    byte[]   arguments (in a request) or result (in a response)
+ * </pre>
+ * <p>
+ * Clients may pipeline requests, i.e. send many before reading any responses.  Responses are always sent in the order
+ * in which their requests were received on the connection.  A response with a status other than {@link #STATUS_OK}
+ * has no result.  The arguments and results of each opcode are:
+ * </p>
+ * <pre>
+ *    PING                       -                         -
+ *    GET_HARDWARE_TYPE          -                         string (the FinchHardwareType name)
+ *    GET_ACCELEROMETER_STATE    -                         accelerometer state
+ *    GET_ACCELEROMETER_GS       -                         double x, double y, double z
+ *    ARE_OBSTACLES_DETECTED     -                         byte count, count x byte (0 or 1)
+ *    GET_PHOTORESISTORS         -                         byte count, count x int
+ *    GET_THERMISTOR             -                         int
+ *    GET_THERMISTOR_CELSIUS     -                         double
+ *    GET_SENSOR_SNAPSHOT        int max age in millis     sensor snapshot
+ *    GET_ANALOG_INPUT           byte id                   int
+ *    GET_VOLTAGE                -                         int
+ *    SET_FULL_COLOR_LED         short r, short g, short b -
+ *    SET_MOTOR_VELOCITIES       short left, short right   -
+ *    PLAY_BUZZER_TONE           short freq, short millis  -
+ *    EMERGENCY_STOP             -                         -
+ *
+ *    string                     short length, UTF-8 bytes
+ *    accelerometer state        int x, int y, int z, byte flags (bit 0 = shaken, bit 1 = tapped)
+ *    sensor snapshot            long timestamp, accelerometer state, byte has gs, [double x, double y, double z],
+ *                               byte count, count x byte obstacles, byte count, count x int photoresistors,
+ *                               int thermistor, byte has celsius, [double celsius]
+ * </pre>
+ * <p>
+ * A max age of zero or less asks for a fresh sensor snapshot.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class FinchProtocol
+   {
+   /** The size of the frame header: the length, request id, and opcode or status. */
+   public static final int HEADER_SIZE = 4 + 4 + 1;
+
+   /** Frames whose length exceeds this are rejected, and the connection closed. */
+   public static final int MAX_FRAME_LENGTH = 64 * 1024;
+
+   public static final byte OPCODE_PING = 0;
+   public static final byte OPCODE_GET_HARDWARE_TYPE = 1;
+   public static final byte OPCODE_GET_ACCELEROMETER_STATE = 2;
+   public static final byte OPCODE_GET_ACCELEROMETER_GS = 3;
+   public static final byte OPCODE_ARE_OBSTACLES_DETECTED = 4;
+   public static final byte OPCODE_GET_PHOTORESISTORS = 5;
+   public static final byte OPCODE_GET_THERMISTOR = 6;
+   public static final byte OPCODE_GET_THERMISTOR_CELSIUS = 7;
+   public static final byte OPCODE_GET_SENSOR_SNAPSHOT = 8;
+   public static final byte OPCODE_GET_ANALOG_INPUT = 9;
+   public static final byte OPCODE_GET_VOLTAGE = 10;
+   public static final byte OPCODE_SET_FULL_COLOR_LED = 11;
+   public static final byte OPCODE_SET_MOTOR_VELOCITIES = 12;
+   public static final byte OPCODE_PLAY_BUZZER_TONE = 13;
+   public static final byte OPCODE_EMERGENCY_STOP = 14;
+
+   /** The command succeeded, and the result (if any) follows. */
+   public static final byte STATUS_OK = 0;
+
+   /** The command failed, or the controller returned <code>null</code>. */
+   public static final byte STATUS_FAILED = 1;
+
+   /** The opcode is unknown, or the arguments were malformed. */
+   public static final byte STATUS_UNSUPPORTED = 2;
+
+   private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+   private static final byte FLAG_SHAKEN = 1;
+   private static final byte FLAG_TAPPED = 2;
+
+   static void putString(final ByteBuffer buffer, final String s)
+      {
+      final byte[] bytes = s.getBytes(UTF_8);
+      buffer.putShort((short)bytes.length);
+      buffer.put(bytes);
+      }
+
+   static String getString(final ByteBuffer buffer)
+      {
+      final byte[] bytes = new byte[buffer.getShort() & 0xffff];
+      buffer.get(bytes);
+      return new String(bytes, UTF_8);
+      }
+
+   static void putAccelerometerState(final ByteBuffer buffer, final AccelerometerState state)
+      {
+      buffer.putInt(state.getX());
+      buffer.putInt(state.getY());
+      buffer.putInt(state.getZ());
+      buffer.put((byte)((state.wasShaken() ? FLAG_SHAKEN : 0) | (state.wasTapped() ? FLAG_TAPPED : 0)));
+      }
+
+   static AccelerometerState getAccelerometerState(final ByteBuffer buffer)
+      {
+      final int x = buffer.getInt();
+      final int y = buffer.getInt();
+      final int z = buffer.getInt();
+      final byte flags = buffer.get();
+      return new AccelerometerState(x, y, z, (flags & FLAG_SHAKEN) != 0, (flags & FLAG_TAPPED) != 0);
+      }
+
+   static void putAccelerometerGs(final ByteBuffer buffer, final AccelerometerGs gs)
+      {
+      buffer.putDouble(gs.getX());
+      buffer.putDouble(gs.getY());
+      buffer.putDouble(gs.getZ());
+      }
+
+   static AccelerometerGs getAccelerometerGs(final ByteBuffer buffer)
+      {
+      final double x = buffer.getDouble();
+      final double y = buffer.getDouble();
+      final double z = buffer.getDouble();
+      return new AccelerometerGs(x, y, z);
+      }
+
+   static void putBooleans(final ByteBuffer buffer, final boolean[] values)
+      {
+      buffer.put((byte)values.length);
+      for (final boolean value : values)
+         {
+         buffer.put((byte)(value ? 1 : 0));
+         }
+      }
+
+   static boolean[] getBooleans(final ByteBuffer buffer)
+      {
+      final boolean[] values = new boolean[buffer.get() & 0xff];
+      for (int i = 0; i < values.length; i++)
+         {
+         values[i] = buffer.get() != 0;
+         }
+      return values;
+      }
+
+   static void putInts(final ByteBuffer buffer, final int[] values)
+      {
+      buffer.put((byte)values.length);
+      for (final int value : values)
+         {
+         buffer.putInt(value);
+         }
+      }
+
+   static int[] getInts(final ByteBuffer buffer)
+      {
+      final int[] values = new int[buffer.get() & 0xff];
+      for (int i = 0; i < values.length; i++)
+         {
+         values[i] = buffer.getInt();
+         }
+      return values;
+      }
+
+   static void putSensorSnapshot(final ByteBuffer buffer, final FinchSensorSnapshot snapshot)
+      {
+      buffer.putLong(snapshot.getTimestamp());
+      putAccelerometerState(buffer, snapshot.getAccelerometerState());
+      final AccelerometerGs gs = snapshot.getAccelerometerGs();
+      buffer.put((byte)(gs == null ? 0 : 1));
+      if (gs != null)
+         {
+         putAccelerometerGs(buffer, gs);
+         }
+      putBooleans(buffer, snapshot.areObstaclesDetected());
+      putInts(buffer, snapshot.getPhotoresistors());
+      buffer.putInt(snapshot.getThermistor());
+      final Double celsius = snapshot.getThermistorCelsiusTemperature();
+      buffer.put((byte)(celsius == null ? 0 : 1));
+      if (celsius != null)
+         {
+         buffer.putDouble(celsius);
+         }
+      }
+
+   static FinchSensorSnapshot getSensorSnapshot(final ByteBuffer buffer)
+      {
+      final long timestamp = buffer.getLong();
+      final AccelerometerState state = getAccelerometerState(buffer);
+      final AccelerometerGs gs = buffer.get() == 0 ? null : getAccelerometerGs(buffer);
+      final boolean[] obstacles = getBooleans(buffer);
+      final int[] photoresistors = getInts(buffer);
+      final int thermistor = buffer.getInt();
+      final Double celsius = buffer.get() == 0 ? null : buffer.getDouble();
+      return new FinchSensorSnapshot(timestamp, state, gs, obstacles, photoresistors, thermistor, celsius);
+      }
+
+   private FinchProtocol()
+      {
+      // private to prevent instantiation
+      }
+   }
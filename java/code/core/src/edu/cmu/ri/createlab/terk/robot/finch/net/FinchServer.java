@@ -0,0 +1,743 @@
+package edu.cmu.ri.createlab.terk.robot.finch.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import edu.cmu.ri.createlab.terk.robot.finch.FinchController;
+import edu.cmu.ri.createlab.terk.robot.finch.FinchSensorSnapshot;
+import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerGs;
+import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerState;
+import edu.cmu.ri.createlab.util.thread.DaemonThreadFactory;
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * <code>FinchServer</code> shares a {@link FinchController} with clients on other machines, speaking the binary
+ * protocol defined by {@link FinchProtocol} over TCP.  A single selector thread accepts connections and does all the
+ * socket I/O for every client, so many clients cost no more threads than one.  Requests are executed on a second
+ * thread, in the order in which they arrive, since the finch can only do one thing at a time anyway.
+ * </p>
+ * <p>
+ * Clients may pipeline their requests.  The command thread executes whatever requests have arrived as a batch, and
+ * the responses to each connection's requests in the batch are appended to that connection's output, so that they go
+ * out in as few writes as possible.  The server stops reading from a client which has too many requests waiting to
+ * be executed, and closes the connection of a client which isn't reading its responses.
+ * </p>
+ * <p>
+ * The server doesn't own the controller: stopping the server leaves the controller connected.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class FinchServer
+   {
+   private static final Logger LOG = Logger.getLogger(FinchServer.class);
+
+   /** The port on which the server listens if none is specified. */
+   public static final int DEFAULT_PORT = 18550;
+
+   /** The most requests from one client which may be waiting to be executed before the server stops reading from it. */
+   private static final int MAX_OUTSTANDING_REQUESTS_PER_CONNECTION = 1024;
+
+   /** Connections whose unsent responses exceed this many bytes are closed, since the client isn't reading them. */
+   private static final int MAX_PENDING_OUTPUT_BYTES = 4 * 1024 * 1024;
+
+   private static final int MAX_BATCH_SIZE = 256;
+   private static final int MAX_RESPONSE_SIZE = 512;
+   private static final int INITIAL_OUTPUT_BUFFER_SIZE = 4096;
+
+   private final FinchController finchController;
+   private final InetSocketAddress address;
+   private final BlockingQueue<Request> requests = new LinkedBlockingQueue<Request>();
+   private final Queue<Connection> connectionsNeedingAttention = new ConcurrentLinkedQueue<Connection>();
+   private final AtomicInteger clientCount = new AtomicInteger(0);
+   private final AtomicLong commandCount = new AtomicLong(0);
+
+   private final Object lifecycleLock = new Object();
+   private volatile boolean isRunning = false;
+   private boolean wasStarted = false;
+   private Selector selector;
+   private ServerSocketChannel serverChannel;
+   private Thread selectorThread;
+   private Thread commandThread;
+
+   /** Creates a <code>FinchServer</code> for the given controller which will listen on the {@link #DEFAULT_PORT}. */
+   public FinchServer(final FinchController finchController)
+      {
+      this(finchController, DEFAULT_PORT);
+      }
+
+   /**
+    * Creates a <code>FinchServer</code> for the given controller which will listen on the given port of every local
+    * address.  A port of zero lets the system choose a free port (see {@link #getLocalPort()}).
+    */
+   public FinchServer(final FinchController finchController, final int port)
+      {
+      this(finchController, new InetSocketAddress(port));
+      }
+
+   /**
+    * Creates a <code>FinchServer</code> for the given controller which will listen on the given address.
+    *
+    * @throws IllegalArgumentException if either argument is <code>null</code>
+    */
+   public FinchServer(final FinchController finchController, final InetSocketAddress address)
+      {
+      if (finchController == null)
+         {
+         throw new IllegalArgumentException("The FinchController cannot be null");
+         }
+      if (address == null)
+         {
+         throw new IllegalArgumentException("The address cannot be null");
+         }
+      this.finchController = finchController;
+      this.address = address;
+      }
+
+   /**
+    * Starts listening for clients.
+    *
+    * @throws IOException if the server socket couldn't be opened
+    * @throws IllegalStateException if the server has already been started
+    */
+   public void start() throws IOException
+      {
+      synchronized (lifecycleLock)
+         {
+         if (wasStarted)
+            {
+            throw new IllegalStateException("A FinchServer may only be started once");
+            }
+         wasStarted = true;
+
+         selector = Selector.open();
+         try
+            {
+            serverChannel = ServerSocketChannel.open();
+            serverChannel.configureBlocking(false);
+            serverChannel.socket().setReuseAddress(true);
+            serverChannel.socket().bind(address);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            }
+         catch (IOException e)
+            {
+            closeQuietly(serverChannel);
+            selector.close();
+            throw e;
+            }
+
+         isRunning = true;
+         final DaemonThreadFactory threadFactory = new DaemonThreadFactory("FinchServer");
+         selectorThread = threadFactory.newThread(
+               new Runnable()
+               {
+               public void run()
+                  {
+                  runSelectorLoop();
+                  }
+               });
+         commandThread = threadFactory.newThread(
+               new Runnable()
+               {
+               public void run()
+                  {
+                  runCommandLoop();
+                  }
+               });
+         selectorThread.start();
+         commandThread.start();
+
+         if (LOG.isInfoEnabled())
+            {
+            LOG.info("FinchServer.start(): listening on port [" + getLocalPort() + "]");
+            }
+         }
+      }
+
+   /** Returns <code>true</code> if the server has been started and not yet stopped. */
+   public boolean isRunning()
+      {
+      return isRunning;
+      }
+
+   /** Returns the port on which the server is listening, or -1 if it isn't running. */
+   public int getLocalPort()
+      {
+      synchronized (lifecycleLock)
+         {
+         return isRunning ? serverChannel.socket().getLocalPort() : -1;
+         }
+      }
+
+   /** Returns the number of clients currently connected. */
+   public int getClientCount()
+      {
+      return clientCount.get();
+      }
+
+   /** Returns the number of requests executed since the server was started. */
+   public long getCommandCount()
+      {
+      return commandCount.get();
+      }
+
+   /** Stops the server, closing every client connection.  Does nothing if the server isn't running. */
+   public void stop()
+      {
+      synchronized (lifecycleLock)
+         {
+         if (!isRunning)
+            {
+            return;
+            }
+         isRunning = false;
+         }
+
+      commandThread.interrupt();
+      selector.wakeup();
+      try
+         {
+         selectorThread.join(1000);
+         commandThread.join(1000);
+         }
+      catch (InterruptedException e)
+         {
+         LOG.error("FinchServer.stop(): InterruptedException while waiting for the server threads to stop", e);
+         Thread.currentThread().interrupt();
+         }
+      LOG.debug("FinchServer.stop(): stopped");
+      }
+
+   private void runSelectorLoop()
+      {
+      try
+         {
+         while (isRunning)
+            {
+            selector.select();
+
+            // the command thread queues the connections which have new responses to send (or can read again)
+            Connection connection;
+            while ((connection = connectionsNeedingAttention.poll()) != null)
+               {
+               connection.updateInterestOps();
+               }
+
+            final Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+            while (iterator.hasNext())
+               {
+               final SelectionKey key = iterator.next();
+               iterator.remove();
+               if (!key.isValid())
+                  {
+                  continue;
+                  }
+               if (key.isAcceptable())
+                  {
+                  accept();
+                  }
+               else
+                  {
+                  final Connection keyConnection = (Connection)key.attachment();
+                  if (key.isReadable())
+                     {
+                     keyConnection.read();
+                     }
+                  if (key.isValid() && key.isWritable())
+                     {
+                     keyConnection.write();
+                     }
+                  }
+               }
+            }
+         }
+      catch (ClosedSelectorException e)
+         {
+         LOG.debug("FinchServer.runSelectorLoop(): selector closed", e);
+         }
+      catch (IOException e)
+         {
+         LOG.error("FinchServer.runSelectorLoop(): IOException in the selector loop, stopping the server", e);
+         }
+      finally
+         {
+         isRunning = false;
+         commandThread.interrupt();
+         for (final SelectionKey key : selector.keys())
+            {
+            if (key.attachment() instanceof Connection)
+               {
+               ((Connection)key.attachment()).close();
+               }
+            }
+         closeQuietly(serverChannel);
+         try
+            {
+            selector.close();
+            }
+         catch (IOException e)
+            {
+            LOG.debug("FinchServer.runSelectorLoop(): IOException while closing the selector", e);
+            }
+         }
+      }
+
+   private void accept()
+      {
+      try
+         {
+         final SocketChannel channel = serverChannel.accept();
+         if (channel != null)
+            {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            final SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            key.attach(new Connection(channel, key));
+            clientCount.incrementAndGet();
+            if (LOG.isInfoEnabled())
+               {
+               LOG.info("FinchServer.accept(): client connected from [" + channel.socket().getRemoteSocketAddress() + "]");
+               }
+            }
+         }
+      catch (IOException e)
+         {
+         LOG.error("FinchServer.accept(): IOException while accepting a client connection", e);
+         }
+      }
+
+   private void runCommandLoop()
+      {
+      final List<Request> batch = new ArrayList<Request>(MAX_BATCH_SIZE);
+      final Set<Connection> respondedConnections = new LinkedHashSet<Connection>();
+      final ByteBuffer response = ByteBuffer.allocate(MAX_RESPONSE_SIZE);
+      while (isRunning)
+         {
+         try
+            {
+            batch.add(requests.take());
+            }
+         catch (InterruptedException e)
+            {
+            LOG.debug("FinchServer.runCommandLoop(): interrupted, stopping");
+            break;
+            }
+         requests.drainTo(batch, MAX_BATCH_SIZE - 1);
+
+         for (final Request request : batch)
+            {
+            if (!request.connection.isClosed())
+               {
+               response.clear();
+               execute(request.frame, response);
+               response.flip();
+               request.connection.appendResponse(response);
+               respondedConnections.add(request.connection);
+               }
+            }
+         commandCount.addAndGet(batch.size());
+         batch.clear();
+
+         connectionsNeedingAttention.addAll(respondedConnections);
+         respondedConnections.clear();
+         selector.wakeup();
+         }
+      }
+
+   /** Executes the request in the given frame, and writes the whole response frame into the given buffer. */
+   private void execute(final byte[] frame, final ByteBuffer response)
+      {
+      final ByteBuffer request = ByteBuffer.wrap(frame);
+      final int requestId = request.getInt();
+      final byte opcode = request.get();
+
+      response.putInt(0);  // placeholder for the length
+      response.putInt(requestId);
+      final int statusPosition = response.position();
+      response.put(FinchProtocol.STATUS_OK);
+
+      byte status;
+      try
+         {
+         status = executeCommand(opcode, request, response);
+         }
+      catch (BufferUnderflowException e)
+         {
+         if (LOG.isDebugEnabled())
+            {
+            LOG.debug("FinchServer.execute(): malformed arguments for opcode [" + opcode + "]", e);
+            }
+         status = FinchProtocol.STATUS_UNSUPPORTED;
+         }
+      catch (RuntimeException e)
+         {
+         LOG.error("FinchServer.execute(): RuntimeException while executing opcode [" + opcode + "]", e);
+         status = FinchProtocol.STATUS_FAILED;
+         }
+
+      // failed responses have no result
+      if (status != FinchProtocol.STATUS_OK)
+         {
+         response.position(statusPosition + 1);
+         }
+      response.put(statusPosition, status);
+      response.putInt(0, response.position() - 4);
+      }
+
+   private byte executeCommand(final byte opcode, final ByteBuffer request, final ByteBuffer response)
+      {
+      switch (opcode)
+         {
+         case FinchProtocol.OPCODE_PING:
+            return FinchProtocol.STATUS_OK;
+
+         case FinchProtocol.OPCODE_GET_HARDWARE_TYPE:
+            FinchProtocol.putString(response, finchController.getFinchProperties().getHardwareType().name());
+            return FinchProtocol.STATUS_OK;
+
+         case FinchProtocol.OPCODE_GET_ACCELEROMETER_STATE:
+            final AccelerometerState accelerometerState = finchController.getAccelerometerState();
+            if (accelerometerState == null)
+               {
+               return FinchProtocol.STATUS_FAILED;
+               }
+            FinchProtocol.putAccelerometerState(response, accelerometerState);
+            return FinchProtocol.STATUS_OK;
+
+         case FinchProtocol.OPCODE_GET_ACCELEROMETER_GS:
+            final AccelerometerGs accelerometerGs = finchController.getAccelerometerGs();
+            if (accelerometerGs == null)
+               {
+               return FinchProtocol.STATUS_FAILED;
+               }
+            FinchProtocol.putAccelerometerGs(response, accelerometerGs);
+            return FinchProtocol.STATUS_OK;
+
+         case FinchProtocol.OPCODE_ARE_OBSTACLES_DETECTED:
+            final boolean[] obstacles = finchController.areObstaclesDetected();
+            if (obstacles == null)
+               {
+               return FinchProtocol.STATUS_FAILED;
+               }
+            FinchProtocol.putBooleans(response, obstacles);
+            return FinchProtocol.STATUS_OK;
+
+         case FinchProtocol.OPCODE_GET_PHOTORESISTORS:
+            final int[] photoresistors = finchController.getPhotoresistors();
+            if (photoresistors == null)
+               {
+               return FinchProtocol.STATUS_FAILED;
+               }
+            FinchProtocol.putInts(response, photoresistors);
+            return FinchProtocol.STATUS_OK;
+
+         case FinchProtocol.OPCODE_GET_THERMISTOR:
+            return putInteger(response, finchController.getThermistor());
+
+         case FinchProtocol.OPCODE_GET_THERMISTOR_CELSIUS:
+            final Double celsius = finchController.getThermistorCelsiusTemperature();
+            if (celsius == null)
+               {
+               return FinchProtocol.STATUS_FAILED;
+               }
+            response.putDouble(celsius);
+            return FinchProtocol.STATUS_OK;
+
+         case FinchProtocol.OPCODE_GET_SENSOR_SNAPSHOT:
+            final int maxAgeInMillis = request.getInt();
+            final FinchSensorSnapshot snapshot = maxAgeInMillis > 0 ? finchController.getSensorSnapshot(maxAgeInMillis) : finchController.getSensorSnapshot();
+            if (snapshot == null)
+               {
+               return FinchProtocol.STATUS_FAILED;
+               }
+            FinchProtocol.putSensorSnapshot(response, snapshot);
+            return FinchProtocol.STATUS_OK;
+
+         case FinchProtocol.OPCODE_GET_ANALOG_INPUT:
+            return putInteger(response, finchController.getAnalogInput(request.get()));
+
+         case FinchProtocol.OPCODE_GET_VOLTAGE:
+            return putInteger(response, finchController.getVoltage());
+
+         case FinchProtocol.OPCODE_SET_FULL_COLOR_LED:
+            final short red = request.getShort();
+            final short green = request.getShort();
+            final short blue = request.getShort();
+            return toStatus(finchController.setFullColorLED(red, green, blue));
+
+         case FinchProtocol.OPCODE_SET_MOTOR_VELOCITIES:
+            final short leftVelocity = request.getShort();
+            final short rightVelocity = request.getShort();
+            return toStatus(finchController.setMotorVelocities(leftVelocity, rightVelocity));
+
+         case FinchProtocol.OPCODE_PLAY_BUZZER_TONE:
+            final short frequency = request.getShort();
+            final short durationInMillis = request.getShort();
+            return toStatus(finchController.playBuzzerTone(frequency, durationInMillis));
+
+         case FinchProtocol.OPCODE_EMERGENCY_STOP:
+            return toStatus(finchController.emergencyStop());
+
+         default:
+            if (LOG.isDebugEnabled())
+               {
+               LOG.debug("FinchServer.executeCommand(): unknown opcode [" + opcode + "]");
+               }
+            return FinchProtocol.STATUS_UNSUPPORTED;
+         }
+      }
+
+   private static byte putInteger(final ByteBuffer response, final Integer value)
+      {
+      if (value == null)
+         {
+         return FinchProtocol.STATUS_FAILED;
+         }
+      response.putInt(value);
+      return FinchProtocol.STATUS_OK;
+      }
+
+   private static byte toStatus(final boolean wasSuccessful)
+      {
+      return wasSuccessful ? FinchProtocol.STATUS_OK : FinchProtocol.STATUS_FAILED;
+      }
+
+   private static void closeQuietly(final Channel channel)
+      {
+      if (channel != null)
+         {
+         try
+            {
+            channel.close();
+            }
+         catch (IOException e)
+            {
+            LOG.debug("FinchServer.closeQuietly(): IOException while closing channel", e);
+            }
+         }
+      }
+
+   private static final class Request
+      {
+      private final Connection connection;
+      private final byte[] frame;
+
+      private Request(final Connection connection, final byte[] frame)
+         {
+         this.connection = connection;
+         this.frame = frame;
+         }
+      }
+
+   /**
+    * A client connection.  Everything but {@link #appendResponse(ByteBuffer)} (which is called by the command thread)
+    * is only ever called by the selector thread.
+    */
+   private final class Connection
+      {
+      private final SocketChannel channel;
+      private final SelectionKey key;
+      private final ByteBuffer readBuffer = ByteBuffer.allocate(4 + FinchProtocol.MAX_FRAME_LENGTH);
+      private final AtomicInteger outstandingRequestCount = new AtomicInteger(0);
+      private volatile boolean isClosed = false;
+
+      /** The buffer being drained to the socket, in read mode. */
+      private ByteBuffer writeBuffer = ByteBuffer.allocate(INITIAL_OUTPUT_BUFFER_SIZE);
+
+      /** The buffer into which responses are appended, in write mode, guarded by <code>outputLock</code>. */
+      private ByteBuffer pendingOutput = ByteBuffer.allocate(INITIAL_OUTPUT_BUFFER_SIZE);
+      private boolean isOutputOverflowed = false;
+      private final Object outputLock = new Object();
+
+      private Connection(final SocketChannel channel, final SelectionKey key)
+         {
+         this.channel = channel;
+         this.key = key;
+         writeBuffer.flip();
+         }
+
+      private boolean isClosed()
+         {
+         return isClosed;
+         }
+
+      private void read()
+         {
+         final int numBytesRead;
+         try
+            {
+            numBytesRead = channel.read(readBuffer);
+            }
+         catch (IOException e)
+            {
+            LOG.debug("FinchServer$Connection.read(): IOException while reading, closing the connection", e);
+            close();
+            return;
+            }
+         if (numBytesRead < 0)
+            {
+            close();
+            return;
+            }
+
+         // queue every complete frame, leaving any partial one in the buffer
+         readBuffer.flip();
+         while (readBuffer.remaining() >= 4)
+            {
+            final int length = readBuffer.getInt(readBuffer.position());
+            if (length < FinchProtocol.HEADER_SIZE - 4 || length > FinchProtocol.MAX_FRAME_LENGTH)
+               {
+               LOG.error("FinchServer$Connection.read(): invalid frame length [" + length + "], closing the connection");
+               close();
+               return;
+               }
+            if (readBuffer.remaining() < 4 + length)
+               {
+               break;
+               }
+            readBuffer.position(readBuffer.position() + 4);
+            final byte[] frame = new byte[length];
+            readBuffer.get(frame);
+            outstandingRequestCount.incrementAndGet();
+            requests.add(new Request(this, frame));
+            }
+         readBuffer.compact();
+
+         updateInterestOps();
+         }
+
+      private void appendResponse(final ByteBuffer response)
+         {
+         synchronized (outputLock)
+            {
+            if (pendingOutput.remaining() < response.remaining())
+               {
+               final int requiredCapacity = pendingOutput.position() + response.remaining();
+               if (requiredCapacity > MAX_PENDING_OUTPUT_BYTES)
+                  {
+                  isOutputOverflowed = true;
+                  }
+               else
+                  {
+                  final ByteBuffer biggerBuffer = ByteBuffer.allocate(Math.max(requiredCapacity, pendingOutput.capacity() * 2));
+                  pendingOutput.flip();
+                  biggerBuffer.put(pendingOutput);
+                  pendingOutput = biggerBuffer;
+                  }
+               }
+            if (!isOutputOverflowed)
+               {
+               pendingOutput.put(response);
+               }
+            }
+         outstandingRequestCount.decrementAndGet();
+         }
+
+      private void write()
+         {
+         try
+            {
+            while (writeBuffer.hasRemaining() || swapOutputBuffers())
+               {
+               channel.write(writeBuffer);
+               if (writeBuffer.hasRemaining())
+                  {
+                  // the socket's send buffer is full, so wait to be told it's writable again
+                  break;
+                  }
+               }
+            }
+         catch (IOException e)
+            {
+            LOG.debug("FinchServer$Connection.write(): IOException while writing, closing the connection", e);
+            close();
+            return;
+            }
+         updateInterestOps();
+         }
+
+      /** Makes the pending output the buffer to be written, and returns <code>true</code> if there is any. */
+      private boolean swapOutputBuffers()
+         {
+         synchronized (outputLock)
+            {
+            if (pendingOutput.position() == 0)
+               {
+               return false;
+               }
+            final ByteBuffer emptyBuffer = writeBuffer;
+            emptyBuffer.clear();
+            writeBuffer = pendingOutput;
+            writeBuffer.flip();
+            pendingOutput = emptyBuffer;
+            return true;
+            }
+         }
+
+      private void updateInterestOps()
+         {
+         if (isClosed || !key.isValid())
+            {
+            return;
+            }
+
+         final boolean hasPendingOutput;
+         synchronized (outputLock)
+            {
+            if (isOutputOverflowed)
+               {
+               LOG.error("FinchServer$Connection.updateInterestOps(): the client isn't reading its responses, closing the connection");
+               close();
+               return;
+               }
+            hasPendingOutput = pendingOutput.position() > 0;
+            }
+
+         int ops = 0;
+         if (outstandingRequestCount.get() < MAX_OUTSTANDING_REQUESTS_PER_CONNECTION)
+            {
+            ops |= SelectionKey.OP_READ;
+            }
+         if (hasPendingOutput || writeBuffer.hasRemaining())
+            {
+            ops |= SelectionKey.OP_WRITE;
+            }
+         key.interestOps(ops);
+         }
+
+      private void close()
+         {
+         if (isClosed)
+            {
+            return;
+            }
+         isClosed = true;
+         key.cancel();
+         if (LOG.isInfoEnabled())
+            {
+            LOG.info("FinchServer$Connection.close(): client disconnected from [" + channel.socket().getRemoteSocketAddress() + "]");
+            }
+         closeQuietly(channel);
+         clientCount.decrementAndGet();
+         }
+      }
+   }
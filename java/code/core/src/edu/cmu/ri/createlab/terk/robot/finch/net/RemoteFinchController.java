@@ -0,0 +1,1005 @@
+package edu.cmu.ri.createlab.terk.robot.finch.net;
+
+import java.awt.Color;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import edu.cmu.ri.createlab.audio.AudioHelper;
+import edu.cmu.ri.createlab.device.CreateLabDevicePingFailureEventListener;
+import edu.cmu.ri.createlab.speech.Mouth;
+import edu.cmu.ri.createlab.terk.robot.finch.AsyncFinchController;
+import edu.cmu.ri.createlab.terk.robot.finch.FinchController;
+import edu.cmu.ri.createlab.terk.robot.finch.FinchHardwareType;
+import edu.cmu.ri.createlab.terk.robot.finch.FinchProperties;
+import edu.cmu.ri.createlab.terk.robot.finch.FinchSensorSnapshot;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.CommandBarrier;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.CommandDeadlines;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.ConvertingFuture;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.FinchMetrics;
+import edu.cmu.ri.createlab.terk.robot.finch.commands.AnalogInputCommandStrategyHelper;
+import edu.cmu.ri.createlab.terk.robot.finch.commands.BuzzerCommandStrategyHelper;
+import edu.cmu.ri.createlab.terk.robot.finch.commands.EmergencyStopCommandStrategyHelper;
+import edu.cmu.ri.createlab.terk.robot.finch.commands.FullColorLEDCommandStrategyHelper;
+import edu.cmu.ri.createlab.terk.robot.finch.commands.GetAccelerometerCommandStrategyHelper;
+import edu.cmu.ri.createlab.terk.robot.finch.commands.GetObstacleSensorCommandStrategyHelper;
+import edu.cmu.ri.createlab.terk.robot.finch.commands.GetPhotoresistorCommandStrategyHelper;
+import edu.cmu.ri.createlab.terk.robot.finch.commands.GetSensorSnapshotCommandStrategyHelper;
+import edu.cmu.ri.createlab.terk.robot.finch.commands.GetThermistorCommandStrategyHelper;
+import edu.cmu.ri.createlab.terk.robot.finch.commands.GetVoltageCommandStrategyHelper;
+import edu.cmu.ri.createlab.terk.robot.finch.commands.MotorVelocityCommandStrategyHelper;
+import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerGs;
+import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerState;
+import edu.cmu.ri.createlab.util.thread.DaemonThreadFactory;
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * <code>RemoteFinchController</code> is a {@link FinchController} for a finch attached to another computer and shared
+ * by a {@link FinchServer}.  Requests are written to the socket by a writer thread, which sends everything queued
+ * since its last write in a single flush, and responses are matched to their requests by request id on a reader
+ * thread.  Many requests can thus be in flight at once: calls made through the {@link #getAsyncFinchController()
+ * async controller} (or from several threads) pay the network latency once rather than once per call.
+ * </p>
+ * <p>
+ * As for local controllers, every request is subject to the {@link #getCommandDeadlines() command deadlines}, and is
+ * counted in the {@link #getFinchMetrics() metrics}, keyed by the class of the command strategy helper which builds
+ * the equivalent command on the server.  The "queue depth" is the number of requests awaiting a response.  If the
+ * connection is lost, or too many deadlines are missed in a row, the controller disconnects itself and notifies its
+ * ping failure listeners, so it can be wrapped in a
+ * {@link edu.cmu.ri.createlab.terk.robot.finch.ResilientFinchController} like any other controller.
+ * </p>
+ * <p>
+ * Tones, clips, and speech are played on this computer, not the one the finch is attached to.  The
+ * {@link CommandBarrier} variants of the async commands withdraw from the barrier and send the command immediately,
+ * since the barrier can't span computers.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class RemoteFinchController implements FinchController
+   {
+   private static final Logger LOG = Logger.getLogger(RemoteFinchController.class);
+
+   /** The system property which sets how long to wait when connecting to the server, in milliseconds. */
+   public static final String CONNECT_TIMEOUT_SYSTEM_PROPERTY = "finch.remote.connect-timeout-millis";
+
+   public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 5000;
+
+   /** How often requests are checked for missed deadlines. */
+   private static final int DEADLINE_CHECK_PERIOD_MILLIS = 20;
+
+   /** How long {@link #disconnect()} waits for the finch to stop before closing the connection. */
+   private static final int DISCONNECT_TIMEOUT_MILLIS = 1000;
+
+   private static final byte[] NO_ARGUMENTS = new byte[0];
+
+   private static final Runnable NO_OP_RUNNABLE =
+         new Runnable()
+         {
+         public void run()
+            {
+            }
+         };
+
+   /**
+    * Tries to connect to the {@link FinchServer} listening on the {@link FinchServer#DEFAULT_PORT default port} of
+    * the given host.  Returns <code>null</code> if the connection could not be established.
+    */
+   public static RemoteFinchController create(final String hostName)
+      {
+      return create(hostName, FinchServer.DEFAULT_PORT);
+      }
+
+   /**
+    * Tries to connect to the {@link FinchServer} listening on the given host and port.  Returns <code>null</code> if
+    * the connection could not be established.
+    *
+    * @throws IllegalArgumentException if the <code>hostName</code> is <code>null</code>
+    */
+   public static RemoteFinchController create(final String hostName, final int port)
+      {
+      if (hostName == null)
+         {
+         throw new IllegalArgumentException("The host name may not be null");
+         }
+
+      final int connectTimeoutInMillis = Math.max(1, Integer.getInteger(CONNECT_TIMEOUT_SYSTEM_PROPERTY, DEFAULT_CONNECT_TIMEOUT_MILLIS));
+      final Socket socket = new Socket();
+      try
+         {
+         socket.setTcpNoDelay(true);
+         socket.setKeepAlive(true);
+         socket.connect(new InetSocketAddress(hostName, port), connectTimeoutInMillis);
+
+         // ask the server what kind of finch it's sharing, which also proves it speaks our protocol
+         socket.setSoTimeout(connectTimeoutInMillis);
+         final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+         final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+         out.write(createFrame(0, FinchProtocol.OPCODE_GET_HARDWARE_TYPE, NO_ARGUMENTS));
+         out.flush();
+         final ByteBuffer response = readFrame(in, new byte[FinchProtocol.MAX_FRAME_LENGTH]);
+         response.getInt();
+         final FinchHardwareType hardwareType = (response.get() == FinchProtocol.STATUS_OK) ? FinchHardwareType.findByName(FinchProtocol.getString(response)) : null;
+         if (hardwareType == null)
+            {
+            LOG.error("RemoteFinchController.create(): the server at [" + hostName + ":" + port + "] didn't report a known hardware type");
+            socket.close();
+            return null;
+            }
+         socket.setSoTimeout(0);
+
+         if (LOG.isInfoEnabled())
+            {
+            LOG.info("RemoteFinchController.create(): connected to a finch of type [" + hardwareType + "] at [" + hostName + ":" + port + "]");
+            }
+         return new RemoteFinchController(socket, in, out, hostName + ":" + port, hardwareType.getFinchProperties());
+         }
+      catch (Exception e)
+         {
+         LOG.error("RemoteFinchController.create(): Exception while trying to connect to [" + hostName + ":" + port + "]", e);
+         try
+            {
+            socket.close();
+            }
+         catch (IOException e1)
+            {
+            LOG.debug("RemoteFinchController.create(): IOException while closing the socket", e1);
+            }
+         }
+      return null;
+      }
+
+   private static byte[] createFrame(final int requestId, final byte opcode, final byte[] arguments)
+      {
+      final ByteBuffer frame = ByteBuffer.allocate(FinchProtocol.HEADER_SIZE + arguments.length);
+      frame.putInt(FinchProtocol.HEADER_SIZE - 4 + arguments.length);
+      frame.putInt(requestId);
+      frame.put(opcode);
+      frame.put(arguments);
+      return frame.array();
+      }
+
+   /** Reads a frame into the given buffer, and returns a {@link ByteBuffer} positioned at its request id. */
+   private static ByteBuffer readFrame(final DataInputStream in, final byte[] buffer) throws IOException
+      {
+      final int length = in.readInt();
+      if (length < FinchProtocol.HEADER_SIZE - 4 || length > buffer.length)
+         {
+         throw new IOException("Invalid frame length [" + length + "]");
+         }
+      in.readFully(buffer, 0, length);
+      return ByteBuffer.wrap(buffer, 0, length);
+      }
+
+   private static byte[] toShortArguments(final int... values)
+      {
+      final ByteBuffer arguments = ByteBuffer.allocate(values.length * 2);
+      for (final int value : values)
+         {
+         arguments.putShort((short)value);
+         }
+      return arguments.array();
+      }
+
+   private final Socket socket;
+   private final DataInputStream in;
+   private final DataOutputStream out;
+   private final String portName;
+   private final FinchProperties finchProperties;
+   private final FinchMetrics finchMetrics = new FinchMetrics();
+   private final CommandDeadlines commandDeadlines = new CommandDeadlines();
+   private final AsyncFinchController asyncFinchController = new RemoteAsyncFinchController();
+   private final Set<CreateLabDevicePingFailureEventListener> createLabDevicePingFailureEventListeners = new CopyOnWriteArraySet<CreateLabDevicePingFailureEventListener>();
+
+   private final AtomicInteger nextRequestId = new AtomicInteger(1);
+   private final ConcurrentMap<Integer, PendingRequest<?>> pendingRequests = new ConcurrentHashMap<Integer, PendingRequest<?>>();
+   private final BlockingQueue<PendingRequest<?>> outgoingRequests = new LinkedBlockingQueue<PendingRequest<?>>();
+   private final AtomicInteger consecutiveDeadlineMissCount = new AtomicInteger(0);
+   private final AtomicBoolean isDisconnected = new AtomicBoolean(false);
+
+   private final Thread writerThread;
+   private final Thread readerThread;
+   private final ScheduledExecutorService scheduledExecutorService = Executors.newScheduledThreadPool(1, new DaemonThreadFactory("RemoteFinchController.scheduledExecutorService"));
+
+   private final Object sensorSamplerLock = new Object();
+   private ScheduledFuture<?> sensorSamplerFuture = null;
+   private volatile ReceivedSnapshot latestSnapshot = null;
+   private final AtomicBoolean wasShaken = new AtomicBoolean(false);
+   private final AtomicBoolean wasTapped = new AtomicBoolean(false);
+
+   private final ResponseDecoder<FinchSensorSnapshot> sensorSnapshotDecoder =
+         new ResponseDecoder<FinchSensorSnapshot>()
+         {
+         FinchSensorSnapshot decode(final ByteBuffer result)
+            {
+            final FinchSensorSnapshot snapshot = FinchProtocol.getSensorSnapshot(result);
+            latestSnapshot = new ReceivedSnapshot(snapshot);
+            if (snapshot.getAccelerometerState().wasShaken())
+               {
+               wasShaken.set(true);
+               }
+            if (snapshot.getAccelerometerState().wasTapped())
+               {
+               wasTapped.set(true);
+               }
+            return snapshot;
+            }
+         };
+
+   private RemoteFinchController(final Socket socket, final DataInputStream in, final DataOutputStream out, final String portName, final FinchProperties finchProperties)
+      {
+      this.socket = socket;
+      this.in = in;
+      this.out = out;
+      this.portName = portName;
+      this.finchProperties = finchProperties;
+
+      final DaemonThreadFactory threadFactory = new DaemonThreadFactory("RemoteFinchController");
+      writerThread = threadFactory.newThread(
+            new Runnable()
+            {
+            public void run()
+               {
+               runWriterLoop();
+               }
+            });
+      readerThread = threadFactory.newThread(
+            new Runnable()
+            {
+            public void run()
+               {
+               runReaderLoop();
+               }
+            });
+      writerThread.start();
+      readerThread.start();
+
+      scheduledExecutorService.scheduleWithFixedDelay(
+            new Runnable()
+            {
+            public void run()
+               {
+               cancelOverdueRequests();
+               }
+            },
+            DEADLINE_CHECK_PERIOD_MILLIS,
+            DEADLINE_CHECK_PERIOD_MILLIS,
+            TimeUnit.MILLISECONDS);
+      }
+
+   public void addCreateLabDevicePingFailureEventListener(final CreateLabDevicePingFailureEventListener listener)
+      {
+      if (listener != null)
+         {
+         createLabDevicePingFailureEventListeners.add(listener);
+         }
+      }
+
+   public void removeCreateLabDevicePingFailureEventListener(final CreateLabDevicePingFailureEventListener listener)
+      {
+      if (listener != null)
+         {
+         createLabDevicePingFailureEventListeners.remove(listener);
+         }
+      }
+
+   /** Returns the host and port of the server, separated by a colon. */
+   public String getPortName()
+      {
+      return portName;
+      }
+
+   public FinchProperties getFinchProperties()
+      {
+      return finchProperties;
+      }
+
+   public AsyncFinchController getAsyncFinchController()
+      {
+      return asyncFinchController;
+      }
+
+   public FinchMetrics getFinchMetrics()
+      {
+      return finchMetrics;
+      }
+
+   public CommandDeadlines getCommandDeadlines()
+      {
+      return commandDeadlines;
+      }
+
+   public AccelerometerState getAccelerometerState()
+      {
+      return getQuietly(asyncFinchController.getAccelerometerState());
+      }
+
+   public AccelerometerGs getAccelerometerGs()
+      {
+      return getQuietly(asyncFinchController.getAccelerometerGs());
+      }
+
+   public Boolean isObstacleDetected(final int id)
+      {
+      return getQuietly(asyncFinchController.isObstacleDetected(id));
+      }
+
+   public boolean[] areObstaclesDetected()
+      {
+      return getQuietly(asyncFinchController.areObstaclesDetected());
+      }
+
+   public int[] getPhotoresistors()
+      {
+      return getQuietly(asyncFinchController.getPhotoresistors());
+      }
+
+   public Integer getThermistor(final int id)
+      {
+      return getQuietly(asyncFinchController.getThermistor(id));
+      }
+
+   public Integer getThermistor()
+      {
+      return getQuietly(asyncFinchController.getThermistor());
+      }
+
+   public Double getThermistorCelsiusTemperature()
+      {
+      return getQuietly(asyncFinchController.getThermistorCelsiusTemperature());
+      }
+
+   public FinchSensorSnapshot getSensorSnapshot()
+      {
+      return getQuietly(asyncFinchController.getSensorSnapshot());
+      }
+
+   /**
+    * Returns the most recently received {@link FinchSensorSnapshot} if it arrived no more than the given
+    * <code>maxAgeInMillis</code> ago, otherwise asks the server for one no older than that (which the server may be
+    * able to answer from its own cache).
+    */
+   public FinchSensorSnapshot getSensorSnapshot(final int maxAgeInMillis)
+      {
+      final ReceivedSnapshot receivedSnapshot = latestSnapshot;
+      if (receivedSnapshot != null && receivedSnapshot.getAgeInMillis() <= maxAgeInMillis)
+         {
+         return receivedSnapshot.snapshot;
+         }
+      return getQuietly(submit(FinchProtocol.OPCODE_GET_SENSOR_SNAPSHOT,
+                               ByteBuffer.allocate(4).putInt(Math.max(0, maxAgeInMillis)).array(),
+                               GetSensorSnapshotCommandStrategyHelper.class,
+                               sensorSnapshotDecoder));
+      }
+
+   /**
+    * Starts (or restarts) requesting a {@link FinchSensorSnapshot} from the server every <code>periodInMillis</code>
+    * milliseconds, so that {@link #getSensorSnapshot(int)} can usually return without waiting on the network.  A new
+    * request isn't sent until the previous one has been answered.
+    *
+    * @throws IllegalArgumentException if <code>periodInMillis</code> is not positive
+    */
+   public void startSensorSampling(final int periodInMillis)
+      {
+      if (periodInMillis <= 0)
+         {
+         throw new IllegalArgumentException("The sensor sampling period must be positive");
+         }
+      synchronized (sensorSamplerLock)
+         {
+         if (sensorSamplerFuture != null)
+            {
+            sensorSamplerFuture.cancel(false);
+            }
+         sensorSamplerFuture = scheduledExecutorService.scheduleAtFixedRate(
+               new Runnable()
+               {
+               private Future<FinchSensorSnapshot> previousRequest = null;
+
+               public void run()
+                  {
+                  if (previousRequest == null || previousRequest.isDone())
+                     {
+                     previousRequest = asyncFinchController.getSensorSnapshot();
+                     }
+                  }
+               },
+               0,
+               periodInMillis,
+               TimeUnit.MILLISECONDS);
+         }
+      }
+
+   public void stopSensorSampling()
+      {
+      synchronized (sensorSamplerLock)
+         {
+         if (sensorSamplerFuture != null)
+            {
+            sensorSamplerFuture.cancel(false);
+            sensorSamplerFuture = null;
+            }
+         }
+      }
+
+   public boolean wasShakenSinceLastCheck()
+      {
+      return wasShaken.getAndSet(false);
+      }
+
+   public boolean wasTappedSinceLastCheck()
+      {
+      return wasTapped.getAndSet(false);
+      }
+
+   public Integer getAnalogInput(final int id)
+      {
+      return getQuietly(asyncFinchController.getAnalogInput(id));
+      }
+
+   public Integer getVoltage()
+      {
+      return getQuietly(asyncFinchController.getVoltage());
+      }
+
+   public boolean setFullColorLED(final int red, final int green, final int blue)
+      {
+      return Boolean.TRUE.equals(getQuietly(asyncFinchController.setFullColorLED(red, green, blue)));
+      }
+
+   public boolean setFullColorLED(final Color color)
+      {
+      return Boolean.TRUE.equals(getQuietly(asyncFinchController.setFullColorLED(color)));
+      }
+
+   public boolean setMotorVelocities(final int leftVelocity, final int rightVelocity)
+      {
+      return Boolean.TRUE.equals(getQuietly(asyncFinchController.setMotorVelocities(leftVelocity, rightVelocity)));
+      }
+
+   public boolean playBuzzerTone(final int frequency, final int durationInMilliseconds)
+      {
+      return Boolean.TRUE.equals(getQuietly(asyncFinchController.playBuzzerTone(frequency, durationInMilliseconds)));
+      }
+
+   public void playTone(final int frequency, final int amplitude, final int duration)
+      {
+      AudioHelper.playTone(frequency, amplitude, duration);
+      }
+
+   public void playClip(final byte[] data)
+      {
+      AudioHelper.playClip(data);
+      }
+
+   public byte[] getSpeech(final String whatToSay)
+      {
+      if (whatToSay != null && whatToSay.length() > 0)
+         {
+         final Mouth mouth = Mouth.getInstance();
+
+         if (mouth != null)
+            {
+            return mouth.getSpeech(whatToSay);
+            }
+         }
+      return null;
+      }
+
+   public void speak(final String whatToSay)
+      {
+      final byte[] speechAudio = getSpeech(whatToSay);
+      if (speechAudio != null)
+         {
+         AudioHelper.playClip(speechAudio);
+         }
+      }
+
+   public boolean emergencyStop()
+      {
+      return Boolean.TRUE.equals(getQuietly(asyncFinchController.emergencyStop()));
+      }
+
+   /**
+    * Stops the finch's motors and turns off its LED (as disconnecting from a local finch does), and then closes the
+    * connection to the server.  The server, and the finch itself, remain connected for other clients.
+    */
+   public void disconnect()
+      {
+      if (isDisconnected.get())
+         {
+         return;
+         }
+
+      stopSensorSampling();
+      final Future<Boolean> emergencyStopFuture = asyncFinchController.emergencyStop();
+      try
+         {
+         emergencyStopFuture.get(DISCONNECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+         }
+      catch (Exception e)
+         {
+         LOG.error("RemoteFinchController.disconnect(): Exception while trying to stop the finch before disconnecting", e);
+         }
+
+      if (isDisconnected.compareAndSet(false, true))
+         {
+         close();
+         }
+      }
+
+   public boolean isDisconnected()
+      {
+      return isDisconnected.get();
+      }
+
+   /** Called when the connection is lost, or the server stops responding. */
+   private void handleFailure()
+      {
+      if (isDisconnected.compareAndSet(false, true))
+         {
+         close();
+         for (final CreateLabDevicePingFailureEventListener listener : createLabDevicePingFailureEventListeners)
+            {
+            try
+               {
+               listener.handlePingFailureEvent();
+               }
+            catch (Exception e)
+               {
+               LOG.error("RemoteFinchController.handleFailure(): Exception while notifying a ping failure listener", e);
+               }
+            }
+         }
+      }
+
+   private void close()
+      {
+      stopSensorSampling();
+      scheduledExecutorService.shutdownNow();
+      writerThread.interrupt();
+      try
+         {
+         socket.close();
+         }
+      catch (IOException e)
+         {
+         LOG.debug("RemoteFinchController.close(): IOException while closing the socket", e);
+         }
+
+      // requests which will never be answered complete with their failure values
+      for (final PendingRequest<?> pendingRequest : pendingRequests.values())
+         {
+         pendingRequest.fail();
+         }
+      if (LOG.isDebugEnabled())
+         {
+         LOG.debug("RemoteFinchController.close(): closed the connection to [" + portName + "], command metrics: " + finchMetrics);
+         }
+      }
+
+   private <T> Future<T> submit(final byte opcode, final byte[] arguments, final Class<?> commandStrategyClass, final ResponseDecoder<T> decoder)
+      {
+      final int requestId = nextRequestId.getAndIncrement();
+      final PendingRequest<T> pendingRequest = new PendingRequest<T>(requestId, createFrame(requestId, opcode, arguments), commandStrategyClass, decoder);
+      finchMetrics.incrementQueueDepth();
+      pendingRequests.put(requestId, pendingRequest);
+      if (isDisconnected.get())
+         {
+         pendingRequest.fail();
+         }
+      else
+         {
+         outgoingRequests.add(pendingRequest);
+         }
+      return pendingRequest;
+      }
+
+   private <T> Future<T> submit(final byte opcode, final Class<?> commandStrategyClass, final ResponseDecoder<T> decoder)
+      {
+      return submit(opcode, NO_ARGUMENTS, commandStrategyClass, decoder);
+      }
+
+   private static <T> T getQuietly(final Future<T> future)
+      {
+      try
+         {
+         return future.get();
+         }
+      catch (InterruptedException e)
+         {
+         LOG.error("RemoteFinchController.getQuietly(): InterruptedException while waiting for a response", e);
+         Thread.currentThread().interrupt();
+         }
+      catch (CancellationException e)
+         {
+         LOG.debug("RemoteFinchController.getQuietly(): the request was cancelled", e);
+         }
+      catch (ExecutionException e)
+         {
+         LOG.error("RemoteFinchController.getQuietly(): ExecutionException while waiting for a response", e);
+         }
+      return null;
+      }
+
+   private void runWriterLoop()
+      {
+      final List<PendingRequest<?>> batch = new ArrayList<PendingRequest<?>>();
+      try
+         {
+         while (!isDisconnected.get())
+            {
+            batch.add(outgoingRequests.take());
+            outgoingRequests.drainTo(batch);
+            for (final PendingRequest<?> pendingRequest : batch)
+               {
+               // don't bother sending requests which have already been cancelled
+               if (!pendingRequest.isDone())
+                  {
+                  pendingRequest.sendTime = System.nanoTime();
+                  out.write(pendingRequest.frame);
+                  }
+               }
+            out.flush();
+            batch.clear();
+            }
+         }
+      catch (InterruptedException e)
+         {
+         LOG.debug("RemoteFinchController.runWriterLoop(): interrupted, stopping");
+         }
+      catch (IOException e)
+         {
+         if (!isDisconnected.get())
+            {
+            LOG.error("RemoteFinchController.runWriterLoop(): IOException while sending requests to [" + portName + "]", e);
+            handleFailure();
+            }
+         }
+      }
+
+   private void runReaderLoop()
+      {
+      final byte[] buffer = new byte[FinchProtocol.MAX_FRAME_LENGTH];
+      try
+         {
+         while (!isDisconnected.get())
+            {
+            final ByteBuffer response = readFrame(in, buffer);
+            final int requestId = response.getInt();
+            final byte status = response.get();
+            final PendingRequest<?> pendingRequest = pendingRequests.get(requestId);
+            if (pendingRequest != null)
+               {
+               pendingRequest.complete(status, response);
+               }
+            }
+         }
+      catch (IOException e)
+         {
+         if (!isDisconnected.get())
+            {
+            LOG.error("RemoteFinchController.runReaderLoop(): IOException while reading responses from [" + portName + "]", e);
+            handleFailure();
+            }
+         }
+      }
+
+   private void cancelOverdueRequests()
+      {
+      final long now = System.nanoTime();
+      for (final PendingRequest<?> pendingRequest : pendingRequests.values())
+         {
+         final long deadlineInNanos = commandDeadlines.getDeadline(pendingRequest.commandStrategyClass, TimeUnit.NANOSECONDS);
+         if (deadlineInNanos > 0 && now - pendingRequest.submitTime > deadlineInNanos && pendingRequest.cancel(false))
+            {
+            finchMetrics.recordDeadlineMiss(pendingRequest.commandStrategyClass);
+            final int missCount = consecutiveDeadlineMissCount.incrementAndGet();
+            if (LOG.isDebugEnabled())
+               {
+               LOG.debug("RemoteFinchController.cancelOverdueRequests(): request [" + pendingRequest.requestId + "] missed its deadline (" + missCount + " in a row)");
+               }
+            if (missCount == commandDeadlines.getMaxConsecutiveMisses())
+               {
+               LOG.error("RemoteFinchController.cancelOverdueRequests(): [" + missCount + "] consecutive requests missed their deadlines, so the server appears to have failed");
+               handleFailure();
+               return;
+               }
+            }
+         }
+      }
+
+   /** Decodes the result of a successful response.  Failed responses produce {@link #getValueUponFailure()}. */
+   private abstract static class ResponseDecoder<T>
+      {
+      abstract T decode(final ByteBuffer result);
+
+      T getValueUponFailure()
+         {
+         return null;
+         }
+      }
+
+   private static final ResponseDecoder<Boolean> COMMAND_DECODER =
+         new ResponseDecoder<Boolean>()
+         {
+         Boolean decode(final ByteBuffer result)
+            {
+            return true;
+            }
+
+         @Override
+         Boolean getValueUponFailure()
+            {
+            return false;
+            }
+         };
+
+   private static final ResponseDecoder<AccelerometerState> ACCELEROMETER_STATE_DECODER =
+         new ResponseDecoder<AccelerometerState>()
+         {
+         AccelerometerState decode(final ByteBuffer result)
+            {
+            return FinchProtocol.getAccelerometerState(result);
+            }
+         };
+
+   private static final ResponseDecoder<AccelerometerGs> ACCELEROMETER_GS_DECODER =
+         new ResponseDecoder<AccelerometerGs>()
+         {
+         AccelerometerGs decode(final ByteBuffer result)
+            {
+            return FinchProtocol.getAccelerometerGs(result);
+            }
+         };
+
+   private static final ResponseDecoder<boolean[]> BOOLEANS_DECODER =
+         new ResponseDecoder<boolean[]>()
+         {
+         boolean[] decode(final ByteBuffer result)
+            {
+            return FinchProtocol.getBooleans(result);
+            }
+         };
+
+   private static final ResponseDecoder<int[]> INTS_DECODER =
+         new ResponseDecoder<int[]>()
+         {
+         int[] decode(final ByteBuffer result)
+            {
+            return FinchProtocol.getInts(result);
+            }
+         };
+
+   private static final ResponseDecoder<Integer> INTEGER_DECODER =
+         new ResponseDecoder<Integer>()
+         {
+         Integer decode(final ByteBuffer result)
+            {
+            return result.getInt();
+            }
+         };
+
+   private static final ResponseDecoder<Double> DOUBLE_DECODER =
+         new ResponseDecoder<Double>()
+         {
+         Double decode(final ByteBuffer result)
+            {
+            return result.getDouble();
+            }
+         };
+
+   private static final class ReceivedSnapshot
+      {
+      private final FinchSensorSnapshot snapshot;
+      private final long receiveTime = System.nanoTime();
+
+      private ReceivedSnapshot(final FinchSensorSnapshot snapshot)
+         {
+         this.snapshot = snapshot;
+         }
+
+      /** Measured from when the snapshot was received, since the two computers' clocks may not agree. */
+      private long getAgeInMillis()
+         {
+         return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - receiveTime);
+         }
+      }
+
+   /** A request which has been submitted, and whose future is completed by the reader thread. */
+   private final class PendingRequest<T> extends FutureTask<T>
+      {
+      private final int requestId;
+      private final byte[] frame;
+      private final Class<?> commandStrategyClass;
+      private final ResponseDecoder<T> decoder;
+      private final long submitTime = System.nanoTime();
+      private volatile long sendTime = 0;
+
+      private PendingRequest(final int requestId, final byte[] frame, final Class<?> commandStrategyClass, final ResponseDecoder<T> decoder)
+         {
+         super(NO_OP_RUNNABLE, null);
+         this.requestId = requestId;
+         this.frame = frame;
+         this.commandStrategyClass = commandStrategyClass;
+         this.decoder = decoder;
+         }
+
+      /** Completes the request with the given response, whose result must be decoded before this method returns. */
+      private void complete(final byte status, final ByteBuffer result)
+         {
+         final long now = System.nanoTime();
+         final boolean wasSuccessful = (status == FinchProtocol.STATUS_OK);
+         T value = decoder.getValueUponFailure();
+         if (wasSuccessful)
+            {
+            try
+               {
+               value = decoder.decode(result);
+               }
+            catch (RuntimeException e)
+               {
+               LOG.error("RemoteFinchController$PendingRequest.complete(): RuntimeException while decoding the response to request [" + requestId + "]", e);
+               }
+            }
+         consecutiveDeadlineMissCount.set(0);
+         final long sent = (sendTime == 0) ? submitTime : sendTime;
+         finchMetrics.recordExecution(commandStrategyClass, sent - submitTime, now - sent, wasSuccessful);
+         set(value);
+         }
+
+      private void fail()
+         {
+         set(decoder.getValueUponFailure());
+         }
+
+      @Override
+      protected void done()
+         {
+         if (pendingRequests.remove(requestId) != null)
+            {
+            finchMetrics.decrementQueueDepth();
+            }
+         }
+      }
+
+   private final class RemoteAsyncFinchController implements AsyncFinchController
+      {
+      public Future<AccelerometerState> getAccelerometerState()
+         {
+         return submit(FinchProtocol.OPCODE_GET_ACCELEROMETER_STATE, GetAccelerometerCommandStrategyHelper.class, ACCELEROMETER_STATE_DECODER);
+         }
+
+      public Future<AccelerometerGs> getAccelerometerGs()
+         {
+         return submit(FinchProtocol.OPCODE_GET_ACCELEROMETER_GS, GetAccelerometerCommandStrategyHelper.class, ACCELEROMETER_GS_DECODER);
+         }
+
+      public Future<Boolean> isObstacleDetected(final int id)
+         {
+         return new ConvertingFuture<boolean[], Boolean>(areObstaclesDetected())
+         {
+         protected Boolean convert(final boolean[] isDetected)
+            {
+            if (isDetected != null && id >= 0 && id < isDetected.length)
+               {
+               return isDetected[id];
+               }
+            return null;
+            }
+
+         protected Boolean getValueUponFailure()
+            {
+            return null;
+            }
+         };
+         }
+
+      public Future<boolean[]> areObstaclesDetected()
+         {
+         return submit(FinchProtocol.OPCODE_ARE_OBSTACLES_DETECTED, GetObstacleSensorCommandStrategyHelper.class, BOOLEANS_DECODER);
+         }
+
+      public Future<int[]> getPhotoresistors()
+         {
+         return submit(FinchProtocol.OPCODE_GET_PHOTORESISTORS, GetPhotoresistorCommandStrategyHelper.class, INTS_DECODER);
+         }
+
+      public Future<Integer> getThermistor(final int id)
+         {
+         if (id >= 0 && id < finchProperties.getThermistorDeviceCount())
+            {
+            return getThermistor();
+            }
+         final FutureTask<Integer> future = new FutureTask<Integer>(NO_OP_RUNNABLE, null);
+         future.run();
+         return future;
+         }
+
+      public Future<Integer> getThermistor()
+         {
+         return submit(FinchProtocol.OPCODE_GET_THERMISTOR, GetThermistorCommandStrategyHelper.class, INTEGER_DECODER);
+         }
+
+      public Future<Double> getThermistorCelsiusTemperature()
+         {
+         return submit(FinchProtocol.OPCODE_GET_THERMISTOR_CELSIUS, GetThermistorCommandStrategyHelper.class, DOUBLE_DECODER);
+         }
+
+      public Future<FinchSensorSnapshot> getSensorSnapshot()
+         {
+         return submit(FinchProtocol.OPCODE_GET_SENSOR_SNAPSHOT, new byte[4], GetSensorSnapshotCommandStrategyHelper.class, sensorSnapshotDecoder);
+         }
+
+      public Future<Integer> getAnalogInput(final int id)
+         {
+         return submit(FinchProtocol.OPCODE_GET_ANALOG_INPUT, new byte[]{(byte)id}, AnalogInputCommandStrategyHelper.class, INTEGER_DECODER);
+         }
+
+      public Future<Integer> getVoltage()
+         {
+         return submit(FinchProtocol.OPCODE_GET_VOLTAGE, GetVoltageCommandStrategyHelper.class, INTEGER_DECODER);
+         }
+
+      public Future<Boolean> setFullColorLED(final int red, final int green, final int blue)
+         {
+         return submit(FinchProtocol.OPCODE_SET_FULL_COLOR_LED, toShortArguments(red, green, blue), FullColorLEDCommandStrategyHelper.class, COMMAND_DECODER);
+         }
+
+      public Future<Boolean> setFullColorLED(final Color color)
+         {
+         return setFullColorLED(color.getRed(), color.getGreen(), color.getBlue());
+         }
+
+      public Future<Boolean> setMotorVelocities(final int leftVelocity, final int rightVelocity)
+         {
+         return submit(FinchProtocol.OPCODE_SET_MOTOR_VELOCITIES, toShortArguments(leftVelocity, rightVelocity), MotorVelocityCommandStrategyHelper.class, COMMAND_DECODER);
+         }
+
+      public Future<Boolean> setFullColorLED(final int red, final int green, final int blue, final CommandBarrier commandBarrier)
+         {
+         commandBarrier.withdraw();
+         return setFullColorLED(red, green, blue);
+         }
+
+      public Future<Boolean> setMotorVelocities(final int leftVelocity, final int rightVelocity, final CommandBarrier commandBarrier)
+         {
+         commandBarrier.withdraw();
+         return setMotorVelocities(leftVelocity, rightVelocity);
+         }
+
+      public Future<Boolean> playBuzzerTone(final int frequency, final int durationInMilliseconds)
+         {
+         return submit(FinchProtocol.OPCODE_PLAY_BUZZER_TONE, toShortArguments(frequency, durationInMilliseconds), BuzzerCommandStrategyHelper.class, COMMAND_DECODER);
+         }
+
+      public Future<Boolean> emergencyStop()
+         {
+         return submit(FinchProtocol.OPCODE_EMERGENCY_STOP, EmergencyStopCommandStrategyHelper.class, COMMAND_DECODER);
+         }
+      }
+   }
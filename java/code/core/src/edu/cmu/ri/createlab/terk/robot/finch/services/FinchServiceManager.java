@@ -1,23 +1,44 @@
 package edu.cmu.ri.createlab.terk.robot.finch.services;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import edu.cmu.ri.createlab.terk.robot.finch.FinchController;
 import edu.cmu.ri.createlab.terk.services.AbstractServiceManager;
 import edu.cmu.ri.createlab.terk.services.Service;
+import edu.cmu.ri.createlab.util.thread.DaemonThreadFactory;
 import org.apache.log4j.Logger;
 
 /**
+ * <p>
+ * <code>FinchServiceManager</code> creates each supported service the first time it's asked for, and caches it.
+ * Looking up a service which has already been created takes no locks.  Each service is only ever created once: a
+ * caller asking for a service which another thread is creating waits for that thread to finish.
+ * </p>
+ * <p>
+ * Services may also be {@link #preloadServices() created ahead of time}, in parallel, so that the first command sent
+ * through each service doesn't pay for creating it.  This happens automatically upon construction if the
+ * {@link #PRELOAD_SERVICES_SYSTEM_PROPERTY} system property is <code>true</code>.
+ * </p>
+ *
  * @author Chris Bartley (bartley@cmu.edu)
  */
 public final class FinchServiceManager extends AbstractServiceManager
    {
    private static final Logger LOG = Logger.getLogger(FinchServiceManager.class);
 
+   /** The system property which, if <code>true</code>, makes every new manager call {@link #preloadServices()}. */
+   public static final String PRELOAD_SERVICES_SYSTEM_PROPERTY = "finch.services.preload";
+
    private final FinchController finchController;
    private final FinchServiceFactory serviceFactory;
-   private final Map<String, Service> loadedServices = Collections.synchronizedMap(new HashMap<String, Service>());
+   private final ConcurrentMap<String, Future<Service>> loadedServices = new ConcurrentHashMap<String, Future<Service>>();
 
    public FinchServiceManager(final FinchController finchController, final FinchServiceFactoryHelper finchServiceFactoryHelper)
       {
@@ -31,6 +52,45 @@ public final class FinchServiceManager extends AbstractServiceManager
 
       // register the supported services with the superclass
       registerSupportedServices(serviceFactory.getSupportedServices());
+
+      if (Boolean.getBoolean(PRELOAD_SERVICES_SYSTEM_PROPERTY))
+         {
+         preloadServices();
+         }
+      }
+
+   /**
+    * Starts creating every supported service which hasn't already been created, in parallel, and returns immediately.
+    * A caller asking for a service which is still being created waits only for that service.
+    */
+   public void preloadServices()
+      {
+      final Set<String> typeIds = getTypeIdsOfSupportedServices();
+      if (typeIds.isEmpty())
+         {
+         return;
+         }
+
+      final int numThreads = Math.min(typeIds.size(), Runtime.getRuntime().availableProcessors());
+      final ExecutorService executor = Executors.newFixedThreadPool(numThreads, new DaemonThreadFactory("FinchServiceManager.preloadServices"));
+      int numPreloaded = 0;
+      for (final String typeId : typeIds)
+         {
+         final FutureTask<Service> task = createServiceTask(typeId);
+         if (loadedServices.putIfAbsent(typeId, task) == null)
+            {
+            executor.execute(task);
+            numPreloaded++;
+            }
+         }
+
+      // let the threads exit once the services have been created
+      executor.shutdown();
+
+      if (LOG.isDebugEnabled())
+         {
+         LOG.debug("FinchServiceManager.preloadServices(): creating [" + numPreloaded + "] service(s) on [" + numThreads + "] thread(s)");
+         }
       }
 
    protected final Service loadService(final String typeId)
@@ -40,34 +100,60 @@ public final class FinchServiceManager extends AbstractServiceManager
          LOG.trace("FinchServiceManager.loadService(" + typeId + ")");
          }
 
-      if (serviceFactory != null)
+      // see whether we've already loaded (or started loading) this service
+      Future<Service> future = loadedServices.get(typeId);
+      if (future == null)
          {
-         Service service;
-
-         synchronized (loadedServices)
+         // don't cache anything for unsupported services, since the factory can't create them anyway (the factory's
+         // set is checked rather than the superclass's, since the latter is synchronized)
+         if (serviceFactory == null || !serviceFactory.getSupportedServices().contains(typeId))
             {
-            // see whether we've already loaded this service
-            service = loadedServices.get(typeId);
-
-            // load the service
-            if (service == null)
-               {
-               if (LOG.isDebugEnabled())
-                  {
-                  LOG.debug("FinchServiceManager.loadService() needs to load the [" + typeId + "] service");
-                  }
+            return null;
+            }
 
-               service = serviceFactory.createService(typeId, finchController);
+         final FutureTask<Service> task = createServiceTask(typeId);
+         future = loadedServices.putIfAbsent(typeId, task);
 
-               // cache this service so future calls won't have to create it
-               loadedServices.put(typeId, service);
+         // if no other thread beat us to it, load the service
+         if (future == null)
+            {
+            if (LOG.isDebugEnabled())
+               {
+               LOG.debug("FinchServiceManager.loadService() needs to load the [" + typeId + "] service");
                }
+            future = task;
+            task.run();
             }
+         }
 
-         return service;
+      try
+         {
+         return future.get();
          }
+      catch (ExecutionException e)
+         {
+         LOG.error("FinchServiceManager.loadService(): Exception while creating the [" + typeId + "] service", e.getCause());
 
+         // forget the failure, so that the next caller tries again
+         loadedServices.remove(typeId, future);
+         }
+      catch (InterruptedException e)
+         {
+         LOG.error("FinchServiceManager.loadService(): InterruptedException while waiting for the [" + typeId + "] service to be created", e);
+         Thread.currentThread().interrupt();
+         }
       return null;
       }
-   }
 
+   private FutureTask<Service> createServiceTask(final String typeId)
+      {
+      return new FutureTask<Service>(
+            new Callable<Service>()
+            {
+            public Service call()
+               {
+               return serviceFactory.createService(typeId, finchController);
+               }
+            });
+      }
+   }
@@ -0,0 +1,181 @@
+package edu.cmu.ri.createlab.terk.robot.finch.sharedmemory;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import edu.cmu.ri.createlab.terk.robot.finch.FinchSensorSnapshot;
+import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerGs;
+import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerState;
+
+/**
+ * <p>
+ * <code>SharedFinchBoard</code> defines the layout of the memory-mapped file through which a
+ * {@link SharedFinchBoardDaemon} shares a finch with {@link SharedFinchBoardReader readers} in other processes on the
+ * same computer.  All values are in the native byte order, at these offsets:
+ * </p>
+ * <pre>
+ *      0  int    magic number
+ *      4  int    layout version
+ *      8  int    FinchHardwareType ordinal
+ *     12  int    1 while the daemon is running, 0 once it has stopped
+ *     16  long   heartbeat: the daemon's clock (in millis) when it last sampled the sensors
+ *
+ *     64  long   snapshot sequence (odd while the snapshot is being written, 0 if none has been written yet)
+ *     72  128    snapshot
+ *
+ *    256  long   command request sequence
+ *    264  int    command opcode
+ *    268  int[3] command arguments
+ *    320  long   command acknowledgement sequence
+ *    328  int    command status
+ *
+ *   snapshot     long timestamp, int x, int y, int z (accelerometer), int flags (bit 0 = shaken, bit 1 = tapped,
+ *                bit 2 = has gs, bit 3 = has celsius), double x, double y, double z (gs), int thermistor,
+ *                double celsius, int obstacle count, int photoresistor count, 8 x byte obstacles,
+ *                8 x int photoresistors
+ * </pre>
+ * <p>
+ * The snapshot is protected by a seqlock: the daemon makes the sequence odd, writes the snapshot, and then makes the
+ * sequence even again, so a reader which copies the snapshot and then sees the same even sequence it saw before
+ * copying knows its copy is consistent.  Readers never block the daemon, or each other.
+ * </p>
+ * <p>
+ * The command mailbox holds one command at a time.  A reader holding a lock on the mailbox region of the file writes
+ * the opcode (one of the {@link edu.cmu.ri.createlab.terk.robot.finch.net.FinchProtocol FinchProtocol} command
+ * opcodes) and arguments, then increments the request sequence.  The daemon executes the command, writes its status
+ * (a <code>FinchProtocol</code> status), and then sets the acknowledgement sequence equal to the request sequence.
+ * </p>
+ * <p>
+ * Java 6 offers no explicit memory fences, so both sides order their accesses to the mapped buffer around accesses to
+ * a volatile field, which HotSpot does not reorder ordinary memory accesses across.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class SharedFinchBoard
+   {
+   /** The system property which sets the path of the shared file. */
+   public static final String FILE_SYSTEM_PROPERTY = "finch.shared-board.file";
+
+   /** Where the shared file is kept by default.  On Linux, setting the path to one under /dev/shm avoids the disk. */
+   public static final String DEFAULT_FILE_PATH = System.getProperty("java.io.tmpdir") + File.separator + "finch-shared-board";
+
+   static final int MAGIC = 0x46494E43;
+   static final int VERSION = 1;
+   static final int SIZE = 4096;
+
+   static final int MAGIC_OFFSET = 0;
+   static final int VERSION_OFFSET = 4;
+   static final int HARDWARE_TYPE_OFFSET = 8;
+   static final int RUNNING_OFFSET = 12;
+   static final int HEARTBEAT_OFFSET = 16;
+
+   static final int SNAPSHOT_SEQUENCE_OFFSET = 64;
+   static final int SNAPSHOT_OFFSET = 72;
+   static final int SNAPSHOT_SIZE = 128;
+
+   static final int MAILBOX_OFFSET = 256;
+   static final int MAILBOX_SIZE = 128;
+   static final int REQUEST_SEQUENCE_OFFSET = 256;
+   static final int OPCODE_OFFSET = 264;
+   static final int ARGUMENTS_OFFSET = 268;
+   static final int ACKNOWLEDGEMENT_SEQUENCE_OFFSET = 320;
+   static final int STATUS_OFFSET = 328;
+
+   /** The most obstacle sensors or photoresistors a snapshot can hold. */
+   static final int MAX_SENSOR_COUNT = 8;
+
+   private static final int FLAG_SHAKEN = 1;
+   private static final int FLAG_TAPPED = 2;
+   private static final int FLAG_HAS_GS = 4;
+   private static final int FLAG_HAS_CELSIUS = 8;
+
+   private static volatile int fence = 0;
+
+   /** Keeps ordinary accesses to the mapped buffer from being reordered across this call. */
+   static void fence()
+      {
+      fence++;
+      }
+
+   /** Returns the path of the shared file, as set by the {@link #FILE_SYSTEM_PROPERTY} system property. */
+   public static File getDefaultFile()
+      {
+      return new File(System.getProperty(FILE_SYSTEM_PROPERTY, DEFAULT_FILE_PATH));
+      }
+
+   /** Writes the given snapshot into the given buffer, starting at its current position. */
+   static void putSensorSnapshot(final ByteBuffer buffer, final FinchSensorSnapshot snapshot)
+      {
+      final AccelerometerState state = snapshot.getAccelerometerState();
+      final AccelerometerGs gs = snapshot.getAccelerometerGs();
+      final Double celsius = snapshot.getThermistorCelsiusTemperature();
+      final boolean[] obstacles = snapshot.areObstaclesDetected();
+      final int[] photoresistors = snapshot.getPhotoresistors();
+      final int obstacleCount = Math.min(obstacles.length, MAX_SENSOR_COUNT);
+      final int photoresistorCount = Math.min(photoresistors.length, MAX_SENSOR_COUNT);
+
+      buffer.putLong(snapshot.getTimestamp());
+      buffer.putInt(state.getX());
+      buffer.putInt(state.getY());
+      buffer.putInt(state.getZ());
+      buffer.putInt((state.wasShaken() ? FLAG_SHAKEN : 0) |
+                    (state.wasTapped() ? FLAG_TAPPED : 0) |
+                    (gs != null ? FLAG_HAS_GS : 0) |
+                    (celsius != null ? FLAG_HAS_CELSIUS : 0));
+      buffer.putDouble(gs == null ? 0 : gs.getX());
+      buffer.putDouble(gs == null ? 0 : gs.getY());
+      buffer.putDouble(gs == null ? 0 : gs.getZ());
+      buffer.putInt(snapshot.getThermistor());
+      buffer.putDouble(celsius == null ? 0 : celsius);
+      buffer.putInt(obstacleCount);
+      buffer.putInt(photoresistorCount);
+      for (int i = 0; i < MAX_SENSOR_COUNT; i++)
+         {
+         buffer.put((byte)(i < obstacleCount && obstacles[i] ? 1 : 0));
+         }
+      for (int i = 0; i < MAX_SENSOR_COUNT; i++)
+         {
+         buffer.putInt(i < photoresistorCount ? photoresistors[i] : 0);
+         }
+      }
+
+   /** Reads a snapshot from the given buffer, starting at its current position. */
+   static FinchSensorSnapshot getSensorSnapshot(final ByteBuffer buffer)
+      {
+      final long timestamp = buffer.getLong();
+      final int x = buffer.getInt();
+      final int y = buffer.getInt();
+      final int z = buffer.getInt();
+      final int flags = buffer.getInt();
+      final double gx = buffer.getDouble();
+      final double gy = buffer.getDouble();
+      final double gz = buffer.getDouble();
+      final int thermistor = buffer.getInt();
+      final double celsius = buffer.getDouble();
+      final boolean[] obstacles = new boolean[Math.min(buffer.getInt(), MAX_SENSOR_COUNT)];
+      final int[] photoresistors = new int[Math.min(buffer.getInt(), MAX_SENSOR_COUNT)];
+      final int obstaclesPosition = buffer.position();
+      for (int i = 0; i < obstacles.length; i++)
+         {
+         obstacles[i] = buffer.get(obstaclesPosition + i) != 0;
+         }
+      buffer.position(obstaclesPosition + MAX_SENSOR_COUNT);
+      for (int i = 0; i < photoresistors.length; i++)
+         {
+         photoresistors[i] = buffer.getInt();
+         }
+
+      return new FinchSensorSnapshot(timestamp,
+                                     new AccelerometerState(x, y, z, (flags & FLAG_SHAKEN) != 0, (flags & FLAG_TAPPED) != 0),
+                                     (flags & FLAG_HAS_GS) != 0 ? new AccelerometerGs(gx, gy, gz) : null,
+                                     obstacles,
+                                     photoresistors,
+                                     thermistor,
+                                     (flags & FLAG_HAS_CELSIUS) != 0 ? celsius : null);
+      }
+
+   private SharedFinchBoard()
+      {
+      // private to prevent instantiation
+      }
+   }
@@ -0,0 +1,385 @@
+package edu.cmu.ri.createlab.terk.robot.finch.sharedmemory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import edu.cmu.ri.createlab.device.CreateLabDevicePingFailureEventListener;
+import edu.cmu.ri.createlab.device.connectivity.FinchConnectivityManager;
+import edu.cmu.ri.createlab.device.connectivity.HIDFinchConnectivityManager;
+import edu.cmu.ri.createlab.device.connectivity.SimulatedFinchConnectivityManager;
+import edu.cmu.ri.createlab.terk.robot.finch.Finch;
+import edu.cmu.ri.createlab.terk.robot.finch.FinchController;
+import edu.cmu.ri.createlab.terk.robot.finch.FinchSensorSnapshot;
+import edu.cmu.ri.createlab.terk.robot.finch.net.FinchProtocol;
+import edu.cmu.ri.createlab.util.thread.DaemonThreadFactory;
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * <code>SharedFinchBoardDaemon</code> owns a {@link FinchController} and shares it with other processes on the same
+ * computer through a memory-mapped file laid out as described in {@link SharedFinchBoard}.  Since only one process
+ * can open a finch, this lets a logger, a dashboard, and a student's program all use the same finch at once, via
+ * {@link SharedFinchBoardReader}.
+ * </p>
+ * <p>
+ * The daemon samples the sensors periodically and publishes the latest snapshot, and a second thread polls the
+ * command mailbox and executes whatever commands the readers send.  The daemon doesn't own the controller: stopping
+ * it leaves the controller connected.  See {@link #main(String[])} to run the daemon on its own.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class SharedFinchBoardDaemon
+   {
+   private static final Logger LOG = Logger.getLogger(SharedFinchBoardDaemon.class);
+
+   /** The system property which sets how often the sensors are sampled, in milliseconds. */
+   public static final String SAMPLE_PERIOD_SYSTEM_PROPERTY = "finch.shared-board.sample-period-millis";
+
+   public static final int DEFAULT_SAMPLE_PERIOD_MILLIS = 20;
+
+   /** How long the mailbox thread sleeps between checks for a new command. */
+   private static final long MAILBOX_POLL_PERIOD_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+   /**
+    * Connects to the finch attached via USB (or to a simulated finch if the {@link Finch#USE_SIMULATOR_SYSTEM_PROPERTY}
+    * system property is <code>true</code>) and shares it until the process is killed.  Usage:
+    * <pre>
+    *    SharedFinchBoardDaemon [shared file (default set by finch.shared-board.file)]
+    * </pre>
+    */
+   public static void main(final String[] args) throws IOException, InterruptedException
+      {
+      final File file = (args.length > 0) ? new File(args[0]) : SharedFinchBoard.getDefaultFile();
+      final FinchConnectivityManager connectivityManager = Boolean.getBoolean(Finch.USE_SIMULATOR_SYSTEM_PROPERTY) ? new SimulatedFinchConnectivityManager() : new HIDFinchConnectivityManager();
+
+      System.out.println("Connecting to Finch...this may take a few seconds...");
+      final FinchController finchController = connectivityManager.connect();
+      final SharedFinchBoardDaemon daemon = new SharedFinchBoardDaemon(finchController, file);
+      finchController.addCreateLabDevicePingFailureEventListener(
+            new CreateLabDevicePingFailureEventListener()
+            {
+            public void handlePingFailureEvent()
+               {
+               System.err.println("Lost the connection to the finch.");
+               daemon.stop();
+               }
+            });
+      Runtime.getRuntime().addShutdownHook(
+            new Thread(
+                  new Runnable()
+                  {
+                  public void run()
+                     {
+                     daemon.stop();
+                     connectivityManager.disconnect();
+                     }
+                  }));
+
+      daemon.start(Integer.getInteger(SAMPLE_PERIOD_SYSTEM_PROPERTY, DEFAULT_SAMPLE_PERIOD_MILLIS));
+      System.out.println("Sharing the finch through [" + file.getAbsolutePath() + "]");
+      daemon.stoppedLatch.await();
+      connectivityManager.disconnect();
+      }
+
+   private final FinchController finchController;
+   private final File file;
+   private final AtomicLong publishCount = new AtomicLong(0);
+   private final AtomicLong commandCount = new AtomicLong(0);
+   private final CountDownLatch stoppedLatch = new CountDownLatch(1);
+
+   private final Object lifecycleLock = new Object();
+   private volatile boolean isRunning = false;
+   private boolean wasStarted = false;
+   private RandomAccessFile randomAccessFile;
+   private MappedByteBuffer buffer;
+   private ScheduledExecutorService samplerExecutor;
+   private Thread mailboxThread;
+
+   // only touched by the sampler thread
+   private final ByteBuffer snapshotBuffer = ByteBuffer.allocate(SharedFinchBoard.SNAPSHOT_SIZE).order(ByteOrder.nativeOrder());
+   private long snapshotSequence;
+
+   /**
+    * Creates a daemon which will share the given controller through the given file, creating the file if necessary.
+    *
+    * @throws IllegalArgumentException if either argument is <code>null</code>
+    */
+   public SharedFinchBoardDaemon(final FinchController finchController, final File file)
+      {
+      if (finchController == null)
+         {
+         throw new IllegalArgumentException("The FinchController may not be null");
+         }
+      if (file == null)
+         {
+         throw new IllegalArgumentException("The File may not be null");
+         }
+      this.finchController = finchController;
+      this.file = file;
+      }
+
+   /**
+    * Maps the shared file and starts sampling the sensors every <code>samplePeriodInMillis</code> milliseconds and
+    * executing commands from the mailbox.  A daemon may only be started once.
+    *
+    * @throws IllegalArgumentException if <code>samplePeriodInMillis</code> is not positive
+    * @throws IllegalStateException if the daemon has already been started
+    * @throws IOException if the file could not be mapped
+    */
+   public void start(final int samplePeriodInMillis) throws IOException
+      {
+      if (samplePeriodInMillis <= 0)
+         {
+         throw new IllegalArgumentException("The sample period must be positive");
+         }
+      synchronized (lifecycleLock)
+         {
+         if (wasStarted)
+            {
+            throw new IllegalStateException("A SharedFinchBoardDaemon can only be started once");
+            }
+         wasStarted = true;
+
+         randomAccessFile = new RandomAccessFile(file, "rw");
+         try
+            {
+            randomAccessFile.setLength(SharedFinchBoard.SIZE);
+            buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SharedFinchBoard.SIZE);
+            }
+         catch (IOException e)
+            {
+            randomAccessFile.close();
+            throw e;
+            }
+         buffer.order(ByteOrder.nativeOrder());
+         initializeHeader();
+
+         isRunning = true;
+         samplerExecutor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("SharedFinchBoardDaemon.samplerExecutor"));
+         samplerExecutor.scheduleAtFixedRate(
+               new Runnable()
+               {
+               public void run()
+                  {
+                  sample();
+                  }
+               },
+               0,
+               samplePeriodInMillis,
+               TimeUnit.MILLISECONDS);
+         mailboxThread = new DaemonThreadFactory("SharedFinchBoardDaemon.mailboxThread").newThread(
+               new Runnable()
+               {
+               public void run()
+                  {
+                  runMailboxLoop();
+                  }
+               });
+         mailboxThread.start();
+
+         if (LOG.isInfoEnabled())
+            {
+            LOG.info("SharedFinchBoardDaemon.start(): sharing the finch through [" + file.getAbsolutePath() + "]");
+            }
+         }
+      }
+
+   public boolean isRunning()
+      {
+      return isRunning;
+      }
+
+   /** Returns the path of the shared file. */
+   public File getFile()
+      {
+      return file;
+      }
+
+   /** Returns the number of snapshots published so far. */
+   public long getPublishCount()
+      {
+      return publishCount.get();
+      }
+
+   /** Returns the number of commands executed so far. */
+   public long getCommandCount()
+      {
+      return commandCount.get();
+      }
+
+   /** Stops sampling and executing commands, and tells readers the daemon has stopped.  The file is left in place. */
+   public void stop()
+      {
+      synchronized (lifecycleLock)
+         {
+         if (!isRunning)
+            {
+            return;
+            }
+         isRunning = false;
+
+         samplerExecutor.shutdown();
+         try
+            {
+            if (!samplerExecutor.awaitTermination(1, TimeUnit.SECONDS))
+               {
+               LOG.error("SharedFinchBoardDaemon.stop(): timed out waiting for the sampler to stop");
+               }
+            }
+         catch (InterruptedException e)
+            {
+            LOG.error("SharedFinchBoardDaemon.stop(): InterruptedException while waiting for the sampler to stop", e);
+            Thread.currentThread().interrupt();
+            }
+         LockSupport.unpark(mailboxThread);
+         try
+            {
+            mailboxThread.join(1000);
+            }
+         catch (InterruptedException e)
+            {
+            LOG.error("SharedFinchBoardDaemon.stop(): InterruptedException while waiting for the mailbox thread to stop", e);
+            Thread.currentThread().interrupt();
+            }
+
+         buffer.putInt(SharedFinchBoard.RUNNING_OFFSET, 0);
+         buffer.force();
+         try
+            {
+            randomAccessFile.close();
+            }
+         catch (IOException e)
+            {
+            LOG.error("SharedFinchBoardDaemon.stop(): IOException while closing the shared file", e);
+            }
+         stoppedLatch.countDown();
+
+         if (LOG.isInfoEnabled())
+            {
+            LOG.info("SharedFinchBoardDaemon.stop(): stopped after publishing [" + publishCount.get() + "] snapshots and executing [" + commandCount.get() + "] commands");
+            }
+         }
+      }
+
+   private void initializeHeader()
+      {
+      // keep the sequences from any previous run, so readers which still have the file mapped aren't confused
+      final long previousSnapshotSequence = buffer.getLong(SharedFinchBoard.SNAPSHOT_SEQUENCE_OFFSET);
+      snapshotSequence = previousSnapshotSequence + (previousSnapshotSequence & 1);
+      buffer.putLong(SharedFinchBoard.SNAPSHOT_SEQUENCE_OFFSET, snapshotSequence);
+      buffer.putLong(SharedFinchBoard.ACKNOWLEDGEMENT_SEQUENCE_OFFSET, buffer.getLong(SharedFinchBoard.REQUEST_SEQUENCE_OFFSET));
+
+      buffer.putInt(SharedFinchBoard.VERSION_OFFSET, SharedFinchBoard.VERSION);
+      buffer.putInt(SharedFinchBoard.HARDWARE_TYPE_OFFSET, finchController.getFinchProperties().getHardwareType().ordinal());
+      buffer.putLong(SharedFinchBoard.HEARTBEAT_OFFSET, System.currentTimeMillis());
+      buffer.putInt(SharedFinchBoard.RUNNING_OFFSET, 1);
+      SharedFinchBoard.fence();
+      buffer.putInt(SharedFinchBoard.MAGIC_OFFSET, SharedFinchBoard.MAGIC);
+      }
+
+   private void sample()
+      {
+      try
+         {
+         final FinchSensorSnapshot snapshot = finchController.getSensorSnapshot();
+         if (snapshot != null)
+            {
+            snapshotBuffer.clear();
+            SharedFinchBoard.putSensorSnapshot(snapshotBuffer, snapshot);
+
+            // seqlock: odd while writing, even once the snapshot is complete
+            buffer.putLong(SharedFinchBoard.SNAPSHOT_SEQUENCE_OFFSET, ++snapshotSequence);
+            SharedFinchBoard.fence();
+            for (int i = 0; i < SharedFinchBoard.SNAPSHOT_SIZE; i += 8)
+               {
+               buffer.putLong(SharedFinchBoard.SNAPSHOT_OFFSET + i, snapshotBuffer.getLong(i));
+               }
+            SharedFinchBoard.fence();
+            buffer.putLong(SharedFinchBoard.SNAPSHOT_SEQUENCE_OFFSET, ++snapshotSequence);
+            publishCount.incrementAndGet();
+            }
+         buffer.putLong(SharedFinchBoard.HEARTBEAT_OFFSET, System.currentTimeMillis());
+         }
+      catch (Exception e)
+         {
+         LOG.error("SharedFinchBoardDaemon.sample(): Exception while sampling the sensors", e);
+         }
+      }
+
+   private void runMailboxLoop()
+      {
+      while (isRunning)
+         {
+         final long requestSequence = buffer.getLong(SharedFinchBoard.REQUEST_SEQUENCE_OFFSET);
+         if (requestSequence != buffer.getLong(SharedFinchBoard.ACKNOWLEDGEMENT_SEQUENCE_OFFSET))
+            {
+            SharedFinchBoard.fence();
+            final int opcode = buffer.getInt(SharedFinchBoard.OPCODE_OFFSET);
+            final int argument0 = buffer.getInt(SharedFinchBoard.ARGUMENTS_OFFSET);
+            final int argument1 = buffer.getInt(SharedFinchBoard.ARGUMENTS_OFFSET + 4);
+            final int argument2 = buffer.getInt(SharedFinchBoard.ARGUMENTS_OFFSET + 8);
+
+            byte status;
+            try
+               {
+               status = executeCommand(opcode, argument0, argument1, argument2);
+               }
+            catch (Exception e)
+               {
+               LOG.error("SharedFinchBoardDaemon.runMailboxLoop(): Exception while executing the command with opcode [" + opcode + "]", e);
+               status = FinchProtocol.STATUS_FAILED;
+               }
+            commandCount.incrementAndGet();
+
+            buffer.putInt(SharedFinchBoard.STATUS_OFFSET, status);
+            SharedFinchBoard.fence();
+            buffer.putLong(SharedFinchBoard.ACKNOWLEDGEMENT_SEQUENCE_OFFSET, requestSequence);
+            }
+         else
+            {
+            LockSupport.parkNanos(MAILBOX_POLL_PERIOD_NANOS);
+            }
+         }
+      }
+
+   private byte executeCommand(final int opcode, final int argument0, final int argument1, final int argument2)
+      {
+      switch (opcode)
+         {
+         case FinchProtocol.OPCODE_SET_FULL_COLOR_LED:
+            return toStatus(finchController.setFullColorLED(argument0, argument1, argument2));
+
+         case FinchProtocol.OPCODE_SET_MOTOR_VELOCITIES:
+            return toStatus(finchController.setMotorVelocities(argument0, argument1));
+
+         case FinchProtocol.OPCODE_PLAY_BUZZER_TONE:
+            return toStatus(finchController.playBuzzerTone(argument0, argument1));
+
+         case FinchProtocol.OPCODE_EMERGENCY_STOP:
+            return toStatus(finchController.emergencyStop());
+
+         default:
+            if (LOG.isDebugEnabled())
+               {
+               LOG.debug("SharedFinchBoardDaemon.executeCommand(): unsupported opcode [" + opcode + "]");
+               }
+            return FinchProtocol.STATUS_UNSUPPORTED;
+         }
+      }
+
+   private static byte toStatus(final boolean wasSuccessful)
+      {
+      return wasSuccessful ? FinchProtocol.STATUS_OK : FinchProtocol.STATUS_FAILED;
+      }
+   }
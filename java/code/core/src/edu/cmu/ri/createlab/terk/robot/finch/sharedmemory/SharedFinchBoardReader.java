@@ -0,0 +1,292 @@
+package edu.cmu.ri.createlab.terk.robot.finch.sharedmemory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import edu.cmu.ri.createlab.terk.robot.finch.FinchHardwareType;
+import edu.cmu.ri.createlab.terk.robot.finch.FinchSensorSnapshot;
+import edu.cmu.ri.createlab.terk.robot.finch.net.FinchProtocol;
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * <code>SharedFinchBoardReader</code> reads the sensor snapshots published by a {@link SharedFinchBoardDaemon} in
+ * another process, and sends it commands.  Reading a snapshot takes no locks and makes no system calls: it copies the
+ * snapshot out of the shared file, and retries if the daemon was writing it at the time.  Readers which only need to
+ * know whether there is a new snapshot can poll {@link #getSnapshotSequence()}, which is cheaper still.
+ * </p>
+ * <p>
+ * Commands are passed through a single mailbox, so they're serialized across all readers: each command method waits
+ * for the daemon to execute the command, and returns <code>false</code> if it isn't executed within the
+ * {@link #COMMAND_TIMEOUT_SYSTEM_PROPERTY command timeout}.  Instances are thread safe.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class SharedFinchBoardReader
+   {
+   private static final Logger LOG = Logger.getLogger(SharedFinchBoardReader.class);
+
+   /** The system property which sets how long to wait for the daemon to execute a command, in milliseconds. */
+   public static final String COMMAND_TIMEOUT_SYSTEM_PROPERTY = "finch.shared-board.command-timeout-millis";
+
+   public static final int DEFAULT_COMMAND_TIMEOUT_MILLIS = 1000;
+
+   /** How many times to try copying a snapshot before giving up because the daemon keeps overwriting it. */
+   private static final int MAX_SNAPSHOT_READ_ATTEMPTS = 1000;
+
+   /** How long to spin waiting on the mailbox before sleeping between checks. */
+   private static final long MAILBOX_SPIN_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+   private static final long MAILBOX_SLEEP_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+   /**
+    * Opens the shared file named by the {@link SharedFinchBoard#FILE_SYSTEM_PROPERTY} system property.  Returns
+    * <code>null</code> if it doesn't exist, or hasn't been initialized by a daemon.
+    */
+   public static SharedFinchBoardReader open()
+      {
+      return open(SharedFinchBoard.getDefaultFile());
+      }
+
+   /**
+    * Opens the given shared file.  Returns <code>null</code> if it doesn't exist, or hasn't been initialized by a
+    * daemon.
+    */
+   public static SharedFinchBoardReader open(final File file)
+      {
+      if (file == null || !file.isFile() || file.length() < SharedFinchBoard.SIZE)
+         {
+         LOG.error("SharedFinchBoardReader.open(): the shared file [" + file + "] doesn't exist, or is too small");
+         return null;
+         }
+
+      RandomAccessFile randomAccessFile = null;
+      try
+         {
+         randomAccessFile = new RandomAccessFile(file, "rw");
+         final MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SharedFinchBoard.SIZE);
+         buffer.order(ByteOrder.nativeOrder());
+         if (buffer.getInt(SharedFinchBoard.MAGIC_OFFSET) != SharedFinchBoard.MAGIC ||
+             buffer.getInt(SharedFinchBoard.VERSION_OFFSET) != SharedFinchBoard.VERSION)
+            {
+            LOG.error("SharedFinchBoardReader.open(): the file [" + file + "] isn't a shared finch board this version understands");
+            randomAccessFile.close();
+            return null;
+            }
+         return new SharedFinchBoardReader(randomAccessFile, buffer);
+         }
+      catch (IOException e)
+         {
+         LOG.error("SharedFinchBoardReader.open(): IOException while opening the shared file [" + file + "]", e);
+         if (randomAccessFile != null)
+            {
+            try
+               {
+               randomAccessFile.close();
+               }
+            catch (IOException e1)
+               {
+               LOG.debug("SharedFinchBoardReader.open(): IOException while closing the shared file", e1);
+               }
+            }
+         }
+      return null;
+      }
+
+   private final RandomAccessFile randomAccessFile;
+   private final MappedByteBuffer buffer;
+   private final FinchHardwareType hardwareType;
+   private final long commandTimeoutInNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, Integer.getInteger(COMMAND_TIMEOUT_SYSTEM_PROPERTY, DEFAULT_COMMAND_TIMEOUT_MILLIS)));
+
+   // file locks are held by the whole JVM, so threads in this one take turns before trying for it
+   private final Object mailboxLock = new Object();
+
+   private SharedFinchBoardReader(final RandomAccessFile randomAccessFile, final MappedByteBuffer buffer)
+      {
+      this.randomAccessFile = randomAccessFile;
+      this.buffer = buffer;
+
+      final int hardwareTypeOrdinal = buffer.getInt(SharedFinchBoard.HARDWARE_TYPE_OFFSET);
+      final FinchHardwareType[] hardwareTypes = FinchHardwareType.values();
+      this.hardwareType = (hardwareTypeOrdinal >= 0 && hardwareTypeOrdinal < hardwareTypes.length) ? hardwareTypes[hardwareTypeOrdinal] : null;
+      }
+
+   /** Returns the type of the shared finch, or <code>null</code> if it's unknown to this version. */
+   public FinchHardwareType getHardwareType()
+      {
+      return hardwareType;
+      }
+
+   /**
+    * Returns <code>true</code> if the daemon is running and has sampled the sensors within the last
+    * <code>maxAgeInMillis</code> milliseconds.
+    */
+   public boolean isDaemonAlive(final int maxAgeInMillis)
+      {
+      return buffer.getInt(SharedFinchBoard.RUNNING_OFFSET) != 0 &&
+             System.currentTimeMillis() - buffer.getLong(SharedFinchBoard.HEARTBEAT_OFFSET) <= maxAgeInMillis;
+      }
+
+   /**
+    * Returns the sequence number of the latest snapshot, which increases every time a new snapshot is published, or 0
+    * if none has been published yet.  The sequence may be odd, briefly, while a snapshot is being published.
+    */
+   public long getSnapshotSequence()
+      {
+      final long sequence = buffer.getLong(SharedFinchBoard.SNAPSHOT_SEQUENCE_OFFSET);
+      SharedFinchBoard.fence();
+      return sequence;
+      }
+
+   /**
+    * Returns the latest snapshot published by the daemon, or <code>null</code> if none has been published yet (or,
+    * improbably, the daemon overwrote the snapshot every time this reader tried to copy it).
+    */
+   public FinchSensorSnapshot getSensorSnapshot()
+      {
+      final ByteBuffer copy = ByteBuffer.allocate(SharedFinchBoard.SNAPSHOT_SIZE).order(ByteOrder.nativeOrder());
+      for (int attempt = 0; attempt < MAX_SNAPSHOT_READ_ATTEMPTS; attempt++)
+         {
+         final long sequenceBefore = buffer.getLong(SharedFinchBoard.SNAPSHOT_SEQUENCE_OFFSET);
+         if (sequenceBefore == 0)
+            {
+            return null;
+            }
+         if ((sequenceBefore & 1) == 0)
+            {
+            SharedFinchBoard.fence();
+            for (int i = 0; i < SharedFinchBoard.SNAPSHOT_SIZE; i += 8)
+               {
+               copy.putLong(i, buffer.getLong(SharedFinchBoard.SNAPSHOT_OFFSET + i));
+               }
+            SharedFinchBoard.fence();
+            if (buffer.getLong(SharedFinchBoard.SNAPSHOT_SEQUENCE_OFFSET) == sequenceBefore)
+               {
+               return SharedFinchBoard.getSensorSnapshot(copy);
+               }
+            }
+         Thread.yield();
+         }
+      LOG.error("SharedFinchBoardReader.getSensorSnapshot(): gave up after [" + MAX_SNAPSHOT_READ_ATTEMPTS + "] attempts to copy the snapshot");
+      return null;
+      }
+
+   public boolean setFullColorLED(final int red, final int green, final int blue)
+      {
+      return sendCommand(FinchProtocol.OPCODE_SET_FULL_COLOR_LED, red, green, blue);
+      }
+
+   public boolean setMotorVelocities(final int leftVelocity, final int rightVelocity)
+      {
+      return sendCommand(FinchProtocol.OPCODE_SET_MOTOR_VELOCITIES, leftVelocity, rightVelocity, 0);
+      }
+
+   public boolean playBuzzerTone(final int frequency, final int durationInMilliseconds)
+      {
+      return sendCommand(FinchProtocol.OPCODE_PLAY_BUZZER_TONE, frequency, durationInMilliseconds, 0);
+      }
+
+   public boolean emergencyStop()
+      {
+      return sendCommand(FinchProtocol.OPCODE_EMERGENCY_STOP, 0, 0, 0);
+      }
+
+   /**
+    * Closes the shared file.  The mapping itself is only released once the reader is garbage collected, so the reader
+    * must not be used afterwards.
+    */
+   public void close()
+      {
+      try
+         {
+         randomAccessFile.close();
+         }
+      catch (IOException e)
+         {
+         LOG.error("SharedFinchBoardReader.close(): IOException while closing the shared file", e);
+         }
+      }
+
+   private boolean sendCommand(final byte opcode, final int argument0, final int argument1, final int argument2)
+      {
+      synchronized (mailboxLock)
+         {
+         FileLock fileLock = null;
+         try
+            {
+            fileLock = randomAccessFile.getChannel().lock(SharedFinchBoard.MAILBOX_OFFSET, SharedFinchBoard.MAILBOX_SIZE, false);
+
+            final long deadline = System.nanoTime() + commandTimeoutInNanos;
+
+            // the previous command should already have been acknowledged, unless its sender timed out waiting
+            final long previousRequestSequence = buffer.getLong(SharedFinchBoard.REQUEST_SEQUENCE_OFFSET);
+            if (!awaitAcknowledgement(previousRequestSequence, deadline))
+               {
+               LOG.error("SharedFinchBoardReader.sendCommand(): timed out waiting for the daemon to finish the previous command");
+               return false;
+               }
+
+            buffer.putInt(SharedFinchBoard.OPCODE_OFFSET, opcode);
+            buffer.putInt(SharedFinchBoard.ARGUMENTS_OFFSET, argument0);
+            buffer.putInt(SharedFinchBoard.ARGUMENTS_OFFSET + 4, argument1);
+            buffer.putInt(SharedFinchBoard.ARGUMENTS_OFFSET + 8, argument2);
+            SharedFinchBoard.fence();
+            final long requestSequence = previousRequestSequence + 1;
+            buffer.putLong(SharedFinchBoard.REQUEST_SEQUENCE_OFFSET, requestSequence);
+
+            if (!awaitAcknowledgement(requestSequence, deadline))
+               {
+               LOG.error("SharedFinchBoardReader.sendCommand(): timed out waiting for the daemon to execute the command with opcode [" + opcode + "]");
+               return false;
+               }
+            return buffer.getInt(SharedFinchBoard.STATUS_OFFSET) == FinchProtocol.STATUS_OK;
+            }
+         catch (IOException e)
+            {
+            LOG.error("SharedFinchBoardReader.sendCommand(): IOException while locking the command mailbox", e);
+            }
+         finally
+            {
+            if (fileLock != null)
+               {
+               try
+                  {
+                  fileLock.release();
+                  }
+               catch (IOException e)
+                  {
+                  LOG.error("SharedFinchBoardReader.sendCommand(): IOException while unlocking the command mailbox", e);
+                  }
+               }
+            }
+         return false;
+         }
+      }
+
+   /** Waits until the daemon has acknowledged the given request, spinning briefly before sleeping between checks. */
+   private boolean awaitAcknowledgement(final long requestSequence, final long deadline)
+      {
+      final long spinDeadline = System.nanoTime() + MAILBOX_SPIN_NANOS;
+      while (buffer.getLong(SharedFinchBoard.ACKNOWLEDGEMENT_SEQUENCE_OFFSET) != requestSequence)
+         {
+         final long now = System.nanoTime();
+         if (now - deadline > 0)
+            {
+            return false;
+            }
+         if (now - spinDeadline > 0)
+            {
+            LockSupport.parkNanos(MAILBOX_SLEEP_NANOS);
+            }
+         }
+      SharedFinchBoard.fence();
+      return true;
+      }
+   }
@@ -0,0 +1,190 @@
+package edu.cmu.ri.createlab.terk.robot.finch.simulator;
+
+import java.util.LinkedList;
+import edu.cmu.ri.createlab.usb.hid.HIDDevice;
+import edu.cmu.ri.createlab.usb.hid.HIDDeviceDescriptor;
+import edu.cmu.ri.createlab.usb.hid.HIDDeviceFailureException;
+import edu.cmu.ri.createlab.usb.hid.HIDDeviceNotConnectedException;
+import edu.cmu.ri.createlab.usb.hid.HIDWriteStatus;
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * <code>EmulatedHIDDevice</code> is an in-process {@link HIDDevice} which answers the finch's USB HID protocol using a
+ * {@link FinchFirmwareEmulator}.  Like the real finch, every command written is answered with an input report
+ * containing the response data (if any) and ending with the command's ID, so the command strategies in
+ * <code>commands.hid</code> work unmodified.  Pass it to
+ * {@link edu.cmu.ri.createlab.terk.robot.finch.HIDFinchController#create(HIDDevice)} after connecting.
+ * </p>
+ * <p>
+ * Reports are queued as they're produced, and {@link #read()} waits briefly for one before returning
+ * <code>null</code>, much as the native library does.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class EmulatedHIDDevice implements HIDDevice
+   {
+   private static final Logger LOG = Logger.getLogger(EmulatedHIDDevice.class);
+
+   private static final String DEVICE_FILENAME = "emulator";
+
+   /** Report lengths include the report ID, which isn't included in the read data, as with the real finch. */
+   private static final int REPORT_LENGTH_IN_BYTES = 9;
+
+   /** Each output report ends with the command ID, leaving the rest of the report (minus the report ID) for data. */
+   private static final int MAX_COMMAND_LENGTH_IN_BYTES = REPORT_LENGTH_IN_BYTES - 2;
+
+   private static final HIDDeviceDescriptor HID_DEVICE_DESCRIPTOR = new HIDDeviceDescriptor((short)0x2354,
+                                                                                            (short)0x1111,
+                                                                                            REPORT_LENGTH_IN_BYTES,
+                                                                                            REPORT_LENGTH_IN_BYTES,
+                                                                                            "Emulated Finch");
+
+   private static final long READ_TIMEOUT_IN_MILLIS = 10;
+
+   private final FinchFirmwareEmulator emulator;
+   private final LinkedList<byte[]> pendingReports = new LinkedList<byte[]>();
+   private final Object lock = new Object();
+   private boolean isConnected = false;
+   private int nextCommandId = 0;
+
+   /**
+    * @throws IllegalArgumentException if the given <code>emulator</code> is <code>null</code>
+    */
+   public EmulatedHIDDevice(final FinchFirmwareEmulator emulator)
+      {
+      if (emulator == null)
+         {
+         throw new IllegalArgumentException("The FinchFirmwareEmulator cannot be null");
+         }
+      this.emulator = emulator;
+      }
+
+   public FinchFirmwareEmulator getEmulator()
+      {
+      return emulator;
+      }
+
+   @Override
+   public void connect()
+      {
+      synchronized (lock)
+         {
+         isConnected = true;
+         }
+      }
+
+   @Override
+   public void connectExclusively()
+      {
+      connect();
+      }
+
+   @Override
+   public String getDeviceFilename()
+      {
+      return DEVICE_FILENAME;
+      }
+
+   @Override
+   public short getVendorID()
+      {
+      return HID_DEVICE_DESCRIPTOR.getVendorId();
+      }
+
+   @Override
+   public short getProductID()
+      {
+      return HID_DEVICE_DESCRIPTOR.getProductId();
+      }
+
+   @Override
+   public HIDDeviceDescriptor getHidDeviceDescriptor()
+      {
+      return HID_DEVICE_DESCRIPTOR;
+      }
+
+   @Override
+   public byte[] read() throws HIDDeviceNotConnectedException, HIDDeviceFailureException
+      {
+      synchronized (lock)
+         {
+         ensureConnected();
+         if (pendingReports.isEmpty())
+            {
+            try
+               {
+               lock.wait(READ_TIMEOUT_IN_MILLIS);
+               }
+            catch (InterruptedException e)
+               {
+               Thread.currentThread().interrupt();
+               throw new HIDDeviceFailureException("Interrupted while waiting for a report", e);
+               }
+            ensureConnected();
+            }
+         return pendingReports.isEmpty() ? null : pendingReports.removeFirst();
+         }
+      }
+
+   @Override
+   public boolean isReportIDIncludedInReadData()
+      {
+      return false;
+      }
+
+   @Override
+   public HIDWriteStatus write(final byte[] data) throws HIDDeviceNotConnectedException, HIDDeviceFailureException
+      {
+      if (data == null || data.length > MAX_COMMAND_LENGTH_IN_BYTES)
+         {
+         LOG.error("EmulatedHIDDevice.write(): the command must be non-null and no longer than " + MAX_COMMAND_LENGTH_IN_BYTES + " bytes");
+         return HIDWriteStatus.WRITE_FAILED;
+         }
+
+      final int commandId;
+      synchronized (lock)
+         {
+         ensureConnected();
+         commandId = nextCommandId;
+         nextCommandId = (nextCommandId + 1) & 0xFF;
+         }
+
+      final byte[] response = emulator.execute(data, data.length, true);
+      if (response != null)
+         {
+         // the input report, minus the report ID, holds the response data followed by the command ID in the last byte
+         final byte[] report = new byte[REPORT_LENGTH_IN_BYTES - 1];
+         System.arraycopy(response, 0, report, 0, Math.min(response.length, report.length - 1));
+         report[report.length - 1] = (byte)commandId;
+         synchronized (lock)
+            {
+            pendingReports.addLast(report);
+            lock.notifyAll();
+            }
+         }
+
+      return new HIDWriteStatus(data.length, data.length, true, commandId);
+      }
+
+   @Override
+   public boolean disconnect()
+      {
+      synchronized (lock)
+         {
+         isConnected = false;
+         pendingReports.clear();
+         lock.notifyAll();
+         }
+      return true;
+      }
+
+   private void ensureConnected() throws HIDDeviceNotConnectedException
+      {
+      if (!isConnected)
+         {
+         throw new HIDDeviceNotConnectedException("The emulated finch is not connected");
+         }
+      }
+   }
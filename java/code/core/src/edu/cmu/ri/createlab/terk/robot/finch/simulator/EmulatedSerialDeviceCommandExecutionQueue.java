@@ -0,0 +1,86 @@
+package edu.cmu.ri.createlab.terk.robot.finch.simulator;
+
+import java.util.concurrent.TimeUnit;
+import edu.cmu.ri.createlab.serial.SerialDeviceCommandResponse;
+import edu.cmu.ri.createlab.serial.SerialDeviceIOHelper;
+import edu.cmu.ri.createlab.util.commandexecution.CommandExecutionQueue;
+import edu.cmu.ri.createlab.util.commandexecution.CommandStrategy;
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * <code>EmulatedSerialDeviceCommandExecutionQueue</code> stands in for a <code>SerialDeviceCommandExecutionQueue</code>
+ * (which can only be created for a real serial port), executing serial command strategies against an
+ * {@link EmulatedSerialDeviceIOHelper}.  Pass it to
+ * {@link edu.cmu.ri.createlab.terk.robot.finch.BackpackedFinchController#create(CommandExecutionQueue, String)} to
+ * get a backpacked finch without hardware.
+ * </p>
+ * <p>
+ * Commands are executed one at a time in the calling thread.  Since the emulated port answers immediately, the
+ * timeout is ignored.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class EmulatedSerialDeviceCommandExecutionQueue implements CommandExecutionQueue<CommandStrategy<SerialDeviceIOHelper, SerialDeviceCommandResponse>, SerialDeviceCommandResponse>
+   {
+   private static final Logger LOG = Logger.getLogger(EmulatedSerialDeviceCommandExecutionQueue.class);
+
+   private final EmulatedSerialDeviceIOHelper ioHelper;
+   private final Object lock = new Object();
+   private volatile boolean isShutdown = false;
+
+   /**
+    * @throws IllegalArgumentException if the given <code>emulator</code> is <code>null</code>
+    */
+   public EmulatedSerialDeviceCommandExecutionQueue(final FinchFirmwareEmulator emulator)
+      {
+      this.ioHelper = new EmulatedSerialDeviceIOHelper(emulator);
+      }
+
+   public EmulatedSerialDeviceIOHelper getSerialDeviceIOHelper()
+      {
+      return ioHelper;
+      }
+
+   @Override
+   public SerialDeviceCommandResponse execute(final CommandStrategy<SerialDeviceIOHelper, SerialDeviceCommandResponse> commandStrategy) throws Exception
+      {
+      return execute(commandStrategy, 0, null);
+      }
+
+   /** Executes the given command, or returns <code>null</code> if this queue has been shut down. */
+   @Override
+   public SerialDeviceCommandResponse execute(final CommandStrategy<SerialDeviceIOHelper, SerialDeviceCommandResponse> commandStrategy, final long timeout, final TimeUnit timeoutTimeUnit) throws Exception
+      {
+      synchronized (lock)
+         {
+         if (isShutdown)
+            {
+            LOG.debug("EmulatedSerialDeviceCommandExecutionQueue.execute(): ignoring command since the queue has been shut down");
+            return null;
+            }
+         return commandStrategy.execute(ioHelper);
+         }
+      }
+
+   @Override
+   public boolean executeAndReturnStatus(final CommandStrategy<SerialDeviceIOHelper, SerialDeviceCommandResponse> commandStrategy) throws Exception
+      {
+      final SerialDeviceCommandResponse response = execute(commandStrategy);
+      return response != null && response.wasSuccessful();
+      }
+
+   @Override
+   public boolean executeAndReturnStatus(final CommandStrategy<SerialDeviceIOHelper, SerialDeviceCommandResponse> commandStrategy, final long timeout, final TimeUnit timeoutTimeUnit) throws Exception
+      {
+      final SerialDeviceCommandResponse response = execute(commandStrategy, timeout, timeoutTimeUnit);
+      return response != null && response.wasSuccessful();
+      }
+
+   @Override
+   public void shutdown()
+      {
+      isShutdown = true;
+      }
+   }
@@ -0,0 +1,207 @@
+package edu.cmu.ri.createlab.terk.robot.finch.simulator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import edu.cmu.ri.createlab.serial.SerialDeviceIOHelper;
+
+/**
+ * <p>
+ * <code>EmulatedSerialDeviceIOHelper</code> is an in-process loopback stand-in for the serial port of a Finch
+ * Backpack, which answers the backpack's serial protocol using a {@link FinchFirmwareEmulator}.  Like the real
+ * backpack, every byte written is echoed back, and once a complete command has been written its response (if any)
+ * follows the echo, so the command strategies in <code>commands.serial</code> work unmodified.
+ * </p>
+ * <p>
+ * Commands may be written in any number of pieces.  The bytes to be read are buffered without limit, and all methods
+ * are thread safe.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class EmulatedSerialDeviceIOHelper implements SerialDeviceIOHelper
+   {
+   private static final int INITIAL_BUFFER_SIZE = 64;
+
+   /** The longest command is 5 bytes, but unknown commands are only a single byte, so this is plenty. */
+   private static final int MAX_COMMAND_LENGTH_IN_BYTES = 8;
+
+   private final FinchFirmwareEmulator emulator;
+   private final Object lock = new Object();
+
+   /** Circular buffer of the bytes waiting to be read */
+   private byte[] readBuffer = new byte[INITIAL_BUFFER_SIZE];
+   private int readBufferStart = 0;
+   private int readBufferCount = 0;
+
+   /** The partial command written so far */
+   private final byte[] command = new byte[MAX_COMMAND_LENGTH_IN_BYTES];
+   private int commandLength = 0;
+
+   private final InputStream inputStream = new InputStream()
+   {
+   @Override
+   public int read() throws IOException
+      {
+      return EmulatedSerialDeviceIOHelper.this.read();
+      }
+
+   @Override
+   public int read(final byte[] buffer, final int offset, final int length) throws IOException
+      {
+      return readInto(buffer, offset, length);
+      }
+
+   @Override
+   public int available() throws IOException
+      {
+      return EmulatedSerialDeviceIOHelper.this.available();
+      }
+   };
+
+   private final OutputStream outputStream = new OutputStream()
+   {
+   @Override
+   public void write(final int b) throws IOException
+      {
+      EmulatedSerialDeviceIOHelper.this.write(new byte[]{(byte)b});
+      }
+
+   @Override
+   public void write(final byte[] data, final int offset, final int length) throws IOException
+      {
+      final byte[] bytes = new byte[length];
+      System.arraycopy(data, offset, bytes, 0, length);
+      EmulatedSerialDeviceIOHelper.this.write(bytes);
+      }
+   };
+
+   /**
+    * @throws IllegalArgumentException if the given <code>emulator</code> is <code>null</code>
+    */
+   public EmulatedSerialDeviceIOHelper(final FinchFirmwareEmulator emulator)
+      {
+      if (emulator == null)
+         {
+         throw new IllegalArgumentException("The FinchFirmwareEmulator cannot be null");
+         }
+      this.emulator = emulator;
+      }
+
+   public FinchFirmwareEmulator getEmulator()
+      {
+      return emulator;
+      }
+
+   @Override
+   public int available() throws IOException
+      {
+      synchronized (lock)
+         {
+         return readBufferCount;
+         }
+      }
+
+   @Override
+   public boolean isDataAvailable() throws IOException
+      {
+      return available() > 0;
+      }
+
+   @Override
+   public InputStream getInputStream()
+      {
+      return inputStream;
+      }
+
+   @Override
+   public OutputStream getOutputStream()
+      {
+      return outputStream;
+      }
+
+   /** Returns the next byte, or -1 if no data is available (the emulated port never blocks). */
+   @Override
+   public int read() throws IOException
+      {
+      synchronized (lock)
+         {
+         if (readBufferCount == 0)
+            {
+            return -1;
+            }
+         final int b = readBuffer[readBufferStart] & 0xFF;
+         readBufferStart = (readBufferStart + 1) % readBuffer.length;
+         readBufferCount--;
+         return b;
+         }
+      }
+
+   @Override
+   public int read(final byte[] buffer) throws IOException
+      {
+      return readInto(buffer, 0, buffer.length);
+      }
+
+   @Override
+   public void write(final byte[] data) throws IOException
+      {
+      synchronized (lock)
+         {
+         for (final byte b : data)
+            {
+            // echo the byte, then execute the command once it's complete
+            append(b);
+            command[commandLength++] = b;
+            if (commandLength >= FinchFirmwareEmulator.getCommandLength(command[0]))
+               {
+               final byte[] response = emulator.execute(command, commandLength, false);
+               commandLength = 0;
+               if (response != null)
+                  {
+                  for (final byte r : response)
+                     {
+                     append(r);
+                     }
+                  }
+               }
+            }
+         }
+      }
+
+   private int readInto(final byte[] buffer, final int offset, final int length)
+      {
+      synchronized (lock)
+         {
+         if (readBufferCount == 0)
+            {
+            return -1;
+            }
+         final int numBytes = Math.min(length, readBufferCount);
+         for (int i = 0; i < numBytes; i++)
+            {
+            buffer[offset + i] = readBuffer[readBufferStart];
+            readBufferStart = (readBufferStart + 1) % readBuffer.length;
+            }
+         readBufferCount -= numBytes;
+         return numBytes;
+         }
+      }
+
+   /** Must be called while holding the lock. */
+   private void append(final byte b)
+      {
+      if (readBufferCount == readBuffer.length)
+         {
+         final byte[] newReadBuffer = new byte[readBuffer.length * 2];
+         for (int i = 0; i < readBufferCount; i++)
+            {
+            newReadBuffer[i] = readBuffer[(readBufferStart + i) % readBuffer.length];
+            }
+         readBuffer = newReadBuffer;
+         readBufferStart = 0;
+         }
+      readBuffer[(readBufferStart + readBufferCount) % readBuffer.length] = b;
+      readBufferCount++;
+      }
+   }
@@ -0,0 +1,223 @@
+package edu.cmu.ri.createlab.terk.robot.finch.simulator;
+
+import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerState;
+import edu.cmu.ri.createlab.util.ByteUtils;
+import edu.cmu.ri.createlab.util.MathUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * <code>FinchFirmwareEmulator</code> speaks the finch's byte protocol on behalf of a {@link FinchSimulator}, so that
+ * the real command strategies and controllers can be exercised without hardware.  It understands the finch's
+ * accelerometer ('A'), obstacle sensor ('I'), photoresistor ('L'), thermistor ('T'), LED ('O'), motor ('M'), buzzer
+ * ('B'), emergency stop ('X') and disconnect ('R') commands, along with the backpack's voltage ('V') and analog input
+ * ('a') commands.  Unknown commands are ignored.
+ * </p>
+ * <p>
+ * The emulator is used through an {@link EmulatedHIDDevice} or an {@link EmulatedSerialDeviceIOHelper}, which wrap
+ * its responses in HID reports or serial echoes, respectively.  It is thread safe.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class FinchFirmwareEmulator
+   {
+   private static final Logger LOG = Logger.getLogger(FinchFirmwareEmulator.class);
+
+   /** The number of analog inputs on the backpack. */
+   public static final int ANALOG_INPUT_COUNT = 7;
+
+   /** The default raw value of the backpack's battery voltage, which is high enough to pass the backpack handshake. */
+   public static final int DEFAULT_VOLTAGE = 200;
+
+   private static final byte[] EMPTY_RESPONSE = new byte[0];
+
+   private final FinchSimulator simulator;
+   private final Object lock = new Object();
+   private int voltage = DEFAULT_VOLTAGE;
+   private final int[] analogInputs = new int[ANALOG_INPUT_COUNT];
+   private long commandCount = 0;
+   private boolean isInStartupMode = false;
+
+   /**
+    * @throws IllegalArgumentException if the given <code>simulator</code> is <code>null</code>
+    */
+   public FinchFirmwareEmulator(final FinchSimulator simulator)
+      {
+      if (simulator == null)
+         {
+         throw new IllegalArgumentException("The FinchSimulator cannot be null");
+         }
+      this.simulator = simulator;
+      }
+
+   public FinchSimulator getSimulator()
+      {
+      return simulator;
+      }
+
+   /** Sets the raw value [0 to 255] returned by the voltage command. */
+   public void setVoltage(final int voltage)
+      {
+      synchronized (lock)
+         {
+         this.voltage = MathUtils.ensureRange(voltage, 0, 255);
+         }
+      }
+
+   /**
+    * Sets the raw value [0 to 255] returned for the analog input specified by the given <code>id</code>.
+    *
+    * @throws IllegalArgumentException if the <code>id</code> is invalid
+    */
+   public void setAnalogInput(final int id, final int value)
+      {
+      if (id < 0 || id >= ANALOG_INPUT_COUNT)
+         {
+         throw new IllegalArgumentException("Invalid analog input id [" + id + "]");
+         }
+      synchronized (lock)
+         {
+         analogInputs[id] = MathUtils.ensureRange(value, 0, 255);
+         }
+      }
+
+   /** Returns the number of commands executed so far, including unknown ones. */
+   public long getCommandCount()
+      {
+      synchronized (lock)
+         {
+         return commandCount;
+         }
+      }
+
+   /**
+    * Returns <code>true</code> if a disconnect command has put the finch back into startup mode, from which any
+    * subsequent command brings it out again.
+    */
+   public boolean isInStartupMode()
+      {
+      synchronized (lock)
+         {
+         return isInStartupMode;
+         }
+      }
+
+   /**
+    * Returns the length, in bytes, of the command starting with the given command character.  Unknown commands are
+    * considered to be a single byte long.
+    */
+   static int getCommandLength(final byte commandCharacter)
+      {
+      switch (commandCharacter)
+         {
+         case 'O':
+            return 4;
+         case 'M':
+         case 'B':
+            return 5;
+         case 'a':
+            return 2;
+         default:
+            return 1;
+         }
+      }
+
+   /**
+    * Executes the command contained in the first <code>length</code> bytes of the given array and returns the data the
+    * finch would send back, which is empty for commands which don't return any data, and <code>null</code> for unknown
+    * or truncated commands.  The accelerometer's response is preceded by a bogus byte if <code>isHID</code> is
+    * <code>true</code>, as it is with the real finch.
+    */
+   byte[] execute(final byte[] command, final int length, final boolean isHID)
+      {
+      if (command == null || length <= 0 || length < getCommandLength(command[0]))
+         {
+         LOG.debug("FinchFirmwareEmulator.execute(): ignoring empty or truncated command");
+         return null;
+         }
+
+      synchronized (lock)
+         {
+         commandCount++;
+         isInStartupMode = false;
+         }
+
+      switch (command[0])
+         {
+         case 'A':
+            final AccelerometerState state = simulator.getAccelerometerState();
+            final byte tapShake = (byte)((state.wasTapped() ? 32 : 0) | (state.wasShaken() ? 128 : 0));
+            if (isHID)
+               {
+               return new byte[]{0, (byte)state.getX(), (byte)state.getY(), (byte)state.getZ(), tapShake};
+               }
+            return new byte[]{(byte)state.getX(), (byte)state.getY(), (byte)state.getZ(), tapShake};
+         case 'I':
+            final boolean[] obstacles = simulator.areObstaclesDetected();
+            return new byte[]{(byte)(obstacles[0] ? 1 : 0), (byte)(obstacles[1] ? 1 : 0)};
+         case 'L':
+            final int[] photoresistors = simulator.getPhotoresistors();
+            return new byte[]{ByteUtils.intToUnsignedByte(photoresistors[0]), ByteUtils.intToUnsignedByte(photoresistors[1])};
+         case 'T':
+            return new byte[]{ByteUtils.intToUnsignedByte(simulator.getThermistor())};
+         case 'V':
+            synchronized (lock)
+               {
+               return new byte[]{ByteUtils.intToUnsignedByte(voltage)};
+               }
+         case 'a':
+            final int id = command[1] - '0';
+            if (id < 0 || id >= ANALOG_INPUT_COUNT)
+               {
+               if (LOG.isDebugEnabled())
+                  {
+                  LOG.debug("FinchFirmwareEmulator.execute(): ignoring request for invalid analog input [" + id + "]");
+                  }
+               return null;
+               }
+            synchronized (lock)
+               {
+               return new byte[]{ByteUtils.intToUnsignedByte(analogInputs[id])};
+               }
+         case 'O':
+            simulator.setFullColorLED(ByteUtils.unsignedByteToInt(command[1]),
+                                      ByteUtils.unsignedByteToInt(command[2]),
+                                      ByteUtils.unsignedByteToInt(command[3]));
+            return EMPTY_RESPONSE;
+         case 'M':
+            simulator.setMotorVelocities(decodeVelocity(command[1], command[2]), decodeVelocity(command[3], command[4]));
+            return EMPTY_RESPONSE;
+         case 'B':
+            simulator.playBuzzerTone(decodeShort(command[3], command[4]), decodeShort(command[1], command[2]));
+            return EMPTY_RESPONSE;
+         case 'X':
+            simulator.emergencyStop();
+            return EMPTY_RESPONSE;
+         case 'R':
+            simulator.emergencyStop();
+            synchronized (lock)
+               {
+               isInStartupMode = true;
+               }
+            return EMPTY_RESPONSE;
+         default:
+            if (LOG.isDebugEnabled())
+               {
+               LOG.debug("FinchFirmwareEmulator.execute(): ignoring unknown command [" + ByteUtils.unsignedByteToInt(command[0]) + "]");
+               }
+            return null;
+         }
+      }
+
+   private static int decodeVelocity(final byte direction, final byte speed)
+      {
+      final int magnitude = ByteUtils.unsignedByteToInt(speed);
+      return (direction == 0) ? magnitude : -magnitude;
+      }
+
+   private static int decodeShort(final byte highByte, final byte lowByte)
+      {
+      return (ByteUtils.unsignedByteToInt(highByte) << 8) | ByteUtils.unsignedByteToInt(lowByte);
+      }
+   }
@@ -0,0 +1,491 @@
+package edu.cmu.ri.createlab.terk.robot.finch.simulator;
+
+import java.awt.Color;
+import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerGs;
+import edu.cmu.ri.createlab.terk.services.accelerometer.AccelerometerState;
+import edu.cmu.ri.createlab.terk.services.accelerometer.unitconversionstrategies.AccelerometerUnitConversionStrategyFreescaleMMA7660FC;
+import edu.cmu.ri.createlab.util.MathUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * <code>FinchSimulator</code> is a simple physics model of a finch and its surroundings, used in place of real
+ * hardware for testing.  The finch drives around a square arena (centered on the origin and bounded by walls) using
+ * differential drive kinematics.  Its sensors report values in the same native units as the real finch:
+ * </p>
+ * <ul>
+ *    <li>the accelerometer reports the direction of gravity for the finch's current tilt (see
+ *    {@link #setTilt(double, double)}), along with any taps and shakes since the previous read;</li>
+ *    <li>each obstacle sensor reports whether a wall lies within {@link #OBSTACLE_SENSOR_RANGE_IN_CM} along a ray
+ *    angled slightly outward from the beak;</li>
+ *    <li>each photoresistor reports the ambient light plus the light from an optional point source (see
+ *    {@link #setLightSource(double, double, int)}), which falls off with distance and with the angle between the
+ *    sensor and the source;</li>
+ *    <li>the thermistor reports the ambient temperature (see {@link #setTemperature(double)}).</li>
+ * </ul>
+ * <p>
+ * By default, simulated time follows the wall clock, so that the finch moves in real time.  A simulator created with
+ * <code>isRealTime</code> set to <code>false</code> instead only advances when {@link #advanceTime(long)} is called,
+ * which makes tests deterministic.  All methods are thread safe.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class FinchSimulator
+   {
+   private static final Logger LOG = Logger.getLogger(FinchSimulator.class);
+
+   /** The default length of each side of the arena, in centimeters. */
+   public static final double DEFAULT_ARENA_SIZE_IN_CM = 200.0;
+
+   /** The speed of a wheel, in centimeters per second, when driven at the maximum motor velocity. */
+   public static final double MAX_WHEEL_SPEED_IN_CM_PER_SECOND = 30.0;
+
+   /** The distance between the wheels, in centimeters. */
+   public static final double WHEEL_BASE_IN_CM = 10.0;
+
+   /** The maximum distance, in centimeters, at which the obstacle sensors detect a wall. */
+   public static final double OBSTACLE_SENSOR_RANGE_IN_CM = 10.0;
+
+   private static final int MAX_MOTOR_VELOCITY = 255;
+   private static final int MAX_INTENSITY = 255;
+   private static final int MAX_PHOTORESISTOR_VALUE = 255;
+   private static final int MAX_THERMISTOR_VALUE = 255;
+
+   /** The angle between the beak and each obstacle sensor. */
+   private static final double OBSTACLE_SENSOR_ANGLE_IN_RADIANS = Math.toRadians(20.0);
+
+   /** The angle between the beak and each photoresistor. */
+   private static final double PHOTORESISTOR_ANGLE_IN_RADIANS = Math.toRadians(45.0);
+
+   /** The distance at which a light source's contribution has fallen to half its intensity. */
+   private static final double LIGHT_FALLOFF_DISTANCE_IN_CM = 50.0;
+
+   private static final int DEFAULT_AMBIENT_LIGHT = 100;
+   private static final double DEFAULT_TEMPERATURE_IN_CELSIUS = 22.0;
+   private static final double NANOSECONDS_PER_SECOND = 1000000000.0;
+
+   private final AccelerometerUnitConversionStrategyFreescaleMMA7660FC accelerometerUnitConversionStrategy = AccelerometerUnitConversionStrategyFreescaleMMA7660FC.getInstance();
+   private final boolean isRealTime;
+   private final double halfArenaSize;
+   private final Object lock = new Object();
+
+   // everything below is guarded by the lock
+   private long simulatedTimeInNanos = 0;
+   private long lastWallClockTimeInNanos = System.nanoTime();
+
+   private double x = 0.0;
+   private double y = 0.0;
+   private double heading = 0.0;
+
+   private int leftVelocity = 0;
+   private int rightVelocity = 0;
+   private int red = 0;
+   private int green = 0;
+   private int blue = 0;
+   private int buzzerFrequency = 0;
+   private long buzzerEndTimeInNanos = 0;
+
+   private double pitch = 0.0;
+   private double roll = 0.0;
+   private boolean wasTapped = false;
+   private boolean wasShaken = false;
+
+   private int ambientLight = DEFAULT_AMBIENT_LIGHT;
+   private double lightSourceX = 0.0;
+   private double lightSourceY = 0.0;
+   private int lightSourceIntensity = 0;
+   private double temperatureInCelsius = DEFAULT_TEMPERATURE_IN_CELSIUS;
+
+   /** Creates a real-time simulator with an arena of the {@link #DEFAULT_ARENA_SIZE_IN_CM default size}. */
+   public FinchSimulator()
+      {
+      this(true, DEFAULT_ARENA_SIZE_IN_CM);
+      }
+
+   /**
+    * Creates a simulator with an arena whose sides are <code>arenaSizeInCm</code> long.  If <code>isRealTime</code> is
+    * <code>false</code>, simulated time only advances upon calls to {@link #advanceTime(long)}.
+    *
+    * @throws IllegalArgumentException if <code>arenaSizeInCm</code> is not positive
+    */
+   public FinchSimulator(final boolean isRealTime, final double arenaSizeInCm)
+      {
+      if (arenaSizeInCm <= 0)
+         {
+         throw new IllegalArgumentException("The arena size must be positive");
+         }
+      this.isRealTime = isRealTime;
+      this.halfArenaSize = arenaSizeInCm / 2.0;
+      }
+
+   public boolean isRealTime()
+      {
+      return isRealTime;
+      }
+
+   /**
+    * Advances simulated time by the given number of milliseconds.  Only allowed for simulators which are not running
+    * in real time.
+    *
+    * @throws IllegalStateException if this simulator runs in real time
+    */
+   public void advanceTime(final long millis)
+      {
+      if (isRealTime)
+         {
+         throw new IllegalStateException("Cannot manually advance the time of a real-time simulator");
+         }
+      synchronized (lock)
+         {
+         integrate(millis * 1000000L);
+         }
+      }
+
+   /** Returns the simulated time, in milliseconds, since this simulator was created. */
+   public long getTimeInMillis()
+      {
+      synchronized (lock)
+         {
+         update();
+         return simulatedTimeInNanos / 1000000L;
+         }
+      }
+
+   public void setMotorVelocities(final int leftVelocity, final int rightVelocity)
+      {
+      synchronized (lock)
+         {
+         update();
+         this.leftVelocity = MathUtils.ensureRange(leftVelocity, -MAX_MOTOR_VELOCITY, MAX_MOTOR_VELOCITY);
+         this.rightVelocity = MathUtils.ensureRange(rightVelocity, -MAX_MOTOR_VELOCITY, MAX_MOTOR_VELOCITY);
+         }
+      }
+
+   public void setFullColorLED(final int red, final int green, final int blue)
+      {
+      synchronized (lock)
+         {
+         this.red = MathUtils.ensureRange(red, 0, MAX_INTENSITY);
+         this.green = MathUtils.ensureRange(green, 0, MAX_INTENSITY);
+         this.blue = MathUtils.ensureRange(blue, 0, MAX_INTENSITY);
+         }
+      }
+
+   public void playBuzzerTone(final int frequency, final int durationInMilliseconds)
+      {
+      synchronized (lock)
+         {
+         update();
+         buzzerFrequency = Math.max(frequency, 0);
+         buzzerEndTimeInNanos = simulatedTimeInNanos + Math.max(durationInMilliseconds, 0) * 1000000L;
+         }
+      }
+
+   /** Turns off the motors and the LED. */
+   public void emergencyStop()
+      {
+      synchronized (lock)
+         {
+         update();
+         leftVelocity = 0;
+         rightVelocity = 0;
+         red = 0;
+         green = 0;
+         blue = 0;
+         }
+      }
+
+   public int getLeftVelocity()
+      {
+      synchronized (lock)
+         {
+         return leftVelocity;
+         }
+      }
+
+   public int getRightVelocity()
+      {
+      synchronized (lock)
+         {
+         return rightVelocity;
+         }
+      }
+
+   public Color getFullColorLED()
+      {
+      synchronized (lock)
+         {
+         return new Color(red, green, blue);
+         }
+      }
+
+   /** Returns the frequency of the tone currently playing on the buzzer, or 0 if it's silent. */
+   public int getBuzzerFrequency()
+      {
+      synchronized (lock)
+         {
+         update();
+         return (simulatedTimeInNanos < buzzerEndTimeInNanos) ? buzzerFrequency : 0;
+         }
+      }
+
+   /**
+    * Returns the state of the accelerometer in native units, and clears the tapped and shaken flags (as does the real
+    * finch).
+    */
+   public AccelerometerState getAccelerometerState()
+      {
+      synchronized (lock)
+         {
+         final AccelerometerState gravity = accelerometerUnitConversionStrategy.convert(new AccelerometerGs(-Math.sin(pitch),
+                                                                                                            Math.sin(roll) * Math.cos(pitch),
+                                                                                                            Math.cos(roll) * Math.cos(pitch)));
+         final AccelerometerState state = new AccelerometerState(gravity.getX(), gravity.getY(), gravity.getZ(), wasShaken, wasTapped);
+         wasShaken = false;
+         wasTapped = false;
+         return state;
+         }
+      }
+
+   /** Returns the state of the left (element 0) and right (element 1) obstacle sensors. */
+   public boolean[] areObstaclesDetected()
+      {
+      synchronized (lock)
+         {
+         update();
+         return new boolean[]{computeDistanceToWall(heading + OBSTACLE_SENSOR_ANGLE_IN_RADIANS) <= OBSTACLE_SENSOR_RANGE_IN_CM,
+                              computeDistanceToWall(heading - OBSTACLE_SENSOR_ANGLE_IN_RADIANS) <= OBSTACLE_SENSOR_RANGE_IN_CM};
+         }
+      }
+
+   /** Returns the values of the left (element 0) and right (element 1) photoresistors. */
+   public int[] getPhotoresistors()
+      {
+      synchronized (lock)
+         {
+         update();
+         return new int[]{computeLight(heading + PHOTORESISTOR_ANGLE_IN_RADIANS),
+                          computeLight(heading - PHOTORESISTOR_ANGLE_IN_RADIANS)};
+         }
+      }
+
+   /** Returns the value of the thermistor in native units. */
+   public int getThermistor()
+      {
+      synchronized (lock)
+         {
+         // inverse of ThermistorUnitConversionStrategyMF52A103F3380
+         final int rawValue = (int)Math.round((temperatureInCelsius - 25.0) * 2.4 + 127);
+         return MathUtils.ensureRange(rawValue, 0, MAX_THERMISTOR_VALUE);
+         }
+      }
+
+   /**
+    * Places the finch at the given position (clamped to the arena), with the given heading in degrees (0 points along
+    * the positive x axis, and headings increase counterclockwise).
+    */
+   public void setPosition(final double x, final double y, final double headingInDegrees)
+      {
+      synchronized (lock)
+         {
+         update();
+         this.x = clampToArena(x);
+         this.y = clampToArena(y);
+         this.heading = Math.toRadians(headingInDegrees);
+         }
+      }
+
+   public double getX()
+      {
+      synchronized (lock)
+         {
+         update();
+         return x;
+         }
+      }
+
+   public double getY()
+      {
+      synchronized (lock)
+         {
+         update();
+         return y;
+         }
+      }
+
+   /** Returns the heading in degrees, normalized to the range [0, 360). */
+   public double getHeadingInDegrees()
+      {
+      synchronized (lock)
+         {
+         update();
+         final double degrees = Math.toDegrees(heading) % 360.0;
+         return (degrees < 0) ? degrees + 360.0 : degrees;
+         }
+      }
+
+   /**
+    * Tilts the finch by the given pitch (positive raises the beak) and roll (positive lowers the left wing), both in
+    * degrees.  A level finch has a pitch and roll of 0, and an upside-down finch has a roll of 180.
+    */
+   public void setTilt(final double pitchInDegrees, final double rollInDegrees)
+      {
+      synchronized (lock)
+         {
+         pitch = Math.toRadians(pitchInDegrees);
+         roll = Math.toRadians(rollInDegrees);
+         }
+      }
+
+   /** Taps the finch; the next accelerometer read will report it. */
+   public void tap()
+      {
+      synchronized (lock)
+         {
+         wasTapped = true;
+         }
+      }
+
+   /** Shakes the finch; the next accelerometer read will report it. */
+   public void shake()
+      {
+      synchronized (lock)
+         {
+         wasShaken = true;
+         }
+      }
+
+   /** Sets the ambient light seen by both photoresistors [0 to 255]. */
+   public void setAmbientLight(final int ambientLight)
+      {
+      synchronized (lock)
+         {
+         this.ambientLight = MathUtils.ensureRange(ambientLight, 0, MAX_PHOTORESISTOR_VALUE);
+         }
+      }
+
+   /** Places a point light source of the given intensity [0 to 255] at the given position.  An intensity of 0 removes it. */
+   public void setLightSource(final double x, final double y, final int intensity)
+      {
+      synchronized (lock)
+         {
+         lightSourceX = x;
+         lightSourceY = y;
+         lightSourceIntensity = MathUtils.ensureRange(intensity, 0, MAX_PHOTORESISTOR_VALUE);
+         }
+      }
+
+   public void setTemperature(final double temperatureInCelsius)
+      {
+      synchronized (lock)
+         {
+         this.temperatureInCelsius = temperatureInCelsius;
+         }
+      }
+
+   /** Brings the model up to date with the wall clock, if running in real time.  Must be called with the lock held. */
+   private void update()
+      {
+      if (isRealTime)
+         {
+         final long now = System.nanoTime();
+         final long elapsedNanos = now - lastWallClockTimeInNanos;
+         lastWallClockTimeInNanos = now;
+         integrate(elapsedNanos);
+         }
+      }
+
+   /** Moves the finch according to the current motor velocities.  Must be called with the lock held. */
+   private void integrate(final long elapsedNanos)
+      {
+      if (elapsedNanos <= 0)
+         {
+         return;
+         }
+      simulatedTimeInNanos += elapsedNanos;
+
+      if (leftVelocity == 0 && rightVelocity == 0)
+         {
+         return;
+         }
+
+      final double dt = elapsedNanos / NANOSECONDS_PER_SECOND;
+      final double leftSpeed = leftVelocity * MAX_WHEEL_SPEED_IN_CM_PER_SECOND / MAX_MOTOR_VELOCITY;
+      final double rightSpeed = rightVelocity * MAX_WHEEL_SPEED_IN_CM_PER_SECOND / MAX_MOTOR_VELOCITY;
+      final double linearSpeed = (leftSpeed + rightSpeed) / 2.0;
+      final double angularSpeed = (rightSpeed - leftSpeed) / WHEEL_BASE_IN_CM;
+
+      double newX;
+      double newY;
+      if (Math.abs(angularSpeed) < 1e-9)
+         {
+         newX = x + linearSpeed * dt * Math.cos(heading);
+         newY = y + linearSpeed * dt * Math.sin(heading);
+         }
+      else
+         {
+         // follow the arc exactly, so that large time steps don't accumulate error
+         final double radius = linearSpeed / angularSpeed;
+         final double newHeading = heading + angularSpeed * dt;
+         newX = x + radius * (Math.sin(newHeading) - Math.sin(heading));
+         newY = y - radius * (Math.cos(newHeading) - Math.cos(heading));
+         heading = newHeading;
+         }
+
+      // the walls stop the finch, but it keeps turning in place
+      x = clampToArena(newX);
+      y = clampToArena(newY);
+
+      if (LOG.isTraceEnabled())
+         {
+         LOG.trace("FinchSimulator.integrate(): x=[" + x + "] y=[" + y + "] heading=[" + Math.toDegrees(heading) + "]");
+         }
+      }
+
+   private double clampToArena(final double value)
+      {
+      return Math.max(-halfArenaSize, Math.min(halfArenaSize, value));
+      }
+
+   /** Returns the distance from the finch to the nearest wall along the given direction.  Must be called with the lock held. */
+   private double computeDistanceToWall(final double direction)
+      {
+      final double dx = Math.cos(direction);
+      final double dy = Math.sin(direction);
+      double distance = Double.POSITIVE_INFINITY;
+      if (dx > 1e-9)
+         {
+         distance = Math.min(distance, (halfArenaSize - x) / dx);
+         }
+      else if (dx < -1e-9)
+         {
+         distance = Math.min(distance, (-halfArenaSize - x) / dx);
+         }
+      if (dy > 1e-9)
+         {
+         distance = Math.min(distance, (halfArenaSize - y) / dy);
+         }
+      else if (dy < -1e-9)
+         {
+         distance = Math.min(distance, (-halfArenaSize - y) / dy);
+         }
+      return distance;
+      }
+
+   /** Returns the light seen by a photoresistor facing the given direction.  Must be called with the lock held. */
+   private int computeLight(final double direction)
+      {
+      double light = ambientLight;
+      if (lightSourceIntensity > 0)
+         {
+         final double dx = lightSourceX - x;
+         final double dy = lightSourceY - y;
+         final double distance = Math.sqrt(dx * dx + dy * dy);
+         final double facing = (distance < 1e-9) ? 1.0 : Math.max(0.0, (dx * Math.cos(direction) + dy * Math.sin(direction)) / distance);
+         final double falloff = distance / LIGHT_FALLOFF_DISTANCE_IN_CM;
+         light += lightSourceIntensity * facing / (1.0 + falloff * falloff);
+         }
+      return MathUtils.ensureRange((int)Math.round(light), 0, MAX_PHOTORESISTOR_VALUE);
+      }
+   }
@@ -0,0 +1,164 @@
+package edu.cmu.ri.createlab.terk.robot.finch.simulator;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import edu.cmu.ri.createlab.util.commandexecution.CommandExecutionQueue;
+import edu.cmu.ri.createlab.util.commandexecution.CommandStrategy;
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * <code>SimulatedCommandExecutionQueue</code> executes commands against a {@link FinchSimulator}, standing in for the
+ * HID or serial command queue of a real finch.  Each command is executed in the calling thread after an optional
+ * delay, so that the latency of a real device can be imitated, and may be made to fail at random, so that error
+ * handling can be exercised.  A failed command is never executed and yields an unsuccessful response.
+ * </p>
+ * <p>
+ * The latency, jitter, and failure probability may be changed at any time, and all default to zero.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class SimulatedCommandExecutionQueue implements CommandExecutionQueue<CommandStrategy<FinchSimulator, SimulatedCommandResponse>, SimulatedCommandResponse>
+   {
+   private static final Logger LOG = Logger.getLogger(SimulatedCommandExecutionQueue.class);
+
+   private final FinchSimulator simulator;
+   private final Random random = new Random();
+   private volatile int latencyInMillis = 0;
+   private volatile int jitterInMillis = 0;
+   private volatile double failureProbability = 0.0;
+   private volatile boolean isShutdown = false;
+
+   /**
+    * @throws IllegalArgumentException if the given <code>simulator</code> is <code>null</code>
+    */
+   public SimulatedCommandExecutionQueue(final FinchSimulator simulator)
+      {
+      if (simulator == null)
+         {
+         throw new IllegalArgumentException("The FinchSimulator cannot be null");
+         }
+      this.simulator = simulator;
+      }
+
+   public FinchSimulator getSimulator()
+      {
+      return simulator;
+      }
+
+   /**
+    * Sets the time taken by each command.  The actual time is chosen uniformly at random from the range
+    * <code>latencyInMillis &plusmn; jitterInMillis</code> (but is never negative).
+    *
+    * @throws IllegalArgumentException if either value is negative
+    */
+   public void setLatency(final int latencyInMillis, final int jitterInMillis)
+      {
+      if (latencyInMillis < 0 || jitterInMillis < 0)
+         {
+         throw new IllegalArgumentException("The latency and jitter must not be negative");
+         }
+      this.latencyInMillis = latencyInMillis;
+      this.jitterInMillis = jitterInMillis;
+      }
+
+   /**
+    * Sets the probability [0 to 1] that any given command fails.
+    *
+    * @throws IllegalArgumentException if the probability is not within [0, 1]
+    */
+   public void setFailureProbability(final double failureProbability)
+      {
+      if (failureProbability < 0.0 || failureProbability > 1.0)
+         {
+         throw new IllegalArgumentException("The failure probability must be within [0, 1]");
+         }
+      this.failureProbability = failureProbability;
+      }
+
+   @Override
+   public SimulatedCommandResponse execute(final CommandStrategy<FinchSimulator, SimulatedCommandResponse> commandStrategy) throws Exception
+      {
+      return execute(commandStrategy, 0, null);
+      }
+
+   /**
+    * Executes the given command.  If the simulated latency of the command exceeds the given timeout, this method waits
+    * for the timeout and then returns <code>null</code> without executing the command.  Returns <code>null</code> if
+    * this queue has been shut down.
+    */
+   @Override
+   public SimulatedCommandResponse execute(final CommandStrategy<FinchSimulator, SimulatedCommandResponse> commandStrategy, final long timeout, final TimeUnit timeoutTimeUnit) throws Exception
+      {
+      if (isShutdown)
+         {
+         LOG.debug("SimulatedCommandExecutionQueue.execute(): ignoring command since the queue has been shut down");
+         return null;
+         }
+
+      final int jitter = jitterInMillis;
+      final long delayInMillis = Math.max(0, latencyInMillis + (jitter > 0 ? random.nextInt(2 * jitter + 1) - jitter : 0));
+      if (timeoutTimeUnit != null)
+         {
+         final long timeoutInMillis = timeoutTimeUnit.toMillis(timeout);
+         if (delayInMillis > timeoutInMillis)
+            {
+            sleep(timeoutInMillis);
+            LOG.debug("SimulatedCommandExecutionQueue.execute(): command timed out");
+            return null;
+            }
+         }
+      if (!sleep(delayInMillis))
+         {
+         return null;
+         }
+
+      if (failureProbability > 0.0 && random.nextDouble() < failureProbability)
+         {
+         LOG.debug("SimulatedCommandExecutionQueue.execute(): injecting a command failure");
+         return SimulatedCommandResponse.FAILURE;
+         }
+
+      return commandStrategy.execute(simulator);
+      }
+
+   /** Sleeps for the given time, returning <code>false</code> if interrupted. */
+   private boolean sleep(final long millis)
+      {
+      if (millis > 0)
+         {
+         try
+            {
+            Thread.sleep(millis);
+            }
+         catch (InterruptedException e)
+            {
+            LOG.debug("SimulatedCommandExecutionQueue.sleep(): interrupted while simulating latency");
+            Thread.currentThread().interrupt();
+            return false;
+            }
+         }
+      return true;
+      }
+
+   @Override
+   public boolean executeAndReturnStatus(final CommandStrategy<FinchSimulator, SimulatedCommandResponse> commandStrategy) throws Exception
+      {
+      final SimulatedCommandResponse response = execute(commandStrategy);
+      return response != null && response.wasSuccessful();
+      }
+
+   @Override
+   public boolean executeAndReturnStatus(final CommandStrategy<FinchSimulator, SimulatedCommandResponse> commandStrategy, final long timeout, final TimeUnit timeoutTimeUnit) throws Exception
+      {
+      final SimulatedCommandResponse response = execute(commandStrategy, timeout, timeoutTimeUnit);
+      return response != null && response.wasSuccessful();
+      }
+
+   @Override
+   public void shutdown()
+      {
+      isShutdown = true;
+      }
+   }
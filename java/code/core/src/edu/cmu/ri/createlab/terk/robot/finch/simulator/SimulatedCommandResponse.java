@@ -0,0 +1,52 @@
+package edu.cmu.ri.createlab.terk.robot.finch.simulator;
+
+import edu.cmu.ri.createlab.util.commandexecution.CommandResponse;
+
+/**
+ * <p>
+ * <code>SimulatedCommandResponse</code> is the response to a command executed against a {@link FinchSimulator}.
+ * Since nothing goes over the wire, the response carries the command's result as an object rather than as bytes.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class SimulatedCommandResponse implements CommandResponse
+   {
+   /** Response for a successful command which doesn't return a value. */
+   public static final SimulatedCommandResponse SUCCESS = new SimulatedCommandResponse(true, null);
+
+   /** Response for a command which failed. */
+   public static final SimulatedCommandResponse FAILURE = new SimulatedCommandResponse(false, null);
+
+   private final boolean wasSuccessful;
+   private final Object value;
+
+   /** Creates a successful response holding the given value. */
+   public SimulatedCommandResponse(final Object value)
+      {
+      this(true, value);
+      }
+
+   private SimulatedCommandResponse(final boolean wasSuccessful, final Object value)
+      {
+      this.wasSuccessful = wasSuccessful;
+      this.value = value;
+      }
+
+   public boolean wasSuccessful()
+      {
+      return wasSuccessful;
+      }
+
+   /** Always returns <code>null</code>, since simulated responses have no wire representation. */
+   public byte[] getData()
+      {
+      return null;
+      }
+
+   /** Returns the value produced by the command, or <code>null</code> if it didn't produce one. */
+   public Object getValue()
+      {
+      return value;
+      }
+   }
@@ -0,0 +1,102 @@
+package edu.cmu.ri.createlab.terk.robot.finch.trace;
+
+import java.util.concurrent.TimeUnit;
+import edu.cmu.ri.createlab.util.commandexecution.CommandExecutionQueue;
+import edu.cmu.ri.createlab.util.commandexecution.CommandResponse;
+import edu.cmu.ri.createlab.util.commandexecution.CommandStrategy;
+
+/**
+ * <p>
+ * <code>RecordingCommandExecutionQueue</code> wraps a device's command queue so that each command strategy talks to a
+ * recording view of the device (see {@link #createRecordingDeviceIO(Object)}) rather than to the device itself.  The
+ * {@link TraceRecorder} is closed when this queue is shut down.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+abstract class RecordingCommandExecutionQueue<DeviceIOClass, ResponseClass extends CommandResponse> implements CommandExecutionQueue<CommandStrategy<DeviceIOClass, ResponseClass>, ResponseClass>
+   {
+   private final CommandExecutionQueue<CommandStrategy<DeviceIOClass, ResponseClass>, ResponseClass> commandQueue;
+   private final TraceRecorder recorder;
+
+   /** The recording view of the most recently used device, which is almost always the only one.  Guarded by the lock. */
+   private DeviceIOClass deviceIO = null;
+   private DeviceIOClass recordingDeviceIO = null;
+   private final Object lock = new Object();
+
+   RecordingCommandExecutionQueue(final CommandExecutionQueue<CommandStrategy<DeviceIOClass, ResponseClass>, ResponseClass> commandQueue,
+                                  final TraceRecorder recorder)
+      {
+      this.commandQueue = commandQueue;
+      this.recorder = recorder;
+      }
+
+   /** Returns a view of the given device which records everything written to and read from it. */
+   protected abstract DeviceIOClass createRecordingDeviceIO(final DeviceIOClass deviceIO);
+
+   @Override
+   public final ResponseClass execute(final CommandStrategy<DeviceIOClass, ResponseClass> commandStrategy) throws Exception
+      {
+      return commandQueue.execute(new RecordingCommandStrategy(commandStrategy));
+      }
+
+   @Override
+   public final ResponseClass execute(final CommandStrategy<DeviceIOClass, ResponseClass> commandStrategy, final long timeout, final TimeUnit timeoutTimeUnit) throws Exception
+      {
+      return commandQueue.execute(new RecordingCommandStrategy(commandStrategy), timeout, timeoutTimeUnit);
+      }
+
+   @Override
+   public final boolean executeAndReturnStatus(final CommandStrategy<DeviceIOClass, ResponseClass> commandStrategy) throws Exception
+      {
+      return commandQueue.executeAndReturnStatus(new RecordingCommandStrategy(commandStrategy));
+      }
+
+   @Override
+   public final boolean executeAndReturnStatus(final CommandStrategy<DeviceIOClass, ResponseClass> commandStrategy, final long timeout, final TimeUnit timeoutTimeUnit) throws Exception
+      {
+      return commandQueue.executeAndReturnStatus(new RecordingCommandStrategy(commandStrategy), timeout, timeoutTimeUnit);
+      }
+
+   @Override
+   public final void shutdown()
+      {
+      commandQueue.shutdown();
+      recorder.close();
+      }
+
+   private DeviceIOClass getRecordingDeviceIO(final DeviceIOClass deviceIO)
+      {
+      synchronized (lock)
+         {
+         if (this.deviceIO != deviceIO)
+            {
+            this.deviceIO = deviceIO;
+            this.recordingDeviceIO = createRecordingDeviceIO(deviceIO);
+            }
+         return recordingDeviceIO;
+         }
+      }
+
+   private final class RecordingCommandStrategy implements CommandStrategy<DeviceIOClass, ResponseClass>
+      {
+      private final CommandStrategy<DeviceIOClass, ResponseClass> commandStrategy;
+
+      private RecordingCommandStrategy(final CommandStrategy<DeviceIOClass, ResponseClass> commandStrategy)
+         {
+         this.commandStrategy = commandStrategy;
+         }
+
+      public ResponseClass execute(final DeviceIOClass deviceIO) throws Exception
+         {
+         try
+            {
+            return commandStrategy.execute(getRecordingDeviceIO(deviceIO));
+            }
+         finally
+            {
+            recorder.endTransaction();
+            }
+         }
+      }
+   }
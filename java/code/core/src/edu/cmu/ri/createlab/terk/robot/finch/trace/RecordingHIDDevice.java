@@ -0,0 +1,86 @@
+package edu.cmu.ri.createlab.terk.robot.finch.trace;
+
+import edu.cmu.ri.createlab.usb.hid.HIDConnectionException;
+import edu.cmu.ri.createlab.usb.hid.HIDDevice;
+import edu.cmu.ri.createlab.usb.hid.HIDDeviceDescriptor;
+import edu.cmu.ri.createlab.usb.hid.HIDDeviceFailureException;
+import edu.cmu.ri.createlab.usb.hid.HIDDeviceNotConnectedException;
+import edu.cmu.ri.createlab.usb.hid.HIDDeviceNotFoundException;
+import edu.cmu.ri.createlab.usb.hid.HIDWriteStatus;
+
+/**
+ * <p>
+ * <code>RecordingHIDDevice</code> is an {@link HIDDevice} which passes everything through to another, recording the
+ * bytes written and read with a {@link TraceRecorder}.  Each report read replaces the one before it, so that the
+ * response recorded is the report the command strategy accepted (the last one read).
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+final class RecordingHIDDevice implements HIDDevice
+   {
+   private final HIDDevice hidDevice;
+   private final TraceRecorder recorder;
+
+   RecordingHIDDevice(final HIDDevice hidDevice, final TraceRecorder recorder)
+      {
+      this.hidDevice = hidDevice;
+      this.recorder = recorder;
+      }
+
+   public void connect() throws HIDDeviceNotFoundException, HIDConnectionException
+      {
+      hidDevice.connect();
+      }
+
+   public void connectExclusively() throws HIDDeviceNotFoundException, HIDConnectionException
+      {
+      hidDevice.connectExclusively();
+      }
+
+   public String getDeviceFilename()
+      {
+      return hidDevice.getDeviceFilename();
+      }
+
+   public short getVendorID()
+      {
+      return hidDevice.getVendorID();
+      }
+
+   public short getProductID()
+      {
+      return hidDevice.getProductID();
+      }
+
+   public HIDDeviceDescriptor getHidDeviceDescriptor()
+      {
+      return hidDevice.getHidDeviceDescriptor();
+      }
+
+   public byte[] read() throws HIDDeviceNotConnectedException, HIDDeviceFailureException
+      {
+      final byte[] data = hidDevice.read();
+      if (data != null)
+         {
+         recorder.recordRead(data, 0, data.length, true);
+         }
+      return data;
+      }
+
+   public boolean isReportIDIncludedInReadData()
+      {
+      return hidDevice.isReportIDIncludedInReadData();
+      }
+
+   public HIDWriteStatus write(final byte[] data) throws HIDDeviceNotConnectedException, HIDDeviceFailureException
+      {
+      recorder.recordWrite(data, 0, data.length);
+      return hidDevice.write(data);
+      }
+
+   public boolean disconnect()
+      {
+      return hidDevice.disconnect();
+      }
+   }
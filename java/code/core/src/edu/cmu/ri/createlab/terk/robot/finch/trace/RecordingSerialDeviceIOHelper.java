@@ -0,0 +1,147 @@
+package edu.cmu.ri.createlab.terk.robot.finch.trace;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import edu.cmu.ri.createlab.serial.SerialDeviceIOHelper;
+
+/**
+ * <p>
+ * <code>RecordingSerialDeviceIOHelper</code> is a {@link SerialDeviceIOHelper} which passes everything through to
+ * another, recording the bytes written and read (including those written and read through its streams) with a
+ * {@link TraceRecorder}.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+final class RecordingSerialDeviceIOHelper implements SerialDeviceIOHelper
+   {
+   private final SerialDeviceIOHelper ioHelper;
+   private final TraceRecorder recorder;
+   private final InputStream inputStream;
+   private final OutputStream outputStream;
+   private final byte[] singleByte = new byte[1];
+
+   RecordingSerialDeviceIOHelper(final SerialDeviceIOHelper ioHelper, final TraceRecorder recorder)
+      {
+      this.ioHelper = ioHelper;
+      this.recorder = recorder;
+      this.inputStream = new RecordingInputStream(ioHelper.getInputStream());
+      this.outputStream = new RecordingOutputStream(ioHelper.getOutputStream());
+      }
+
+   public int available() throws IOException
+      {
+      return ioHelper.available();
+      }
+
+   public boolean isDataAvailable() throws IOException
+      {
+      return ioHelper.isDataAvailable();
+      }
+
+   public InputStream getInputStream()
+      {
+      return inputStream;
+      }
+
+   public OutputStream getOutputStream()
+      {
+      return outputStream;
+      }
+
+   public int read() throws IOException
+      {
+      final int b = ioHelper.read();
+      recordRead(b);
+      return b;
+      }
+
+   public int read(final byte[] buffer) throws IOException
+      {
+      final int numBytesRead = ioHelper.read(buffer);
+      if (numBytesRead > 0)
+         {
+         recorder.recordRead(buffer, 0, numBytesRead, false);
+         }
+      return numBytesRead;
+      }
+
+   public void write(final byte[] data) throws IOException
+      {
+      recorder.recordWrite(data, 0, data.length);
+      ioHelper.write(data);
+      }
+
+   private void recordRead(final int b)
+      {
+      if (b >= 0)
+         {
+         synchronized (singleByte)
+            {
+            singleByte[0] = (byte)b;
+            recorder.recordRead(singleByte, 0, 1, false);
+            }
+         }
+      }
+
+   private void recordWrite(final int b)
+      {
+      synchronized (singleByte)
+         {
+         singleByte[0] = (byte)b;
+         recorder.recordWrite(singleByte, 0, 1);
+         }
+      }
+
+   private final class RecordingInputStream extends FilterInputStream
+      {
+      private RecordingInputStream(final InputStream inputStream)
+         {
+         super(inputStream);
+         }
+
+      @Override
+      public int read() throws IOException
+         {
+         final int b = super.read();
+         recordRead(b);
+         return b;
+         }
+
+      @Override
+      public int read(final byte[] buffer, final int offset, final int length) throws IOException
+         {
+         final int numBytesRead = super.read(buffer, offset, length);
+         if (numBytesRead > 0)
+            {
+            recorder.recordRead(buffer, offset, numBytesRead, false);
+            }
+         return numBytesRead;
+         }
+      }
+
+   private final class RecordingOutputStream extends FilterOutputStream
+      {
+      private RecordingOutputStream(final OutputStream outputStream)
+         {
+         super(outputStream);
+         }
+
+      @Override
+      public void write(final int b) throws IOException
+         {
+         recordWrite(b);
+         out.write(b);
+         }
+
+      @Override
+      public void write(final byte[] data, final int offset, final int length) throws IOException
+         {
+         recorder.recordWrite(data, offset, length);
+         out.write(data, offset, length);
+         }
+      }
+   }
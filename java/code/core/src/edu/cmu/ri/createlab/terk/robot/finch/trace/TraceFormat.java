@@ -0,0 +1,52 @@
+package edu.cmu.ri.createlab.terk.robot.finch.trace;
+
+/**
+ * <p>
+ * <code>TraceFormat</code> defines the layout of the binary trace files written by {@link TraceRecorder} and read by
+ * {@link TraceReader}.  All values are big-endian.  A trace file consists of a header:
+ * </p>
+ * <pre>
+ *    byte[8]  magic ("FINCHTRC")
+ *    int      version
+ *    byte     device type (0 = HID, 1 = serial)
+ *    byte     flags (bit 0 set if the HID device includes the report ID in the data it reads)
+ *    long     start time (milliseconds since the epoch)
+ * </pre>
+ * <p>
+ * followed by one record per transaction with the device (i.e. a write and the reads which follow it):
+ * </p>
+ * <pre>
+ *    int      length of the rest of the record, in bytes (0 marks the end of the trace)
+ *    long     send time (System.nanoTime() just before the write)
+ *    long     receive time (System.nanoTime() just after the last read)
+ *    short    command length
+ *    byte[]   command
+ *    short    response length
+ *    byte[]   response
+ * </pre>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+final class TraceFormat
+   {
+   static final byte[] MAGIC = new byte[]{'F', 'I', 'N', 'C', 'H', 'T', 'R', 'C'};
+   static final int VERSION = 1;
+
+   static final byte DEVICE_TYPE_HID = 0;
+   static final byte DEVICE_TYPE_SERIAL = 1;
+
+   static final byte FLAG_REPORT_ID_INCLUDED_IN_READ_DATA = 1;
+
+   static final int HEADER_SIZE = MAGIC.length + 4 + 1 + 1 + 8;
+
+   /** The size of a record, excluding its length, command, and response. */
+   static final int RECORD_OVERHEAD_SIZE = 8 + 8 + 2 + 2;
+
+   /** Commands and responses longer than this are truncated. */
+   static final int MAX_DATA_LENGTH = Short.MAX_VALUE;
+
+   private TraceFormat()
+      {
+      // private to prevent instantiation
+      }
+   }
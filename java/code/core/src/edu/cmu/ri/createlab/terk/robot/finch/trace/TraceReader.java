@@ -0,0 +1,106 @@
+package edu.cmu.ri.createlab.terk.robot.finch.trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * <code>TraceReader</code> reads the {@link TraceRecord}s from a trace file written by {@link TraceRecorder}.  The
+ * whole file is memory-mapped, so traces are limited to 2 GB.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class TraceReader
+   {
+   private final RandomAccessFile file;
+   private final MappedByteBuffer buffer;
+   private final boolean isHID;
+   private final boolean isReportIDIncludedInReadData;
+   private final long startTimeMillis;
+
+   /**
+    * Opens the given trace file and reads its header.
+    *
+    * @throws IOException if the file can't be read, or isn't a trace file
+    */
+   public TraceReader(final File traceFile) throws IOException
+      {
+      file = new RandomAccessFile(traceFile, "r");
+      try
+         {
+         final long length = file.length();
+         if (length < TraceFormat.HEADER_SIZE || length > Integer.MAX_VALUE)
+            {
+            throw new IOException("The file [" + traceFile + "] is not a finch trace file");
+            }
+         buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+
+         final byte[] magic = new byte[TraceFormat.MAGIC.length];
+         buffer.get(magic);
+         final int version = buffer.getInt();
+         if (!Arrays.equals(magic, TraceFormat.MAGIC) || version != TraceFormat.VERSION)
+            {
+            throw new IOException("The file [" + traceFile + "] is not a version " + TraceFormat.VERSION + " finch trace file");
+            }
+         isHID = buffer.get() == TraceFormat.DEVICE_TYPE_HID;
+         isReportIDIncludedInReadData = (buffer.get() & TraceFormat.FLAG_REPORT_ID_INCLUDED_IN_READ_DATA) != 0;
+         startTimeMillis = buffer.getLong();
+         }
+      catch (IOException e)
+         {
+         file.close();
+         throw e;
+         }
+      }
+
+   /** Returns <code>true</code> if the trace was recorded from an HID finch, <code>false</code> if from a serial one. */
+   public boolean isHID()
+      {
+      return isHID;
+      }
+
+   /** Returns <code>true</code> if the recorded HID device included the report ID in the data it read. */
+   public boolean isReportIDIncludedInReadData()
+      {
+      return isReportIDIncludedInReadData;
+      }
+
+   /** Returns the time at which recording started, in milliseconds since the epoch. */
+   public long getStartTimeMillis()
+      {
+      return startTimeMillis;
+      }
+
+   /** Returns the next record, or <code>null</code> if there are no more. */
+   public TraceRecord next()
+      {
+      if (buffer.remaining() < 4)
+         {
+         return null;
+         }
+      final int recordLength = buffer.getInt();
+      if (recordLength < TraceFormat.RECORD_OVERHEAD_SIZE || recordLength > buffer.remaining())
+         {
+         // either the end marker, or a record cut short by a crash
+         return null;
+         }
+
+      final long sendTime = buffer.getLong();
+      final long receiveTime = buffer.getLong();
+      final byte[] command = new byte[buffer.getShort()];
+      buffer.get(command);
+      final byte[] response = new byte[buffer.getShort()];
+      buffer.get(response);
+      return new TraceRecord(sendTime, receiveTime, command, response);
+      }
+
+   public void close() throws IOException
+      {
+      file.close();
+      }
+   }
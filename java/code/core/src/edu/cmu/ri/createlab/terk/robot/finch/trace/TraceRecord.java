@@ -0,0 +1,57 @@
+package edu.cmu.ri.createlab.terk.robot.finch.trace;
+
+/**
+ * <p>
+ * <code>TraceRecord</code> is a single transaction with a finch read from a trace file: the bytes written to the
+ * device, the bytes read back, and the {@link System#nanoTime()} stamps taken just before the write and just after the
+ * last read.
+ * </p>
+ * <p>
+ * For HID finches, the response is the report holding the reply (whose last byte is the command ID).  For serial
+ * finches, the response is every byte read, starting with the echo of the command.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class TraceRecord
+   {
+   private final long sendTime;
+   private final long receiveTime;
+   private final byte[] command;
+   private final byte[] response;
+
+   TraceRecord(final long sendTime, final long receiveTime, final byte[] command, final byte[] response)
+      {
+      this.sendTime = sendTime;
+      this.receiveTime = receiveTime;
+      this.command = command;
+      this.response = response;
+      }
+
+   public long getSendTime()
+      {
+      return sendTime;
+      }
+
+   public long getReceiveTime()
+      {
+      return receiveTime;
+      }
+
+   public long getRoundTripTimeNanos()
+      {
+      return receiveTime - sendTime;
+      }
+
+   /** Returns the bytes written to the device.  The returned array must not be modified. */
+   public byte[] getCommand()
+      {
+      return command;
+      }
+
+   /** Returns the bytes read from the device, which may be empty.  The returned array must not be modified. */
+   public byte[] getResponse()
+      {
+      return response;
+      }
+   }
@@ -0,0 +1,269 @@
+package edu.cmu.ri.createlab.terk.robot.finch.trace;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+import edu.cmu.ri.createlab.serial.SerialDeviceCommandResponse;
+import edu.cmu.ri.createlab.serial.SerialDeviceIOHelper;
+import edu.cmu.ri.createlab.usb.hid.HIDCommandResponse;
+import edu.cmu.ri.createlab.usb.hid.HIDDevice;
+import edu.cmu.ri.createlab.util.commandexecution.CommandExecutionQueue;
+import edu.cmu.ri.createlab.util.commandexecution.CommandStrategy;
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * <code>TraceRecorder</code> records every transaction with a finch (the bytes written, the bytes read back, and
+ * {@link System#nanoTime()} stamps for both) to a compact, memory-mapped binary trace file, which can later be fed back
+ * through a stand-in device with a {@link TraceReplayer}.  Recording is done by wrapping the finch's HID or serial
+ * command queue (see {@link #createRecordingHIDCommandQueue(CommandExecutionQueue, HIDDevice, File)} and
+ * {@link #createRecordingSerialCommandQueue(CommandExecutionQueue, File)}), and the trace file is closed when the
+ * wrapped queue is shut down.
+ * </p>
+ * <p>
+ * The finch controllers record automatically when the {@link #TRACE_DIRECTORY_SYSTEM_PROPERTY} system property names
+ * a directory, writing one trace file per controller.
+ * </p>
+ * <p>
+ * Recording never interferes with the commands themselves: if the trace can't be written (e.g. because the disk is
+ * full), the error is logged and recording simply stops.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class TraceRecorder
+   {
+   private static final Logger LOG = Logger.getLogger(TraceRecorder.class);
+
+   /** The system property naming the directory in which the finch controllers should record trace files. */
+   public static final String TRACE_DIRECTORY_SYSTEM_PROPERTY = "finch.trace.dir";
+
+   private static final AtomicInteger NEXT_TRACE_FILE_ID = new AtomicInteger(0);
+
+   /**
+    * Returns a command queue which records every transaction to the given <code>traceFile</code> and then passes it on
+    * to the given HID <code>commandQueue</code>.
+    *
+    * @param commandQueue the queue to wrap
+    * @param hidDevice the device used by the queue, whose report ID setting is saved in the trace
+    * @param traceFile the file to write, which is replaced if it already exists
+    *
+    * @throws IOException if the trace file can't be created
+    */
+   public static CommandExecutionQueue<CommandStrategy<HIDDevice, HIDCommandResponse>, HIDCommandResponse> createRecordingHIDCommandQueue(final CommandExecutionQueue<CommandStrategy<HIDDevice, HIDCommandResponse>, HIDCommandResponse> commandQueue,
+                                                                                                                                          final HIDDevice hidDevice,
+                                                                                                                                          final File traceFile) throws IOException
+      {
+      final TraceRecorder recorder = new TraceRecorder(new TraceWriter(traceFile, TraceFormat.DEVICE_TYPE_HID, hidDevice.isReportIDIncludedInReadData()));
+      return new RecordingCommandExecutionQueue<HIDDevice, HIDCommandResponse>(commandQueue, recorder)
+      {
+      protected HIDDevice createRecordingDeviceIO(final HIDDevice deviceIO)
+         {
+         return new RecordingHIDDevice(deviceIO, recorder);
+         }
+      };
+      }
+
+   /**
+    * Returns a command queue which records every transaction to the given <code>traceFile</code> and then passes it on
+    * to the given serial <code>commandQueue</code>.
+    *
+    * @throws IOException if the trace file can't be created
+    */
+   public static CommandExecutionQueue<CommandStrategy<SerialDeviceIOHelper, SerialDeviceCommandResponse>, SerialDeviceCommandResponse> createRecordingSerialCommandQueue(final CommandExecutionQueue<CommandStrategy<SerialDeviceIOHelper, SerialDeviceCommandResponse>, SerialDeviceCommandResponse> commandQueue,
+                                                                                                                                                                         final File traceFile) throws IOException
+      {
+      final TraceRecorder recorder = new TraceRecorder(new TraceWriter(traceFile, TraceFormat.DEVICE_TYPE_SERIAL, false));
+      return new RecordingCommandExecutionQueue<SerialDeviceIOHelper, SerialDeviceCommandResponse>(commandQueue, recorder)
+      {
+      protected SerialDeviceIOHelper createRecordingDeviceIO(final SerialDeviceIOHelper deviceIO)
+         {
+         return new RecordingSerialDeviceIOHelper(deviceIO, recorder);
+         }
+      };
+      }
+
+   /**
+    * Wraps the given HID command queue with a recording one if the {@link #TRACE_DIRECTORY_SYSTEM_PROPERTY} system
+    * property is set, otherwise (or if the trace file can't be created) simply returns the given queue.
+    */
+   public static CommandExecutionQueue<CommandStrategy<HIDDevice, HIDCommandResponse>, HIDCommandResponse> wrapHIDCommandQueueIfEnabled(final CommandExecutionQueue<CommandStrategy<HIDDevice, HIDCommandResponse>, HIDCommandResponse> commandQueue,
+                                                                                                                                        final HIDDevice hidDevice)
+      {
+      final File traceFile = createTraceFileFromSystemProperty("hid");
+      if (traceFile != null)
+         {
+         try
+            {
+            final CommandExecutionQueue<CommandStrategy<HIDDevice, HIDCommandResponse>, HIDCommandResponse> recordingCommandQueue = createRecordingHIDCommandQueue(commandQueue, hidDevice, traceFile);
+            LOG.info("TraceRecorder.wrapHIDCommandQueueIfEnabled(): recording trace to [" + traceFile + "]");
+            return recordingCommandQueue;
+            }
+         catch (IOException e)
+            {
+            LOG.error("TraceRecorder.wrapHIDCommandQueueIfEnabled(): IOException while trying to create the trace file [" + traceFile + "], so the trace won't be recorded", e);
+            }
+         }
+      return commandQueue;
+      }
+
+   /**
+    * Wraps the given serial command queue with a recording one if the {@link #TRACE_DIRECTORY_SYSTEM_PROPERTY} system
+    * property is set, otherwise (or if the trace file can't be created) simply returns the given queue.
+    */
+   public static CommandExecutionQueue<CommandStrategy<SerialDeviceIOHelper, SerialDeviceCommandResponse>, SerialDeviceCommandResponse> wrapSerialCommandQueueIfEnabled(final CommandExecutionQueue<CommandStrategy<SerialDeviceIOHelper, SerialDeviceCommandResponse>, SerialDeviceCommandResponse> commandQueue)
+      {
+      final File traceFile = createTraceFileFromSystemProperty("serial");
+      if (traceFile != null)
+         {
+         try
+            {
+            final CommandExecutionQueue<CommandStrategy<SerialDeviceIOHelper, SerialDeviceCommandResponse>, SerialDeviceCommandResponse> recordingCommandQueue = createRecordingSerialCommandQueue(commandQueue, traceFile);
+            LOG.info("TraceRecorder.wrapSerialCommandQueueIfEnabled(): recording trace to [" + traceFile + "]");
+            return recordingCommandQueue;
+            }
+         catch (IOException e)
+            {
+            LOG.error("TraceRecorder.wrapSerialCommandQueueIfEnabled(): IOException while trying to create the trace file [" + traceFile + "], so the trace won't be recorded", e);
+            }
+         }
+      return commandQueue;
+      }
+
+   /** Returns a new, unique trace file in the directory named by the system property, or <code>null</code> if unset. */
+   private static File createTraceFileFromSystemProperty(final String deviceType)
+      {
+      final String directoryName = System.getProperty(TRACE_DIRECTORY_SYSTEM_PROPERTY);
+      if (directoryName == null || directoryName.length() == 0)
+         {
+         return null;
+         }
+
+      final File directory = new File(directoryName);
+      if (!directory.isDirectory() && !directory.mkdirs())
+         {
+         LOG.error("TraceRecorder.createTraceFileFromSystemProperty(): failed to create the trace directory [" + directory + "], so the trace won't be recorded");
+         return null;
+         }
+
+      final String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+      return new File(directory, "finch-" + deviceType + "-" + timestamp + "-" + NEXT_TRACE_FILE_ID.getAndIncrement() + ".trace");
+      }
+
+   private final TraceWriter writer;
+   private final ExposedByteArrayOutputStream command = new ExposedByteArrayOutputStream();
+   private final ExposedByteArrayOutputStream response = new ExposedByteArrayOutputStream();
+   private final Object lock = new Object();
+
+   /** The state of the current transaction.  Guarded by the lock. */
+   private boolean isTransactionOpen = false;
+   private long sendTime;
+   private long receiveTime;
+   private boolean isClosed = false;
+
+   private TraceRecorder(final TraceWriter writer)
+      {
+      this.writer = writer;
+      }
+
+   /** Records bytes written to the device.  A write following a read starts a new transaction. */
+   void recordWrite(final byte[] data, final int offset, final int length)
+      {
+      synchronized (lock)
+         {
+         if (isTransactionOpen && response.size() > 0)
+            {
+            endTransaction();
+            }
+         if (!isTransactionOpen)
+            {
+            isTransactionOpen = true;
+            sendTime = System.nanoTime();
+            receiveTime = sendTime;
+            }
+         command.write(data, offset, length);
+         }
+      }
+
+   /**
+    * Records bytes read from the device.  If <code>willReplace</code> is <code>true</code>, the bytes replace any
+    * already read in this transaction (e.g. a stale HID report), otherwise they're appended.  Reads outside of a
+    * transaction are ignored.
+    */
+   void recordRead(final byte[] data, final int offset, final int length, final boolean willReplace)
+      {
+      synchronized (lock)
+         {
+         if (isTransactionOpen)
+            {
+            if (willReplace)
+               {
+               response.reset();
+               }
+            response.write(data, offset, length);
+            receiveTime = System.nanoTime();
+            }
+         }
+      }
+
+   /** Writes the current transaction (if any) to the trace. */
+   void endTransaction()
+      {
+      synchronized (lock)
+         {
+         if (isTransactionOpen)
+            {
+            isTransactionOpen = false;
+            if (!isClosed)
+               {
+               try
+                  {
+                  writer.write(sendTime, receiveTime, command.getBuffer(), command.size(), response.getBuffer(), response.size());
+                  }
+               catch (Exception e)
+                  {
+                  LOG.error("TraceRecorder.endTransaction(): Exception while trying to write to the trace, so recording will stop", e);
+                  close();
+                  }
+               }
+            command.reset();
+            response.reset();
+            }
+         }
+      }
+
+   void close()
+      {
+      synchronized (lock)
+         {
+         if (!isClosed)
+            {
+            isClosed = true;
+            try
+               {
+               writer.close();
+               if (LOG.isInfoEnabled())
+                  {
+                  LOG.info("TraceRecorder.close(): recorded [" + writer.getRecordCount() + "] transactions");
+                  }
+               }
+            catch (IOException e)
+               {
+               LOG.error("TraceRecorder.close(): IOException while trying to close the trace", e);
+               }
+            }
+         }
+      }
+
+   /** A {@link ByteArrayOutputStream} whose buffer can be written to the trace without copying it. */
+   private static final class ExposedByteArrayOutputStream extends ByteArrayOutputStream
+      {
+      private byte[] getBuffer()
+         {
+         return buf;
+         }
+      }
+   }
@@ -0,0 +1,378 @@
+package edu.cmu.ri.createlab.terk.robot.finch.trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+import edu.cmu.ri.createlab.serial.CreateLabSerialDeviceNoReturnValueCommandStrategy;
+import edu.cmu.ri.createlab.serial.CreateLabSerialDeviceReturnValueCommandStrategy;
+import edu.cmu.ri.createlab.serial.SerialDeviceCommandResponse;
+import edu.cmu.ri.createlab.serial.SerialDeviceIOHelper;
+import edu.cmu.ri.createlab.terk.robot.finch.commandexecution.LatencyHistogram;
+import edu.cmu.ri.createlab.terk.robot.finch.simulator.EmulatedHIDDevice;
+import edu.cmu.ri.createlab.terk.robot.finch.simulator.EmulatedSerialDeviceCommandExecutionQueue;
+import edu.cmu.ri.createlab.terk.robot.finch.simulator.FinchFirmwareEmulator;
+import edu.cmu.ri.createlab.terk.robot.finch.simulator.FinchSimulator;
+import edu.cmu.ri.createlab.usb.hid.CreateLabHIDCommandStrategy;
+import edu.cmu.ri.createlab.usb.hid.HIDCommandExecutionQueue;
+import edu.cmu.ri.createlab.usb.hid.HIDCommandResponse;
+import edu.cmu.ri.createlab.usb.hid.HIDDevice;
+import edu.cmu.ri.createlab.util.commandexecution.CommandExecutionQueue;
+import edu.cmu.ri.createlab.util.commandexecution.CommandStrategy;
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * <code>TraceReplayer</code> replays a trace written by {@link TraceRecorder} against a stand-in device (such as the
+ * {@link FinchFirmwareEmulator}, or a real finch), re-sending each recorded command and reporting the round trip
+ * times, failures, and responses which differed from the recorded ones.  Commands are sent with the same spacing as
+ * when they were recorded, scaled by a speed factor, or back to back if the speed factor is zero.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+public final class TraceReplayer
+   {
+   private static final Logger LOG = Logger.getLogger(TraceReplayer.class);
+
+   /**
+    * Replays the given trace against the {@link FinchFirmwareEmulator} and prints the result.  Usage:
+    * <code>TraceReplayer &lt;trace file&gt; [speed factor]</code>
+    */
+   public static void main(final String[] args) throws IOException
+      {
+      if (args.length < 1)
+         {
+         System.err.println("Usage: TraceReplayer <trace file> [speed factor (default 1.0, 0 for as fast as possible)]");
+         System.exit(1);
+         }
+
+      final File traceFile = new File(args[0]);
+      final double speedFactor = (args.length > 1) ? Double.parseDouble(args[1]) : 1.0;
+      final TraceReplayer replayer = new TraceReplayer(traceFile, speedFactor);
+      final FinchFirmwareEmulator emulator = new FinchFirmwareEmulator(new FinchSimulator(false, FinchSimulator.DEFAULT_ARENA_SIZE_IN_CM));
+
+      final TraceReader reader = new TraceReader(traceFile);
+      final boolean isHID = reader.isHID();
+      reader.close();
+
+      final Result result;
+      if (isHID)
+         {
+         final EmulatedHIDDevice hidDevice = new EmulatedHIDDevice(emulator);
+         hidDevice.connect();
+         result = replayer.replay(hidDevice);
+         }
+      else
+         {
+         result = replayer.replay(new EmulatedSerialDeviceCommandExecutionQueue(emulator));
+         }
+      System.out.println(result);
+      }
+
+   private final File traceFile;
+   private final double speedFactor;
+
+   /**
+    * Creates a replayer for the given trace file.
+    *
+    * @param traceFile the trace to replay
+    * @param speedFactor how much faster than recorded to replay the trace (e.g. 2.0 for twice as fast), or zero (or
+    * less) to send the commands back to back
+    */
+   public TraceReplayer(final File traceFile, final double speedFactor)
+      {
+      this.traceFile = traceFile;
+      this.speedFactor = speedFactor;
+      }
+
+   /**
+    * Replays an HID trace against the given (connected) HID device, which is disconnected once the replay is done.
+    *
+    * @throws IOException if the trace can't be read
+    * @throws IllegalArgumentException if the trace wasn't recorded from an HID finch
+    */
+   public Result replay(final HIDDevice hidDevice) throws IOException
+      {
+      final TraceReader reader = new TraceReader(traceFile);
+      final HIDCommandExecutionQueue commandQueue = new HIDCommandExecutionQueue(hidDevice);
+      try
+         {
+         if (!reader.isHID())
+            {
+            throw new IllegalArgumentException("The trace [" + traceFile + "] was not recorded from an HID finch");
+            }
+         final int numberOfIgnoredBytes = reader.isReportIDIncludedInReadData() ? 2 : 1;
+         final int startingCopyPosition = reader.isReportIDIncludedInReadData() ? 1 : 0;
+         return replay(reader,
+                       new RecordExecutor()
+                       {
+                       public Boolean execute(final TraceRecord record) throws Exception
+                          {
+                          final byte[] recordedReport = record.getResponse();
+                          final byte[] expectedData = (recordedReport.length < numberOfIgnoredBytes) ? new byte[0] : Arrays.copyOfRange(recordedReport, startingCopyPosition, startingCopyPosition + recordedReport.length - numberOfIgnoredBytes);
+                          final HIDCommandResponse response = commandQueue.execute(new ReplayHIDCommandStrategy(record.getCommand(), expectedData.length));
+                          if (response == null || !response.wasSuccessful())
+                             {
+                             return null;
+                             }
+                          return Arrays.equals(expectedData, response.getData());
+                          }
+                       });
+         }
+      finally
+         {
+         commandQueue.shutdown();
+         reader.close();
+         }
+      }
+
+   /**
+    * Replays a serial trace against the given serial command queue, which is shut down once the replay is done.
+    *
+    * @throws IOException if the trace can't be read
+    * @throws IllegalArgumentException if the trace wasn't recorded from a serial finch
+    */
+   public Result replay(final CommandExecutionQueue<CommandStrategy<SerialDeviceIOHelper, SerialDeviceCommandResponse>, SerialDeviceCommandResponse> commandQueue) throws IOException
+      {
+      final TraceReader reader = new TraceReader(traceFile);
+      try
+         {
+         if (reader.isHID())
+            {
+            throw new IllegalArgumentException("The trace [" + traceFile + "] was not recorded from a serial finch");
+            }
+         return replay(reader,
+                       new RecordExecutor()
+                       {
+                       public Boolean execute(final TraceRecord record) throws Exception
+                          {
+                          // the recorded response begins with the echo of the command
+                          final byte[] command = record.getCommand();
+                          final byte[] recordedResponse = record.getResponse();
+                          final byte[] expectedData = (recordedResponse.length <= command.length) ? new byte[0] : Arrays.copyOfRange(recordedResponse, command.length, recordedResponse.length);
+                          final CommandStrategy<SerialDeviceIOHelper, SerialDeviceCommandResponse> commandStrategy;
+                          if (expectedData.length == 0)
+                             {
+                             commandStrategy = new ReplaySerialNoReturnValueCommandStrategy(command);
+                             }
+                          else
+                             {
+                             commandStrategy = new ReplaySerialReturnValueCommandStrategy(command, expectedData.length);
+                             }
+                          final SerialDeviceCommandResponse response = commandQueue.execute(commandStrategy);
+                          if (response == null || !response.wasSuccessful())
+                             {
+                             return null;
+                             }
+                          return expectedData.length == 0 || Arrays.equals(expectedData, response.getData());
+                          }
+                       });
+         }
+      finally
+         {
+         commandQueue.shutdown();
+         reader.close();
+         }
+      }
+
+   private Result replay(final TraceReader reader, final RecordExecutor executor)
+      {
+      final Result result = new Result();
+      final long replayStartTime = System.nanoTime();
+      long firstSendTime = 0;
+      long lastReceiveTime = 0;
+
+      TraceRecord record;
+      while ((record = reader.next()) != null)
+         {
+         if (result.replayedCount == 0)
+            {
+            firstSendTime = record.getSendTime();
+            }
+         lastReceiveTime = record.getReceiveTime();
+
+         if (speedFactor > 0)
+            {
+            final long targetTime = replayStartTime + (long)((record.getSendTime() - firstSendTime) / speedFactor);
+            long remainingTime;
+            while ((remainingTime = targetTime - System.nanoTime()) > 0)
+               {
+               LockSupport.parkNanos(remainingTime);
+               }
+            }
+
+         final long sendTime = System.nanoTime();
+         Boolean didMatch;
+         try
+            {
+            didMatch = executor.execute(record);
+            }
+         catch (Exception e)
+            {
+            LOG.error("TraceReplayer.replay(): Exception while trying to replay record [" + result.replayedCount + "]", e);
+            didMatch = null;
+            }
+         result.roundTripTimes.record(System.nanoTime() - sendTime);
+         result.replayedCount++;
+         if (didMatch == null)
+            {
+            result.failureCount++;
+            }
+         else if (!didMatch)
+            {
+            result.mismatchCount++;
+            }
+         }
+
+      result.elapsedTimeNanos = System.nanoTime() - replayStartTime;
+      result.recordedDurationNanos = lastReceiveTime - firstSendTime;
+      return result;
+      }
+
+   private interface RecordExecutor
+      {
+      /**
+       * Sends the record's command and returns whether the response matched the recorded one, or <code>null</code> if
+       * the command failed.
+       */
+      Boolean execute(final TraceRecord record) throws Exception;
+      }
+
+   /** The outcome of replaying a trace. */
+   public static final class Result
+      {
+      private final LatencyHistogram roundTripTimes = new LatencyHistogram();
+      private int replayedCount = 0;
+      private int failureCount = 0;
+      private int mismatchCount = 0;
+      private long elapsedTimeNanos = 0;
+      private long recordedDurationNanos = 0;
+
+      private Result()
+         {
+         }
+
+      /** Returns the number of recorded commands which were sent. */
+      public int getReplayedCount()
+         {
+         return replayedCount;
+         }
+
+      /** Returns the number of commands which failed or went unanswered. */
+      public int getFailureCount()
+         {
+         return failureCount;
+         }
+
+      /**
+       * Returns the number of commands whose response differed from the recorded one.  Sensor readings will naturally
+       * differ when replaying against anything but the original finch, so this is mostly useful for spotting protocol
+       * differences.
+       */
+      public int getMismatchCount()
+         {
+         return mismatchCount;
+         }
+
+      /** Returns how long the replay took, in nanoseconds. */
+      public long getElapsedTimeNanos()
+         {
+         return elapsedTimeNanos;
+         }
+
+      /** Returns how long the recorded session took, in nanoseconds. */
+      public long getRecordedDurationNanos()
+         {
+         return recordedDurationNanos;
+         }
+
+      /** Returns the number of commands sent per second during the replay. */
+      public double getCommandsPerSecond()
+         {
+         return (elapsedTimeNanos > 0) ? replayedCount * 1000000000.0 / elapsedTimeNanos : 0;
+         }
+
+      /** Returns the distribution of the commands' round trip times during the replay. */
+      public LatencyHistogram getRoundTripTimeHistogram()
+         {
+         return roundTripTimes;
+         }
+
+      @Override
+      public String toString()
+         {
+         return "Replayed [" + replayedCount + "] commands in [" + (elapsedTimeNanos / 1000000) + "] ms " +
+                "(recorded in [" + (recordedDurationNanos / 1000000) + "] ms), " +
+                "[" + String.format("%.1f", getCommandsPerSecond()) + "] commands/s, " +
+                "failures=[" + failureCount + "], mismatches=[" + mismatchCount + "], " +
+                "round trip us: p50=[" + (roundTripTimes.getMedianNanos() / 1000) + "] " +
+                "p99=[" + (roundTripTimes.get99thPercentileNanos() / 1000) + "] " +
+                "max=[" + (roundTripTimes.getMaxNanos() / 1000) + "]";
+         }
+      }
+
+   private static final class ReplayHIDCommandStrategy extends CreateLabHIDCommandStrategy
+      {
+      private final byte[] command;
+      private final int sizeOfExpectedResponse;
+
+      private ReplayHIDCommandStrategy(final byte[] command, final int sizeOfExpectedResponse)
+         {
+         this.command = command.clone();
+         this.sizeOfExpectedResponse = sizeOfExpectedResponse;
+         }
+
+      protected byte[] getCommand()
+         {
+         return command.clone();
+         }
+
+      protected int getSizeOfExpectedResponse()
+         {
+         return sizeOfExpectedResponse;
+         }
+      }
+
+   private static final class ReplaySerialReturnValueCommandStrategy extends CreateLabSerialDeviceReturnValueCommandStrategy<byte[]>
+      {
+      private final byte[] command;
+      private final int sizeOfExpectedResponse;
+
+      private ReplaySerialReturnValueCommandStrategy(final byte[] command, final int sizeOfExpectedResponse)
+         {
+         this.command = command;
+         this.sizeOfExpectedResponse = sizeOfExpectedResponse;
+         }
+
+      protected int getSizeOfExpectedResponse()
+         {
+         return sizeOfExpectedResponse;
+         }
+
+      protected byte[] getCommand()
+         {
+         return command.clone();
+         }
+
+      public byte[] convertResponse(final SerialDeviceCommandResponse response)
+         {
+         return (response != null && response.wasSuccessful()) ? response.getData() : null;
+         }
+      }
+
+   private static final class ReplaySerialNoReturnValueCommandStrategy extends CreateLabSerialDeviceNoReturnValueCommandStrategy
+      {
+      private final byte[] command;
+
+      private ReplaySerialNoReturnValueCommandStrategy(final byte[] command)
+         {
+         this.command = command;
+         }
+
+      protected byte[] getCommand()
+         {
+         return command.clone();
+         }
+      }
+   }
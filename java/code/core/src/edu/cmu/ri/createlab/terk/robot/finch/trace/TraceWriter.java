@@ -0,0 +1,112 @@
+package edu.cmu.ri.createlab.terk.robot.finch.trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * <code>TraceWriter</code> appends records to a trace file (see {@link TraceFormat}) through a memory-mapped window,
+ * so that writing a record is just a few puts into memory.  When the window fills, the next window is mapped.  Since
+ * the unwritten part of a window is zero-filled, the trace is readable up to the last complete record even if the
+ * process dies without closing the writer.  Upon {@link #close()}, the file is truncated to the data actually written.
+ * </p>
+ * <p>
+ * <code>TraceWriter</code> is not thread safe.
+ * </p>
+ *
+ * @author Chris Bartley (bartley@cmu.edu)
+ */
+final class TraceWriter
+   {
+   private static final Logger LOG = Logger.getLogger(TraceWriter.class);
+
+   /** The size of each memory-mapped window into the file. */
+   private static final int WINDOW_SIZE = 4 * 1024 * 1024;
+
+   private final RandomAccessFile file;
+   private final FileChannel channel;
+   private MappedByteBuffer window;
+   private long windowPosition;
+   private long recordCount = 0;
+
+   TraceWriter(final File traceFile, final byte deviceType, final boolean isReportIDIncludedInReadData) throws IOException
+      {
+      file = new RandomAccessFile(traceFile, "rw");
+      file.setLength(0);
+      channel = file.getChannel();
+      mapWindow(0, TraceFormat.HEADER_SIZE);
+
+      window.put(TraceFormat.MAGIC);
+      window.putInt(TraceFormat.VERSION);
+      window.put(deviceType);
+      window.put(isReportIDIncludedInReadData ? TraceFormat.FLAG_REPORT_ID_INCLUDED_IN_READ_DATA : 0);
+      window.putLong(System.currentTimeMillis());
+      }
+
+   /**
+    * Appends a record.  Commands and responses longer than {@link TraceFormat#MAX_DATA_LENGTH} are truncated.
+    */
+   void write(final long sendTime,
+              final long receiveTime,
+              final byte[] command,
+              final int commandLength,
+              final byte[] response,
+              final int responseLength) throws IOException
+      {
+      final int cleanCommandLength = Math.min(commandLength, TraceFormat.MAX_DATA_LENGTH);
+      final int cleanResponseLength = Math.min(responseLength, TraceFormat.MAX_DATA_LENGTH);
+      final int recordLength = TraceFormat.RECORD_OVERHEAD_SIZE + cleanCommandLength + cleanResponseLength;
+
+      // make sure there's room for the record, its length, and the zero length which marks the end of the trace
+      ensureRemaining(4 + recordLength + 4);
+
+      window.putInt(recordLength);
+      window.putLong(sendTime);
+      window.putLong(receiveTime);
+      window.putShort((short)cleanCommandLength);
+      window.put(command, 0, cleanCommandLength);
+      window.putShort((short)cleanResponseLength);
+      window.put(response, 0, cleanResponseLength);
+      recordCount++;
+      }
+
+   long getRecordCount()
+      {
+      return recordCount;
+      }
+
+   /** Flushes the trace to disk, truncates the file to the data written, and closes it. */
+   void close() throws IOException
+      {
+      final long length = windowPosition + window.position();
+      window.force();
+      try
+         {
+         channel.truncate(length);
+         }
+      catch (IOException e)
+         {
+         // some platforms won't truncate a file which is still mapped, in which case the zero-filled tail is harmless
+         LOG.debug("TraceWriter.close(): IOException while trying to truncate the trace file", e);
+         }
+      file.close();
+      }
+
+   private void ensureRemaining(final int numBytes) throws IOException
+      {
+      if (window.remaining() < numBytes)
+         {
+         mapWindow(windowPosition + window.position(), numBytes);
+         }
+      }
+
+   private void mapWindow(final long position, final int minimumSize) throws IOException
+      {
+      window = channel.map(FileChannel.MapMode.READ_WRITE, position, Math.max(WINDOW_SIZE, minimumSize));
+      windowPosition = position;
+      }
+   }